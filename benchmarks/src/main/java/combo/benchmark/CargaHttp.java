@@ -0,0 +1,131 @@
+package combo.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * gerador de carga para o modo servidor (Principal server): N clientes
+ * concorrentes, cada um em sua thread com conexão keep-alive, repetindo GET
+ * na URL durante o tempo pedido. Mede requisições por segundo e os
+ * percentis de latência depois do aquecimento.
+ *
+ * uso: CargaHttp url [clientes] [segundos] [aquecimento] [--etag] [--gzip]
+ */
+public class CargaHttp {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("uso: CargaHttp url [clientes=1000] [segundos=30] [aquecimento=5] [--etag] [--gzip]");
+            return;
+        }
+        final URL url = new URL(args[0]);
+        final int clientes = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        final int segundos = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        final int aquecimento = args.length > 3 && !args[3].startsWith("--") ? Integer.parseInt(args[3]) : 5;
+        final boolean etag = Arrays.asList(args).contains("--etag");
+        final boolean gzip = Arrays.asList(args).contains("--gzip");
+
+        // sem isto o HttpURLConnection guarda só 5 conexões keep-alive por destino
+        System.setProperty("http.maxConnections", String.valueOf(clientes));
+
+        final long inicioMedicao = System.nanoTime() + aquecimento * 1000000000L;
+        final long fim = inicioMedicao + segundos * 1000000000L;
+        final long[][] latencias = new long[clientes][];
+        final int[] quantidades = new int[clientes];
+        final AtomicLong erros = new AtomicLong();
+        final AtomicLong naoModificadas = new AtomicLong();
+        final CountDownLatch terminados = new CountDownLatch(clientes);
+
+        for (int i = 0; i < clientes; i++) {
+            final int cliente = i;
+            Thread t = new Thread(null, () -> {
+                long[] amostras = new long[1024];
+                int n = 0;
+                String ultimaEtag = null;
+                byte[] buffer = new byte[16 * 1024];
+                try {
+                    while (true) {
+                        long antes = System.nanoTime();
+                        if (antes >= fim) {
+                            break;
+                        }
+                        int status = -1;
+                        try {
+                            HttpURLConnection conexao = (HttpURLConnection) url.openConnection();
+                            if (gzip) {
+                                conexao.setRequestProperty("Accept-Encoding", "gzip");
+                            }
+                            if (etag && ultimaEtag != null) {
+                                conexao.setRequestProperty("If-None-Match", ultimaEtag);
+                            }
+                            status = conexao.getResponseCode();
+                            ultimaEtag = conexao.getHeaderField("ETag");
+                            // lê tudo para a conexão voltar ao keep-alive
+                            InputStream corpo = status >= 400 ? conexao.getErrorStream() : conexao.getInputStream();
+                            if (corpo != null) {
+                                while (corpo.read(buffer) >= 0) {
+                                    // descarta
+                                }
+                                corpo.close();
+                            }
+                        } catch (IOException e) {
+                            status = -1;
+                        }
+                        long depois = System.nanoTime();
+                        if (antes >= inicioMedicao && depois <= fim) {
+                            if (status == 304) {
+                                naoModificadas.incrementAndGet();
+                            } else if (status != 200) {
+                                erros.incrementAndGet();
+                            }
+                            if (n == amostras.length) {
+                                amostras = Arrays.copyOf(amostras, n * 2);
+                            }
+                            amostras[n++] = depois - antes;
+                        }
+                    }
+                } finally {
+                    latencias[cliente] = amostras;
+                    quantidades[cliente] = n;
+                    terminados.countDown();
+                }
+            }, "cliente-" + i, 256 * 1024);
+            t.setDaemon(true);
+            t.start();
+        }
+        terminados.await();
+
+        int total = 0;
+        for (int q : quantidades) {
+            total += q;
+        }
+        long[] todas = new long[total];
+        int k = 0;
+        for (int i = 0; i < clientes; i++) {
+            System.arraycopy(latencias[i], 0, todas, k, quantidades[i]);
+            k += quantidades[i];
+        }
+        Arrays.sort(todas);
+
+        System.out.printf(Locale.ROOT, "%s, %d clientes, %d s (+%d s de aquecimento)%n",
+                url, clientes, segundos, aquecimento);
+        System.out.printf(Locale.ROOT, "requisições: %d (%.0f req/s), erros: %d, 304: %d%n",
+                total, total / (double) segundos, erros.get(), naoModificadas.get());
+        if (total > 0) {
+            System.out.printf(Locale.ROOT, "latência ms: p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f%n",
+                    percentil(todas, 0.50), percentil(todas, 0.90), percentil(todas, 0.99),
+                    percentil(todas, 0.999), todas[total - 1] / 1e6);
+        }
+    }
+
+    private static double percentil(long[] ordenadas, double p) {
+        int indice = (int) Math.ceil(p * ordenadas.length) - 1;
+        return ordenadas[Math.max(indice, 0)] / 1e6;
+    }
+}
@@ -0,0 +1,72 @@
+package combo.benchmark;
+
+import combo.dao.PaginadorKeyset;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * DaoConsultarBD.consulta e a paginação de ConsultaDAO em deslocamentos rasos
+ * e profundos (a base do docker tem 10.000 livros)
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConsultaBenchmark {
+
+    private static final int ITENS_POR_PAGINA = 10;
+
+    @Param({ "0", "5000", "9990" })
+    public int deslocamento;
+
+    private PaginadorKeyset paginador;
+
+    @Setup(Level.Trial)
+    public void preparar(EstadoBanco banco) {
+        paginador = new PaginadorKeyset(banco.getDao(), ITENS_POR_PAGINA);
+        paginador.setTotalRegistros(banco.getDao().getTotalRegistros());
+        paginador.montarIndice();
+    }
+
+    @Benchmark
+    public int daoConsultarBDConsulta(EstadoBanco banco, Blackhole bh) throws Exception {
+        ResultSet rs = banco.getConexao().getBd().consulta(
+                "select codigo, titulo from livros order by codigo limit 100");
+        int linhas = 0;
+        while (rs.next()) {
+            bh.consume(rs.getString(2));
+            linhas++;
+        }
+        Statement stmt = rs.getStatement();
+        rs.close();
+        stmt.close();
+        return linhas;
+    }
+
+    @Benchmark
+    public List<String[]> getDadosPaginados(EstadoBanco banco) {
+        return banco.getDao().getDadosPaginados(deslocamento, ITENS_POR_PAGINA);
+    }
+
+    @Benchmark
+    public ResultSet paginaKeyset() throws Exception {
+        return paginador.carregarPagina(deslocamento / ITENS_POR_PAGINA + 1);
+    }
+}
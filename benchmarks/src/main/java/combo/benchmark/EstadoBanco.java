@@ -0,0 +1,52 @@
+package combo.benchmark;
+
+import combo.bd.PoolConexoes;
+import combo.bo.BoCombo;
+import combo.bo.BoConexao;
+import combo.dao.ConsultaDAO;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Conexão com o banco local usada pelos benchmarks de acesso a dados.
+ *
+ * O banco é o do docker-compose de postgres-livros (ou mysql-livros com
+ * -Dlivros.tipoBanco=mysql), já carregado pelos scripts de inicialização.
+ */
+@State(Scope.Benchmark)
+public class EstadoBanco {
+
+    private BoConexao conexao;
+    private BoCombo bo;
+    private ConsultaDAO dao;
+
+    @Setup(Level.Trial)
+    public void conectar() throws Exception {
+        String tipoBanco = System.getProperty("livros.tipoBanco", "postgresql");
+        conexao = new BoConexao();
+        conexao.conectar(tipoBanco);
+        bo = new BoCombo(conexao);
+        dao = new ConsultaDAO(PoolConexoes.getPool(tipoBanco));
+    }
+
+    @TearDown(Level.Trial)
+    public void desconectar() throws Exception {
+        conexao.desconectar();
+        PoolConexoes.fecharTodos();
+    }
+
+    public BoConexao getConexao() {
+        return conexao;
+    }
+
+    public BoCombo getBo() {
+        return bo;
+    }
+
+    public ConsultaDAO getDao() {
+        return dao;
+    }
+}
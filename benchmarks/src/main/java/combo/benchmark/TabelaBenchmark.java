@@ -0,0 +1,120 @@
+package combo.benchmark;
+
+import combo.gui.consulta.GuiMontarJTable;
+import combo.gui.consulta.ResultadoColunar;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.Types;
+import java.util.concurrent.TimeUnit;
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+import javax.swing.table.TableModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * montagem do modelo da JTable (GuiMontarJTable por linhas e
+ * ResultadoColunar por colunas) sobre um resultado em memória com as colunas
+ * de pesquisaDadosLivros; não usa o banco
+ */
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "-Djava.awt.headless=true" })
+@State(Scope.Benchmark)
+public class TabelaBenchmark {
+
+    private static final String[] AUTORES = { "Machado de Assis", "Clarice Lispector",
+        "Jorge Amado", "Cecília Meireles", "Graciliano Ramos" };
+
+    @Param({ "10000", "100000", "1000000" })
+    public int linhas;
+
+    private CachedRowSet dados;
+    private ResultSet semFechar;
+
+    @Setup(Level.Trial)
+    public void gerarDados() throws Exception {
+        RowSetMetaDataImpl meta = new RowSetMetaDataImpl();
+        meta.setColumnCount(5);
+        definirColuna(meta, 1, "codigo", Types.INTEGER);
+        definirColuna(meta, 2, "titulo", Types.VARCHAR);
+        definirColuna(meta, 3, "nome", Types.VARCHAR);
+        definirColuna(meta, 4, "numero", Types.CHAR);
+        definirColuna(meta, 5, "ano", Types.INTEGER);
+
+        dados = RowSetProvider.newFactory().createCachedRowSet();
+        dados.setMetaData(meta);
+        for (int i = 0; i < linhas; i++) {
+            dados.moveToInsertRow();
+            dados.updateInt(1, i + 1);
+            // títulos repetidos por autor, preenchidos como CHAR(45)
+            dados.updateString(2, String.format("%-45s", "Livro " + (i / 3)));
+            dados.updateString(3, String.format("%-35s", AUTORES[i % AUTORES.length]));
+            dados.updateString(4, String.valueOf(1 + i % 9));
+            dados.updateInt(5, 1950 + i % 70);
+            dados.insertRow();
+        }
+        dados.moveToCurrentRow();
+        dados.beforeFirst();
+
+        // criaTabela fecha o ResultSet; o proxy preserva os dados entre as execuções
+        semFechar = (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("close".equals(method.getName())) {
+                            return null;
+                        }
+                        if ("getStatement".equals(method.getName())) {
+                            return null;
+                        }
+                        try {
+                            return method.invoke(dados, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+    private static void definirColuna(RowSetMetaDataImpl meta, int coluna, String nome, int tipo)
+            throws Exception {
+        meta.setColumnName(coluna, nome);
+        meta.setColumnLabel(coluna, nome);
+        meta.setColumnType(coluna, tipo);
+    }
+
+    @Benchmark
+    public TableModel montaTabela() throws Exception {
+        dados.beforeFirst();
+        return new GuiMontarJTable(dados).monta_tabela();
+    }
+
+    @Benchmark
+    public TableModel criaTabela() throws Exception {
+        dados.beforeFirst();
+        return new GuiMontarJTable(semFechar).criaTabela();
+    }
+
+    @Benchmark
+    public TableModel resultadoColunar() throws Exception {
+        dados.beforeFirst();
+        return new ResultadoColunar(dados);
+    }
+}
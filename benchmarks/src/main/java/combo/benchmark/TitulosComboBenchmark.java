@@ -0,0 +1,47 @@
+package combo.benchmark;
+
+import combo.bd.ProcessadorLinha;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * caminhos de carga de títulos usados por CoCombo: lista completa em
+ * streaming e as janelas do ModeloComboLivros (com e sem prefixo)
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TitulosComboBenchmark {
+
+    @Benchmark
+    public int listaCompletaStreaming(EstadoBanco banco, final Blackhole bh) throws Exception {
+        return banco.getBo().listaLivros(new ProcessadorLinha() {
+            @Override
+            public void processar(ResultSet rs) throws SQLException {
+                bh.consume(rs.getString("titulo"));
+            }
+        });
+    }
+
+    @Benchmark
+    public List<String[]> primeiraJanela(EstadoBanco banco) throws Exception {
+        return banco.getBo().listaTitulos(null, null, 0, 100);
+    }
+
+    @Benchmark
+    public List<String[]> janelaComPrefixo(EstadoBanco banco) throws Exception {
+        return banco.getBo().listaTitulos("The", null, 0, 100);
+    }
+}
@@ -0,0 +1,11 @@
+-- Migração de scripts-sql/08_pesquisa.sql para bases criadas antes dele.
+-- Índices FULLTEXT não aceitam LOCK=NONE: a criação INPLACE segura escritas
+-- em livros e autor (leituras seguem), então aplique fora do horário de uso.
+-- Um índice que já exista dá o erro 1061 (Duplicate key name): aplique com
+-- "mysql --force" para seguir para os demais.
+
+ALTER TABLE livros ADD FULLTEXT INDEX livros_titulo_ft (titulo), ALGORITHM=INPLACE, LOCK=SHARED;
+ALTER TABLE autor ADD FULLTEXT INDEX autor_nome_ft (nome), ALGORITHM=INPLACE, LOCK=SHARED;
+
+-- livros de cada autor encontrado
+CREATE INDEX livroautor_autor_idx ON livroautor (codigoautor, codigolivro) ALGORITHM=INPLACE LOCK=NONE;
@@ -10,6 +10,9 @@ CREATE TABLE livros (
   PRIMARY KEY (codigo)
 );
 
+-- combo de livros: janelas em ordem alfabética e filtro por prefixo
+CREATE INDEX livros_titulo_idx ON livros (titulo, codigo);
+
 CREATE TABLE edicao (
   codigolivro DECIMAL(10,0) NOT NULL,
   numero CHAR(1) NOT NULL,
@@ -0,0 +1,110 @@
+-- Modelo de leitura dos detalhes de livros: uma linha por (livro, autor, edição)
+-- com os dados já juntados. As consultas de detalhe leem só esta tabela; os
+-- gatilhos abaixo a mantêm linha a linha a partir das escritas em livros,
+-- autor, livroautor e edicao.
+
+CREATE TABLE livrosdetalhe (
+  codigolivro DECIMAL(10,0) NOT NULL,
+  codigoautor DECIMAL(10,0) NOT NULL,
+  numero CHAR(1) NOT NULL,
+  titulo VARCHAR(45) NOT NULL,
+  nome VARCHAR(35) NOT NULL,
+  ano INT NOT NULL,
+  PRIMARY KEY (codigolivro, codigoautor, numero)
+);
+
+CREATE INDEX livrosdetalhe_titulo_idx ON livrosdetalhe (titulo, codigolivro);
+CREATE INDEX livrosdetalhe_autor_idx ON livrosdetalhe (codigoautor);
+
+-- carga inicial (os scripts 02 a 06 já inseriram os dados)
+INSERT INTO livrosdetalhe (codigolivro, codigoautor, numero, titulo, nome, ano)
+SELECT l.codigo, a.codigo, e.numero, l.titulo, a.nome, e.ano
+  FROM livros l
+  JOIN livroautor la ON la.codigolivro = l.codigo
+  JOIN autor a ON a.codigo = la.codigoautor
+  JOIN edicao e ON e.codigolivro = l.codigo;
+
+ANALYZE TABLE livrosdetalhe;
+
+DELIMITER //
+
+CREATE TRIGGER livroautor_detalhe_ins AFTER INSERT ON livroautor
+FOR EACH ROW
+BEGIN
+  INSERT IGNORE INTO livrosdetalhe (codigolivro, codigoautor, numero, titulo, nome, ano)
+  SELECT l.codigo, a.codigo, e.numero, l.titulo, a.nome, e.ano
+    FROM livros l, autor a, edicao e
+   WHERE l.codigo = NEW.codigolivro AND a.codigo = NEW.codigoautor
+     AND e.codigolivro = NEW.codigolivro;
+END//
+
+CREATE TRIGGER livroautor_detalhe_upd AFTER UPDATE ON livroautor
+FOR EACH ROW
+BEGIN
+  DELETE FROM livrosdetalhe
+   WHERE codigolivro = OLD.codigolivro AND codigoautor = OLD.codigoautor;
+  INSERT IGNORE INTO livrosdetalhe (codigolivro, codigoautor, numero, titulo, nome, ano)
+  SELECT l.codigo, a.codigo, e.numero, l.titulo, a.nome, e.ano
+    FROM livros l, autor a, edicao e
+   WHERE l.codigo = NEW.codigolivro AND a.codigo = NEW.codigoautor
+     AND e.codigolivro = NEW.codigolivro;
+END//
+
+CREATE TRIGGER livroautor_detalhe_del AFTER DELETE ON livroautor
+FOR EACH ROW
+BEGIN
+  DELETE FROM livrosdetalhe
+   WHERE codigolivro = OLD.codigolivro AND codigoautor = OLD.codigoautor;
+END//
+
+CREATE TRIGGER edicao_detalhe_ins AFTER INSERT ON edicao
+FOR EACH ROW
+BEGIN
+  INSERT IGNORE INTO livrosdetalhe (codigolivro, codigoautor, numero, titulo, nome, ano)
+  SELECT l.codigo, a.codigo, NEW.numero, l.titulo, a.nome, NEW.ano
+    FROM livros l
+    JOIN livroautor la ON la.codigolivro = l.codigo
+    JOIN autor a ON a.codigo = la.codigoautor
+   WHERE l.codigo = NEW.codigolivro;
+END//
+
+CREATE TRIGGER edicao_detalhe_upd AFTER UPDATE ON edicao
+FOR EACH ROW
+BEGIN
+  DELETE FROM livrosdetalhe
+   WHERE codigolivro = OLD.codigolivro AND numero = OLD.numero;
+  INSERT IGNORE INTO livrosdetalhe (codigolivro, codigoautor, numero, titulo, nome, ano)
+  SELECT l.codigo, a.codigo, NEW.numero, l.titulo, a.nome, NEW.ano
+    FROM livros l
+    JOIN livroautor la ON la.codigolivro = l.codigo
+    JOIN autor a ON a.codigo = la.codigoautor
+   WHERE l.codigo = NEW.codigolivro;
+END//
+
+CREATE TRIGGER edicao_detalhe_del AFTER DELETE ON edicao
+FOR EACH ROW
+BEGIN
+  DELETE FROM livrosdetalhe
+   WHERE codigolivro = OLD.codigolivro AND numero = OLD.numero;
+END//
+
+-- livros e autor só repassam as colunas copiadas; remover um livro ou autor
+-- exige antes remover livroautor/edicao (chaves estrangeiras), que já limpam a projeção
+
+CREATE TRIGGER livros_detalhe_upd AFTER UPDATE ON livros
+FOR EACH ROW
+BEGIN
+  IF NOT (OLD.titulo <=> NEW.titulo) THEN
+    UPDATE livrosdetalhe SET titulo = NEW.titulo WHERE codigolivro = NEW.codigo;
+  END IF;
+END//
+
+CREATE TRIGGER autor_detalhe_upd AFTER UPDATE ON autor
+FOR EACH ROW
+BEGIN
+  IF NOT (OLD.nome <=> NEW.nome) THEN
+    UPDATE livrosdetalhe SET nome = NEW.nome WHERE codigoautor = NEW.codigo;
+  END IF;
+END//
+
+DELIMITER ;
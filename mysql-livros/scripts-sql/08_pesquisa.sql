@@ -0,0 +1,11 @@
+-- Pesquisa por parte do título ou do nome do autor (DaoPesquisa): MATCH ...
+-- AGAINST em modo booleano usa estes índices. Palavras com menos de
+-- innodb_ft_min_token_size (3) letras não são indexadas; a aplicação pesquisa
+-- essas com LIKE. A aplicação não os cria: em bases já existentes, aplique
+-- migracoes/08_pesquisa.sql (até lá a pesquisa usa LIKE).
+
+ALTER TABLE livros ADD FULLTEXT INDEX livros_titulo_ft (titulo);
+ALTER TABLE autor ADD FULLTEXT INDEX autor_nome_ft (nome);
+
+-- livros de cada autor encontrado
+CREATE INDEX livroautor_autor_idx ON livroautor (codigoautor, codigolivro);
@@ -12,6 +12,9 @@ CREATE TABLE livros
   CONSTRAINT livros_pkey PRIMARY KEY (codigo)
 );
 
+-- combo de livros: janelas em ordem alfabética e filtro por prefixo
+CREATE INDEX livros_titulo_idx ON livros (titulo, codigo);
+
 CREATE TABLE edicao
 (
   codigolivro numeric(10,0) NOT NULL,
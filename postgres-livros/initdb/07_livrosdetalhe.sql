@@ -0,0 +1,122 @@
+-- Modelo de leitura dos detalhes de livros: uma linha por (livro, autor, edição)
+-- com os dados já juntados. As consultas de detalhe leem só esta tabela; os
+-- gatilhos abaixo a mantêm a partir das escritas em livros, autor, livroautor
+-- e edicao, aplicando só o que cada comando alterou.
+
+CREATE TABLE livrosdetalhe
+(
+  codigolivro numeric(10,0) NOT NULL,
+  codigoautor numeric(10,0) NOT NULL,
+  numero character(1) NOT NULL,
+  titulo character varying(45) NOT NULL,
+  nome character varying(35) NOT NULL,
+  ano integer NOT NULL,
+  CONSTRAINT livrosdetalhe_pkey PRIMARY KEY (codigolivro, codigoautor, numero)
+);
+
+CREATE INDEX livrosdetalhe_titulo_idx ON livrosdetalhe (titulo, codigolivro);
+CREATE INDEX livrosdetalhe_autor_idx ON livrosdetalhe (codigoautor);
+
+-- carga inicial (os scripts 02 a 06 já inseriram os dados)
+INSERT INTO livrosdetalhe (codigolivro, codigoautor, numero, titulo, nome, ano)
+SELECT l.codigo, a.codigo, e.numero, l.titulo, a.nome, e.ano
+  FROM livros l
+  JOIN livroautor la ON la.codigolivro = l.codigo
+  JOIN autor a ON a.codigo = la.codigoautor
+  JOIN edicao e ON e.codigolivro = l.codigo;
+
+ANALYZE livrosdetalhe;
+
+-- Gatilhos por comando com tabelas de transição: um INSERT/COPY em lote
+-- atualiza a projeção com uma única instrução, não uma por linha.
+
+CREATE FUNCTION livrosdetalhe_livroautor() RETURNS trigger AS $$
+BEGIN
+  IF TG_OP IN ('DELETE', 'UPDATE') THEN
+    DELETE FROM livrosdetalhe d
+     USING antigos o
+     WHERE d.codigolivro = o.codigolivro AND d.codigoautor = o.codigoautor;
+  END IF;
+  IF TG_OP IN ('INSERT', 'UPDATE') THEN
+    INSERT INTO livrosdetalhe (codigolivro, codigoautor, numero, titulo, nome, ano)
+    SELECT l.codigo, a.codigo, e.numero, l.titulo, a.nome, e.ano
+      FROM novos n
+      JOIN livros l ON l.codigo = n.codigolivro
+      JOIN autor a ON a.codigo = n.codigoautor
+      JOIN edicao e ON e.codigolivro = n.codigolivro
+    ON CONFLICT DO NOTHING;
+  END IF;
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER livroautor_detalhe_ins AFTER INSERT ON livroautor
+  REFERENCING NEW TABLE AS novos
+  FOR EACH STATEMENT EXECUTE FUNCTION livrosdetalhe_livroautor();
+CREATE TRIGGER livroautor_detalhe_upd AFTER UPDATE ON livroautor
+  REFERENCING OLD TABLE AS antigos NEW TABLE AS novos
+  FOR EACH STATEMENT EXECUTE FUNCTION livrosdetalhe_livroautor();
+CREATE TRIGGER livroautor_detalhe_del AFTER DELETE ON livroautor
+  REFERENCING OLD TABLE AS antigos
+  FOR EACH STATEMENT EXECUTE FUNCTION livrosdetalhe_livroautor();
+
+CREATE FUNCTION livrosdetalhe_edicao() RETURNS trigger AS $$
+BEGIN
+  IF TG_OP IN ('DELETE', 'UPDATE') THEN
+    DELETE FROM livrosdetalhe d
+     USING antigos o
+     WHERE d.codigolivro = o.codigolivro AND d.numero = o.numero;
+  END IF;
+  IF TG_OP IN ('INSERT', 'UPDATE') THEN
+    INSERT INTO livrosdetalhe (codigolivro, codigoautor, numero, titulo, nome, ano)
+    SELECT l.codigo, a.codigo, n.numero, l.titulo, a.nome, n.ano
+      FROM novos n
+      JOIN livros l ON l.codigo = n.codigolivro
+      JOIN livroautor la ON la.codigolivro = n.codigolivro
+      JOIN autor a ON a.codigo = la.codigoautor
+    ON CONFLICT DO NOTHING;
+  END IF;
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER edicao_detalhe_ins AFTER INSERT ON edicao
+  REFERENCING NEW TABLE AS novos
+  FOR EACH STATEMENT EXECUTE FUNCTION livrosdetalhe_edicao();
+CREATE TRIGGER edicao_detalhe_upd AFTER UPDATE ON edicao
+  REFERENCING OLD TABLE AS antigos NEW TABLE AS novos
+  FOR EACH STATEMENT EXECUTE FUNCTION livrosdetalhe_edicao();
+CREATE TRIGGER edicao_detalhe_del AFTER DELETE ON edicao
+  REFERENCING OLD TABLE AS antigos
+  FOR EACH STATEMENT EXECUTE FUNCTION livrosdetalhe_edicao();
+
+-- livros e autor só repassam as colunas copiadas; remover um livro ou autor
+-- exige antes remover livroautor/edicao (chaves estrangeiras), que já limpam a projeção
+
+CREATE FUNCTION livrosdetalhe_livros() RETURNS trigger AS $$
+BEGIN
+  UPDATE livrosdetalhe d
+     SET titulo = n.titulo
+    FROM novos n
+   WHERE d.codigolivro = n.codigo AND d.titulo IS DISTINCT FROM n.titulo;
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER livros_detalhe_upd AFTER UPDATE ON livros
+  REFERENCING NEW TABLE AS novos
+  FOR EACH STATEMENT EXECUTE FUNCTION livrosdetalhe_livros();
+
+CREATE FUNCTION livrosdetalhe_autor() RETURNS trigger AS $$
+BEGIN
+  UPDATE livrosdetalhe d
+     SET nome = n.nome
+    FROM novos n
+   WHERE d.codigoautor = n.codigo AND d.nome IS DISTINCT FROM n.nome;
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER autor_detalhe_upd AFTER UPDATE ON autor
+  REFERENCING NEW TABLE AS novos
+  FOR EACH STATEMENT EXECUTE FUNCTION livrosdetalhe_autor();
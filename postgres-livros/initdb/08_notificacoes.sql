@@ -0,0 +1,87 @@
+-- Avisos de alteração para os clientes (LISTEN livros_alteracoes): cada
+-- comando em livros, autor, edicao ou livroautor envia, no commit, um
+-- NOTIFY com "tabela|operação|chaves", onde chaves são os códigos afetados
+-- separados por vírgula (livros.codigo, autor.codigo ou codigolivro). Se a
+-- lista não cabe no aviso, vai "*" (chaves desconhecidas).
+
+CREATE FUNCTION notificar_alteracao() RETURNS trigger AS $$
+DECLARE
+  coluna text := TG_ARGV[0];
+  origem text;
+  chaves text;
+BEGIN
+  origem := CASE TG_OP
+    WHEN 'INSERT' THEN format('SELECT %I AS chave FROM novos', coluna)
+    WHEN 'DELETE' THEN format('SELECT %I AS chave FROM antigos', coluna)
+    ELSE format('SELECT %I AS chave FROM novos UNION SELECT %I FROM antigos', coluna, coluna)
+  END;
+  EXECUTE 'SELECT string_agg(DISTINCT chave::text, '','') FROM (' || origem || ') t' INTO chaves;
+  -- nenhuma linha afetada
+  IF chaves IS NULL OR chaves = '' THEN
+    RETURN NULL;
+  END IF;
+  -- o aviso tem no máximo 8000 bytes
+  IF length(chaves) > 7000 THEN
+    chaves := '*';
+  END IF;
+  PERFORM pg_notify('livros_alteracoes', TG_TABLE_NAME || '|' || TG_OP || '|' || chaves);
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER livros_notifica_ins AFTER INSERT ON livros
+  REFERENCING NEW TABLE AS novos
+  FOR EACH STATEMENT EXECUTE FUNCTION notificar_alteracao('codigo');
+CREATE TRIGGER livros_notifica_upd AFTER UPDATE ON livros
+  REFERENCING OLD TABLE AS antigos NEW TABLE AS novos
+  FOR EACH STATEMENT EXECUTE FUNCTION notificar_alteracao('codigo');
+CREATE TRIGGER livros_notifica_del AFTER DELETE ON livros
+  REFERENCING OLD TABLE AS antigos
+  FOR EACH STATEMENT EXECUTE FUNCTION notificar_alteracao('codigo');
+
+CREATE TRIGGER autor_notifica_ins AFTER INSERT ON autor
+  REFERENCING NEW TABLE AS novos
+  FOR EACH STATEMENT EXECUTE FUNCTION notificar_alteracao('codigo');
+CREATE TRIGGER autor_notifica_upd AFTER UPDATE ON autor
+  REFERENCING OLD TABLE AS antigos NEW TABLE AS novos
+  FOR EACH STATEMENT EXECUTE FUNCTION notificar_alteracao('codigo');
+CREATE TRIGGER autor_notifica_del AFTER DELETE ON autor
+  REFERENCING OLD TABLE AS antigos
+  FOR EACH STATEMENT EXECUTE FUNCTION notificar_alteracao('codigo');
+
+CREATE TRIGGER edicao_notifica_ins AFTER INSERT ON edicao
+  REFERENCING NEW TABLE AS novos
+  FOR EACH STATEMENT EXECUTE FUNCTION notificar_alteracao('codigolivro');
+CREATE TRIGGER edicao_notifica_upd AFTER UPDATE ON edicao
+  REFERENCING OLD TABLE AS antigos NEW TABLE AS novos
+  FOR EACH STATEMENT EXECUTE FUNCTION notificar_alteracao('codigolivro');
+CREATE TRIGGER edicao_notifica_del AFTER DELETE ON edicao
+  REFERENCING OLD TABLE AS antigos
+  FOR EACH STATEMENT EXECUTE FUNCTION notificar_alteracao('codigolivro');
+
+CREATE TRIGGER livroautor_notifica_ins AFTER INSERT ON livroautor
+  REFERENCING NEW TABLE AS novos
+  FOR EACH STATEMENT EXECUTE FUNCTION notificar_alteracao('codigolivro');
+CREATE TRIGGER livroautor_notifica_upd AFTER UPDATE ON livroautor
+  REFERENCING OLD TABLE AS antigos NEW TABLE AS novos
+  FOR EACH STATEMENT EXECUTE FUNCTION notificar_alteracao('codigolivro');
+CREATE TRIGGER livroautor_notifica_del AFTER DELETE ON livroautor
+  REFERENCING OLD TABLE AS antigos
+  FOR EACH STATEMENT EXECUTE FUNCTION notificar_alteracao('codigolivro');
+
+-- TRUNCATE não tem tabelas de transição: avisa sem chaves
+CREATE FUNCTION notificar_truncate() RETURNS trigger AS $$
+BEGIN
+  PERFORM pg_notify('livros_alteracoes', TG_TABLE_NAME || '|TRUNCATE|*');
+  RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER livros_notifica_trunc AFTER TRUNCATE ON livros
+  FOR EACH STATEMENT EXECUTE FUNCTION notificar_truncate();
+CREATE TRIGGER autor_notifica_trunc AFTER TRUNCATE ON autor
+  FOR EACH STATEMENT EXECUTE FUNCTION notificar_truncate();
+CREATE TRIGGER edicao_notifica_trunc AFTER TRUNCATE ON edicao
+  FOR EACH STATEMENT EXECUTE FUNCTION notificar_truncate();
+CREATE TRIGGER livroautor_notifica_trunc AFTER TRUNCATE ON livroautor
+  FOR EACH STATEMENT EXECUTE FUNCTION notificar_truncate();
@@ -0,0 +1,16 @@
+-- Pesquisa por parte do título ou do nome do autor (DaoPesquisa): índices de
+-- trigramas atendem "? <% coluna" (word_similarity) e ILIKE '%texto%' sem
+-- percorrer a tabela. A aplicação não os cria: em bases já existentes,
+-- aplique migracoes/09_pesquisa.sql (até lá a pesquisa usa LIKE).
+
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+CREATE INDEX livros_titulo_trgm_idx ON livros USING gin (titulo gin_trgm_ops);
+CREATE INDEX autor_nome_trgm_idx ON autor USING gin (nome gin_trgm_ops);
+
+-- livros de cada autor encontrado
+CREATE INDEX livroautor_autor_idx ON livroautor (codigoautor, codigolivro);
+
+ANALYZE livros;
+ANALYZE autor;
+ANALYZE livroautor;
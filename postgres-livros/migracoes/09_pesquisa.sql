@@ -0,0 +1,23 @@
+-- Migração de initdb/09_pesquisa.sql para bases criadas antes dele. Cria os
+-- índices sem bloquear escritas; CONCURRENTLY não roda dentro de transação,
+-- então aplique com psql fora de BEGIN (psql -f, como no README) e como dono
+-- das tabelas (CREATE EXTENSION pode pedir superusuário).
+--
+-- Se a criação for interrompida, o índice fica no catálogo com
+-- pg_index.indisvalid = false: a aplicação não o usa e IF NOT EXISTS não o
+-- refaz. Remova-o e rode a migração de novo:
+--   SELECT c.relname FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid
+--    WHERE NOT i.indisvalid;
+--   DROP INDEX CONCURRENTLY <nome>;
+
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS livros_titulo_trgm_idx ON livros USING gin (titulo gin_trgm_ops);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS autor_nome_trgm_idx ON autor USING gin (nome gin_trgm_ops);
+
+-- livros de cada autor encontrado
+CREATE INDEX CONCURRENTLY IF NOT EXISTS livroautor_autor_idx ON livroautor (codigoautor, codigolivro);
+
+ANALYZE livros;
+ANALYZE autor;
+ANALYZE livroautor;
@@ -0,0 +1,93 @@
+package combo.bd;
+
+/**
+ * Alteração feita no banco e avisada pelo CanalAlteracoes
+ */
+public class Alteracao {
+
+    private final String tabela;
+    private final String operacao;
+    private final long[] chaves;
+
+    /**
+     * @param tabela tabela alterada, ou MonitorEscritas.TODAS
+     * @param operacao INSERT, UPDATE, DELETE ou TRUNCATE (null se desconhecida)
+     * @param chaves códigos afetados, ou null se desconhecidos
+     */
+    public Alteracao(String tabela, String operacao, long[] chaves) {
+        this.tabela = tabela;
+        this.operacao = operacao;
+        this.chaves = chaves;
+    }
+
+    /**
+     * interpreta o aviso "tabela|operação|chaves" do gatilho notificar_alteracao
+     *
+     * @param aviso
+     * @return alteração
+     */
+    public static Alteracao interpretar(String aviso) {
+        String[] partes = aviso.split("\\|", 3);
+        if (partes.length < 3 || "*".equals(partes[2])) {
+            return new Alteracao(partes[0], partes.length > 1 ? partes[1] : null, null);
+        }
+        String[] textos = partes[2].split(",");
+        long[] chaves = new long[textos.length];
+        try {
+            for (int i = 0; i < textos.length; i++) {
+                chaves[i] = Long.parseLong(textos[i].trim());
+            }
+        } catch (NumberFormatException e) {
+            chaves = null;
+        }
+        return new Alteracao(partes[0], partes[1], chaves);
+    }
+
+    public String getTabela() {
+        return tabela;
+    }
+
+    public String getOperacao() {
+        return operacao;
+    }
+
+    public long[] getChaves() {
+        return chaves == null ? null : chaves.clone();
+    }
+
+    /**
+     * @return true se linhas entraram ou saíram (as posições seguintes mudam);
+     * false para atualizações no lugar
+     */
+    public boolean isDeslocaLinhas() {
+        return !"UPDATE".equals(operacao);
+    }
+
+    /**
+     * @return true se a alteração pode ter tocado a tabela informada
+     */
+    public boolean afeta(String tabela) {
+        return MonitorEscritas.TODAS.equals(this.tabela) || this.tabela.equalsIgnoreCase(tabela);
+    }
+
+    /**
+     * @return true se alguma chave está no intervalo [de, ate] (ou se as
+     * chaves são desconhecidas)
+     */
+    public boolean contemAlguma(long de, long ate) {
+        if (chaves == null) {
+            return true;
+        }
+        for (long chave : chaves) {
+            if (chave >= de && chave <= ate) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return tabela + " " + operacao + " " + (chaves == null ? "*" : chaves.length + " chaves");
+    }
+}
@@ -0,0 +1,492 @@
+package combo.bd;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.rowset.RowSetMetaDataImpl;
+
+/**
+ * Cache de resultados de consultas, por SQL + parâmetros.
+ *
+ * O resultado é lido uma vez para um instantâneo imutável em memória e cada
+ * acerto devolve um ResultSet rolável, somente leitura, sobre ele (sem cópia
+ * das linhas); fechar a visão não afeta o cache.
+ *
+ * Validade: cada entrada guarda as versões (MonitorEscritas) das tabelas de
+ * que depende e deixa de valer quando alguma delas muda. Passado o TTL sem
+ * escrita conhecida (o banco pode ter sido alterado por outro cliente), a
+ * entrada ainda é servida por mais janelaObsoletaMs enquanto uma nova leitura
+ * roda no ExecutorConsultas, numa conexão própria tirada do pool (a da sessão
+ * é da thread que pediu); depois disso a leitura é síncrona, na sessão.
+ *
+ * O tamanho é limitado por uma estimativa de bytes, descartando as entradas
+ * usadas há mais tempo (LRU). Leituras simultâneas da mesma chave esperam uma
+ * única consulta. Há um cache por pool de conexões.
+ */
+public class CacheResultados implements OuvinteEscrita {
+
+    public static final long LIMITE_BYTES_PADRAO = 32L * 1024 * 1024;
+    public static final long TTL_PADRAO_MS = 5 * 60 * 1000;
+    public static final long JANELA_OBSOLETA_PADRAO_MS = 10 * 60 * 1000;
+    private static final Map<PoolConexoes, CacheResultados> CACHES = new HashMap<PoolConexoes, CacheResultados>();
+
+    private final PoolConexoes pool;
+    private final long limiteBytes;
+    private final long ttlMs;
+    private final long janelaObsoletaMs;
+    private final LinkedHashMap<String, Instantaneo> entradas =
+            new LinkedHashMap<String, Instantaneo>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<Instantaneo>> carregando =
+            new HashMap<String, CompletableFuture<Instantaneo>>();
+    private long bytesEmCache;
+    private long acertos;
+    private long obsoletos;
+    private long faltas;
+
+    private CacheResultados(PoolConexoes pool, long limiteBytes, long ttlMs, long janelaObsoletaMs) {
+        this.pool = pool;
+        this.limiteBytes = limiteBytes;
+        this.ttlMs = ttlMs;
+        this.janelaObsoletaMs = janelaObsoletaMs;
+    }
+
+    /**
+     * cria um cache já registrado no MonitorEscritas
+     *
+     * @param pool de onde saem as conexões das recargas em segundo plano
+     * @param limiteBytes
+     * @param ttlMs
+     * @param janelaObsoletaMs
+     * @return
+     */
+    public static CacheResultados criar(PoolConexoes pool, long limiteBytes, long ttlMs, long janelaObsoletaMs) {
+        CacheResultados cache = new CacheResultados(pool, limiteBytes, ttlMs, janelaObsoletaMs);
+        MonitorEscritas.adicionarOuvinte(cache);
+        return cache;
+    }
+
+    /**
+     * @param pool pool do banco (o mesmo SQL em bancos diferentes não se mistura)
+     * @return cache compartilhado do pool
+     */
+    public static synchronized CacheResultados getInstancia(PoolConexoes pool) {
+        CacheResultados cache = CACHES.get(pool);
+        if (cache == null) {
+            cache = criar(pool, LIMITE_BYTES_PADRAO, TTL_PADRAO_MS, JANELA_OBSOLETA_PADRAO_MS);
+            CACHES.put(pool, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * devolve o resultado guardado ou executa a consulta e guarda o resultado
+     *
+     * @param sql consulta com os parâmetros "?"; identifica a entrada junto
+     * com os parâmetros
+     * @param parametros valores dos "?", na ordem
+     * @param tabelas tabelas lidas pela consulta (invalidação)
+     * @param bd sessão onde a consulta roda quando não há resultado que
+     * sirva; o comando preparado e o resultado são fechados aqui
+     * @return visão somente leitura do resultado
+     * @throws SQLException
+     */
+    public ResultSet consultar(String sql, Object[] parametros, String[] tabelas, DaoConsultarBD bd)
+            throws SQLException {
+        final String chave = sql + '\u0000' + Arrays.deepToString(parametros);
+        final String[] dependencias = tabelas.clone();
+        final Object[] valores = parametros.clone();
+        boolean recarregar = false;
+        Instantaneo instantaneo;
+
+        synchronized (this) {
+            instantaneo = entradas.get(chave);
+            if (instantaneo != null && !instantaneo.isAtual()) {
+                this.remover(chave);
+                instantaneo = null;
+            }
+            long idade = instantaneo == null ? 0 : System.currentTimeMillis() - instantaneo.instante;
+            if (instantaneo != null && idade > ttlMs + janelaObsoletaMs) {
+                this.remover(chave);
+                instantaneo = null;
+            }
+            if (instantaneo == null) {
+                faltas++;
+            } else if (idade > ttlMs) {
+                obsoletos++;
+                recarregar = !instantaneo.recarregando;
+                instantaneo.recarregando = true;
+            } else {
+                acertos++;
+            }
+        }
+
+        if (instantaneo == null) {
+            return this.carregarUnico(chave, dependencias, naSessao(bd, sql, valores)).abrir();
+        }
+        if (recarregar) {
+            // a sessão é de quem pediu: a recarga lê numa conexão do pool
+            final Instantaneo antigo = instantaneo;
+            ExecutorConsultas.getInstancia().executar(() -> {
+                try {
+                    return this.carregarUnico(chave, dependencias, this.noPool(sql, valores));
+                } finally {
+                    antigo.recarregando = false;
+                }
+            }).getCompletableFuture().whenComplete((novo, erro) -> {
+                if (erro != null) {
+                    Logger.getLogger(CacheResultados.class.getName())
+                            .log(Level.WARNING, "Falha ao recarregar " + chave, erro);
+                }
+            });
+        }
+        return instantaneo.abrir();
+    }
+
+    /**
+     * carrega a chave, ou espera a carga dela que já está em andamento
+     */
+    private Instantaneo carregarUnico(String chave, String[] tabelas, Leitura leitura)
+            throws SQLException {
+        CompletableFuture<Instantaneo> andamento;
+        boolean dono = false;
+        synchronized (this) {
+            andamento = carregando.get(chave);
+            if (andamento == null) {
+                andamento = new CompletableFuture<Instantaneo>();
+                carregando.put(chave, andamento);
+                dono = true;
+            }
+        }
+
+        if (!dono) {
+            try {
+                return andamento.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Espera interrompida: " + chave, e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof SQLException) {
+                    throw (SQLException) e.getCause();
+                }
+                throw new SQLException("Erro ao carregar " + chave, e.getCause());
+            }
+        }
+
+        try {
+            Instantaneo lido = this.carregar(chave, tabelas, leitura);
+            andamento.complete(lido);
+            return lido;
+        } catch (SQLException | RuntimeException e) {
+            andamento.completeExceptionally(e);
+            throw e;
+        } finally {
+            synchronized (this) {
+                carregando.remove(chave);
+            }
+        }
+    }
+
+    private Instantaneo carregar(String chave, String[] tabelas, Leitura leitura)
+            throws SQLException {
+        // versões lidas antes da consulta: uma escrita concorrente invalida o resultado
+        long[] versoes = new long[tabelas.length];
+        for (int i = 0; i < tabelas.length; i++) {
+            versoes[i] = MonitorEscritas.getVersao(tabelas[i]);
+        }
+
+        Instantaneo instantaneo;
+        try {
+            instantaneo = leitura.ler(tabelas, versoes);
+        } catch (SQLException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SQLException("Erro ao executar consulta", e);
+        }
+
+        if (instantaneo.isAtual() && instantaneo.bytes <= limiteBytes) {
+            synchronized (this) {
+                this.remover(chave);
+                entradas.put(chave, instantaneo);
+                bytesEmCache += instantaneo.bytes;
+                this.limitar();
+            }
+        }
+        return instantaneo;
+    }
+
+    /**
+     * lê na sessão de quem pediu (réplica ou primário, pelo DaoConsultarBD)
+     */
+    private static Leitura naSessao(final DaoConsultarBD bd, final String sql, final Object[] parametros) {
+        return (tabelas, versoes) -> {
+            try (PreparedStatement comando = bd.getStatement(sql)) {
+                preencher(comando, parametros);
+                try (ResultSet rs = bd.consulta(comando)) {
+                    return new Instantaneo(rs, tabelas, versoes);
+                }
+            }
+        };
+    }
+
+    /**
+     * lê numa conexão do pool, devolvida ao final
+     */
+    private Leitura noPool(final String sql, final Object[] parametros) {
+        return (tabelas, versoes) -> {
+            try (Connection conexao = pool.obterConexao();
+                    PreparedStatement comando = CacheStatements.para(conexao).obter(sql)) {
+                preencher(comando, parametros);
+                MetricasConsultas.Medicao medicao = MetricasConsultas.iniciar(sql);
+                ExecutorConsultas.registrar(comando);
+                try (ResultSet rs = comando.executeQuery()) {
+                    Instantaneo lido = new Instantaneo(rs, tabelas, versoes);
+                    medicao.concluir(lido.linhas.length);
+                    return lido;
+                } finally {
+                    ExecutorConsultas.liberar(comando);
+                }
+            }
+        };
+    }
+
+    private static void preencher(PreparedStatement comando, Object[] parametros) throws SQLException {
+        for (int i = 0; i < parametros.length; i++) {
+            comando.setObject(i + 1, parametros[i]);
+        }
+    }
+
+    private void remover(String chave) {
+        Instantaneo antigo = entradas.remove(chave);
+        if (antigo != null) {
+            bytesEmCache -= antigo.bytes;
+        }
+    }
+
+    private void limitar() {
+        Iterator<Instantaneo> it = entradas.values().iterator();
+        while (bytesEmCache > limiteBytes && it.hasNext()) {
+            bytesEmCache -= it.next().bytes;
+            it.remove();
+        }
+    }
+
+    @Override
+    public synchronized void tabelaAlterada(String tabela) {
+        // libera a memória já; a versão impede o uso mesmo sem este aviso
+        Iterator<Instantaneo> it = entradas.values().iterator();
+        while (it.hasNext()) {
+            Instantaneo instantaneo = it.next();
+            if (MonitorEscritas.TODAS.equals(tabela) || instantaneo.depende(tabela)) {
+                bytesEmCache -= instantaneo.bytes;
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void limpar() {
+        entradas.clear();
+        bytesEmCache = 0;
+    }
+
+    public synchronized long getBytesEmCache() {
+        return bytesEmCache;
+    }
+
+    public synchronized int getQuantidade() {
+        return entradas.size();
+    }
+
+    public synchronized long getAcertos() {
+        return acertos;
+    }
+
+    public synchronized long getObsoletos() {
+        return obsoletos;
+    }
+
+    public synchronized long getFaltas() {
+        return faltas;
+    }
+
+    /**
+     * executa a consulta e lê o resultado inteiro (fechando o que abriu)
+     */
+    private interface Leitura {
+
+        Instantaneo ler(String[] tabelas, long[] versoes) throws Exception;
+    }
+
+    /**
+     * resultado lido, imutável
+     */
+    private static final class Instantaneo {
+
+        private final RowSetMetaDataImpl meta;
+        private final Object[][] linhas;
+        private final String[] tabelas;
+        private final long[] versoes;
+        private final long instante = System.currentTimeMillis();
+        private final long bytes;
+        private volatile boolean recarregando;
+
+        private Instantaneo(ResultSet rs, String[] tabelas, long[] versoes) throws SQLException {
+            this.tabelas = tabelas;
+            this.versoes = versoes;
+            this.meta = VisaoLinhas.copiar(rs.getMetaData());
+
+            int numColunas = meta.getColumnCount();
+            List<Object[]> lidas = new ArrayList<Object[]>();
+            long total = 64;
+            while (rs.next()) {
+                Object[] linha = new Object[numColunas];
+                total += 16 + 4L * numColunas;
+                for (int j = 0; j < numColunas; j++) {
+                    linha[j] = rs.getObject(j + 1);
+                    if (linha[j] instanceof String) {
+                        total += 40 + 2L * ((String) linha[j]).length();
+                    } else if (linha[j] != null) {
+                        total += 24;
+                    }
+                }
+                lidas.add(linha);
+            }
+            this.linhas = lidas.toArray(new Object[lidas.size()][]);
+            this.bytes = total;
+        }
+
+        private boolean isAtual() {
+            for (int i = 0; i < tabelas.length; i++) {
+                if (MonitorEscritas.getVersao(tabelas[i]) != versoes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean depende(String tabela) {
+            for (String dependencia : tabelas) {
+                if (dependencia.equalsIgnoreCase(tabela)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private ResultSet abrir() throws SQLException {
+            return new Cursor(this).criarResultSet();
+        }
+    }
+
+    /**
+     * ResultSet rolável sobre um instantâneo; cada visão tem o seu cursor
+     */
+    private static final class Cursor extends VisaoLinhas {
+
+        private final Instantaneo dados;
+        private int posicao = -1;
+        private boolean fechado;
+
+        private Cursor(Instantaneo dados) throws SQLException {
+            super(dados.meta);
+            this.dados = dados;
+        }
+
+        @Override
+        protected Object[] linha() throws SQLException {
+            if (posicao < 0 || posicao >= dados.linhas.length) {
+                throw new SQLException("Cursor fora de uma linha");
+            }
+            return dados.linhas[posicao];
+        }
+
+        @Override
+        protected Object tratar(Object proxy, String nome, Object[] args) throws SQLException {
+            int n = dados.linhas.length;
+
+            switch (nome) {
+                case "close":
+                    fechado = true;
+                    return null;
+                case "isClosed":
+                    return fechado;
+                case "toString":
+                    return "CacheResultados.Cursor[" + n + " linhas]";
+                default:
+                    break;
+            }
+            if (fechado) {
+                throw new SQLException("ResultSet fechado");
+            }
+
+            switch (nome) {
+                case "next":
+                    return this.mover(posicao + 1);
+                case "previous":
+                    return this.mover(posicao - 1);
+                case "first":
+                    return this.mover(0);
+                case "last":
+                    return this.mover(n - 1);
+                case "beforeFirst":
+                    posicao = -1;
+                    return null;
+                case "afterLast":
+                    posicao = n;
+                    return null;
+                case "absolute": {
+                    int linha = (Integer) args[0];
+                    return this.mover(linha >= 0 ? linha - 1 : n + linha);
+                }
+                case "relative":
+                    return this.mover(posicao + (Integer) args[0]);
+                case "getRow":
+                    return posicao >= 0 && posicao < n ? posicao + 1 : 0;
+                case "isBeforeFirst":
+                    return n > 0 && posicao < 0;
+                case "isAfterLast":
+                    return n > 0 && posicao >= n;
+                case "isFirst":
+                    return n > 0 && posicao == 0;
+                case "isLast":
+                    return n > 0 && posicao == n - 1;
+                case "getType":
+                    return ResultSet.TYPE_SCROLL_INSENSITIVE;
+                case "getConcurrency":
+                    return ResultSet.CONCUR_READ_ONLY;
+                case "getHoldability":
+                    return ResultSet.HOLD_CURSORS_OVER_COMMIT;
+                case "getFetchDirection":
+                    return ResultSet.FETCH_FORWARD;
+                case "getFetchSize":
+                    return 0;
+                case "setFetchSize":
+                case "setFetchDirection":
+                case "clearWarnings":
+                    return null;
+                case "getStatement":
+                case "getWarnings":
+                    return null;
+                default:
+                    return NAO_TRATADO;
+            }
+        }
+
+        private boolean mover(int destino) {
+            int n = dados.linhas.length;
+            posicao = Math.max(-1, Math.min(destino, n));
+            return posicao >= 0 && posicao < n;
+        }
+    }
+}
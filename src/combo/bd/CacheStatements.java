@@ -0,0 +1,454 @@
+package combo.bd;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache LRU de PreparedStatement de uma conexão física, pela chave
+ * (sql, tipo, concorrência). Evita preparar (e, no PostgreSQL, analisar e
+ * planejar) de novo o mesmo comando a cada chamada dos DAOs.
+ *
+ * Os statements entregues são proxies: close() devolve o statement ao cache.
+ * Um statement emprestado não é entregue a outro chamador enquanto não for
+ * devolvido; o ResultSet da última execução também é um proxy, e fechá-lo
+ * devolve o statement (seu getStatement() é o proxy do empréstimo). Quem
+ * pedir um statement ocupado recebe um avulso, fora do cache, fechado no
+ * close(), quando o seu ResultSet fecha (closeOnCompletion) ou junto com o
+ * cache. Proxies de empréstimos antigos não agem mais sobre o statement
+ * (cancel() é ignorado). Fechar um proxy também o desassocia da tarefa de
+ * ExecutorConsultas em que foi registrado.
+ *
+ * No PostgreSQL os statements do cache usam o limiar de preparo no servidor
+ * configurado (prepareThreshold do pgjdbc): a partir dessa execução o driver
+ * passa a usar um statement nomeado, com plano guardado no servidor.
+ *
+ * @author felipe.bogo
+ */
+public class CacheStatements {
+
+    public static final int CAPACIDADE_PADRAO = 64;
+    public static final int LIMIAR_PREPARO_PADRAO = 1;
+
+    private static final Map<Connection, CacheStatements> CACHES = new HashMap<Connection, CacheStatements>();
+
+    // métricas somadas de todos os caches
+    private static final AtomicLong ACERTOS_TOTAIS = new AtomicLong();
+    private static final AtomicLong FALTAS_TOTAIS = new AtomicLong();
+
+    private final Connection conexao;
+    private final int capacidade;
+    private final int limiarPreparo;
+    private Boolean postgres;
+    private final LinkedHashMap<Chave, Entrada> entradas = new LinkedHashMap<Chave, Entrada>(16, 0.75f, true);
+    private final Set<Statement> avulsos = new HashSet<Statement>();
+
+    // métricas
+    private long acertos;
+    private long faltas;
+    private long ocupados;
+    private long descartes;
+
+    public CacheStatements(Connection conexao, int capacidade, int limiarPreparo) {
+        this.conexao = conexao;
+        this.capacidade = capacidade;
+        this.limiarPreparo = limiarPreparo;
+    }
+
+    /**
+     * registra o cache de uma conexão física (feito pelo pool ao criá-la)
+     */
+    static void registrar(Connection fisica, int capacidade, int limiarPreparo) {
+        synchronized (CACHES) {
+            CACHES.put(fisica, new CacheStatements(fisica, capacidade, limiarPreparo));
+        }
+    }
+
+    /**
+     * fecha e esquece o cache de uma conexão física que será fechada
+     */
+    static void descartar(Connection fisica) {
+        CacheStatements cache;
+        synchronized (CACHES) {
+            cache = CACHES.remove(fisica);
+        }
+        if (cache != null) {
+            cache.fechar();
+        }
+    }
+
+    /**
+     * @param conexao conexão do pool (proxy) ou conexão JDBC comum
+     * @return cache da conexão física
+     * @throws SQLException
+     */
+    public static CacheStatements para(Connection conexao) throws SQLException {
+        Connection fisica = conexao.isWrapperFor(Connection.class) ? conexao.unwrap(Connection.class) : conexao;
+        synchronized (CACHES) {
+            CacheStatements cache = CACHES.get(fisica);
+            if (cache == null) {
+                cache = new CacheStatements(fisica, CAPACIDADE_PADRAO, LIMIAR_PREPARO_PADRAO);
+                CACHES.put(fisica, cache);
+            }
+            return cache;
+        }
+    }
+
+    public PreparedStatement obter(String sql) throws SQLException {
+        return this.obter(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    }
+
+    /**
+     * empresta o statement do comando; close() o devolve
+     *
+     * @param sql
+     * @param tipo ResultSet.TYPE_*
+     * @param concorrencia ResultSet.CONCUR_*
+     * @return
+     * @throws SQLException
+     */
+    public synchronized PreparedStatement obter(String sql, int tipo, int concorrencia) throws SQLException {
+        Chave chave = new Chave(sql, tipo, concorrencia);
+        Entrada entrada = entradas.get(chave);
+
+        if (entrada != null && entrada.statement.isClosed()) {
+            entradas.remove(chave);
+            entrada = null;
+        }
+        if (entrada != null && entrada.emprestada) {
+            // em uso por outro chamador: entrega um avulso, fechado de fato no close()
+            ocupados++;
+            faltas++;
+            FALTAS_TOTAIS.incrementAndGet();
+            return this.avulso(conexao.prepareStatement(sql, tipo, concorrencia));
+        }
+
+        if (entrada != null) {
+            acertos++;
+            ACERTOS_TOTAIS.incrementAndGet();
+            entrada.statement.clearParameters();
+        } else {
+            faltas++;
+            FALTAS_TOTAIS.incrementAndGet();
+            entrada = new Entrada(this.preparar(sql, tipo, concorrencia));
+            entradas.put(chave, entrada);
+            this.limitar();
+        }
+        return entrada.emprestar();
+    }
+
+    private PreparedStatement preparar(String sql, int tipo, int concorrencia) throws SQLException {
+        PreparedStatement statement = conexao.prepareStatement(sql, tipo, concorrencia);
+        if (postgres == null) {
+            postgres = conexao.getMetaData().getURL().startsWith("jdbc:postgresql:");
+        }
+        if (postgres) {
+            // por reflexão: com MySQL o driver do PostgreSQL pode não estar no classpath
+            try {
+                Class<?> pgStatement = Class.forName("org.postgresql.PGStatement");
+                pgStatement.getMethod("setPrepareThreshold", int.class)
+                        .invoke(statement.unwrap(pgStatement), limiarPreparo);
+            } catch (ReflectiveOperationException e) {
+                Logger.getLogger(CacheStatements.class.getName()).log(Level.FINE, null, e);
+            }
+        }
+        return statement;
+    }
+
+    /**
+     * statement fora do cache: fecha com o ResultSet (se o chamador só fechar
+     * ele) e fica registrado até ser fechado, para fechar() alcançá-lo
+     */
+    private PreparedStatement avulso(final PreparedStatement statement) throws SQLException {
+        statement.closeOnCompletion();
+        Iterator<Statement> it = avulsos.iterator();
+        while (it.hasNext()) {
+            if (it.next().isClosed()) {
+                it.remove();
+            }
+        }
+        avulsos.add(statement);
+
+        InvocationHandler handler = new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String nome = method.getName();
+                if ("close".equals(nome)) {
+                    fecharStatement(statement);
+                    synchronized (CacheStatements.this) {
+                        avulsos.remove(statement);
+                    }
+                    ExecutorConsultas.liberar((Statement) proxy);
+                    return null;
+                }
+                if ("equals".equals(nome)) {
+                    return proxy == args[0];
+                }
+                if ("hashCode".equals(nome)) {
+                    return System.identityHashCode(proxy);
+                }
+                try {
+                    return method.invoke(statement, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        };
+        return (PreparedStatement) Proxy.newProxyInstance(CacheStatements.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class }, handler);
+    }
+
+    /**
+     * fecha os statements livres menos usados além da capacidade; os
+     * emprestados saem do cache e são fechados na devolução
+     */
+    private void limitar() {
+        Iterator<Entrada> it = entradas.values().iterator();
+        while (entradas.size() > capacidade && it.hasNext()) {
+            Entrada antiga = it.next();
+            it.remove();
+            descartes++;
+            antiga.removida = true;
+            if (!antiga.emprestada) {
+                fecharStatement(antiga.statement);
+            }
+        }
+    }
+
+    /**
+     * @param execucao execução cujo ResultSet foi fechado, ou -1 no close()
+     * do statement
+     */
+    private synchronized void devolver(Entrada entrada, long emprestimo, long execucao) {
+        if (entrada.emprestimo != emprestimo || !entrada.emprestada
+                || (execucao >= 0 && execucao != entrada.execucao)) {
+            return;
+        }
+        entrada.emprestada = false;
+        if (entrada.removida) {
+            fecharStatement(entrada.statement);
+        }
+    }
+
+    /**
+     * fecha todos os statements
+     */
+    public synchronized void fechar() {
+        for (Entrada entrada : entradas.values()) {
+            fecharStatement(entrada.statement);
+        }
+        entradas.clear();
+        for (Statement avulso : avulsos) {
+            fecharStatement(avulso);
+        }
+        avulsos.clear();
+    }
+
+    private static void fecharStatement(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            Logger.getLogger(CacheStatements.class.getName()).log(Level.FINE, null, e);
+        }
+    }
+
+    public synchronized long getAcertos() {
+        return acertos;
+    }
+
+    public synchronized long getFaltas() {
+        return faltas;
+    }
+
+    public synchronized long getOcupados() {
+        return ocupados;
+    }
+
+    public synchronized long getDescartes() {
+        return descartes;
+    }
+
+    public synchronized int getTamanho() {
+        return entradas.size();
+    }
+
+    public int getCapacidade() {
+        return capacidade;
+    }
+
+    public int getLimiarPreparo() {
+        return limiarPreparo;
+    }
+
+    public static long getAcertosTotais() {
+        return ACERTOS_TOTAIS.get();
+    }
+
+    public static long getFaltasTotais() {
+        return FALTAS_TOTAIS.get();
+    }
+
+    /**
+     * @return acertos / (acertos + faltas) de todos os caches, entre 0 e 1
+     */
+    public static double getTaxaAcertoTotal() {
+        long a = ACERTOS_TOTAIS.get();
+        long total = a + FALTAS_TOTAIS.get();
+        return total == 0 ? 0 : (double) a / total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CacheStatements [tamanho=" + entradas.size() + "/" + capacidade + ", acertos=" + acertos
+                + ", faltas=" + faltas + ", ocupados=" + ocupados + ", descartes=" + descartes + "]";
+    }
+
+    private static final class Chave {
+
+        private final String sql;
+        private final int tipo;
+        private final int concorrencia;
+
+        private Chave(String sql, int tipo, int concorrencia) {
+            this.sql = sql;
+            this.tipo = tipo;
+            this.concorrencia = concorrencia;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Chave)) {
+                return false;
+            }
+            Chave outra = (Chave) obj;
+            return tipo == outra.tipo && concorrencia == outra.concorrencia && sql.equals(outra.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return (sql.hashCode() * 31 + tipo) * 31 + concorrencia;
+        }
+    }
+
+    private final class Entrada {
+
+        private final PreparedStatement statement;
+        private boolean emprestada;
+        private boolean removida;
+        private long emprestimo;
+        // conta as execuções: só o ResultSet da última devolve o statement
+        private long execucao;
+
+        private Entrada(PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        private PreparedStatement emprestar() {
+            emprestada = true;
+            final long numero = ++emprestimo;
+            InvocationHandler handler = new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    String nome = method.getName();
+                    if ("close".equals(nome)) {
+                        devolver(Entrada.this, numero, -1);
+                        ExecutorConsultas.liberar((Statement) proxy);
+                        return null;
+                    }
+                    if ("equals".equals(nome)) {
+                        return proxy == args[0];
+                    }
+                    if ("hashCode".equals(nome)) {
+                        return System.identityHashCode(proxy);
+                    }
+                    if ("toString".equals(nome)) {
+                        return statement.toString();
+                    }
+                    boolean atual;
+                    synchronized (CacheStatements.this) {
+                        atual = emprestimo == numero && emprestada;
+                    }
+                    if ("isClosed".equals(nome)) {
+                        return !atual || statement.isClosed();
+                    }
+                    if (!atual) {
+                        if ("cancel".equals(nome)) {
+                            // o statement já atende outro chamador
+                            return null;
+                        }
+                        throw new SQLException("Statement já devolvido ao cache");
+                    }
+                    boolean executa = nome.startsWith("execute");
+                    if (executa) {
+                        synchronized (CacheStatements.this) {
+                            execucao++;
+                        }
+                    }
+                    Object resultado;
+                    try {
+                        resultado = method.invoke(statement, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                    if (resultado instanceof ResultSet && ("executeQuery".equals(nome) || "getResultSet".equals(nome))) {
+                        long execucaoAtual;
+                        synchronized (CacheStatements.this) {
+                            execucaoAtual = execucao;
+                        }
+                        return this.resultado((Statement) proxy, (ResultSet) resultado, execucaoAtual);
+                    }
+                    return resultado;
+                }
+
+                /**
+                 * ResultSet cujo close() devolve o statement ao cache
+                 */
+                private ResultSet resultado(final Statement dono, final ResultSet consulta, final long execucao) {
+                    InvocationHandler handler = new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            String nome = method.getName();
+                            if ("getStatement".equals(nome)) {
+                                return dono;
+                            }
+                            if ("equals".equals(nome)) {
+                                return proxy == args[0];
+                            }
+                            if ("hashCode".equals(nome)) {
+                                return System.identityHashCode(proxy);
+                            }
+                            try {
+                                return method.invoke(consulta, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            } finally {
+                                if ("close".equals(nome)) {
+                                    devolver(Entrada.this, numero, execucao);
+                                }
+                            }
+                        }
+                    };
+                    return (ResultSet) Proxy.newProxyInstance(CacheStatements.class.getClassLoader(),
+                            new Class<?>[] { ResultSet.class }, handler);
+                }
+            };
+            return (PreparedStatement) Proxy.newProxyInstance(CacheStatements.class.getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class }, handler);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package combo.bd;
+
+import combo.vo.VoConexao;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * Escuta os avisos de alteração do PostgreSQL (LISTEN livros_alteracoes,
+ * enviados pelos gatilhos de 08_notificacoes.sql) numa conexão própria, fora
+ * do pool, e os repassa: primeiro ao MonitorEscritas (contagens, cache de
+ * resultados e tabelas derivadas) e depois aos OuvinteAlteracao, que
+ * recarregam só as páginas ou linhas afetadas. Assim nenhuma tela precisa
+ * consultar o banco periodicamente para perceber escritas de outros clientes.
+ *
+ * Se a conexão cai, o canal reconecta com espera crescente e avisa TODAS,
+ * já que avisos podem ter sido perdidos no intervalo. Só há canal no
+ * PostgreSQL; no MySQL iniciar() não faz nada.
+ */
+public class CanalAlteracoes {
+
+    public static final String CANAL = "livros_alteracoes";
+    private static final int ESPERA_AVISOS_MS = 1000;
+    private static final long ESPERA_RECONEXAO_INICIAL_MS = 500;
+    private static final long ESPERA_RECONEXAO_MAXIMA_MS = 30 * 1000;
+    private static final Logger LOG = Logger.getLogger(CanalAlteracoes.class.getName());
+
+    private static final CopyOnWriteArrayList<OuvinteAlteracao> OUVINTES =
+            new CopyOnWriteArrayList<OuvinteAlteracao>();
+    private static CanalAlteracoes ativo;
+
+    private final String url;
+    private final VoConexao voConexao;
+    private final Thread thread;
+    private volatile boolean parado;
+    private volatile boolean escutando;
+    private volatile Connection conexao;
+
+    private CanalAlteracoes(String url, VoConexao voConexao) {
+        this.url = url;
+        this.voConexao = voConexao;
+        this.thread = new Thread(this::escutar, "alteracoes-banco");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * começa a escutar o banco do pool (se PostgreSQL e se ainda não escuta)
+     *
+     * @param pool
+     */
+    public static synchronized void iniciar(PoolConexoes pool) {
+        if (ativo != null || !pool.getUrl().startsWith("jdbc:postgresql:")) {
+            return;
+        }
+        ativo = new CanalAlteracoes(pool.getUrl(), pool.getVoConexao());
+        ativo.thread.start();
+    }
+
+    /**
+     * para de escutar e fecha a conexão do canal
+     */
+    public static synchronized void parar() {
+        if (ativo == null) {
+            return;
+        }
+        ativo.parado = true;
+        ativo.thread.interrupt();
+        Connection conexao = ativo.conexao;
+        if (conexao != null) {
+            try {
+                conexao.close();
+            } catch (SQLException e) {
+                LOG.log(Level.FINE, null, e);
+            }
+        }
+        ativo = null;
+    }
+
+    public static synchronized boolean isAtivo() {
+        return ativo != null;
+    }
+
+    /**
+     * @return true se o canal está conectado e escutando: só então as versões
+     * do MonitorEscritas acompanham as escritas de outros clientes
+     */
+    public static synchronized boolean isEscutando() {
+        return ativo != null && ativo.escutando;
+    }
+
+    public static void adicionarOuvinte(OuvinteAlteracao ouvinte) {
+        OUVINTES.addIfAbsent(ouvinte);
+    }
+
+    public static void removerOuvinte(OuvinteAlteracao ouvinte) {
+        OUVINTES.remove(ouvinte);
+    }
+
+    /**
+     * repassa uma alteração, como se tivesse vindo do banco
+     *
+     * @param alteracao
+     */
+    public static void publicar(Alteracao alteracao) {
+        MonitorEscritas.notificarTabela(alteracao.getTabela());
+        for (OuvinteAlteracao ouvinte : OUVINTES) {
+            try {
+                ouvinte.alterado(alteracao);
+            } catch (RuntimeException ex) {
+                LOG.log(Level.WARNING, null, ex);
+            }
+        }
+    }
+
+    private void escutar() {
+        long espera = ESPERA_RECONEXAO_INICIAL_MS;
+        boolean reconexao = false;
+
+        while (!parado) {
+            try (Connection aberta = DriverManager.getConnection(url,
+                    voConexao.getUsuario(), voConexao.getSenha())) {
+                conexao = aberta;
+                try (Statement stmt = aberta.createStatement()) {
+                    stmt.execute("LISTEN " + CANAL);
+                }
+                PGConnection pg = aberta.unwrap(PGConnection.class);
+                if (reconexao) {
+                    // avisos do período desconectado se perderam
+                    publicar(new Alteracao(MonitorEscritas.TODAS, null, null));
+                }
+                escutando = true;
+                LOG.config("Escutando " + CANAL + " em " + url);
+                espera = ESPERA_RECONEXAO_INICIAL_MS;
+
+                while (!parado) {
+                    PGNotification[] avisos = pg.getNotifications(ESPERA_AVISOS_MS);
+                    if (avisos == null) {
+                        continue;
+                    }
+                    for (PGNotification aviso : avisos) {
+                        publicar(Alteracao.interpretar(aviso.getParameter()));
+                    }
+                }
+            } catch (SQLException e) {
+                escutando = false;
+                if (parado) {
+                    break;
+                }
+                LOG.log(Level.WARNING, "Canal de alterações caiu; reconectando em " + espera + " ms", e);
+                reconexao = true;
+                try {
+                    Thread.sleep(espera);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+                espera = Math.min(espera * 2, ESPERA_RECONEXAO_MAXIMA_MS);
+            } finally {
+                escutando = false;
+                conexao = null;
+            }
+        }
+    }
+}
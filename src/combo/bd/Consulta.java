@@ -0,0 +1,11 @@
+package combo.bd;
+
+/**
+ * trabalho de acesso ao banco executado pelo ExecutorConsultas
+ *
+ * @param <T> tipo do resultado
+ */
+public interface Consulta<T> {
+
+    public T executar() throws Exception;
+}
@@ -15,6 +15,10 @@ public class DaoConectarBD {
 
     private VoConexao voConexao;
     private Connection conexao;
+    private RoteadorConexoes roteador;
+    // conexão de leitura guardada numa réplica (null quando lê do primário)
+    private Connection conexaoLeitura;
+    private PoolConexoes poolLeitura;
 
     private DaoConectarBD(VoConexao voConexao, Connection conexao) {
         this.voConexao = voConexao;
@@ -28,16 +32,10 @@ public class DaoConectarBD {
     public Connection conectar(String tipoBanco) throws E_BD, java.lang.ClassNotFoundException, SQLException {
 
         // Declara a variável com o tipo da interface
-        DaoStringConexao conexaoConfig;
+        DaoStringConexao conexaoConfig = PoolConexoes.getStringConexao(tipoBanco);
 
         // Define o tipo de conexão com base no banco
-        if ("mysql".equalsIgnoreCase(tipoBanco)) {
-            conexaoConfig = new DaoStringConexaoMySQL();
-            this.voConexao = conexaoConfig.getConfiguracaoDefault();
-        } else {
-            conexaoConfig = new DaoStringConexaoPostgreSQL();
-            this.voConexao = conexaoConfig.getConfiguracaoDefault();
-        }
+        this.voConexao = conexaoConfig.getConfiguracaoDefault();
 
         // testa dados da conexão, se não existem gera exceção
         if ((this.getVoConexao() == null) || (this.getVoConexao().getBaseDados() == null)
@@ -48,26 +46,93 @@ public class DaoConectarBD {
                     " informações " + this.getVoConexao());
         }
 
-        // pega configuração da conexao
-        String url = conexaoConfig.getStringConexao(this.getVoConexao());
-
-        // carrega o Driver
-        Class.forName(this.getVoConexao().getClassDriver());
+        // pega o pool desta configuração (carrega o Driver na criação)
+        PoolConexoes pool = PoolConexoes.getPool(this.getVoConexao(), conexaoConfig);
 
-        // faz a conexao com o SGBD
-        conexao = DriverManager.getConnection(url,
-                this.getVoConexao().getUsuario(),
-                this.getVoConexao().getSenha());
+        // retira uma conexão do pool
+        conexao = pool.obterConexao();
         conexao.setAutoCommit(false);
 
+        // leituras podem ir para réplicas (-Dlivros.replicas)
+        roteador = RoteadorConexoes.para(pool);
+
         // retorna conexao
         return conexao;
     }
 
+    /**
+     * devolve a conexão ao pool
+     */
     public void desConectar() throws SQLException {
+        this.liberarLeitura();
         conexao.close();
     }
 
+    /**
+     * conexão para comandos só de leitura: a da réplica escolhida pelo
+     * roteador, mantida enquanto ela continuar elegível, ou a do primário
+     *
+     * @return
+     */
+    public synchronized Connection getConexaoLeitura() {
+        if (roteador == null || !roteador.temReplicas()) {
+            return conexao;
+        }
+        PoolConexoes pool = poolLeitura;
+        if (conexaoLeitura == null || !roteador.isElegivel(pool)) {
+            this.liberarLeitura();
+            pool = roteador.getPoolLeitura();
+            if (pool != roteador.getPrimario()) {
+                try {
+                    conexaoLeitura = pool.obterConexao();
+                    conexaoLeitura.setReadOnly(true);
+                    poolLeitura = pool;
+                } catch (SQLException e) {
+                    roteador.falhou(pool, e);
+                    this.liberarLeitura();
+                    pool = roteador.getPrimario();
+                }
+            }
+        }
+        roteador.contarLeitura(pool);
+        return conexaoLeitura != null ? conexaoLeitura : conexao;
+    }
+
+    /**
+     * uma leitura falhou: se a conexão da réplica caiu, a réplica sai do
+     * rodízio e as próximas leituras vão para o primário
+     *
+     * @param erro
+     * @return true se a conexão de leitura era de uma réplica e caiu (vale
+     * repetir a leitura no primário)
+     */
+    public synchronized boolean falhaLeitura(SQLException erro) {
+        if (conexaoLeitura == null || erro.getSQLState() == null || !erro.getSQLState().startsWith("08")) {
+            return false;
+        }
+        roteador.falhou(poolLeitura, erro);
+        this.liberarLeitura();
+        return true;
+    }
+
+    private synchronized void liberarLeitura() {
+        if (conexaoLeitura != null) {
+            try {
+                conexaoLeitura.setReadOnly(false);
+            } catch (SQLException e) {
+                // conexão perdida: o pool descarta a física na devolução
+            } finally {
+                try {
+                    conexaoLeitura.close();
+                } catch (SQLException e) {
+                    // já devolvida
+                }
+            }
+        }
+        conexaoLeitura = null;
+        poolLeitura = null;
+    }
+
     public VoConexao getVoConexao() {
         return voConexao;
     }
@@ -79,4 +144,8 @@ public class DaoConectarBD {
     public Connection getConexao() {
         return conexao;
     }
+
+    public RoteadorConexoes getRoteador() {
+        return roteador;
+    }
 }
@@ -7,7 +7,11 @@ package combo.bd;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  *
@@ -15,8 +19,11 @@ import java.sql.SQLException;
  */
 public class DaoConsultarBD {
 
+    public static final int TAMANHO_LOTE_PADRAO = 500;
+
     DaoConectarBD bd;
-    Connection conexao;
+    // escritas da transação aberta: os caches só são avisados no commit
+    private final List<String> escritasPendentes = new ArrayList<String>();
 
     public DaoConsultarBD(DaoConectarBD bd) {
         this.bd = bd;
@@ -24,24 +31,49 @@ public class DaoConsultarBD {
     
     public PreparedStatement getStatement(String sql) throws SQLException, E_BD, ClassNotFoundException {
         PreparedStatement comando;
-        conexao = bd.getConexao();
+        Connection conexao = this.conexaoPara(sql);
 
-        // prepara consulta
-        comando = conexao.prepareStatement(sql, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+        // prepara consulta (ou reaproveita do cache da conexão)
+        comando = CacheStatements.para(conexao).obter(sql, ResultSet.TYPE_SCROLL_INSENSITIVE,
+                ResultSet.CONCUR_READ_ONLY);
 
-        // retorna
+        // retorna (registrado na tarefa só enquanto executa, em consulta/executaSQL)
         return comando;
     }
     
 
     public void executaSQL(PreparedStatement ps) throws SQLException, E_BD, ClassNotFoundException {
        // executa consulta
-        ps.executeUpdate();
-        
-        // commit
-        this.executaSQL("commit");
+        Connection conexao = bd.getConexao();
+        MetricasConsultas.Medicao medicao = MetricasConsultas.iniciar(ps.toString());
+
+        // commit fecharia um cursor aberto na conexão: espera ele terminar
+        synchronized (conexao) {
+            ExecutorConsultas.registrar(ps);
+            try {
+                medicao.concluir(ps.executeUpdate());
+            } finally {
+                ExecutorConsultas.liberar(ps);
+            }
+            conexao.commit();
+        }
+
+        // avisa caches das tabelas alteradas (inclusive escritas anteriores da transação)
+        this.confirmarEscritas(conexao, ps.toString());
     }
     
+    /**
+     * abre um lote de escrita na conexão (addBatch/executeBatch com commit
+     * periódico), para gravações de muitas linhas
+     *
+     * @param sql comando com os parâmetros "?"
+     * @return lote a fechar no fim (try-with-resources)
+     * @throws SQLException
+     */
+    public LoteEscrita criarLote(String sql) throws SQLException {
+        return new LoteEscrita(bd.getConexao(), sql);
+    }
+
     /**
      * este método executa somente select
      * @param sql
@@ -51,16 +83,40 @@ public class DaoConsultarBD {
      * @throws ClassNotFoundException
      */
     public ResultSet consulta(String sql) throws SQLException, E_BD, ClassNotFoundException {
+        try {
+            return this.consultar(sql);
+        } catch (SQLException e) {
+            // réplica caiu: repete no primário
+            if (!bd.falhaLeitura(e)) {
+                throw e;
+            }
+            return this.consultar(sql);
+        }
+    }
+
+    private ResultSet consultar(String sql) throws SQLException {
         PreparedStatement comando;
         ResultSet consulta;
 
-        conexao = bd.getConexao();
+        Connection conexao = this.conexaoPara(sql);
 
         // prepara consulta
-        comando = conexao.prepareStatement(sql, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+        comando = CacheStatements.para(conexao).obter(sql, ResultSet.TYPE_SCROLL_INSENSITIVE,
+                ResultSet.CONCUR_READ_ONLY);
 
-        // executa consulta
-        consulta = comando.executeQuery();
+        // executa consulta (o resultado rolável já chega inteiro: cancelar só
+        // faz sentido até aqui); fechar o resultado devolve o comando ao cache
+        MetricasConsultas.Medicao medicao = MetricasConsultas.iniciar(sql);
+        ExecutorConsultas.registrar(comando);
+        try {
+            consulta = comando.executeQuery();
+        } catch (SQLException e) {
+            comando.close();
+            throw e;
+        } finally {
+            ExecutorConsultas.liberar(comando);
+        }
+        medicao.concluir(contarLinhas(consulta));
 
         // retorna resultado consulta
         return consulta;
@@ -78,10 +134,20 @@ public class DaoConsultarBD {
     public ResultSet consulta(PreparedStatement comando) throws SQLException, E_BD, ClassNotFoundException {
         ResultSet consulta;
 
-        conexao = bd.getConexao();
-
         // executa consulta
-        consulta = comando.executeQuery();
+        String texto = comando.toString();
+        MetricasConsultas.Medicao medicao = MetricasConsultas.iniciar(texto);
+        ExecutorConsultas.registrar(comando);
+        try {
+            consulta = comando.executeQuery();
+        } catch (SQLException e) {
+            // o comando é da conexão que caiu: só tira a réplica do rodízio
+            bd.falhaLeitura(e);
+            throw e;
+        } finally {
+            ExecutorConsultas.liberar(comando);
+        }
+        medicao.concluir(contarLinhas(consulta), texto);
 
         // retorna resultado consulta
         return consulta;
@@ -99,12 +165,211 @@ public class DaoConsultarBD {
     public void executaSQL(String sql) throws SQLException, E_BD, ClassNotFoundException {
         PreparedStatement comando;
 
-        conexao = bd.getConexao();
+        Connection conexao = bd.getConexao();
+
+        // prepara comando
+        comando = CacheStatements.para(conexao).obter(sql);
+
+        // executa comando sql e devolve o statement ao cache
+        try {
+            MetricasConsultas.Medicao medicao = MetricasConsultas.iniciar(sql);
+            medicao.concluir(comando.executeUpdate());
+        } finally {
+            comando.close();
+        }
+
+        // avisa caches das tabelas alteradas quando a escrita for confirmada
+        this.registrarEscrita(conexao, sql);
+    }
+
+    /**
+     * com autocommit (ou no próprio commit) avisa na hora; dentro de uma
+     * transação guarda o comando até o commit, e rollback descarta
+     */
+    private void registrarEscrita(Connection conexao, String sql) throws SQLException {
+        String comando = sql.trim();
+        if (comando.equalsIgnoreCase("rollback")) {
+            synchronized (escritasPendentes) {
+                escritasPendentes.clear();
+            }
+        } else if (comando.equalsIgnoreCase("commit") || conexao.getAutoCommit()) {
+            this.confirmarEscritas(conexao, sql);
+        } else {
+            synchronized (escritasPendentes) {
+                escritasPendentes.add(sql);
+            }
+        }
+    }
+
+    /**
+     * a transação foi confirmada: avisa as escritas guardadas e a última
+     * (e o roteador, se houve escrita)
+     */
+    private void confirmarEscritas(Connection conexao, String sql) {
+        List<String> confirmadas;
+        synchronized (escritasPendentes) {
+            confirmadas = new ArrayList<String>(escritasPendentes);
+            escritasPendentes.clear();
+        }
+        if (!confirmadas.isEmpty() || !sql.trim().equalsIgnoreCase("commit")) {
+            RoteadorConexoes.escritaConfirmada(conexao);
+        }
+        for (String escrita : confirmadas) {
+            MonitorEscritas.notificarSQL(escrita);
+        }
+        MonitorEscritas.notificarSQL(sql);
+    }
+
+    /**
+     * executa um select em modo streaming (TYPE_FORWARD_ONLY), entregando as
+     * linhas ao processador sem manter o resultado inteiro em memória
+     *
+     * PostgreSQL: só usa cursor com autocommit desligado e fetchSize &gt; 0.
+     * MySQL: só faz streaming com fetchSize = Integer.MIN_VALUE (linha a linha).
+     *
+     * @param sql
+     * @param tamanhoLote linhas buscadas por ida ao servidor (PostgreSQL)
+     * @param processador
+     * @param parametros valores dos "?" na ordem
+     * @return quantidade de linhas processadas
+     * @throws SQLException
+     * @throws E_BD
+     * @throws ClassNotFoundException
+     */
+    public int consultaStreaming(String sql, int tamanhoLote, final ProcessadorLinha processador,
+            Object... parametros) throws SQLException, E_BD, ClassNotFoundException {
+        final int[] entregues = new int[1];
+        ProcessadorLinha contador = new ProcessadorLinha() {
+            @Override
+            public void iniciar(ResultSetMetaData meta) throws SQLException {
+                entregues[0]++;
+                processador.iniciar(meta);
+            }
+
+            @Override
+            public void processar(ResultSet rs) throws SQLException {
+                entregues[0]++;
+                processador.processar(rs);
+            }
+        };
+        try {
+            return this.executarStreaming(sql, tamanhoLote, contador, parametros);
+        } catch (SQLException e) {
+            // réplica caiu antes de entregar qualquer coisa: repete no primário
+            if (entregues[0] > 0 || !bd.falhaLeitura(e)) {
+                throw e;
+            }
+            return this.executarStreaming(sql, tamanhoLote, processador, parametros);
+        }
+    }
+
+    private int executarStreaming(String sql, int tamanhoLote, ProcessadorLinha processador,
+            Object... parametros) throws SQLException {
+        Connection conexao = this.conexaoPara(sql);
+
+        // a conexão é compartilhada: outra thread não pode trocar o autocommit
+        // nem fazer commit enquanto o cursor estiver aberto
+        synchronized (conexao) {
+            return this.executarStreaming(conexao, sql, tamanhoLote, processador, parametros);
+        }
+    }
+
+    private int executarStreaming(Connection conexao, String sql, int tamanhoLote, ProcessadorLinha processador,
+            Object... parametros) throws SQLException {
+        int linhas = 0;
+
+        // cursor do PostgreSQL exige transação aberta
+        boolean autoCommit = conexao.getAutoCommit();
+        if (autoCommit) {
+            conexao.setAutoCommit(false);
+        }
 
         // prepara consulta
-        comando = conexao.prepareStatement(sql, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+        try (PreparedStatement comando = CacheStatements.para(conexao).obter(sql,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ExecutorConsultas.registrar(comando);
+            comando.setFetchSize(isMySQL(conexao) ? Integer.MIN_VALUE : tamanhoLote);
+            for (int i = 0; i < parametros.length; i++) {
+                comando.setObject(i + 1, parametros[i]);
+            }
+
+            // executa consulta e entrega as linhas
+            MetricasConsultas.Medicao medicao = MetricasConsultas.iniciar(sql);
+            try (ResultSet consulta = comando.executeQuery()) {
+                processador.iniciar(consulta.getMetaData());
+                if (consulta.next()) {
+                    medicao.primeiraLinha();
+                    do {
+                        processador.processar(consulta);
+                        linhas++;
+                    } while (consulta.next());
+                }
+                medicao.concluir(linhas, parametros.length == 0 ? null
+                        : sql + " " + Arrays.toString(parametros));
+            } finally {
+                ExecutorConsultas.liberar(comando);
+            }
+        } finally {
+            if (autoCommit) {
+                conexao.commit();
+                conexao.setAutoCommit(true);
+            }
+        }
+
+        // retorna quantidade de linhas
+        return linhas;
+    }
+
+    public int consultaStreaming(String sql, ProcessadorLinha processador, Object... parametros)
+            throws SQLException, E_BD, ClassNotFoundException {
+        return this.consultaStreaming(sql, TAMANHO_LOTE_PADRAO, processador, parametros);
+    }
+
+    /**
+     * lê uma tabela inteira em faixas da chave, cada uma numa conexão do pool
+     * principal (ver VarreduraParalela); tabelas pequenas vão num só cursor
+     *
+     * @param tabela
+     * @param chave coluna inteira e não nula que divide as faixas
+     * @param colunas lista do SELECT
+     * @param ordem ORDER BY dentro de cada faixa (null para a chave)
+     * @param emOrdem false entrega as linhas na ordem em que chegam
+     * @param processador chamado sempre nesta thread
+     * @return quantidade de linhas processadas
+     * @throws SQLException
+     */
+    public int consultaParalela(String tabela, String chave, String colunas, String ordem, boolean emOrdem,
+            ProcessadorLinha processador) throws SQLException {
+        VarreduraParalela varredura = new VarreduraParalela(bd.getRoteador().getPrimario(), tabela, chave,
+                colunas, ordem);
+        return varredura.executar(processador, emOrdem);
+    }
+
+    /**
+     * selects vão para a conexão de leitura (réplica, se houver); escritas e
+     * selects com bloqueio ficam na conexão primária
+     */
+    private Connection conexaoPara(String sql) {
+        return MonitorEscritas.isLeitura(sql) ? bd.getConexaoLeitura() : bd.getConexao();
+    }
+
+    /**
+     * linhas de um resultado rolável (já lido por inteiro na execução); -1
+     * para TYPE_FORWARD_ONLY
+     */
+    private static int contarLinhas(ResultSet consulta) throws SQLException {
+        if (consulta.getType() == ResultSet.TYPE_FORWARD_ONLY) {
+            return -1;
+        }
+        if (!consulta.last()) {
+            return 0;
+        }
+        int linhas = consulta.getRow();
+        consulta.beforeFirst();
+        return linhas;
+    }
 
-        // executa comando sql
-        comando.executeUpdate();
+    private static boolean isMySQL(Connection conexao) throws SQLException {
+        return conexao.getMetaData().getURL().startsWith("jdbc:mysql:");
     }
 }
@@ -1,17 +1,19 @@
 package combo.bd;
 
 import combo.vo.VoConexao;
+import java.util.logging.Logger;
 
 public class DaoStringConexaoMySQL implements DaoStringConexao {
 
     @Override
     public String getStringConexao(VoConexao vo) {
-        // Monta a URL de conexão para MySQL
+        // Monta a URL de conexão para MySQL; rewriteBatchedStatements junta
+        // os lotes de INSERT num só comando de várias linhas
         String url = "jdbc:mysql://" + vo.getHost() +
                 ":" + vo.getPorta() + "/" + vo.getBaseDados() +
-                "?useSSL=false&serverTimezone=UTC";
+                "?useSSL=false&serverTimezone=UTC&rewriteBatchedStatements=true";
 
-        System.out.println(url); // Mostra a URL montada
+        Logger.getLogger(DaoStringConexaoMySQL.class.getName()).config(url); // Registra a URL montada
         return url;
     }
 
@@ -5,6 +5,7 @@
 package combo.bd;
 
 import combo.vo.VoConexao;
+import java.util.logging.Logger;
 
 /**
  *
@@ -15,15 +16,17 @@ public class DaoStringConexaoPostgreSQL implements DaoStringConexao {
     @Override
     public String getStringConexao(VoConexao vo) {
         // monta conexão
+        // reWriteBatchedInserts: lotes de INSERT viram um só comando
         String url = "jdbc:postgresql://" + vo.getHost() +
-                ":" + vo.getPorta() + "/" + vo.getBaseDados();
+                ":" + vo.getPorta() + "/" + vo.getBaseDados() +
+                "?reWriteBatchedInserts=true";
 
         // Usar para MySQL
         // String url =
         // "jdbc:mysql://localhost:3306/livros?useSSL=false&serverTimezone=UTC";
 
-        // mostra conexao
-        System.out.println(url);
+        // registra conexao
+        Logger.getLogger(DaoStringConexaoPostgreSQL.class.getName()).config(url);
 
         // retorna
         return url;
@@ -0,0 +1,111 @@
+package combo.bd;
+
+import java.lang.reflect.Method;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executa as consultas fora da thread de eventos do Swing.
+ *
+ * Em JDKs com threads virtuais (21+) cada consulta ganha uma thread virtual;
+ * nos demais usa um pool de threads daemon. Os resultados voltam para a tela
+ * por TarefaConsulta.naEdt.
+ */
+public class ExecutorConsultas {
+
+    private static final int THREADS_PLATAFORMA = 8;
+    private static final ExecutorConsultas INSTANCIA = new ExecutorConsultas(
+            criarExecutor("consulta", THREADS_PLATAFORMA));
+    private static final ThreadLocal<TarefaConsulta<?>> ATUAL = new ThreadLocal<TarefaConsulta<?>>();
+
+    private final ExecutorService executor;
+
+    public ExecutorConsultas(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public static ExecutorConsultas getInstancia() {
+        return INSTANCIA;
+    }
+
+    /**
+     * agenda a consulta
+     *
+     * @param consulta
+     * @return tarefa para acompanhar, cancelar ou publicar o resultado na EDT
+     */
+    public <T> TarefaConsulta<T> executar(final Consulta<T> consulta) {
+        final TarefaConsulta<T> tarefa = new TarefaConsulta<T>();
+        executor.execute(() -> {
+            if (tarefa.isCancelada()) {
+                return;
+            }
+            ATUAL.set(tarefa);
+            try {
+                tarefa.concluir(consulta.executar());
+            } catch (Throwable erro) {
+                tarefa.falhar(erro);
+            } finally {
+                // terminada, a tarefa não cancela mais nada (os statements que
+                // o resultado ainda usa podem voltar ao cache e servir a outros)
+                tarefa.liberarTodos();
+                ATUAL.remove();
+            }
+        });
+        return tarefa;
+    }
+
+    /**
+     * associa o statement à tarefa em execução nesta thread (se houver), para
+     * que o cancelamento da tarefa chegue ao servidor
+     *
+     * @param statement
+     * @throws SQLException se a tarefa já foi cancelada
+     */
+    public static void registrar(Statement statement) throws SQLException {
+        TarefaConsulta<?> tarefa = ATUAL.get();
+        if (tarefa != null) {
+            tarefa.registrar(statement);
+        }
+    }
+
+    public static void liberar(Statement statement) {
+        TarefaConsulta<?> tarefa = ATUAL.get();
+        if (tarefa != null) {
+            tarefa.liberar(statement);
+        }
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * executor de threads virtuais (JDK 21+) ou, nos demais, pool fixo de
+     * threads daemon
+     *
+     * @param nome prefixo do nome das threads de plataforma
+     * @param threadsPlataforma tamanho do pool quando não há threads virtuais
+     * @return
+     */
+    public static ExecutorService criarExecutor(final String nome, int threadsPlataforma) {
+        try {
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            Logger.getLogger(ExecutorConsultas.class.getName()).log(Level.FINE,
+                    "Threads virtuais indisponíveis, usando pool de " + threadsPlataforma, e);
+        }
+        final AtomicInteger contador = new AtomicInteger();
+        return Executors.newFixedThreadPool(threadsPlataforma, r -> {
+            Thread t = new Thread(r, nome + "-" + contador.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+}
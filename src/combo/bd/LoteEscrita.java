@@ -0,0 +1,281 @@
+package combo.bd;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Gravação em lote de um comando de escrita (INSERT/UPDATE/DELETE com "?").
+ *
+ * As linhas se acumulam com addBatch e vão ao servidor num executeBatch
+ * quando o lote chega a linhasPorLote linhas ou a bytesPorLote bytes
+ * (estimados pelos valores); a transação é confirmada a cada lotesPorCommit
+ * lotes e no fechamento. Com reWriteBatchedInserts (PostgreSQL) ou
+ * rewriteBatchedStatements (MySQL) na URL o driver junta os INSERTs do lote
+ * num só comando de várias linhas.
+ *
+ * Se um lote falha, ele é desfeito até o savepoint tomado antes dele e
+ * repetido linha a linha, cada uma com seu savepoint: as linhas boas ficam
+ * gravadas e as ruins vão para getFalhas(), sem interromper a carga.
+ *
+ * Sem commit próprio (confirmar = false) o lote só envia: a transação, já
+ * aberta, continua de quem chama, que decide o que fazer com as falhas.
+ */
+public class LoteEscrita implements AutoCloseable {
+
+    public static final int LINHAS_POR_LOTE_PADRAO = 1000;
+    public static final long BYTES_POR_LOTE_PADRAO = 1024 * 1024;
+    public static final int LOTES_POR_COMMIT_PADRAO = 10;
+
+    private final Connection conexao;
+    private final String sql;
+    private final PreparedStatement comando;
+    private final boolean autoCommitOriginal;
+    private final boolean confirmar;
+    private final List<Object[]> pendentes = new ArrayList<Object[]>();
+    private final List<Falha> falhas = new ArrayList<Falha>();
+    private int linhasPorLote = LINHAS_POR_LOTE_PADRAO;
+    private long bytesPorLote = BYTES_POR_LOTE_PADRAO;
+    private int lotesPorCommit = LOTES_POR_COMMIT_PADRAO;
+    private long bytesPendentes;
+    private int lotesSemCommit;
+    private long linhasEnviadas;
+    private long linhasGravadas;
+    private boolean fechado;
+
+    /**
+     * @param conexao a transação passa a ser controlada pelo lote até o
+     * fechamento (o autocommit original é restaurado)
+     * @param sql comando com os parâmetros "?"
+     */
+    public LoteEscrita(Connection conexao, String sql) throws SQLException {
+        this(conexao, sql, true);
+    }
+
+    /**
+     * @param conexao
+     * @param sql comando com os parâmetros "?"
+     * @param confirmar false deixa a transação (aberta, sem autocommit) com
+     * quem chama: o lote não faz commit nem rollback
+     */
+    public LoteEscrita(Connection conexao, String sql, boolean confirmar) throws SQLException {
+        this.conexao = conexao;
+        this.sql = sql;
+        this.confirmar = confirmar;
+        this.autoCommitOriginal = conexao.getAutoCommit();
+        if (!confirmar && autoCommitOriginal) {
+            throw new SQLException("Lote sem commit próprio exige transação aberta: " + sql);
+        }
+        this.comando = CacheStatements.para(conexao).obter(sql);
+        if (autoCommitOriginal) {
+            conexao.setAutoCommit(false);
+        }
+    }
+
+    /**
+     * acrescenta uma linha ao lote, enviando-o se chegou a um dos limites
+     *
+     * @param valores valores dos "?" na ordem
+     * @throws SQLException
+     */
+    public void adicionar(Object... valores) throws SQLException {
+        if (fechado) {
+            throw new SQLException("Lote já fechado: " + sql);
+        }
+        this.associar(valores);
+        comando.addBatch();
+        pendentes.add(valores);
+        bytesPendentes += estimarBytes(valores);
+
+        if (pendentes.size() >= linhasPorLote || bytesPendentes >= bytesPorLote) {
+            this.descarregar();
+        }
+    }
+
+    /**
+     * envia as linhas acumuladas (executeBatch) e confirma a transação se
+     * completou lotesPorCommit lotes
+     *
+     * @throws SQLException
+     */
+    public void descarregar() throws SQLException {
+        if (pendentes.isEmpty()) {
+            return;
+        }
+        List<Object[]> lote = new ArrayList<Object[]>(pendentes);
+        long primeiraLinha = linhasEnviadas;
+        pendentes.clear();
+        bytesPendentes = 0;
+        linhasEnviadas += lote.size();
+
+        MetricasConsultas.Medicao medicao = MetricasConsultas.iniciar(sql);
+        Savepoint antes = conexao.setSavepoint();
+        try {
+            comando.executeBatch();
+            linhasGravadas += lote.size();
+            conexao.releaseSavepoint(antes);
+        } catch (BatchUpdateException e) {
+            comando.clearBatch();
+            conexao.rollback(antes);
+            this.repetirLinhaALinha(lote, primeiraLinha);
+        }
+        medicao.concluir(lote.size());
+
+        if (confirmar && ++lotesSemCommit >= lotesPorCommit) {
+            this.confirmar();
+        }
+    }
+
+    /**
+     * isola as linhas que falharam no lote
+     */
+    private void repetirLinhaALinha(List<Object[]> lote, long primeiraLinha) throws SQLException {
+        for (int i = 0; i < lote.size(); i++) {
+            Savepoint antes = conexao.setSavepoint();
+            try {
+                this.associar(lote.get(i));
+                comando.executeUpdate();
+                linhasGravadas++;
+                conexao.releaseSavepoint(antes);
+            } catch (SQLException e) {
+                conexao.rollback(antes);
+                falhas.add(new Falha(primeiraLinha + i, lote.get(i), e));
+            }
+        }
+    }
+
+    private void confirmar() throws SQLException {
+        conexao.commit();
+        lotesSemCommit = 0;
+        // avisa roteador e caches das tabelas alteradas
+        RoteadorConexoes.escritaConfirmada(conexao);
+        MonitorEscritas.notificarSQL(sql);
+    }
+
+    /**
+     * envia o que restou, confirma e devolve o comando ao cache da conexão;
+     * se a gravação falhou, desfaz o que não foi confirmado (sem commit
+     * próprio, só envia e devolve o comando)
+     *
+     * @throws SQLException
+     */
+    @Override
+    public void close() throws SQLException {
+        if (fechado) {
+            return;
+        }
+        fechado = true;
+        if (!confirmar) {
+            try {
+                this.descarregar();
+            } finally {
+                comando.clearBatch();
+                comando.close();
+            }
+            return;
+        }
+        boolean confirmado = false;
+        try {
+            this.descarregar();
+            this.confirmar();
+            confirmado = true;
+        } finally {
+            try {
+                if (!confirmado) {
+                    conexao.rollback();
+                }
+                comando.clearBatch();
+                comando.close();
+            } finally {
+                if (autoCommitOriginal) {
+                    conexao.setAutoCommit(true);
+                }
+            }
+        }
+    }
+
+    private void associar(Object[] valores) throws SQLException {
+        for (int i = 0; i < valores.length; i++) {
+            comando.setObject(i + 1, valores[i]);
+        }
+    }
+
+    private static long estimarBytes(Object[] valores) {
+        long bytes = 0;
+        for (Object valor : valores) {
+            if (valor instanceof CharSequence) {
+                bytes += 4 + 2L * ((CharSequence) valor).length();
+            } else if (valor instanceof byte[]) {
+                bytes += 4 + ((byte[]) valor).length;
+            } else {
+                bytes += 8;
+            }
+        }
+        return bytes;
+    }
+
+    public void setLinhasPorLote(int linhasPorLote) {
+        this.linhasPorLote = Math.max(linhasPorLote, 1);
+    }
+
+    public void setBytesPorLote(long bytesPorLote) {
+        this.bytesPorLote = Math.max(bytesPorLote, 1);
+    }
+
+    public void setLotesPorCommit(int lotesPorCommit) {
+        this.lotesPorCommit = Math.max(lotesPorCommit, 1);
+    }
+
+    public long getLinhasEnviadas() {
+        return linhasEnviadas + pendentes.size();
+    }
+
+    public long getLinhasGravadas() {
+        return linhasGravadas;
+    }
+
+    public List<Falha> getFalhas() {
+        return Collections.unmodifiableList(falhas);
+    }
+
+    /**
+     * linha recusada pelo SGBD
+     */
+    public static final class Falha {
+
+        private final long linha;
+        private final Object[] valores;
+        private final SQLException erro;
+
+        private Falha(long linha, Object[] valores, SQLException erro) {
+            this.linha = linha;
+            this.valores = valores;
+            this.erro = erro;
+        }
+
+        /**
+         * @return posição da linha na ordem de adicionar(), a partir de 0
+         */
+        public long getLinha() {
+            return linha;
+        }
+
+        public Object[] getValores() {
+            return valores.clone();
+        }
+
+        public SQLException getErro() {
+            return erro;
+        }
+
+        @Override
+        public String toString() {
+            return "linha " + linha + ": " + erro.getMessage();
+        }
+    }
+}
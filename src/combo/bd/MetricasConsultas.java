@@ -0,0 +1,340 @@
+package combo.bd;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Métricas das consultas do DaoConsultarBD e do ConsultaDAO, agrupadas pela
+ * impressão digital do SQL (literais trocados por ?): histograma de
+ * latência, tempo até a primeira linha e linhas lidas. Guarda também o tempo
+ * de montagem dos modelos de JTable.
+ *
+ * Consultas acima de limiteLentaMs vão para o log combo.bd.consultas.lentas
+ * com os valores dos parâmetros. O limite inicial vem da propriedade
+ * livros.consultaLentaMs. Tudo é publicado no JMX como
+ * combo:type=MetricasConsultas.
+ */
+public class MetricasConsultas implements MetricasConsultasMBean {
+
+    public static final String NOME_JMX = "combo:type=MetricasConsultas";
+    private static final int MAXIMO_IMPRESSOES = 500;
+    private static final String OUTRAS = "(outras)";
+    private static final Logger LOG_LENTAS = Logger.getLogger("combo.bd.consultas.lentas");
+
+    private static final MetricasConsultas INSTANCIA = new MetricasConsultas();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCIA, new ObjectName(NOME_JMX));
+        } catch (JMException | SecurityException e) {
+            Logger.getLogger(MetricasConsultas.class.getName()).log(Level.WARNING, "MBean não registrado", e);
+        }
+    }
+
+    private final Map<String, Estatistica> consultas = new ConcurrentHashMap<String, Estatistica>();
+    private final Map<String, Estatistica> montagens = new ConcurrentHashMap<String, Estatistica>();
+    private final Map<String, String> impressoes = new ConcurrentHashMap<String, String>();
+    private final AtomicLong execucoes = new AtomicLong();
+    private final AtomicLong lentas = new AtomicLong();
+    private volatile long limiteLentaMs = Long.getLong("livros.consultaLentaMs", 500);
+
+    private MetricasConsultas() {
+    }
+
+    public static MetricasConsultas getInstancia() {
+        return INSTANCIA;
+    }
+
+    /**
+     * começa a medir uma execução
+     *
+     * @param sql texto do comando (pode conter os valores, como no toString()
+     * de um PreparedStatement)
+     * @return medição a concluir depois de ler as linhas
+     */
+    public static Medicao iniciar(String sql) {
+        return new Medicao(sql);
+    }
+
+    /**
+     * registra a montagem de um modelo de JTable
+     *
+     * @param modelo nome do montador (classe)
+     * @param nanos
+     * @param linhas
+     */
+    public static void registrarMontagem(String modelo, long nanos, long linhas) {
+        Estatistica estatistica = INSTANCIA.montagens.get(modelo);
+        if (estatistica == null) {
+            INSTANCIA.montagens.putIfAbsent(modelo, new Estatistica(modelo));
+            estatistica = INSTANCIA.montagens.get(modelo);
+        }
+        estatistica.registrar(nanos, -1, linhas);
+    }
+
+    private void registrar(Medicao medicao, long nanos, long linhas, String comParametros) {
+        execucoes.incrementAndGet();
+        this.getEstatistica(medicao.sql).registrar(nanos, medicao.primeiraLinha, linhas);
+
+        if (nanos >= limiteLentaMs * 1000000L) {
+            lentas.incrementAndGet();
+            if (LOG_LENTAS.isLoggable(Level.WARNING)) {
+                LOG_LENTAS.warning(String.format(Locale.ROOT, "%.1f ms (primeira linha %.1f ms), %d linhas: %s",
+                        nanos / 1e6, medicao.primeiraLinha < 0 ? nanos / 1e6 : medicao.primeiraLinha / 1e6,
+                        linhas, comParametros != null ? comParametros : medicao.sql));
+            }
+        }
+    }
+
+    private Estatistica getEstatistica(String sql) {
+        String impressao = impressoes.get(sql);
+        if (impressao == null) {
+            impressao = impressaoDigital(sql);
+            // textos com valores embutidos variam sempre: não guarda
+            if (impressao.length() == sql.length() && impressoes.size() < MAXIMO_IMPRESSOES * 4) {
+                impressoes.put(sql, impressao);
+            }
+        }
+        Estatistica estatistica = consultas.get(impressao);
+        if (estatistica == null) {
+            if (consultas.size() >= MAXIMO_IMPRESSOES) {
+                impressao = OUTRAS;
+            }
+            consultas.putIfAbsent(impressao, new Estatistica(impressao));
+            estatistica = consultas.get(impressao);
+        }
+        return estatistica;
+    }
+
+    /**
+     * normaliza o SQL: strings e números viram ?, espaços são colapsados e o
+     * restante vai para minúsculas
+     */
+    public static String impressaoDigital(String sql) {
+        StringBuilder saida = new StringBuilder(sql.length());
+        int n = sql.length();
+        boolean espaco = false;
+        for (int i = 0; i < n; i++) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                // literal de string ('' é aspa escapada)
+                i++;
+                while (i < n && (sql.charAt(i) != '\'' || (i + 1 < n && sql.charAt(i + 1) == '\''))) {
+                    i += sql.charAt(i) == '\'' ? 2 : 1;
+                }
+                c = '?';
+            } else if (Character.isDigit(c) && (saida.length() == 0
+                    || !Character.isLetterOrDigit(saida.charAt(saida.length() - 1))
+                    && saida.charAt(saida.length() - 1) != '_')) {
+                while (i + 1 < n && (Character.isDigit(sql.charAt(i + 1)) || sql.charAt(i + 1) == '.')) {
+                    i++;
+                }
+                c = '?';
+            } else if (Character.isWhitespace(c)) {
+                espaco = saida.length() > 0;
+                continue;
+            }
+            if (espaco) {
+                saida.append(' ');
+                espaco = false;
+            }
+            saida.append(Character.toLowerCase(c));
+        }
+        return saida.toString();
+    }
+
+    @Override
+    public long getExecucoes() {
+        return execucoes.get();
+    }
+
+    @Override
+    public long getConsultasLentas() {
+        return lentas.get();
+    }
+
+    @Override
+    public long getLimiteLentaMs() {
+        return limiteLentaMs;
+    }
+
+    @Override
+    public void setLimiteLentaMs(long limiteLentaMs) {
+        this.limiteLentaMs = limiteLentaMs;
+    }
+
+    @Override
+    public String[] getResumoConsultas() {
+        return resumir(consultas);
+    }
+
+    @Override
+    public String[] getResumoMontagens() {
+        return resumir(montagens);
+    }
+
+    @Override
+    public double getTaxaAcertoStatements() {
+        return CacheStatements.getTaxaAcertoTotal();
+    }
+
+    @Override
+    public void zerar() {
+        consultas.clear();
+        montagens.clear();
+        execucoes.set(0);
+        lentas.set(0);
+    }
+
+    private static String[] resumir(Map<String, Estatistica> mapa) {
+        List<Estatistica> lista = new ArrayList<Estatistica>(mapa.values());
+        // as que mais consumiram tempo primeiro
+        Collections.sort(lista, new Comparator<Estatistica>() {
+            @Override
+            public int compare(Estatistica a, Estatistica b) {
+                return Long.compare(b.latencia.getSoma(), a.latencia.getSoma());
+            }
+        });
+        String[] linhas = new String[lista.size()];
+        for (int i = 0; i < linhas.length; i++) {
+            linhas[i] = lista.get(i).toString();
+        }
+        return linhas;
+    }
+
+    /**
+     * uma execução em andamento
+     */
+    public static final class Medicao {
+
+        private final String sql;
+        private final long inicio = System.nanoTime();
+        private long primeiraLinha = -1;
+
+        private Medicao(String sql) {
+            this.sql = sql;
+        }
+
+        /**
+         * marca a chegada da primeira linha (consultas em streaming)
+         */
+        public void primeiraLinha() {
+            if (primeiraLinha < 0) {
+                primeiraLinha = System.nanoTime() - inicio;
+            }
+        }
+
+        public void concluir(long linhas) {
+            this.concluir(linhas, null);
+        }
+
+        /**
+         * @param linhas lidas (select) ou alteradas
+         * @param comParametros SQL com os valores dos parâmetros, para o log de
+         * lentas (ex.: toString() do PreparedStatement), ou null
+         */
+        public void concluir(long linhas, String comParametros) {
+            INSTANCIA.registrar(this, System.nanoTime() - inicio, linhas, comParametros);
+        }
+    }
+
+    /**
+     * contadores de uma impressão digital
+     */
+    private static final class Estatistica {
+
+        private final String nome;
+        private final Histograma latencia = new Histograma();
+        private final Histograma primeiraLinha = new Histograma();
+        private final AtomicLong linhas = new AtomicLong();
+
+        private Estatistica(String nome) {
+            this.nome = nome;
+        }
+
+        private void registrar(long nanos, long nanosPrimeiraLinha, long lidas) {
+            latencia.registrar(nanos);
+            primeiraLinha.registrar(nanosPrimeiraLinha >= 0 ? nanosPrimeiraLinha : nanos);
+            if (lidas > 0) {
+                linhas.addAndGet(lidas);
+            }
+        }
+
+        @Override
+        public String toString() {
+            long n = latencia.getQuantidade();
+            return String.format(Locale.ROOT,
+                    "%s | n=%d total=%.1fms p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms"
+                    + " primeira_p50=%.2fms linhas/exec=%.1f",
+                    nome, n, latencia.getSoma() / 1e6, latencia.percentil(0.50) / 1e6,
+                    latencia.percentil(0.95) / 1e6, latencia.percentil(0.99) / 1e6,
+                    latencia.getMaximo() / 1e6, primeiraLinha.percentil(0.50) / 1e6,
+                    n == 0 ? 0.0 : (double) linhas.get() / n);
+        }
+    }
+
+    /**
+     * histograma em faixas de potência de 2 (em nanossegundos): o percentil
+     * devolvido é o limite superior da faixa, com erro de no máximo 2x
+     */
+    private static final class Histograma {
+
+        private static final int FAIXAS = 48;
+
+        private final AtomicLongArray contagens = new AtomicLongArray(FAIXAS);
+        private final AtomicLong quantidade = new AtomicLong();
+        private final AtomicLong soma = new AtomicLong();
+        private final AtomicLong maximo = new AtomicLong();
+
+        private void registrar(long nanos) {
+            long valor = Math.max(nanos, 1);
+            contagens.incrementAndGet(Math.min(63 - Long.numberOfLeadingZeros(valor), FAIXAS - 1));
+            quantidade.incrementAndGet();
+            soma.addAndGet(valor);
+            long atual;
+            while (valor > (atual = maximo.get()) && !maximo.compareAndSet(atual, valor)) {
+                // tenta de novo
+            }
+        }
+
+        private long percentil(double p) {
+            long total = quantidade.get();
+            if (total == 0) {
+                return 0;
+            }
+            long alvo = (long) Math.ceil(total * p);
+            long acumulado = 0;
+            for (int i = 0; i < FAIXAS; i++) {
+                acumulado += contagens.get(i);
+                if (acumulado >= alvo) {
+                    return Math.min(1L << (i + 1), maximo.get());
+                }
+            }
+            return maximo.get();
+        }
+
+        private long getQuantidade() {
+            return quantidade.get();
+        }
+
+        private long getSoma() {
+            return soma.get();
+        }
+
+        private long getMaximo() {
+            return maximo.get();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package combo.bd;
+
+/**
+ * Interface JMX de MetricasConsultas (combo:type=MetricasConsultas)
+ */
+public interface MetricasConsultasMBean {
+
+    public long getExecucoes();
+
+    public long getConsultasLentas();
+
+    public long getLimiteLentaMs();
+
+    public void setLimiteLentaMs(long limiteLentaMs);
+
+    /**
+     * @return uma linha por SQL (impressão digital), das mais custosas às
+     * menos: execuções, percentis de latência, primeira linha e linhas lidas
+     */
+    public String[] getResumoConsultas();
+
+    /**
+     * @return uma linha por tipo de modelo de JTable montado
+     */
+    public String[] getResumoMontagens();
+
+    public double getTaxaAcertoStatements();
+
+    public void zerar();
+}
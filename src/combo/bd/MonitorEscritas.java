@@ -0,0 +1,146 @@
+package combo.bd;
+
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Identifica as tabelas alteradas pelos comandos de escrita e avisa os
+ * ouvintes (caches de contagem, de resultados etc.). Mantém também uma versão
+ * por tabela, incrementada a cada escrita.
+ */
+public class MonitorEscritas {
+
+    public static final String TODAS = "*";
+
+    private static final Pattern TABELA_ESCRITA = Pattern.compile(
+            "\\b(?:insert\\s+into|update|delete\\s+from|truncate(?:\\s+table)?|copy|merge\\s+into)"
+            + "\\s+(?:only\\s+)?(?:\"?\\w+\"?\\.)?\"?(\\w+)\"?",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern SELECT = Pattern.compile("^\\s*select\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern BLOQUEIO = Pattern.compile("\\bfor\\s+(?:update|share|no\\s+key|key)\\b",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final CopyOnWriteArrayList<OuvinteEscrita> OUVINTES = new CopyOnWriteArrayList<OuvinteEscrita>();
+    private static final Map<String, AtomicLong> VERSOES = new ConcurrentHashMap<String, AtomicLong>();
+    private static final AtomicLong VERSAO_TODAS = new AtomicLong();
+    private static final Map<String, Set<String>> DERIVADAS = new ConcurrentHashMap<String, Set<String>>();
+
+    private MonitorEscritas() {
+    }
+
+    public static void adicionarOuvinte(OuvinteEscrita ouvinte) {
+        OUVINTES.addIfAbsent(ouvinte);
+    }
+
+    public static void removerOuvinte(OuvinteEscrita ouvinte) {
+        OUVINTES.remove(ouvinte);
+    }
+
+    /**
+     * registra uma tabela mantida pelo banco (gatilhos) a partir de outra:
+     * escritas na base passam a avisar também a derivada
+     *
+     * @param base
+     * @param derivada
+     */
+    public static void registrarDerivada(String base, String derivada) {
+        String nome = base.toLowerCase(Locale.ROOT);
+        Set<String> derivadas = DERIVADAS.get(nome);
+        if (derivadas == null) {
+            DERIVADAS.putIfAbsent(nome, new CopyOnWriteArraySet<String>());
+            derivadas = DERIVADAS.get(nome);
+        }
+        derivadas.add(derivada.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * avisa as tabelas escritas pelo comando; comandos que não são select e
+     * cuja tabela não se reconhece invalidam tudo
+     *
+     * @param sql texto do comando (ou toString() do PreparedStatement)
+     */
+    public static void notificarSQL(String sql) {
+        if (sql == null) {
+            notificarTabela(TODAS);
+            return;
+        }
+        Set<String> tabelas = tabelasEscritas(sql);
+        if (tabelas.isEmpty()) {
+            if (!SELECT.matcher(sql).find() && !sql.trim().equalsIgnoreCase("commit")) {
+                notificarTabela(TODAS);
+            }
+            return;
+        }
+        for (String tabela : tabelas) {
+            notificarTabela(tabela);
+        }
+    }
+
+    public static void notificarTabela(String tabela) {
+        String nome = tabela.toLowerCase(Locale.ROOT);
+        if (TODAS.equals(nome)) {
+            VERSAO_TODAS.incrementAndGet();
+        } else {
+            getContador(nome).incrementAndGet();
+        }
+        for (OuvinteEscrita ouvinte : OUVINTES) {
+            try {
+                ouvinte.tabelaAlterada(nome);
+            } catch (RuntimeException ex) {
+                Logger.getLogger(MonitorEscritas.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+
+        Set<String> derivadas = DERIVADAS.get(nome);
+        if (derivadas != null) {
+            for (String derivada : derivadas) {
+                notificarTabela(derivada);
+            }
+        }
+    }
+
+    public static Set<String> tabelasEscritas(String sql) {
+        Set<String> tabelas = new LinkedHashSet<String>();
+        Matcher m = TABELA_ESCRITA.matcher(sql);
+        while (m.find()) {
+            tabelas.add(m.group(1).toLowerCase(Locale.ROOT));
+        }
+        return tabelas;
+    }
+
+    /**
+     * @param sql
+     * @return true para select que não escreve nem bloqueia linhas, que pode
+     * rodar numa réplica
+     */
+    public static boolean isLeitura(String sql) {
+        return SELECT.matcher(sql).find() && !BLOQUEIO.matcher(sql).find()
+                && !TABELA_ESCRITA.matcher(sql).find();
+    }
+
+    /**
+     * @return versão da tabela: muda a cada escrita nela (ou em TODAS)
+     */
+    public static long getVersao(String tabela) {
+        return getContador(tabela.toLowerCase(Locale.ROOT)).get() + VERSAO_TODAS.get();
+    }
+
+    private static AtomicLong getContador(String tabela) {
+        AtomicLong contador = VERSOES.get(tabela);
+        if (contador == null) {
+            VERSOES.putIfAbsent(tabela, new AtomicLong());
+            contador = VERSOES.get(tabela);
+        }
+        return contador;
+    }
+}
@@ -0,0 +1,10 @@
+package combo.bd;
+
+/**
+ * Recebe as alterações avisadas pelo banco (CanalAlteracoes), na thread do
+ * canal: quem mexe na tela deve repassar para a EDT
+ */
+public interface OuvinteAlteracao {
+
+    public void alterado(Alteracao alteracao);
+}
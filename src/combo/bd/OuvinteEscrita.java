@@ -0,0 +1,13 @@
+package combo.bd;
+
+/**
+ * avisado quando um comando de escrita passa por DaoConsultarBD
+ */
+public interface OuvinteEscrita {
+
+    /**
+     * @param tabela nome da tabela alterada, em minúsculas, ou
+     * MonitorEscritas.TODAS quando não foi possível identificá-la
+     */
+    public void tabelaAlterada(String tabela);
+}
@@ -0,0 +1,403 @@
+package combo.bd;
+
+import combo.vo.VoConexao;
+import combo.vo.VoConfiguracaoPool;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool limitado de conexões, compartilhado por DaoConectarBD e ConsultaDAO.
+ *
+ * As conexões entregues são proxies: close() devolve a conexão física ao
+ * pool em vez de fechá-la. Na retirada a conexão é validada (se ficou ociosa
+ * mais que o intervalo de validação) e descartada se passou da vida máxima.
+ *
+ * @author dlnotari
+ */
+public class PoolConexoes {
+
+    private static final Map<VoConexao, PoolConexoes> POOLS = new HashMap<VoConexao, PoolConexoes>();
+    private static PoolConexoes padrao;
+
+    private final VoConexao voConexao;
+    private final VoConfiguracaoPool configuracao;
+    private final DaoStringConexao stringConexao;
+    private final String url;
+    private final LinkedBlockingDeque<ConexaoFisica> livres = new LinkedBlockingDeque<ConexaoFisica>();
+    private final Semaphore vagas;
+    private final AtomicInteger total = new AtomicInteger();
+    private final ScheduledExecutorService manutencao;
+    private volatile boolean fechado;
+
+    // métricas
+    private final AtomicLong emprestimos = new AtomicLong();
+    private final AtomicLong esperasEsgotadas = new AtomicLong();
+    private final AtomicLong criadas = new AtomicLong();
+    private final AtomicLong descartadas = new AtomicLong();
+    private final AtomicLong falhasValidacao = new AtomicLong();
+    private final AtomicLong tempoEsperaNanos = new AtomicLong();
+
+    public PoolConexoes(VoConexao voConexao, DaoStringConexao stringConexao,
+            VoConfiguracaoPool configuracao) throws ClassNotFoundException {
+        this.voConexao = voConexao;
+        this.configuracao = configuracao;
+        this.stringConexao = stringConexao;
+        this.url = stringConexao.getStringConexao(voConexao);
+        this.vagas = new Semaphore(configuracao.getMaximo(), true);
+
+        // carrega o Driver
+        Class.forName(voConexao.getClassDriver());
+
+        // thread de manutenção: mantém o mínimo aquecido e recicla conexões velhas
+        this.manutencao = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pool-conexoes-" + voConexao.getSgbd());
+            t.setDaemon(true);
+            return t;
+        });
+        this.manutencao.scheduleWithFixedDelay(this::manter, 0,
+                configuracao.getIntervaloManutencaoMs(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * obtém (ou cria) o pool para o tipo de banco informado
+     *
+     * @param tipoBanco "mysql" ou "postgresql"
+     * @return
+     * @throws ClassNotFoundException
+     */
+    public static PoolConexoes getPool(String tipoBanco) throws ClassNotFoundException {
+        DaoStringConexao conexaoConfig = getStringConexao(tipoBanco);
+        return getPool(conexaoConfig.getConfiguracaoDefault(), conexaoConfig);
+    }
+
+    public static synchronized PoolConexoes getPool(VoConexao vo, DaoStringConexao stringConexao)
+            throws ClassNotFoundException {
+        PoolConexoes pool = POOLS.get(vo);
+        if (pool == null || pool.fechado) {
+            pool = new PoolConexoes(vo, stringConexao, new VoConfiguracaoPool());
+            POOLS.put(vo, pool);
+        }
+        if (padrao == null) {
+            padrao = pool;
+        }
+        return pool;
+    }
+
+    /**
+     * pool usado por quem não escolhe o banco (ConsultaDAO): o primeiro pool
+     * criado na aplicação ou, se nenhum, o do PostgreSQL
+     */
+    public static synchronized PoolConexoes getPadrao() throws ClassNotFoundException {
+        if (padrao == null || padrao.fechado) {
+            padrao = null;
+            return getPool("postgresql");
+        }
+        return padrao;
+    }
+
+    public static DaoStringConexao getStringConexao(String tipoBanco) {
+        if ("mysql".equalsIgnoreCase(tipoBanco)) {
+            return new DaoStringConexaoMySQL();
+        }
+        return new DaoStringConexaoPostgreSQL();
+    }
+
+    public static synchronized void fecharTodos() {
+        for (PoolConexoes pool : POOLS.values()) {
+            pool.fechar();
+        }
+        POOLS.clear();
+        padrao = null;
+    }
+
+    /**
+     * retira uma conexão do pool, esperando no máximo esperaMaximaMs
+     *
+     * @return conexão cujo close() a devolve ao pool
+     * @throws SQLException
+     */
+    public Connection obterConexao() throws SQLException {
+        if (fechado) {
+            throw new SQLException("Pool de conexões fechado: " + url);
+        }
+        long inicio = System.nanoTime();
+        try {
+            if (!vagas.tryAcquire(configuracao.getEsperaMaximaMs(), TimeUnit.MILLISECONDS)) {
+                esperasEsgotadas.incrementAndGet();
+                throw new SQLTransientConnectionException("Tempo de espera por conexão esgotado ("
+                        + configuracao.getEsperaMaximaMs() + " ms, " + total.get() + " em uso)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrompido esperando conexão", e);
+        }
+        tempoEsperaNanos.addAndGet(System.nanoTime() - inicio);
+
+        try {
+            ConexaoFisica fisica;
+            while ((fisica = livres.pollFirst()) != null) {
+                if (this.valida(fisica)) {
+                    break;
+                }
+                this.descartar(fisica);
+            }
+            if (fisica == null) {
+                fisica = this.criar();
+            }
+            emprestimos.incrementAndGet();
+            return fisica.emprestar();
+        } catch (SQLException | RuntimeException e) {
+            vagas.release();
+            throw e;
+        }
+    }
+
+    private boolean valida(ConexaoFisica fisica) {
+        long agora = System.currentTimeMillis();
+        if (agora - fisica.criadaEm > configuracao.getVidaMaximaMs()) {
+            return false;
+        }
+        if (agora - fisica.ultimoUso < configuracao.getIntervaloValidacaoMs()) {
+            return true;
+        }
+        try {
+            if (fisica.conexao.isValid(configuracao.getTimeoutValidacaoSegundos())) {
+                return true;
+            }
+        } catch (SQLException e) {
+            Logger.getLogger(PoolConexoes.class.getName()).log(Level.FINE, null, e);
+        }
+        falhasValidacao.incrementAndGet();
+        return false;
+    }
+
+    private ConexaoFisica criar() throws SQLException {
+        // faz a conexao com o SGBD
+        Connection conexao = DriverManager.getConnection(url,
+                voConexao.getUsuario(), voConexao.getSenha());
+        total.incrementAndGet();
+        criadas.incrementAndGet();
+        CacheStatements.registrar(conexao, configuracao.getStatementsPorConexao(),
+                configuracao.getLimiarPreparoServidor());
+        return new ConexaoFisica(conexao);
+    }
+
+    private void descartar(ConexaoFisica fisica) {
+        total.decrementAndGet();
+        descartadas.incrementAndGet();
+        CacheStatements.descartar(fisica.conexao);
+        try {
+            fisica.conexao.close();
+        } catch (SQLException e) {
+            Logger.getLogger(PoolConexoes.class.getName()).log(Level.FINE, null, e);
+        }
+    }
+
+    private void devolver(ConexaoFisica fisica) {
+        try {
+            boolean reutilizavel = !fechado && !fisica.conexao.isClosed()
+                    && System.currentTimeMillis() - fisica.criadaEm <= configuracao.getVidaMaximaMs();
+            if (reutilizavel) {
+                // desfaz o que o usuário deixou pendente
+                if (!fisica.conexao.getAutoCommit()) {
+                    fisica.conexao.rollback();
+                    fisica.conexao.setAutoCommit(true);
+                }
+                fisica.conexao.clearWarnings();
+                fisica.ultimoUso = System.currentTimeMillis();
+                livres.offerFirst(fisica);
+            } else {
+                this.descartar(fisica);
+            }
+        } catch (SQLException e) {
+            this.descartar(fisica);
+        } finally {
+            vagas.release();
+        }
+    }
+
+    /**
+     * recicla conexões vencidas/ociosas e completa o mínimo de conexões livres
+     */
+    private void manter() {
+        long agora = System.currentTimeMillis();
+        List<ConexaoFisica> vencidas = new ArrayList<ConexaoFisica>();
+        Iterator<ConexaoFisica> it = livres.descendingIterator();
+        int mantidas = livres.size();
+        while (it.hasNext()) {
+            ConexaoFisica fisica = it.next();
+            boolean velha = agora - fisica.criadaEm > configuracao.getVidaMaximaMs();
+            boolean ociosa = agora - fisica.ultimoUso > configuracao.getOciosoMaximoMs()
+                    && mantidas > configuracao.getMinimoOcioso();
+            if ((velha || ociosa) && livres.remove(fisica)) {
+                vencidas.add(fisica);
+                mantidas--;
+            }
+        }
+        for (ConexaoFisica fisica : vencidas) {
+            this.descartar(fisica);
+        }
+
+        try {
+            while (!fechado && livres.size() < configuracao.getMinimoOcioso()
+                    && total.get() < configuracao.getMaximo()) {
+                ConexaoFisica fisica = this.criar();
+                livres.offerLast(fisica);
+            }
+        } catch (SQLException e) {
+            Logger.getLogger(PoolConexoes.class.getName()).log(Level.WARNING,
+                    "Não foi possível aquecer o pool de " + url, e);
+        }
+    }
+
+    public void fechar() {
+        fechado = true;
+        manutencao.shutdownNow();
+        ConexaoFisica fisica;
+        while ((fisica = livres.pollFirst()) != null) {
+            this.descartar(fisica);
+        }
+    }
+
+    // métricas
+    public int getConexoesTotais() {
+        return total.get();
+    }
+
+    public int getConexoesLivres() {
+        return livres.size();
+    }
+
+    public int getConexoesEmUso() {
+        return configuracao.getMaximo() - vagas.availablePermits();
+    }
+
+    public int getThreadsAguardando() {
+        return vagas.getQueueLength();
+    }
+
+    public long getEmprestimos() {
+        return emprestimos.get();
+    }
+
+    public long getEsperasEsgotadas() {
+        return esperasEsgotadas.get();
+    }
+
+    public long getConexoesCriadas() {
+        return criadas.get();
+    }
+
+    public long getConexoesDescartadas() {
+        return descartadas.get();
+    }
+
+    public long getFalhasValidacao() {
+        return falhasValidacao.get();
+    }
+
+    public double getEsperaMediaMs() {
+        long n = emprestimos.get();
+        return n == 0 ? 0 : tempoEsperaNanos.get() / 1e6 / n;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public VoConexao getVoConexao() {
+        return voConexao;
+    }
+
+    public DaoStringConexao getDaoStringConexao() {
+        return stringConexao;
+    }
+
+    public VoConfiguracaoPool getConfiguracao() {
+        return configuracao;
+    }
+
+    @Override
+    public String toString() {
+        return "PoolConexoes [" + url + " total=" + getConexoesTotais() + ", livres=" + getConexoesLivres()
+                + ", emUso=" + getConexoesEmUso() + ", aguardando=" + getThreadsAguardando()
+                + ", emprestimos=" + getEmprestimos() + ", esperasEsgotadas=" + getEsperasEsgotadas()
+                + ", criadas=" + getConexoesCriadas() + ", descartadas=" + getConexoesDescartadas()
+                + ", esperaMediaMs=" + String.format("%.3f", getEsperaMediaMs()) + "]";
+    }
+
+    /**
+     * conexão física mantida pelo pool
+     */
+    private final class ConexaoFisica {
+
+        private final Connection conexao;
+        private final long criadaEm;
+        private volatile long ultimoUso;
+
+        private ConexaoFisica(Connection conexao) {
+            this.conexao = conexao;
+            this.criadaEm = System.currentTimeMillis();
+            this.ultimoUso = this.criadaEm;
+        }
+
+        private Connection emprestar() {
+            final AtomicBoolean devolvida = new AtomicBoolean();
+            InvocationHandler handler = new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    String nome = method.getName();
+                    if ("close".equals(nome)) {
+                        if (devolvida.compareAndSet(false, true)) {
+                            devolver(ConexaoFisica.this);
+                        }
+                        return null;
+                    }
+                    if ("isClosed".equals(nome)) {
+                        return devolvida.get() || conexao.isClosed();
+                    }
+                    if ("equals".equals(nome)) {
+                        return proxy == args[0];
+                    }
+                    if ("hashCode".equals(nome)) {
+                        return System.identityHashCode(proxy);
+                    }
+                    if ("toString".equals(nome)) {
+                        return "Pooled[" + conexao + "]";
+                    }
+                    if (devolvida.get()) {
+                        throw new SQLException("Conexão já devolvida ao pool");
+                    }
+                    try {
+                        return method.invoke(conexao, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }
+            };
+            return (Connection) Proxy.newProxyInstance(PoolConexoes.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, handler);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package combo.bd;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * recebe, uma a uma, as linhas de uma consulta em modo streaming
+ *
+ * @author felipe.bogo
+ */
+public interface ProcessadorLinha {
+
+    /**
+     * chamado com o cursor posicionado na linha atual; não deve mover o cursor
+     *
+     * @param rs
+     * @throws SQLException
+     */
+    public void processar(ResultSet rs) throws SQLException;
+
+    /**
+     * chamado uma vez, depois da execução e antes da primeira linha (mesmo
+     * que não venha nenhuma)
+     *
+     * @param meta colunas do resultado
+     * @throws SQLException
+     */
+    public default void iniciar(ResultSetMetaData meta) throws SQLException {
+    }
+}
@@ -0,0 +1,423 @@
+package combo.bd;
+
+import combo.vo.VoConexao;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Separa leituras e escritas: as escritas ficam no pool primário e as
+ * leituras vão para a réplica saudável menos ocupada, caindo para o primário
+ * quando nenhuma serve.
+ *
+ * As réplicas vêm de -Dlivros.replicas, lista separada por vírgulas de
+ * "host:porta" (mesma base, usuário e senha do primário) ou "alternativa"
+ * (a configuração alternativa do DaoStringConexao, se for do mesmo SGBD).
+ * Sem a propriedade o roteador devolve sempre o primário.
+ *
+ * Uma thread verifica cada réplica a cada livros.replicas.intervaloMs e mede o
+ * atraso de replicação; réplicas fora do ar ou com atraso acima de
+ * livros.replicas.atrasoMaximoMs não recebem leituras.
+ *
+ * Para que quem escreveu leia o que escreveu, cada escrita deste processo
+ * (escritaConfirmada, depois do commit) guarda a posição do WAL no primário
+ * (pg_current_wal_lsn) e as leituras só vão para a réplica cuja última
+ * verificação mostrou pg_last_wal_replay_lsn daí em diante. Sem essa posição
+ * (MySQL) as leituras voltam ao primário até a réplica ter aplicado tudo até
+ * o instante da escrita, ou até passar livros.replicas.aderenciaMs. Escritas
+ * de outros clientes (CanalAlteracoes) não mudam o roteamento.
+ */
+public class RoteadorConexoes {
+
+    private static final Logger LOG = Logger.getLogger(RoteadorConexoes.class.getName());
+    private static final Map<PoolConexoes, RoteadorConexoes> ROTEADORES = new HashMap<PoolConexoes, RoteadorConexoes>();
+
+    private static final String ATRASO_POSTGRESQL = "SELECT CASE WHEN NOT pg_is_in_recovery() "
+            + "OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 "
+            + "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0) END, "
+            + "CASE WHEN pg_is_in_recovery() THEN pg_last_wal_replay_lsn() ELSE pg_current_wal_lsn() END - '0/0'";
+    private static final String LSN_POSTGRESQL = "SELECT pg_current_wal_lsn() - '0/0'";
+
+    private final PoolConexoes primario;
+    private final List<Replica> replicas;
+    private final long intervaloMs = Long.getLong("livros.replicas.intervaloMs", 2000);
+    private final long atrasoMaximoMs = Long.getLong("livros.replicas.atrasoMaximoMs", 1000);
+    private final long aderenciaMs = Long.getLong("livros.replicas.aderenciaMs", 5000);
+    private final ScheduledExecutorService verificacao;
+    private final AtomicInteger vez = new AtomicInteger();
+    // posição do WAL da última escrita deste processo (-1: nenhuma)
+    private final AtomicLong lsnEscrita = new AtomicLong(-1);
+    // instante da última escrita deste processo sem posição conhecida
+    private volatile long ultimaEscrita;
+
+    // métricas
+    private final AtomicLong leiturasReplica = new AtomicLong();
+    private final AtomicLong leiturasPrimario = new AtomicLong();
+
+    private RoteadorConexoes(PoolConexoes primario, List<Replica> replicas) {
+        this.primario = primario;
+        this.replicas = Collections.unmodifiableList(replicas);
+        if (replicas.isEmpty()) {
+            this.verificacao = null;
+            return;
+        }
+
+        this.verificacao = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "verifica-replicas-" + primario.getVoConexao().getSgbd());
+            t.setDaemon(true);
+            return t;
+        });
+        this.verificacao.scheduleWithFixedDelay(this::verificarTodas, 0, intervaloMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * obtém (ou cria) o roteador do pool primário
+     *
+     * @param primario
+     * @return
+     */
+    public static synchronized RoteadorConexoes para(PoolConexoes primario) {
+        RoteadorConexoes roteador = ROTEADORES.get(primario);
+        if (roteador == null) {
+            roteador = new RoteadorConexoes(primario, criarReplicas(primario));
+            ROTEADORES.put(primario, roteador);
+        }
+        return roteador;
+    }
+
+    public static synchronized void pararTodos() {
+        for (RoteadorConexoes roteador : ROTEADORES.values()) {
+            roteador.parar();
+        }
+        ROTEADORES.clear();
+    }
+
+    private static List<Replica> criarReplicas(PoolConexoes primario) {
+        List<Replica> replicas = new ArrayList<Replica>();
+        String lista = System.getProperty("livros.replicas", "").trim();
+        if (lista.isEmpty()) {
+            return replicas;
+        }
+
+        VoConexao base = primario.getVoConexao();
+        DaoStringConexao stringConexao = primario.getDaoStringConexao();
+        for (String item : lista.split(",")) {
+            String endereco = item.trim();
+            VoConexao vo;
+            if (endereco.isEmpty()) {
+                continue;
+            } else if ("alternativa".equalsIgnoreCase(endereco)) {
+                vo = stringConexao.getConfiguracaoAlternativa();
+                if (!base.getSgbd().equalsIgnoreCase(vo.getSgbd())
+                        || !base.getClassDriver().equals(vo.getClassDriver())) {
+                    LOG.warning("Configuração alternativa (" + vo.getSgbd() + ") não serve de réplica para "
+                            + base.getSgbd());
+                    continue;
+                }
+            } else {
+                int separador = endereco.lastIndexOf(':');
+                String host = separador < 0 ? endereco : endereco.substring(0, separador);
+                String porta = separador < 0 ? base.getPorta() : endereco.substring(separador + 1);
+                vo = new VoConexao(base.getSgbd(), host, porta, base.getBaseDados(),
+                        base.getUsuario(), base.getSenha(), base.getClassDriver());
+            }
+            if (vo.getHost().equals(base.getHost()) && vo.getPorta().equals(base.getPorta())) {
+                continue;
+            }
+
+            try {
+                replicas.add(new Replica(PoolConexoes.getPool(vo, stringConexao)));
+            } catch (ClassNotFoundException e) {
+                LOG.log(Level.WARNING, "Driver da réplica " + endereco + " não encontrado", e);
+            }
+        }
+        return replicas;
+    }
+
+    /**
+     * @return pool de onde ler agora: a réplica elegível menos ocupada
+     * (revezando nos empates) ou o primário
+     */
+    public PoolConexoes getPoolLeitura() {
+        Replica escolhida = null;
+        int menorCarga = Integer.MAX_VALUE;
+        int inicio = replicas.isEmpty() ? 0 : Math.floorMod(vez.getAndIncrement(), replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((inicio + i) % replicas.size());
+            if (!this.isElegivel(replica)) {
+                continue;
+            }
+            int carga = replica.pool.getConexoesEmUso() + replica.pool.getThreadsAguardando();
+            if (carga < menorCarga) {
+                menorCarga = carga;
+                escolhida = replica;
+            }
+        }
+        return escolhida == null ? primario : escolhida.pool;
+    }
+
+    /**
+     * @param pool
+     * @return true se o pool é o primário ou uma réplica que pode receber
+     * leituras agora
+     */
+    public boolean isElegivel(PoolConexoes pool) {
+        if (pool == primario) {
+            return true;
+        }
+        for (Replica replica : replicas) {
+            if (replica.pool == pool) {
+                return this.isElegivel(replica);
+            }
+        }
+        return false;
+    }
+
+    private boolean isElegivel(Replica replica) {
+        if (!replica.saudavel || replica.atrasoMs > atrasoMaximoMs) {
+            return false;
+        }
+        // a réplica já aplicou o WAL até a última escrita?
+        if (replica.lsnAplicado < lsnEscrita.get()) {
+            return false;
+        }
+        // sem posição: já aplicou o que o primário tinha no instante da escrita?
+        long escrita = ultimaEscrita;
+        return replica.verificadaEm - replica.atrasoMs > escrita
+                || System.currentTimeMillis() - escrita > aderenciaMs;
+    }
+
+    /**
+     * retira uma conexão para leitura; se a réplica escolhida falhar, ela é
+     * retirada do rodízio até a próxima verificação e a leitura vai ao primário
+     *
+     * @return conexão cujo close() a devolve ao pool de origem
+     * @throws SQLException
+     */
+    public Connection obterConexaoLeitura() throws SQLException {
+        PoolConexoes pool = this.getPoolLeitura();
+        if (pool != primario) {
+            try {
+                Connection conexao = pool.obterConexao();
+                leiturasReplica.incrementAndGet();
+                return conexao;
+            } catch (SQLException e) {
+                this.falhou(pool, e);
+            }
+        }
+        leiturasPrimario.incrementAndGet();
+        return primario.obterConexao();
+    }
+
+    /**
+     * registra uma leitura entregue por quem guarda a própria conexão
+     * (DaoConectarBD)
+     */
+    void contarLeitura(PoolConexoes pool) {
+        if (pool == primario) {
+            leiturasPrimario.incrementAndGet();
+        } else {
+            leiturasReplica.incrementAndGet();
+        }
+    }
+
+    /**
+     * tira a réplica do rodízio até a próxima verificação bem-sucedida
+     */
+    public void falhou(PoolConexoes pool, SQLException erro) {
+        for (Replica replica : replicas) {
+            if (replica.pool == pool && replica.saudavel) {
+                replica.saudavel = false;
+                LOG.log(Level.WARNING, "Réplica indisponível, lendo do primário: " + pool.getUrl(), erro);
+            }
+        }
+    }
+
+    /**
+     * registra uma escrita deste processo, já confirmada na conexão (do
+     * primário): as leituras só voltam a uma réplica que a tenha aplicado
+     *
+     * @param conexao conexão onde foi feito o commit
+     */
+    public static void escritaConfirmada(Connection conexao) {
+        try {
+            String url = conexao.getMetaData().getURL();
+            RoteadorConexoes roteador = comReplicas(url);
+            if (roteador != null) {
+                roteador.registrarEscrita(conexao, url);
+            }
+        } catch (SQLException e) {
+            LOG.log(Level.WARNING, "Escrita não registrada no roteador", e);
+        }
+    }
+
+    private static synchronized RoteadorConexoes comReplicas(String url) {
+        for (RoteadorConexoes roteador : ROTEADORES.values()) {
+            if (roteador.temReplicas() && roteador.primario.getUrl().equals(url)) {
+                return roteador;
+            }
+        }
+        return null;
+    }
+
+    private void registrarEscrita(Connection conexao, String url) {
+        if (url.startsWith("jdbc:postgresql:") && this.lerLsn(conexao)) {
+            return;
+        }
+        ultimaEscrita = System.currentTimeMillis();
+    }
+
+    /**
+     * @return false se a posição não pôde ser lida
+     */
+    private boolean lerLsn(Connection conexao) {
+        try (Statement stmt = conexao.createStatement();
+                ResultSet rs = stmt.executeQuery(LSN_POSTGRESQL)) {
+            if (!rs.next()) {
+                return false;
+            }
+            long lsn = rs.getLong(1);
+            lsnEscrita.accumulateAndGet(lsn, Math::max);
+            return true;
+        } catch (SQLException e) {
+            LOG.log(Level.WARNING, "Posição do WAL não lida; leituras pelo tempo da escrita", e);
+            return false;
+        }
+    }
+
+    private void verificarTodas() {
+        for (Replica replica : replicas) {
+            this.verificar(replica);
+        }
+    }
+
+    private void verificar(Replica replica) {
+        long inicio = System.currentTimeMillis();
+        try (Connection conexao = replica.pool.obterConexao();
+                Statement stmt = conexao.createStatement()) {
+            stmt.setQueryTimeout((int) Math.max(1, intervaloMs / 1000));
+            long atraso;
+            if (conexao.getMetaData().getURL().startsWith("jdbc:mysql:")) {
+                atraso = atrasoMySQL(stmt);
+            } else {
+                atraso = this.atrasoPostgreSQL(stmt, replica);
+            }
+
+            boolean estava = replica.saudavel;
+            replica.atrasoMs = atraso < 0 ? Long.MAX_VALUE : atraso;
+            replica.verificadaEm = inicio;
+            replica.saudavel = atraso >= 0;
+            if (!estava && replica.saudavel) {
+                LOG.info("Réplica disponível (atraso " + atraso + " ms): " + replica.pool.getUrl());
+            }
+        } catch (SQLException | RuntimeException e) {
+            if (replica.saudavel) {
+                LOG.log(Level.WARNING, "Falha na verificação da réplica " + replica.pool.getUrl(), e);
+            }
+            replica.saudavel = false;
+        }
+    }
+
+    /**
+     * @return atraso em ms, -1 sem resposta; guarda na réplica a posição do
+     * WAL já aplicada
+     */
+    private long atrasoPostgreSQL(Statement stmt, Replica replica) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(ATRASO_POSTGRESQL)) {
+            if (!rs.next()) {
+                return -1;
+            }
+            long lsn = rs.getLong(2);
+            replica.lsnAplicado = rs.wasNull() ? -1 : lsn;
+            return Math.max(0, rs.getLong(1));
+        }
+    }
+
+    /**
+     * @return atraso em ms, 0 se o servidor não é réplica, -1 se a replicação
+     * está parada
+     */
+    private static long atrasoMySQL(Statement stmt) throws SQLException {
+        ResultSet rs;
+        String coluna = "Seconds_Behind_Source";
+        try {
+            rs = stmt.executeQuery("SHOW REPLICA STATUS");
+        } catch (SQLException e) {
+            // anteriores ao 8.0.22
+            rs = stmt.executeQuery("SHOW SLAVE STATUS");
+            coluna = "Seconds_Behind_Master";
+        }
+        try {
+            if (!rs.next()) {
+                return 0;
+            }
+            long segundos = rs.getLong(coluna);
+            return rs.wasNull() ? -1 : segundos * 1000;
+        } finally {
+            rs.close();
+        }
+    }
+
+    public void parar() {
+        if (verificacao != null) {
+            verificacao.shutdownNow();
+        }
+    }
+
+    public PoolConexoes getPrimario() {
+        return primario;
+    }
+
+    public boolean temReplicas() {
+        return !replicas.isEmpty();
+    }
+
+    public long getLeiturasReplica() {
+        return leiturasReplica.get();
+    }
+
+    public long getLeiturasPrimario() {
+        return leiturasPrimario.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder texto = new StringBuilder("RoteadorConexoes [primario=" + primario.getUrl());
+        for (Replica replica : replicas) {
+            texto.append(", ").append(replica.pool.getUrl())
+                    .append(replica.saudavel ? " atraso=" + replica.atrasoMs + "ms" : " fora");
+        }
+        return texto.append(", leiturasReplica=").append(getLeiturasReplica())
+                .append(", leiturasPrimario=").append(getLeiturasPrimario()).append("]").toString();
+    }
+
+    /**
+     * pool de uma réplica e o resultado da última verificação
+     */
+    private static final class Replica {
+
+        private final PoolConexoes pool;
+        private volatile boolean saudavel;
+        private volatile long atrasoMs = Long.MAX_VALUE;
+        private volatile long verificadaEm;
+        // posição do WAL aplicada na última verificação (-1: desconhecida)
+        private volatile long lsnAplicado = -1;
+
+        private Replica(PoolConexoes pool) {
+            this.pool = pool;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package combo.bd;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.SwingUtilities;
+
+/**
+ * Consulta em andamento no ExecutorConsultas.
+ *
+ * Os statements preparados pela consulta se registram aqui
+ * (ExecutorConsultas.registrar), de modo que cancelar() interrompe a consulta
+ * no servidor com Statement.cancel() e não só descarta o resultado.
+ *
+ * @param <T> tipo do resultado
+ */
+public class TarefaConsulta<T> {
+
+    private final CompletableFuture<T> futuro = new CompletableFuture<T>();
+    private final Set<Statement> statements = new HashSet<Statement>();
+    private volatile boolean cancelada;
+
+    void registrar(Statement statement) throws SQLException {
+        synchronized (statements) {
+            if (cancelada) {
+                throw new SQLException("Consulta cancelada");
+            }
+            statements.add(statement);
+        }
+    }
+
+    void liberar(Statement statement) {
+        synchronized (statements) {
+            statements.remove(statement);
+        }
+    }
+
+    void liberarTodos() {
+        synchronized (statements) {
+            statements.clear();
+        }
+    }
+
+    void concluir(T resultado) {
+        futuro.complete(resultado);
+    }
+
+    void falhar(Throwable erro) {
+        futuro.completeExceptionally(erro);
+    }
+
+    /**
+     * cancela a consulta: o resultado é descartado e os statements em execução
+     * recebem Statement.cancel()
+     *
+     * @return true se a tarefa ainda não tinha terminado
+     */
+    public boolean cancelar() {
+        cancelada = true;
+        boolean pendente = futuro.cancel(false);
+        synchronized (statements) {
+            for (Statement statement : statements) {
+                try {
+                    statement.cancel();
+                } catch (SQLException ex) {
+                    Logger.getLogger(TarefaConsulta.class.getName()).log(Level.FINE, null, ex);
+                }
+            }
+            statements.clear();
+        }
+        return pendente;
+    }
+
+    /**
+     * entrega o resultado (ou o erro) na thread de eventos do Swing; nada é
+     * entregue se a tarefa foi cancelada
+     *
+     * @param sucesso
+     * @param erro
+     * @return a própria tarefa
+     */
+    public TarefaConsulta<T> naEdt(final Consumer<T> sucesso, final Consumer<Throwable> erro) {
+        futuro.whenComplete((resultado, falha) -> {
+            if (cancelada) {
+                return;
+            }
+            SwingUtilities.invokeLater(() -> {
+                if (cancelada) {
+                    return;
+                }
+                if (falha == null) {
+                    sucesso.accept(resultado);
+                } else {
+                    erro.accept(falha instanceof CompletionException && falha.getCause() != null
+                            ? falha.getCause() : falha);
+                }
+            });
+        });
+        return this;
+    }
+
+    public boolean isCancelada() {
+        return cancelada;
+    }
+
+    public boolean isConcluida() {
+        return futuro.isDone();
+    }
+
+    public Future<T> getFuturo() {
+        return futuro;
+    }
+
+    public CompletableFuture<T> getCompletableFuture() {
+        return futuro;
+    }
+}
@@ -0,0 +1,590 @@
+package combo.bd;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Leitura de uma tabela inteira em paralelo, dividida em faixas da chave.
+ *
+ * As faixas saem do histograma do PostgreSQL (pg_stats.histogram_bounds, com
+ * quantidades parecidas de linhas por faixa) ou, sem ele, de min/max da chave
+ * em partes iguais. Cada faixa é lida por um cursor próprio, numa conexão
+ * própria do pool e numa thread própria; as linhas são copiadas em blocos de
+ * LINHAS_POR_BLOCO e entregues ao processador na thread que chamou
+ * executar(), de modo que o processador não precisa ser thread-safe:
+ * <ul>
+ * <li>em ordem: faixa após faixa, cada uma na ordem informada; as faixas
+ * seguintes continuam lendo enquanto a atual é entregue, até BLOCOS_POR_FAIXA
+ * blocos à frente;</li>
+ * <li>sem ordem: os blocos na ordem em que chegam.</li>
+ * </ul>
+ *
+ * No PostgreSQL todas as faixas leem o mesmo instantâneo
+ * (pg_export_snapshot / SET TRANSACTION SNAPSHOT), como um único SELECT
+ * leria; no MySQL cada faixa lê o seu.
+ *
+ * Tabelas pequenas demais para mais de uma faixa (livros.varredura.linhasPorFaixa)
+ * são lidas num único cursor, sem cópia. A chave deve ser inteira e não nula.
+ */
+public class VarreduraParalela {
+
+    public static final int LINHAS_POR_BLOCO = 1024;
+    private static final int BLOCOS_POR_FAIXA = 4;
+    private static final int TAMANHO_LOTE = 5000;
+    private static final long LINHAS_POR_FAIXA = Long.getLong("livros.varredura.linhasPorFaixa", 50000);
+    private static final int FAIXAS_PADRAO = Integer.getInteger("livros.varredura.faixas",
+            Math.min(Runtime.getRuntime().availableProcessors(), 4));
+    // uma faixa por thread: uma faixa na fila não andaria enquanto as outras
+    // esperam a entrega dela
+    private static final int THREADS = 8;
+    private static final ExecutorService EXECUTOR = ExecutorConsultas.criarExecutor("varredura", THREADS);
+
+    private final PoolConexoes pool;
+    private final String tabela;
+    private final String chave;
+    private final String colunas;
+    private final String ordem;
+    private int faixas = FAIXAS_PADRAO;
+
+    /**
+     * @param pool conexões usadas pelas faixas (uma por faixa e, no
+     * PostgreSQL, mais uma para o instantâneo)
+     * @param tabela
+     * @param chave coluna inteira que divide as faixas
+     * @param colunas lista do SELECT
+     * @param ordem ORDER BY de cada faixa na leitura em ordem; null para a chave
+     */
+    public VarreduraParalela(PoolConexoes pool, String tabela, String chave, String colunas, String ordem) {
+        this.pool = pool;
+        this.tabela = tabela;
+        this.chave = chave;
+        this.colunas = colunas;
+        this.ordem = ordem == null ? chave : ordem;
+    }
+
+    public VarreduraParalela(PoolConexoes pool, String tabela, String chave, String colunas) {
+        this(pool, tabela, chave, colunas, null);
+    }
+
+    /**
+     * @param faixas máximo de faixas lidas ao mesmo tempo (no máximo o
+     * número de threads da varredura)
+     */
+    public void setFaixas(int faixas) {
+        this.faixas = Math.min(Math.max(faixas, 1), THREADS);
+    }
+
+    private boolean isMySQL() {
+        return pool.getUrl().startsWith("jdbc:mysql:");
+    }
+
+    /**
+     * lê a tabela inteira
+     *
+     * @param processador recebe as linhas na thread que chamou
+     * @param emOrdem true entrega na ordem da chave (e de ordem dentro de cada
+     * faixa)
+     * @return quantidade de linhas
+     * @throws SQLException
+     */
+    public int executar(ProcessadorLinha processador, boolean emOrdem) throws SQLException {
+        long[] limites = this.dividir();
+        if (limites.length == 0) {
+            return this.lerInteira(processador, emOrdem);
+        }
+        return new Execucao(limites, emOrdem).executar(processador);
+    }
+
+    /**
+     * @return limites entre as faixas (a faixa i vai de limites[i-1] inclusive
+     * a limites[i] exclusive; a primeira e a última não têm limite externo);
+     * vazio se não compensa dividir
+     */
+    long[] dividir() throws SQLException {
+        // faixas, mais a conexão do instantâneo, não podem esgotar o pool
+        int vagas = pool.getConfiguracao().getMaximo() - pool.getConexoesEmUso() - (this.isMySQL() ? 0 : 1);
+        int quantidade = Math.min(Math.min(faixas, vagas), THREADS);
+        if (quantidade < 2) {
+            return new long[0];
+        }
+
+        try (Connection conexao = pool.obterConexao()) {
+            long linhas = this.estimarLinhas(conexao);
+            quantidade = (int) Math.min(quantidade, linhas / LINHAS_POR_FAIXA);
+            if (quantidade < 2) {
+                return new long[0];
+            }
+
+            List<Long> histograma = this.isMySQL() ? new ArrayList<Long>() : this.lerHistograma(conexao);
+            List<Long> limites = new ArrayList<Long>();
+            if (histograma.size() > quantidade) {
+                // limites do histograma têm a mesma quantidade de linhas entre si
+                for (int i = 1; i < quantidade; i++) {
+                    limites.add(histograma.get(i * (histograma.size() - 1) / quantidade));
+                }
+            } else {
+                String sql = "SELECT MIN(" + chave + "), MAX(" + chave + ") FROM " + tabela;
+                try (Statement comando = conexao.createStatement(); ResultSet rs = comando.executeQuery(sql)) {
+                    rs.next();
+                    long menor = rs.getLong(1);
+                    long maior = rs.getLong(2);
+                    if (rs.wasNull()) {
+                        return new long[0];
+                    }
+                    long passo = Math.max((maior - menor + 1) / quantidade, 1);
+                    for (int i = 1; i < quantidade; i++) {
+                        limites.add(menor + i * passo);
+                    }
+                }
+            }
+
+            // limites repetidos dariam faixas vazias
+            long[] distintos = new long[limites.size()];
+            int n = 0;
+            for (long limite : limites) {
+                if (n == 0 || limite > distintos[n - 1]) {
+                    distintos[n++] = limite;
+                }
+            }
+            return Arrays.copyOf(distintos, n);
+        }
+    }
+
+    private long estimarLinhas(Connection conexao) throws SQLException {
+        String sql = this.isMySQL()
+                ? "SELECT table_rows FROM information_schema.tables WHERE table_schema = DATABASE() AND table_name = ?"
+                : "SELECT reltuples::bigint FROM pg_class WHERE oid = to_regclass(?)";
+        try (PreparedStatement comando = conexao.prepareStatement(sql)) {
+            comando.setString(1, tabela);
+            try (ResultSet rs = comando.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    private List<Long> lerHistograma(Connection conexao) throws SQLException {
+        List<Long> limites = new ArrayList<Long>();
+        String sql = "SELECT histogram_bounds::text FROM pg_stats "
+                + "WHERE schemaname = current_schema() AND tablename = ? AND attname = ?";
+        try (PreparedStatement comando = conexao.prepareStatement(sql)) {
+            comando.setString(1, tabela);
+            comando.setString(2, chave);
+            try (ResultSet rs = comando.executeQuery()) {
+                String texto = rs.next() ? rs.getString(1) : null;
+                if (texto == null || texto.length() < 2) {
+                    return limites;
+                }
+                // {1,100,200,...}
+                for (String valor : texto.substring(1, texto.length() - 1).split(",")) {
+                    try {
+                        limites.add(new BigDecimal(valor.replace("\"", "")).longValue());
+                    } catch (NumberFormatException e) {
+                        return new ArrayList<Long>();
+                    }
+                }
+            }
+        }
+        return limites;
+    }
+
+    private String sqlFaixa(boolean temInicio, boolean temFim, boolean emOrdem) {
+        StringBuilder sql = new StringBuilder("SELECT ").append(colunas).append(" FROM ").append(tabela);
+        if (temInicio || temFim) {
+            sql.append(" WHERE ");
+            if (temInicio) {
+                sql.append(chave).append(" >= ?");
+            }
+            if (temInicio && temFim) {
+                sql.append(" AND ");
+            }
+            if (temFim) {
+                sql.append(chave).append(" < ?");
+            }
+        }
+        if (emOrdem) {
+            sql.append(" ORDER BY ").append(ordem);
+        }
+        return sql.toString();
+    }
+
+    private void prepararCursor(PreparedStatement comando) throws SQLException {
+        comando.setFetchSize(this.isMySQL() ? Integer.MIN_VALUE : TAMANHO_LOTE);
+    }
+
+    /**
+     * tabela pequena: um só cursor, entregando as linhas direto do driver
+     */
+    private int lerInteira(ProcessadorLinha processador, boolean emOrdem) throws SQLException {
+        String sql = this.sqlFaixa(false, false, emOrdem);
+        int linhas = 0;
+        try (Connection conexao = pool.obterConexao()) {
+            // cursor do PostgreSQL exige transação aberta
+            conexao.setAutoCommit(false);
+            try (PreparedStatement comando = CacheStatements.para(conexao).obter(sql,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                ExecutorConsultas.registrar(comando);
+                this.prepararCursor(comando);
+                MetricasConsultas.Medicao medicao = MetricasConsultas.iniciar(sql);
+                try (ResultSet rs = comando.executeQuery()) {
+                    processador.iniciar(rs.getMetaData());
+                    if (rs.next()) {
+                        medicao.primeiraLinha();
+                        do {
+                            processador.processar(rs);
+                            linhas++;
+                        } while (rs.next());
+                    }
+                    medicao.concluir(linhas);
+                } finally {
+                    ExecutorConsultas.liberar(comando);
+                }
+            } finally {
+                conexao.commit();
+            }
+        }
+        return linhas;
+    }
+
+    /**
+     * linhas copiadas de uma faixa; fim marca a última entrega da faixa
+     */
+    private static class Bloco {
+        final int faixa;
+        final Object[][] linhas;
+        int quantidade;
+        boolean fim;
+        Throwable erro;
+
+        Bloco(int faixa, int capacidade) {
+            this.faixa = faixa;
+            this.linhas = new Object[capacidade][];
+        }
+    }
+
+    /**
+     * uma leitura dividida em faixas: as threads leitoras, as filas de blocos
+     * e a entrega na thread que chamou
+     */
+    private class Execucao {
+
+        private final long[] limites;
+        private final boolean emOrdem;
+        private final int quantidade;
+        // em ordem: uma fila por faixa; sem ordem: todas usam a mesma
+        private final List<BlockingQueue<Bloco>> filas = new ArrayList<BlockingQueue<Bloco>>();
+        private final CountDownLatch importados;
+        // PostgreSQL: conexão que exportou o instantâneo, aberta até todas as faixas o importarem
+        private final AtomicReference<Connection> coordenadora = new AtomicReference<Connection>();
+        private int isolamentoCoordenadora = Connection.TRANSACTION_READ_COMMITTED;
+        private final Set<Statement> statements = new HashSet<Statement>();
+        private volatile boolean abortada;
+        private volatile ResultSetMetaData meta;
+        private String instantaneo;
+
+        Execucao(long[] limites, boolean emOrdem) {
+            this.limites = limites;
+            this.emOrdem = emOrdem;
+            this.quantidade = limites.length + 1;
+            this.importados = new CountDownLatch(quantidade);
+            if (emOrdem) {
+                for (int i = 0; i < quantidade; i++) {
+                    filas.add(new ArrayBlockingQueue<Bloco>(BLOCOS_POR_FAIXA));
+                }
+            } else {
+                BlockingQueue<Bloco> unica = new ArrayBlockingQueue<Bloco>(BLOCOS_POR_FAIXA * quantidade);
+                for (int i = 0; i < quantidade; i++) {
+                    filas.add(unica);
+                }
+            }
+        }
+
+        int executar(ProcessadorLinha processador) throws SQLException {
+            List<Future<?>> leitores = new ArrayList<Future<?>>();
+            try {
+                if (!isMySQL()) {
+                    // o instantâneo vale enquanto a transação que o exportou estiver aberta
+                    Connection conexao = pool.obterConexao();
+                    coordenadora.set(conexao);
+                    isolamentoCoordenadora = conexao.getTransactionIsolation();
+                    conexao.setAutoCommit(false);
+                    conexao.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+                    try (Statement comando = conexao.createStatement();
+                            ResultSet rs = comando.executeQuery("SELECT pg_export_snapshot()")) {
+                        rs.next();
+                        instantaneo = rs.getString(1);
+                    }
+                }
+                for (int i = 0; i < quantidade; i++) {
+                    final int faixa = i;
+                    leitores.add(EXECUTOR.submit(() -> this.lerFaixa(faixa)));
+                }
+                // a primeira faixa já pode estar entregando enquanto as outras importam
+                return this.entregar(processador);
+            } finally {
+                this.liberarInstantaneo();
+                this.abortar();
+                for (Future<?> leitor : leitores) {
+                    try {
+                        leitor.get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException e) {
+                        Logger.getLogger(VarreduraParalela.class.getName()).log(Level.FINE, null, e);
+                    }
+                }
+            }
+        }
+
+        /**
+         * devolve a conexão do instantâneo (uma vez só: pela última faixa a
+         * importá-lo ou no fim da execução)
+         */
+        private void liberarInstantaneo() {
+            Connection conexao = coordenadora.getAndSet(null);
+            if (conexao != null) {
+                this.liberar(conexao, isolamentoCoordenadora);
+            }
+        }
+
+        /**
+         * encerra a transação e devolve a conexão ao pool com o isolamento
+         * que ela tinha
+         */
+        private void liberar(Connection conexao, int isolamento) {
+            try {
+                conexao.commit();
+                if (conexao.getTransactionIsolation() != isolamento) {
+                    conexao.setTransactionIsolation(isolamento);
+                }
+            } catch (SQLException e) {
+                Logger.getLogger(VarreduraParalela.class.getName()).log(Level.FINE, null, e);
+            } finally {
+                try {
+                    conexao.close();
+                } catch (SQLException e) {
+                    Logger.getLogger(VarreduraParalela.class.getName()).log(Level.FINE, null, e);
+                }
+            }
+        }
+
+        private void lerFaixa(int faixa) {
+            Bloco bloco = new Bloco(faixa, LINHAS_POR_BLOCO);
+            Connection conexao = null;
+            int isolamento = Connection.TRANSACTION_READ_COMMITTED;
+            try {
+                try {
+                    conexao = pool.obterConexao();
+                    isolamento = conexao.getTransactionIsolation();
+                    conexao.setAutoCommit(false);
+                    if (instantaneo != null) {
+                        conexao.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+                        try (Statement comando = conexao.createStatement()) {
+                            comando.execute("SET TRANSACTION SNAPSHOT '" + instantaneo + "'");
+                        }
+                    }
+                } finally {
+                    importados.countDown();
+                    if (importados.getCount() == 0) {
+                        this.liberarInstantaneo();
+                    }
+                }
+
+                boolean temInicio = faixa > 0;
+                boolean temFim = faixa < limites.length;
+                String sql = sqlFaixa(temInicio, temFim, emOrdem);
+                try (PreparedStatement comando = CacheStatements.para(conexao).obter(sql,
+                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                    this.registrar(comando);
+                    prepararCursor(comando);
+                    int parametro = 1;
+                    if (temInicio) {
+                        comando.setLong(parametro++, limites[faixa - 1]);
+                    }
+                    if (temFim) {
+                        comando.setLong(parametro, limites[faixa]);
+                    }
+
+                    MetricasConsultas.Medicao medicao = MetricasConsultas.iniciar(sql);
+                    int linhas = 0;
+                    try (ResultSet rs = comando.executeQuery()) {
+                        if (meta == null) {
+                            meta = VisaoLinhas.copiar(rs.getMetaData());
+                        }
+                        int numColunas = rs.getMetaData().getColumnCount();
+                        while (rs.next()) {
+                            if (linhas++ == 0) {
+                                medicao.primeiraLinha();
+                            }
+                            Object[] linha = new Object[numColunas];
+                            for (int j = 0; j < numColunas; j++) {
+                                linha[j] = rs.getObject(j + 1);
+                            }
+                            bloco.linhas[bloco.quantidade++] = linha;
+                            if (bloco.quantidade == LINHAS_POR_BLOCO) {
+                                if (!this.entregar(bloco)) {
+                                    return;
+                                }
+                                bloco = new Bloco(faixa, LINHAS_POR_BLOCO);
+                            }
+                        }
+                    }
+                    medicao.concluir(linhas, sql + " faixa " + faixa);
+                }
+            } catch (Throwable erro) {
+                bloco.erro = erro;
+            } finally {
+                if (conexao != null) {
+                    this.liberar(conexao, isolamento);
+                }
+                bloco.fim = true;
+                this.entregar(bloco);
+            }
+        }
+
+        private void registrar(Statement comando) throws SQLException {
+            synchronized (statements) {
+                if (abortada) {
+                    throw new SQLException("Leitura em faixas cancelada");
+                }
+                statements.add(comando);
+            }
+        }
+
+        /**
+         * põe o bloco na fila, esperando vaga enquanto a leitura não for abortada
+         *
+         * @return false se abortada
+         */
+        private boolean entregar(Bloco bloco) {
+            BlockingQueue<Bloco> fila = filas.get(bloco.faixa);
+            try {
+                while (!fila.offer(bloco, 100, TimeUnit.MILLISECONDS)) {
+                    if (abortada) {
+                        return false;
+                    }
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        /**
+         * passa os blocos ao processador, na thread que chamou executar()
+         */
+        private int entregar(ProcessadorLinha processador) throws SQLException {
+            LinhaCopiada linha = null;
+            int linhas = 0;
+            int terminadas = 0;
+            int faixa = 0;
+            while (terminadas < quantidade) {
+                Bloco bloco;
+                try {
+                    bloco = filas.get(faixa).take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrompido lendo as faixas", e);
+                }
+                if (bloco.erro != null) {
+                    throw bloco.erro instanceof SQLException ? (SQLException) bloco.erro
+                            : new SQLException("Falha lendo a faixa " + bloco.faixa + " de " + tabela, bloco.erro);
+                }
+                if (linha == null && meta != null) {
+                    linha = new LinhaCopiada(meta);
+                    processador.iniciar(meta);
+                }
+                for (int i = 0; i < bloco.quantidade; i++) {
+                    linha.valores = bloco.linhas[i];
+                    processador.processar(linha.resultSet);
+                }
+                linhas += bloco.quantidade;
+                if (bloco.fim) {
+                    terminadas++;
+                    if (emOrdem) {
+                        faixa++;
+                    }
+                }
+            }
+            return linhas;
+        }
+
+        /**
+         * faz as faixas pararem: cancela os cursores no servidor e libera quem
+         * espera vaga nas filas
+         */
+        private void abortar() {
+            synchronized (statements) {
+                if (abortada) {
+                    return;
+                }
+                abortada = true;
+                for (Statement comando : statements) {
+                    try {
+                        comando.cancel();
+                    } catch (SQLException e) {
+                        Logger.getLogger(VarreduraParalela.class.getName()).log(Level.FINE, null, e);
+                    }
+                }
+                statements.clear();
+            }
+            for (BlockingQueue<Bloco> fila : filas) {
+                fila.clear();
+            }
+        }
+    }
+
+    /**
+     * ResultSet somente de leitura sobre uma linha copiada; o processador não
+     * deve mover o cursor
+     */
+    private static final class LinhaCopiada extends VisaoLinhas {
+
+        final ResultSet resultSet;
+        Object[] valores;
+
+        LinhaCopiada(ResultSetMetaData meta) throws SQLException {
+            super(meta);
+            this.resultSet = this.criarResultSet();
+        }
+
+        @Override
+        protected Object[] linha() {
+            return valores;
+        }
+
+        @Override
+        protected Object tratar(Object proxy, String nome, Object[] args) {
+            switch (nome) {
+                case "isClosed":
+                    return false;
+                case "close":
+                    return null;
+                case "toString":
+                    return "LinhaCopiada" + Arrays.toString(valores);
+                default:
+                    return NAO_TRATADO;
+            }
+        }
+    }
+}
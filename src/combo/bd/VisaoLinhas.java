@@ -0,0 +1,216 @@
+package combo.bd;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+import javax.sql.rowset.RowSetMetaDataImpl;
+
+/**
+ * ResultSet somente de leitura sobre linhas já copiadas para Object[], como
+ * as do CacheResultados e da VarreduraParalela: resolve colunas por índice ou
+ * rótulo, wasNull, getMetaData e a conversão dos get*, iguais nos dois. Quem
+ * estende diz qual é a linha atual e atende os demais métodos (navegação,
+ * close).
+ */
+abstract class VisaoLinhas implements InvocationHandler {
+
+    /** devolvido por tratar() para os métodos que a subclasse não atende */
+    protected static final Object NAO_TRATADO = new Object();
+
+    protected final ResultSetMetaData meta;
+    private final int numColunas;
+    private final Map<String, Integer> colunas = new HashMap<String, Integer>();
+    private boolean nulo;
+
+    protected VisaoLinhas(ResultSetMetaData meta) throws SQLException {
+        this.meta = meta;
+        this.numColunas = meta.getColumnCount();
+        // o primeiro rótulo repetido vence, como no driver
+        for (int j = numColunas; j >= 1; j--) {
+            colunas.put(meta.getColumnLabel(j).toLowerCase(), j);
+        }
+    }
+
+    /**
+     * @return um ResultSet que repassa as chamadas a esta visão
+     */
+    final ResultSet criarResultSet() {
+        return (ResultSet) Proxy.newProxyInstance(VisaoLinhas.class.getClassLoader(),
+                new Class<?>[] { ResultSet.class }, this);
+    }
+
+    /**
+     * @return valores da linha atual
+     * @throws SQLException fora de uma linha
+     */
+    protected abstract Object[] linha() throws SQLException;
+
+    /**
+     * métodos próprios da visão, antes dos comuns
+     *
+     * @return o resultado, ou NAO_TRATADO
+     */
+    protected abstract Object tratar(Object proxy, String nome, Object[] args) throws SQLException;
+
+    @Override
+    public final Object invoke(Object proxy, Method metodo, Object[] args) throws Throwable {
+        String nome = metodo.getName();
+        switch (nome) {
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                break;
+        }
+        Object tratado = this.tratar(proxy, nome, args);
+        if (tratado != NAO_TRATADO) {
+            return tratado;
+        }
+
+        switch (nome) {
+            case "wasNull":
+                return nulo;
+            case "getMetaData":
+                return meta;
+            case "findColumn":
+                return this.coluna(args[0]);
+            case "isWrapperFor":
+                return ((Class<?>) args[0]).isInstance(proxy);
+            case "unwrap":
+                if (((Class<?>) args[0]).isInstance(proxy)) {
+                    return proxy;
+                }
+                throw new SQLException("Não é um " + args[0]);
+            default:
+                break;
+        }
+
+        if (nome.startsWith("get") && args != null && args.length == 1) {
+            Object valor = this.linha()[this.coluna(args[0]) - 1];
+            nulo = valor == null;
+            try {
+                return converter(valor, metodo.getReturnType(), nome);
+            } catch (RuntimeException e) {
+                throw new SQLException("Valor " + valor + " não convertido por " + nome, e);
+            }
+        }
+        throw new SQLFeatureNotSupportedException(nome + " em " + this.getClass().getSimpleName());
+    }
+
+    private int coluna(Object indice) throws SQLException {
+        if (indice instanceof Integer) {
+            int coluna = (Integer) indice;
+            if (coluna < 1 || coluna > numColunas) {
+                throw new SQLException("Coluna inválida: " + coluna);
+            }
+            return coluna;
+        }
+        Integer coluna = colunas.get(String.valueOf(indice).toLowerCase());
+        if (coluna == null) {
+            throw new SQLException("Coluna não encontrada: " + indice);
+        }
+        return coluna;
+    }
+
+    /**
+     * metadados independentes da conexão, que volta ao pool antes de os
+     * dados serem lidos
+     */
+    static RowSetMetaDataImpl copiar(ResultSetMetaData origem) throws SQLException {
+        RowSetMetaDataImpl copia = new RowSetMetaDataImpl();
+        int numColunas = origem.getColumnCount();
+        copia.setColumnCount(numColunas);
+        for (int j = 1; j <= numColunas; j++) {
+            copia.setColumnLabel(j, origem.getColumnLabel(j));
+            copia.setColumnName(j, origem.getColumnName(j));
+            copia.setColumnType(j, origem.getColumnType(j));
+            copia.setColumnTypeName(j, origem.getColumnTypeName(j));
+            copia.setTableName(j, origem.getTableName(j));
+            copia.setNullable(j, origem.isNullable(j));
+            copia.setSigned(j, origem.isSigned(j));
+            copia.setColumnDisplaySize(j, Math.max(origem.getColumnDisplaySize(j), 0));
+            copia.setPrecision(j, Math.max(origem.getPrecision(j), 0));
+            copia.setScale(j, Math.max(origem.getScale(j), 0));
+        }
+        return copia;
+    }
+
+    /**
+     * converte o valor copiado no tipo do get* chamado, como os drivers:
+     * null vira 0/false nos primitivos, texto é lido como número ou como
+     * booleano ("t", "true", "1")
+     */
+    static Object converter(Object valor, Class<?> tipo, String metodo) throws SQLException {
+        if (tipo == Object.class) {
+            return valor;
+        }
+        if (valor == null) {
+            return tipo.isPrimitive() ? (tipo == boolean.class ? Boolean.FALSE : zero(tipo)) : null;
+        }
+        if (tipo == String.class) {
+            return valor instanceof BigDecimal ? ((BigDecimal) valor).toPlainString() : valor.toString();
+        }
+        if (tipo == BigDecimal.class) {
+            return valor instanceof BigDecimal ? valor : new BigDecimal(valor.toString().trim());
+        }
+        if (tipo == boolean.class) {
+            return valor instanceof Boolean ? valor
+                    : valor instanceof Number ? ((Number) valor).intValue() != 0
+                    : "t".equalsIgnoreCase(valor.toString().trim()) || "true".equalsIgnoreCase(valor.toString().trim())
+                    || "1".equals(valor.toString().trim());
+        }
+        if (tipo.isPrimitive()) {
+            Number numero = valor instanceof Number ? (Number) valor : new BigDecimal(valor.toString().trim());
+            if (tipo == int.class) {
+                return numero.intValue();
+            } else if (tipo == long.class) {
+                return numero.longValue();
+            } else if (tipo == double.class) {
+                return numero.doubleValue();
+            } else if (tipo == float.class) {
+                return numero.floatValue();
+            } else if (tipo == short.class) {
+                return numero.shortValue();
+            } else if (tipo == byte.class) {
+                return numero.byteValue();
+            }
+        }
+        if (tipo == java.sql.Date.class && valor instanceof java.util.Date) {
+            return valor instanceof java.sql.Date ? valor : new java.sql.Date(((java.util.Date) valor).getTime());
+        }
+        if (tipo == Timestamp.class && valor instanceof java.util.Date) {
+            return valor instanceof Timestamp ? valor : new Timestamp(((java.util.Date) valor).getTime());
+        }
+        if (tipo == java.sql.Time.class && valor instanceof java.util.Date) {
+            return new java.sql.Time(((java.util.Date) valor).getTime());
+        }
+        if (tipo.isInstance(valor)) {
+            return valor;
+        }
+        throw new SQLFeatureNotSupportedException(metodo + " para " + valor.getClass().getName());
+    }
+
+    private static Object zero(Class<?> tipo) {
+        if (tipo == int.class) {
+            return 0;
+        } else if (tipo == long.class) {
+            return 0L;
+        } else if (tipo == double.class) {
+            return 0d;
+        } else if (tipo == float.class) {
+            return 0f;
+        } else if (tipo == short.class) {
+            return (short) 0;
+        }
+        return (byte) 0;
+    }
+}
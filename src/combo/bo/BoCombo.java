@@ -1,61 +1,172 @@
-/*
- * To change this template, choose Tools | Templates
- * and open the template in the editor.
- */
-package combo.bo;
-
-import combo.bd.E_BD;
-import combo.dao.DaoCombo;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-
-/**
- *
- * @author Daniel
- */
-public class BoCombo {
-    // atributos
-    private BoConexao conexao;
-    private DaoCombo dao;
-    private static final int LIMITE_PADRAO = 10;
-
-    // construtor
-    public BoCombo(BoConexao conexao) {
-        this.conexao = conexao;
-        this.dao = new DaoCombo(conexao);
-    }
-
-    /**
-     * obtem lista de livros
-     * 
-     * @return
-     * @throws SQLException
-     * @throws E_BD
-     * @throws ClassNotFoundException
-     */
-    public ResultSet listaLivros() throws SQLException, E_BD, ClassNotFoundException {
-        return this.getDao().listaLivros();
-    }
-
-    /**
-     * obtem lista de livros e seus dados relacionados
-     * 
-     * @return
-     * @throws SQLException
-     * @throws E_BD
-     * @throws ClassNotFoundException
-     */
-    public ResultSet pesquisaDadosLivros() throws SQLException, E_BD, ClassNotFoundException {
-        return this.getDao().pesquisaDadosLivros(LIMITE_PADRAO);
-    }
-
-    // getters
-    public BoConexao getConexao() {
-        return conexao;
-    }
-
-    public DaoCombo getDao() {
-        return dao;
-    }
-
-}
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package combo.bo;
+
+import combo.bd.E_BD;
+import combo.bd.ProcessadorLinha;
+import combo.catalogo.CatalogoLocal;
+import combo.catalogo.InstantaneoCatalogo;
+import combo.dao.DaoCombo;
+import combo.indice.IndiceTitulos;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ *
+ * @author Daniel
+ */
+public class BoCombo {
+    // atributos
+    private BoConexao conexao;
+    private DaoCombo dao;
+    private static final int LIMITE_PADRAO = 10;
+
+    // construtor
+    public BoCombo(BoConexao conexao) {
+        this.conexao = conexao;
+        this.dao = new DaoCombo(conexao);
+    }
+
+    /**
+     * obtem lista de livros
+     * 
+     * @return
+     * @throws SQLException
+     * @throws E_BD
+     * @throws ClassNotFoundException
+     */
+    public ResultSet listaLivros() throws SQLException, E_BD, ClassNotFoundException {
+        return this.getDao().listaLivros();
+    }
+
+    /**
+     * percorre a lista de livros em modo streaming
+     * 
+     * @param processador
+     * @return quantidade de livros
+     * @throws SQLException
+     * @throws E_BD
+     * @throws ClassNotFoundException
+     */
+    public int listaLivros(ProcessadorLinha processador) throws SQLException, E_BD, ClassNotFoundException {
+        return this.getDao().listaLivros(processador);
+    }
+
+    /**
+     * percorre os livros com código acima do informado
+     * 
+     * @param codigo
+     * @param processador
+     * @return quantidade de livros
+     * @throws SQLException
+     * @throws E_BD
+     * @throws ClassNotFoundException
+     */
+    public int listaLivrosApos(long codigo, ProcessadorLinha processador)
+            throws SQLException, E_BD, ClassNotFoundException {
+        return this.getDao().listaLivrosApos(codigo, processador);
+    }
+
+    /**
+     * exporta código e título de todos os livros
+     * 
+     * @param processador
+     * @return quantidade de livros
+     * @throws SQLException
+     * @throws E_BD
+     * @throws ClassNotFoundException
+     */
+    public int exportaLivros(ProcessadorLinha processador) throws SQLException, E_BD, ClassNotFoundException {
+        return this.getDao().exportaLivros(processador);
+    }
+
+    /**
+     * exporta todos os livros com autores e edições
+     * 
+     * @param processador
+     * @return quantidade de linhas
+     * @throws SQLException
+     * @throws E_BD
+     * @throws ClassNotFoundException
+     */
+    public int exportaDadosLivros(ProcessadorLinha processador) throws SQLException, E_BD, ClassNotFoundException {
+        return this.getDao().exportaDadosLivros(processador);
+    }
+
+    /**
+     * origem das janelas de títulos: o índice do catálogo local (memória,
+     * mantido em dia pela sincronização) ou, sem catálogo, o banco
+     * 
+     * @return
+     */
+    public FonteTitulos getFonteTitulos() {
+        IndiceTitulos indice = CatalogoLocal.getIndiceTitulos();
+        if (indice != null) {
+            return indice;
+        }
+        return this.getDao()::listaTitulos;
+    }
+
+    /**
+     * obtem uma janela de títulos, opcionalmente filtrada por prefixo
+     * 
+     * @param prefixo
+     * @param aposTitulo
+     * @param aposCodigo
+     * @param limite
+     * @return pares {codigo, titulo}
+     * @throws SQLException
+     * @throws E_BD
+     * @throws ClassNotFoundException
+     */
+    public List<String[]> listaTitulos(String prefixo, String aposTitulo, long aposCodigo, int limite)
+            throws SQLException, E_BD, ClassNotFoundException {
+        return this.getFonteTitulos().listaTitulos(prefixo, aposTitulo, aposCodigo, limite);
+    }
+
+    /**
+     * obtem lista de livros e seus dados relacionados
+     * 
+     * @return
+     * @throws SQLException
+     * @throws E_BD
+     * @throws ClassNotFoundException
+     */
+    public ResultSet pesquisaDadosLivros() throws SQLException, E_BD, ClassNotFoundException {
+        InstantaneoCatalogo local = CatalogoLocal.getInstantaneo();
+        if (local != null) {
+            return local.pesquisaDadosLivros(LIMITE_PADRAO);
+        }
+        return this.getDao().pesquisaDadosLivros(LIMITE_PADRAO);
+    }
+
+    /**
+     * obtem autores e edições de um livro
+     * 
+     * @param codigo
+     * @return
+     * @throws SQLException
+     * @throws E_BD
+     * @throws ClassNotFoundException
+     */
+    public ResultSet pesquisaDadosLivro(long codigo) throws SQLException, E_BD, ClassNotFoundException {
+        InstantaneoCatalogo local = CatalogoLocal.getInstantaneo();
+        if (local != null) {
+            return local.pesquisaDadosLivro(codigo);
+        }
+        return this.getDao().pesquisaDadosLivro(codigo);
+    }
+
+    // getters
+    public BoConexao getConexao() {
+        return conexao;
+    }
+
+    public DaoCombo getDao() {
+        return dao;
+    }
+
+}
@@ -9,6 +9,9 @@ import combo.bd.DaoConectarBD;
 import combo.bd.DaoConsultarBD;
 import combo.bd.E_BD;
 import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 /**
  *
@@ -17,29 +20,70 @@ import java.sql.SQLException;
 public class BoConexao {
     private DaoConectarBD conexao;
     private DaoConsultarBD bd;
+    // conexão em andamento numa thread de fundo (null se conectou direto)
+    private volatile CompletableFuture<Void> conectando;
 
     public BoConexao() {
     }
 
     public void conectar(String tipoBanco) throws E_BD, ClassNotFoundException, SQLException {
-        // testa se existe conexao
-        if (this.getConexao() == null) {
+        // testa se existe conexao (pelos campos: getConexao() esperaria a si mesma)
+        if (this.conexao == null) {
             // cria conexao
             this.setConexao(new DaoConectarBD());
 
             // cria objeto de consulta
-            this.setBd(new DaoConsultarBD(this.getConexao()));
+            this.setBd(new DaoConsultarBD(this.conexao));
 
             // conectar
-            this.getConexao().conectar(tipoBanco);
+            this.conexao.conectar(tipoBanco);
+        }
+    }
+
+    /**
+     * conecta numa thread do executor e volta logo; quem pedir getConexao()
+     * ou getBd() antes do fim espera a conexão (o banco só atrasa quem usa)
+     *
+     * @param tipoBanco
+     * @param executor
+     * @return conclusão da conexão (excepcional se falhou)
+     */
+    public synchronized CompletableFuture<Void> conectarEmSegundoPlano(final String tipoBanco, Executor executor) {
+        if (conectando == null) {
+            conectando = CompletableFuture.runAsync(() -> {
+                try {
+                    this.conectar(tipoBanco);
+                } catch (E_BD | ClassNotFoundException | SQLException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        }
+        return conectando;
+    }
+
+    /**
+     * espera a conexão em segundo plano, se houver; uma falha já foi avisada
+     * a quem a iniciou e deixa a conexão como estaria após conectar() falhar
+     */
+    private void aguardarConexao() {
+        CompletableFuture<Void> pendente = conectando;
+        if (pendente != null && !pendente.isDone()) {
+            try {
+                pendente.join();
+            } catch (CompletionException e) {
+                // tratada por quem chamou conectarEmSegundoPlano
+            }
         }
     }
 
     public void desconectar() throws SQLException {
-        this.getConexao().desConectar();
+        if (this.getConexao() != null) {
+            this.getConexao().desConectar();
+        }
     }
 
     public DaoConectarBD getConexao() {
+        this.aguardarConexao();
         return conexao;
     }
 
@@ -48,6 +92,7 @@ public class BoConexao {
     }
 
     public DaoConsultarBD getBd() {
+        this.aguardarConexao();
         return bd;
     }
 
@@ -0,0 +1,27 @@
+package combo.bo;
+
+import combo.bd.E_BD;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * origem das janelas de títulos do combo: o banco (DaoCombo) ou o índice em
+ * memória (IndiceTitulos). Cada uma tem a sua ordem (a collation do banco ou
+ * a dos bytes), então a janela seguinte deve vir da mesma origem que deu o
+ * último título exibido
+ */
+public interface FonteTitulos {
+
+    /**
+     * @param prefixo filtro pelo início do título, ou null
+     * @param aposTitulo último título já exibido, ou null para a primeira janela
+     * @param aposCodigo código do último título já exibido
+     * @param limite tamanho da janela
+     * @return pares {codigo, titulo}
+     * @throws SQLException
+     * @throws E_BD
+     * @throws ClassNotFoundException
+     */
+    public List<String[]> listaTitulos(String prefixo, String aposTitulo, long aposCodigo, int limite)
+            throws SQLException, E_BD, ClassNotFoundException;
+}
@@ -0,0 +1,297 @@
+package combo.carga;
+
+import combo.bd.MonitorEscritas;
+import combo.bd.PoolConexoes;
+import combo.dao.ProjecaoLivros;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Carga em massa dos scripts de dados (02_livros.sql ... 06_livrostemp.sql)
+ * sem executar os INSERTs um a um: PostgreSQL por COPY, MySQL por INSERTs de
+ * várias linhas.
+ *
+ * As tabelas de uma mesma fase não dependem umas das outras e são carregadas
+ * em paralelo, cada uma numa conexão do pool e numa transação; a fase
+ * seguinte só começa quando a anterior termina (chaves estrangeiras). As
+ * chaves estrangeiras da fase são removidas antes e recriadas depois dela,
+ * uma vez só: removidas dentro de cada carga, elas bloqueariam a tabela
+ * referenciada e as cargas da fase rodariam uma após a outra. No fim o
+ * modelo de leitura é reconstruído e as estatísticas atualizadas.
+ *
+ * Uso: CargaLivros [postgresql|mysql] [diretorio] [--escala N] [--limpar]
+ *
+ * @author dlnotari
+ */
+public class CargaLivros {
+
+    /** fases na ordem das chaves estrangeiras */
+    private static final String[][] FASES = {
+        { "livros", "autor", "livrostemp" },
+        { "edicao", "livroautor" }
+    };
+
+    private final String tipoBanco;
+    private final PoolConexoes pool;
+    private final DaoCarga dao;
+    private final int escala;
+
+    public CargaLivros(String tipoBanco, int escala) throws ClassNotFoundException {
+        this.tipoBanco = tipoBanco;
+        this.pool = PoolConexoes.getPool(tipoBanco);
+        this.dao = isMySQL(tipoBanco) ? new DaoCargaMySQL() : new DaoCargaPostgreSQL();
+        this.escala = escala;
+    }
+
+    /**
+     * carrega os scripts de dados do diretório
+     *
+     * @param diretorio pasta com os .sql
+     * @param limpar esvazia as tabelas antes
+     * @return linhas gravadas
+     * @throws SQLException
+     * @throws IOException
+     */
+    public long carregar(File diretorio, boolean limpar) throws SQLException, IOException {
+        long inicio = System.nanoTime();
+        List<List<LeitorDump>> fases = this.separarFases(diretorio);
+        long total = 0;
+
+        try {
+            if (limpar) {
+                this.limpar();
+            }
+            for (List<LeitorDump> fase : fases) {
+                total += this.carregarFase(fase);
+            }
+        } finally {
+            for (List<LeitorDump> fase : fases) {
+                for (LeitorDump leitor : fase) {
+                    leitor.close();
+                }
+            }
+        }
+
+        // projeção e estatísticas
+        long inicioProjecao = System.nanoTime();
+        try (Connection conexao = pool.obterConexao()) {
+            ProjecaoLivros.reconstruir(conexao);
+            conexao.setAutoCommit(true);
+            for (List<LeitorDump> fase : fases) {
+                for (LeitorDump leitor : fase) {
+                    dao.analisar(conexao, leitor.getTabela());
+                }
+            }
+            dao.analisar(conexao, ProjecaoLivros.TABELA);
+        }
+        System.out.println(String.format(Locale.ROOT, "%s reconstruído em %.2f s",
+                ProjecaoLivros.TABELA, (System.nanoTime() - inicioProjecao) / 1e9));
+
+        for (List<LeitorDump> fase : fases) {
+            for (LeitorDump leitor : fase) {
+                MonitorEscritas.notificarTabela(leitor.getTabela());
+            }
+        }
+
+        System.out.println(relatorio("total", total, System.nanoTime() - inicio));
+        return total;
+    }
+
+    /**
+     * abre os scripts do diretório e os agrupa pela fase da tabela; tabelas
+     * desconhecidas vão para uma fase final
+     */
+    private List<List<LeitorDump>> separarFases(File diretorio) throws IOException {
+        File[] arquivos = diretorio.listFiles((dir, nome) -> nome.endsWith(".sql"));
+        if (arquivos == null) {
+            throw new IOException("Diretório não encontrado: " + diretorio);
+        }
+        Arrays.sort(arquivos);
+
+        List<List<LeitorDump>> fases = new ArrayList<List<LeitorDump>>();
+        for (int i = 0; i <= FASES.length; i++) {
+            fases.add(new ArrayList<LeitorDump>());
+        }
+        for (File arquivo : arquivos) {
+            LeitorDump leitor = new LeitorDump(arquivo, isMySQL(tipoBanco), escala);
+            if (leitor.getTabela() == null) {
+                leitor.close();
+                continue;
+            }
+            fases.get(fase(leitor.getTabela())).add(leitor);
+        }
+        fases.removeIf(List::isEmpty);
+        return fases;
+    }
+
+    private static int fase(String tabela) {
+        for (int i = 0; i < FASES.length; i++) {
+            if (Arrays.asList(FASES[i]).contains(tabela)) {
+                return i;
+            }
+        }
+        return FASES.length;
+    }
+
+    private long carregarFase(List<LeitorDump> fase) throws SQLException, IOException {
+        List<String> tabelas = new ArrayList<String>();
+        for (LeitorDump leitor : fase) {
+            tabelas.add(leitor.getTabela());
+        }
+        List<String[]> chaves = this.emTransacao(conexao -> dao.removerChaves(conexao, tabelas));
+
+        boolean carregou = false;
+        try {
+            long linhas = this.carregarEmParalelo(fase);
+            carregou = true;
+            return linhas;
+        } finally {
+            // recria mesmo se a carga falhou (as tabelas voltaram ao estado anterior)
+            try {
+                this.emTransacao(conexao -> {
+                    dao.recriarChaves(conexao, chaves);
+                    return null;
+                });
+            } catch (SQLException e) {
+                if (carregou) {
+                    throw new SQLException("Dados carregados, mas as chaves estrangeiras de " + tabelas
+                            + " não puderam ser recriadas", e);
+                }
+                // a falha da carga é a exceção que importa
+            }
+        }
+    }
+
+    private long carregarEmParalelo(List<LeitorDump> fase) throws SQLException, IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(fase.size());
+        try {
+            List<Future<Long>> tarefas = new ArrayList<Future<Long>>();
+            for (final LeitorDump leitor : fase) {
+                tarefas.add(executor.submit(() -> this.carregarTabela(leitor)));
+            }
+            long linhas = 0;
+            for (Future<Long> tarefa : tarefas) {
+                linhas += tarefa.get();
+            }
+            return linhas;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Carga interrompida", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private long carregarTabela(LeitorDump leitor) throws SQLException, IOException {
+        long inicio = System.nanoTime();
+        long linhas;
+        try (Connection conexao = pool.obterConexao()) {
+            conexao.setAutoCommit(false);
+            try {
+                linhas = dao.carregar(conexao, leitor);
+                conexao.commit();
+            } catch (SQLException | IOException | RuntimeException e) {
+                conexao.rollback();
+                throw e;
+            } finally {
+                conexao.setAutoCommit(true);
+            }
+        }
+        System.out.println(relatorio(leitor.getTabela(), linhas, System.nanoTime() - inicio));
+        return linhas;
+    }
+
+    private interface ComandoTransacao<T> {
+        T executar(Connection conexao) throws SQLException;
+    }
+
+    /**
+     * executa numa conexão do pool e numa transação própria
+     */
+    private <T> T emTransacao(ComandoTransacao<T> comando) throws SQLException {
+        try (Connection conexao = pool.obterConexao()) {
+            conexao.setAutoCommit(false);
+            try {
+                T resultado = comando.executar(conexao);
+                conexao.commit();
+                return resultado;
+            } catch (SQLException | RuntimeException e) {
+                conexao.rollback();
+                throw e;
+            } finally {
+                conexao.setAutoCommit(true);
+            }
+        }
+    }
+
+    private void limpar() throws SQLException {
+        // dependentes antes das referenciadas
+        List<String> tabelas = new ArrayList<String>();
+        tabelas.add(ProjecaoLivros.TABELA);
+        for (int i = FASES.length - 1; i >= 0; i--) {
+            tabelas.addAll(Arrays.asList(FASES[i]));
+        }
+        try (Connection conexao = pool.obterConexao()) {
+            conexao.setAutoCommit(true);
+            dao.limpar(conexao, Collections.unmodifiableList(tabelas));
+        }
+    }
+
+    private static String relatorio(String tabela, long linhas, long nanos) {
+        double segundos = nanos / 1e9;
+        return String.format(Locale.ROOT, "%-12s %,10d linhas em %6.2f s (%,.0f linhas/s)",
+                tabela, linhas, segundos, linhas / Math.max(segundos, 1e-9));
+    }
+
+    private static boolean isMySQL(String tipoBanco) {
+        return "mysql".equalsIgnoreCase(tipoBanco);
+    }
+
+    // main
+    public static void main(String args[]) throws Exception {
+        String tipoBanco = "postgresql";
+        String diretorio = null;
+        int escala = 1;
+        boolean limpar = false;
+
+        for (int i = 0; i < args.length; i++) {
+            if ("--escala".equals(args[i]) && i + 1 < args.length) {
+                escala = Integer.parseInt(args[++i]);
+            } else if ("--limpar".equals(args[i])) {
+                limpar = true;
+            } else if ("mysql".equalsIgnoreCase(args[i]) || "postgresql".equalsIgnoreCase(args[i])) {
+                tipoBanco = args[i];
+            } else {
+                diretorio = args[i];
+            }
+        }
+        if (diretorio == null) {
+            diretorio = isMySQL(tipoBanco) ? "mysql-livros/scripts-sql" : "postgres-livros/initdb";
+        }
+
+        try {
+            new CargaLivros(tipoBanco, escala).carregar(new File(diretorio), limpar);
+        } finally {
+            PoolConexoes.fecharTodos();
+        }
+    }
+}
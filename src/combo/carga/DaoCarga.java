@@ -0,0 +1,46 @@
+package combo.carga;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Carga em massa de um script de dados, específica de cada SGBD
+ *
+ * @author dlnotari
+ */
+public interface DaoCarga {
+
+    /**
+     * grava as tuplas do leitor na tabela dele; a transação fica a cargo de
+     * quem chama
+     *
+     * @return quantidade de linhas gravadas
+     */
+    public long carregar(Connection conexao, LeitorDump leitor) throws SQLException, IOException;
+
+    /**
+     * antes de uma fase: remove as chaves estrangeiras das tabelas, para que
+     * as cargas paralelas não disputem o bloqueio das tabelas referenciadas;
+     * a transação fica a cargo de quem chama
+     *
+     * @return chaves removidas {tabela, nome, definição}, para recriarChaves
+     */
+    public List<String[]> removerChaves(Connection conexao, List<String> tabelas) throws SQLException;
+
+    /**
+     * depois da fase: recria as chaves removidas (validando tudo de uma vez)
+     */
+    public void recriarChaves(Connection conexao, List<String[]> chaves) throws SQLException;
+
+    /**
+     * esvazia as tabelas (ordem: dependentes antes das referenciadas)
+     */
+    public void limpar(Connection conexao, List<String> tabelas) throws SQLException;
+
+    /**
+     * atualiza as estatísticas do otimizador após a carga
+     */
+    public void analisar(Connection conexao, String tabela) throws SQLException;
+}
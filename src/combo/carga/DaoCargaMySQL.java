@@ -0,0 +1,100 @@
+package combo.carga;
+
+import combo.bd.LoteEscrita;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Carga pelo LoteEscrita: addBatch/executeBatch de um INSERT de uma tupla,
+ * que o driver junta em INSERTs de várias linhas (rewriteBatchedStatements
+ * na URL, ver DaoStringConexaoMySQL). O lote não faz commit: a transação é
+ * da carga, e uma linha recusada faz a carga da tabela falhar inteira.
+ *
+ * As chaves estrangeiras não são conferidas durante a carga (como nos
+ * próprios scripts, FOREIGN_KEY_CHECKS = 0 na sessão). O MySQL não permite
+ * desligar gatilhos; os do modelo de leitura rodam durante a carga e a
+ * projeção é reconstruída no fim por quem chama.
+ *
+ * @author dlnotari
+ */
+public class DaoCargaMySQL implements DaoCarga {
+
+    @Override
+    public long carregar(Connection conexao, LeitorDump leitor) throws SQLException, IOException {
+        try (Statement stmt = conexao.createStatement()) {
+            stmt.execute("SET FOREIGN_KEY_CHECKS = 0");
+        }
+        try {
+            return this.gravarTudo(conexao, leitor);
+        } finally {
+            // a conexão volta ao pool
+            try (Statement stmt = conexao.createStatement()) {
+                stmt.execute("SET FOREIGN_KEY_CHECKS = 1");
+            }
+        }
+    }
+
+    /**
+     * nada a remover: a sessão da carga não confere as chaves
+     */
+    @Override
+    public List<String[]> removerChaves(Connection conexao, List<String> tabelas) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void recriarChaves(Connection conexao, List<String[]> chaves) {
+    }
+
+    private long gravarTudo(Connection conexao, LeitorDump leitor) throws SQLException, IOException {
+        String[] colunas = leitor.getColunas();
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(leitor.getTabela())
+                .append(" (").append(String.join(", ", colunas)).append(") VALUES (");
+        for (int i = 0; i < colunas.length; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(')');
+
+        // a transação é da carga: o lote só envia, e qualquer linha recusada a desfaz
+        LoteEscrita lote = new LoteEscrita(conexao, sql.toString(), false);
+        try {
+            String[] tupla;
+            while ((tupla = leitor.proxima()) != null) {
+                lote.adicionar((Object[]) tupla);
+            }
+        } finally {
+            lote.close();
+        }
+        if (!lote.getFalhas().isEmpty()) {
+            LoteEscrita.Falha primeira = lote.getFalhas().get(0);
+            throw new SQLException(lote.getFalhas().size() + " linha(s) recusada(s) em " + leitor.getTabela()
+                    + "; " + primeira, primeira.getErro());
+        }
+        return lote.getLinhasGravadas();
+    }
+
+    @Override
+    public void limpar(Connection conexao, List<String> tabelas) throws SQLException {
+        try (Statement stmt = conexao.createStatement()) {
+            stmt.execute("SET FOREIGN_KEY_CHECKS = 0");
+            try {
+                for (String tabela : tabelas) {
+                    stmt.execute("TRUNCATE TABLE " + tabela);
+                }
+            } finally {
+                stmt.execute("SET FOREIGN_KEY_CHECKS = 1");
+            }
+        }
+    }
+
+    @Override
+    public void analisar(Connection conexao, String tabela) throws SQLException {
+        try (Statement stmt = conexao.createStatement()) {
+            stmt.execute("ANALYZE TABLE " + tabela);
+        }
+    }
+}
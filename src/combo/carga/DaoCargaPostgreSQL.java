@@ -0,0 +1,168 @@
+package combo.carga;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+/**
+ * Carga pelo COPY ... FROM STDIN do PostgreSQL (CopyManager do pgjdbc), em
+ * formato texto e blocos de TAMANHO_BLOCO bytes.
+ *
+ * Dentro da transação da carga os gatilhos de usuário da tabela (modelo de
+ * leitura) ficam desligados. As chaves estrangeiras são removidas antes da
+ * fase (removerChaves) e recriadas depois dela (recriarChaves), uma vez para
+ * todas as tabelas da fase: a recriação valida tudo numa única junção, em vez
+ * de uma consulta por linha, e as cargas paralelas não ficam esperando umas
+ * pelas outras no bloqueio que o ALTER TABLE das chaves toma na tabela
+ * referenciada. Quem chama reconstrói a projeção depois. Com os gatilhos de
+ * aviso desligados, a carga avisa ela mesma os clientes que escutam
+ * livros_alteracoes (a tabela inteira, sem chaves).
+ *
+ * @author dlnotari
+ */
+public class DaoCargaPostgreSQL implements DaoCarga {
+
+    private static final int TAMANHO_BLOCO = 1 << 16;
+
+    @Override
+    public long carregar(Connection conexao, LeitorDump leitor) throws SQLException, IOException {
+        String tabela = leitor.getTabela();
+        String sql = "COPY " + tabela + " (" + String.join(", ", leitor.getColunas()) + ") FROM STDIN";
+
+        try (Statement stmt = conexao.createStatement()) {
+            stmt.execute("ALTER TABLE " + tabela + " DISABLE TRIGGER USER");
+        }
+
+        CopyIn copia = conexao.unwrap(PGConnection.class).getCopyAPI().copyIn(sql);
+        long linhas;
+        try {
+            StringBuilder bloco = new StringBuilder(TAMANHO_BLOCO + 1024);
+            String[] tupla;
+            while ((tupla = leitor.proxima()) != null) {
+                for (int i = 0; i < tupla.length; i++) {
+                    if (i > 0) {
+                        bloco.append('\t');
+                    }
+                    escapar(bloco, tupla[i]);
+                }
+                bloco.append('\n');
+                if (bloco.length() >= TAMANHO_BLOCO) {
+                    enviar(copia, bloco);
+                }
+            }
+            enviar(copia, bloco);
+            linhas = copia.endCopy();
+        } finally {
+            if (copia.isActive()) {
+                copia.cancelCopy();
+            }
+        }
+
+        try (Statement stmt = conexao.createStatement()) {
+            stmt.execute("ALTER TABLE " + tabela + " ENABLE TRIGGER USER");
+            // entregue no commit da carga
+            stmt.execute("SELECT pg_notify('livros_alteracoes', '" + tabela + "|INSERT|*')");
+        }
+        return linhas;
+    }
+
+    @Override
+    public List<String[]> removerChaves(Connection conexao, List<String> tabelas) throws SQLException {
+        List<String[]> chaves = new ArrayList<String[]>();
+        for (String tabela : tabelas) {
+            chaves.addAll(this.chavesEstrangeiras(conexao, tabela));
+        }
+        try (Statement stmt = conexao.createStatement()) {
+            for (String[] chave : chaves) {
+                stmt.execute("ALTER TABLE " + chave[0] + " DROP CONSTRAINT " + chave[1]);
+            }
+        }
+        return chaves;
+    }
+
+    @Override
+    public void recriarChaves(Connection conexao, List<String[]> chaves) throws SQLException {
+        try (Statement stmt = conexao.createStatement()) {
+            for (String[] chave : chaves) {
+                stmt.execute("ALTER TABLE " + chave[0] + " ADD CONSTRAINT " + chave[1] + " " + chave[2]);
+            }
+        }
+    }
+
+    /**
+     * @return {tabela, nome, definição} das chaves estrangeiras da tabela
+     */
+    private List<String[]> chavesEstrangeiras(Connection conexao, String tabela) throws SQLException {
+        List<String[]> chaves = new ArrayList<String[]>();
+        try (PreparedStatement stmt = conexao.prepareStatement(
+                "SELECT quote_ident(conname), pg_get_constraintdef(oid) FROM pg_constraint "
+                + "WHERE conrelid = to_regclass(?) AND contype = 'f' ORDER BY conname")) {
+            stmt.setString(1, tabela);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    chaves.add(new String[] { tabela, rs.getString(1), rs.getString(2) });
+                }
+            }
+        }
+        return chaves;
+    }
+
+    private static void enviar(CopyIn copia, StringBuilder bloco) throws SQLException {
+        if (bloco.length() > 0) {
+            byte[] bytes = bloco.toString().getBytes(StandardCharsets.UTF_8);
+            copia.writeToCopy(bytes, 0, bytes.length);
+            bloco.setLength(0);
+        }
+    }
+
+    /**
+     * formato texto do COPY: \N é nulo; barra, tab e quebras são escapados
+     */
+    private static void escapar(StringBuilder destino, String valor) {
+        if (valor == null) {
+            destino.append("\\N");
+            return;
+        }
+        for (int i = 0; i < valor.length(); i++) {
+            char c = valor.charAt(i);
+            switch (c) {
+                case '\\':
+                    destino.append("\\\\");
+                    break;
+                case '\t':
+                    destino.append("\\t");
+                    break;
+                case '\n':
+                    destino.append("\\n");
+                    break;
+                case '\r':
+                    destino.append("\\r");
+                    break;
+                default:
+                    destino.append(c);
+            }
+        }
+    }
+
+    @Override
+    public void limpar(Connection conexao, List<String> tabelas) throws SQLException {
+        try (Statement stmt = conexao.createStatement()) {
+            stmt.execute("TRUNCATE " + String.join(", ", tabelas));
+        }
+    }
+
+    @Override
+    public void analisar(Connection conexao, String tabela) throws SQLException {
+        try (Statement stmt = conexao.createStatement()) {
+            stmt.execute("ANALYZE " + tabela);
+        }
+    }
+}
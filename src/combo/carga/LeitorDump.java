@@ -0,0 +1,270 @@
+package combo.carga;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Lê em streaming os scripts de carga (INSERT INTO tabela (colunas) VALUES
+ * (...), (...);), uma linha do arquivo por vez, devolvendo as tuplas já
+ * convertidas em texto. Linhas que não são INSERT ... VALUES são ignoradas.
+ *
+ * Com escala &gt; 1 cada tupla é repetida com as colunas codigo* deslocadas de
+ * DESLOCAMENTO_ESCALA a cada cópia, gerando uma base N vezes maior que
+ * continua coerente entre as tabelas.
+ */
+public class LeitorDump implements Closeable {
+
+    public static final long DESLOCAMENTO_ESCALA = 1000000L;
+    private static final String INSERT = "INSERT INTO ";
+    private static final Pattern IDENTIFICADOR = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    private final BufferedReader leitor;
+    private final boolean barraEscapa;
+    private final int escala;
+    private final File arquivo;
+    private String tabela;
+    private String[] colunas;
+    private int[] chaves;
+
+    // tuplas da linha atual e cópia (escala) em andamento
+    private List<String[]> tuplas = new ArrayList<String[]>();
+    private int indice;
+    private int copia;
+    private int numeroLinha;
+
+    /**
+     * @param arquivo script .sql
+     * @param barraEscapa true para scripts do MySQL (\' e \\ dentro das strings)
+     * @param escala quantidade de cópias de cada tupla (1 = como está no arquivo)
+     * @throws IOException
+     */
+    public LeitorDump(File arquivo, boolean barraEscapa, int escala) throws IOException {
+        this(new InputStreamReader(new FileInputStream(arquivo), StandardCharsets.UTF_8), arquivo,
+                barraEscapa, escala);
+    }
+
+    public LeitorDump(Reader leitor, File arquivo, boolean barraEscapa, int escala) throws IOException {
+        this.leitor = new BufferedReader(leitor, 1 << 16);
+        this.arquivo = arquivo;
+        this.barraEscapa = barraEscapa;
+        this.escala = Math.max(escala, 1);
+
+        // lê até o primeiro INSERT para conhecer tabela e colunas
+        this.lerLinha();
+    }
+
+    /**
+     * @return próxima tupla, na ordem de getColunas(), ou null no fim do arquivo
+     * @throws IOException
+     */
+    public String[] proxima() throws IOException {
+        while (indice >= tuplas.size()) {
+            if (!this.lerLinha()) {
+                return null;
+            }
+        }
+        String[] tupla = tuplas.get(indice);
+        if (copia > 0) {
+            tupla = tupla.clone();
+            for (int c : chaves) {
+                if (tupla[c] != null) {
+                    tupla[c] = Long.toString(Long.parseLong(tupla[c]) + copia * DESLOCAMENTO_ESCALA);
+                }
+            }
+        }
+        if (++copia == escala) {
+            copia = 0;
+            indice++;
+        }
+        return tupla;
+    }
+
+    private boolean lerLinha() throws IOException {
+        String linha;
+        while ((linha = leitor.readLine()) != null) {
+            numeroLinha++;
+            if (linha.regionMatches(true, 0, INSERT, 0, INSERT.length())) {
+                List<String[]> lidas = this.interpretar(linha);
+                if (lidas != null) {
+                    tuplas = lidas;
+                    indice = 0;
+                    copia = 0;
+                    return true;
+                }
+            }
+        }
+        tuplas = new ArrayList<String[]>();
+        indice = 0;
+        return false;
+    }
+
+    /**
+     * @return tuplas do INSERT, ou null se a linha não é um INSERT ... VALUES
+     */
+    private List<String[]> interpretar(String linha) throws IOException {
+        int abre = linha.indexOf('(', INSERT.length());
+        int fecha = abre < 0 ? -1 : linha.indexOf(')', abre);
+        int values = fecha < 0 ? -1 : indiceIgnorandoCaixa(linha, "VALUES", fecha);
+        if (values < 0) {
+            return null;
+        }
+
+        String nome = normalizar(linha.substring(INSERT.length(), abre));
+        String[] lidas = linha.substring(abre + 1, fecha).split(",");
+        for (int i = 0; i < lidas.length; i++) {
+            lidas[i] = normalizar(lidas[i]);
+        }
+        if (tabela == null) {
+            this.definirTabela(nome, lidas);
+        } else if (!tabela.equals(nome) || lidas.length != colunas.length) {
+            throw this.erro("arquivo com mais de uma tabela ou colunas diferentes: " + nome);
+        }
+
+        List<String[]> lista = new ArrayList<String[]>();
+        int i = values + "VALUES".length();
+        int n = linha.length();
+        while (true) {
+            while (i < n && linha.charAt(i) != '(' && linha.charAt(i) != ';') {
+                i++;
+            }
+            if (i >= n || linha.charAt(i) == ';') {
+                break;
+            }
+            String[] tupla = new String[colunas.length];
+            i = this.lerTupla(linha, i + 1, tupla);
+            lista.add(tupla);
+        }
+        return lista;
+    }
+
+    private void definirTabela(String nome, String[] lidas) throws IOException {
+        if (!IDENTIFICADOR.matcher(nome).matches()) {
+            throw this.erro("nome de tabela inválido: " + nome);
+        }
+        List<Integer> indices = new ArrayList<Integer>();
+        for (int i = 0; i < lidas.length; i++) {
+            if (!IDENTIFICADOR.matcher(lidas[i]).matches()) {
+                throw this.erro("nome de coluna inválido: " + lidas[i]);
+            }
+            if (lidas[i].startsWith("codigo")) {
+                indices.add(i);
+            }
+        }
+        this.tabela = nome;
+        this.colunas = lidas;
+        this.chaves = new int[indices.size()];
+        for (int i = 0; i < chaves.length; i++) {
+            chaves[i] = indices.get(i);
+        }
+    }
+
+    /**
+     * lê os valores de uma tupla a partir do caractere após o '('
+     *
+     * @return posição após o ')'
+     */
+    private int lerTupla(String linha, int i, String[] tupla) throws IOException {
+        int n = linha.length();
+        for (int c = 0; c < tupla.length; c++) {
+            while (i < n && linha.charAt(i) == ' ') {
+                i++;
+            }
+            if (i >= n) {
+                throw this.erro("tupla incompleta");
+            }
+            if (linha.charAt(i) == '\'') {
+                StringBuilder valor = new StringBuilder();
+                i++;
+                while (true) {
+                    if (i >= n) {
+                        throw this.erro("string sem fim");
+                    }
+                    char ch = linha.charAt(i++);
+                    if (ch == '\'') {
+                        if (i < n && linha.charAt(i) == '\'') {
+                            valor.append('\'');
+                            i++;
+                        } else {
+                            break;
+                        }
+                    } else if (ch == '\\' && barraEscapa && i < n) {
+                        char escapado = linha.charAt(i++);
+                        valor.append(escapado == 'n' ? '\n' : escapado == 't' ? '\t'
+                                : escapado == 'r' ? '\r' : escapado == '0' ? '\0' : escapado);
+                    } else {
+                        valor.append(ch);
+                    }
+                }
+                tupla[c] = valor.toString();
+            } else {
+                int inicio = i;
+                while (i < n && linha.charAt(i) != ',' && linha.charAt(i) != ')') {
+                    i++;
+                }
+                String valor = linha.substring(inicio, i).trim();
+                tupla[c] = "NULL".equalsIgnoreCase(valor) ? null : valor;
+            }
+            while (i < n && linha.charAt(i) == ' ') {
+                i++;
+            }
+            char separador = i < n ? linha.charAt(i) : 0;
+            if (separador != (c == tupla.length - 1 ? ')' : ',')) {
+                throw this.erro("quantidade de valores diferente da de colunas");
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private IOException erro(String mensagem) {
+        return new IOException(arquivo + ":" + numeroLinha + ": " + mensagem);
+    }
+
+    private static int indiceIgnorandoCaixa(String texto, String procurado, int aPartirDe) {
+        for (int i = aPartirDe; i <= texto.length() - procurado.length(); i++) {
+            if (texto.regionMatches(true, i, procurado, 0, procurado.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * tira esquema, aspas e crases: public."livros" -&gt; livros
+     */
+    private static String normalizar(String identificador) {
+        String nome = identificador.trim().replace("\"", "").replace("`", "");
+        int ponto = nome.lastIndexOf('.');
+        return (ponto >= 0 ? nome.substring(ponto + 1) : nome).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return tabela dos INSERTs, ou null se o arquivo não tem dados
+     */
+    public String getTabela() {
+        return tabela;
+    }
+
+    public String[] getColunas() {
+        return colunas;
+    }
+
+    public File getArquivo() {
+        return arquivo;
+    }
+
+    @Override
+    public void close() throws IOException {
+        leitor.close();
+    }
+}
@@ -0,0 +1,835 @@
+package combo.catalogo;
+
+import combo.bd.Alteracao;
+import combo.bd.CanalAlteracoes;
+import combo.bd.MonitorEscritas;
+import combo.bd.OuvinteAlteracao;
+import combo.bd.OuvinteEscrita;
+import combo.bd.PoolConexoes;
+import combo.indice.IndiceTitulos;
+import combo.vo.VoConexao;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Catálogo local: a última cópia de livros, autor, edicao e livroautor fica
+ * num InstantaneoCatalogo em disco, aberto na partida sem tocar o banco, de
+ * modo que a tela mostra dados em milissegundos mesmo com o banco lento ou
+ * ainda conectando. Depois de conectar, uma thread própria sincroniza:
+ *
+ * <ul>
+ * <li>na primeira vez, busca só os códigos acima das marcas d'água do
+ * instantâneo (maior livros.codigo e autor.codigo) e confere as contagens
+ * das quatro tabelas; contagem diferente (exclusões ou edições de livros
+ * antigos feitas com o programa fechado) refaz a carga completa;</li>
+ * <li>depois, a cada aviso do CanalAlteracoes, relê só as chaves avisadas;
+ * aviso sem chaves refaz a carga completa;</li>
+ * <li>instantâneo mais velho que livros.catalogo.validadeHoras (24) é
+ * refeito por inteiro, o que cobre alterações de títulos feitas com o
+ * programa fechado.</li>
+ * </ul>
+ *
+ * Cada sincronização grava uma geração nova do arquivo (nome.N.lcat),
+ * copiando do instantâneo anterior os registros não alterados, troca o
+ * instantâneo e republica as alterações no CanalAlteracoes para as telas
+ * recarregarem (alterações pontuais são republicadas já antes da gravação,
+ * ver abaixo). Entre o aviso e o fim da sincronização getInstantaneo()
+ * devolve null e as consultas vão ao banco. Um arquivo mapeado nunca é
+ * substituído (no Windows nem poderia): as gerações antigas são apagadas
+ * quando o sistema deixa, depois da troca ou na próxima partida, que abre a
+ * mais nova.
+ *
+ * Os títulos também vão para um IndiceTitulos (getIndiceTitulos), montado do
+ * instantâneo na primeira chamada e atualizado no lugar a cada sincronização,
+ * antes de gravar o arquivo; o aviso às telas sai logo depois, sem esperar
+ * a gravação. Assim o combo continua respondendo da memória enquanto há
+ * alterações pendentes.
+ *
+ * No MySQL não há avisos com chaves: as escritas feitas por este programa
+ * (MonitorEscritas) disparam uma carga completa, e as de outros clientes só
+ * aparecem na próxima partida.
+ *
+ * -Dlivros.catalogo=false desliga; -Dlivros.catalogo.dir escolhe a pasta
+ * (padrão ~/.livros).
+ */
+public class CatalogoLocal {
+
+    private static final String[] TABELAS = { "livros", "autor", "edicao", "livroautor" };
+    private static final long ESPERA_AGRUPAR_MS = 200;
+    private static final long ESPERA_FALHA_INICIAL_MS = 1000;
+    private static final long ESPERA_FALHA_MAXIMA_MS = 60 * 1000;
+    private static final int CHAVES_POR_CONSULTA = 1000;
+    private static final int TAMANHO_LOTE = 5000;
+    private static final Logger LOG = Logger.getLogger(CatalogoLocal.class.getName());
+
+    private static CatalogoLocal aberto;
+
+    // nome.lcat: as gerações são nome.N.lcat na mesma pasta
+    private final Path arquivo;
+    private long geracao = -1;
+    private final Thread thread;
+    private final OuvinteAlteracao ouvinteAlteracao = this::alterado;
+    private final OuvinteEscrita ouvinteEscrita = this::escrito;
+    private final ThreadLocal<Boolean> republicando = new ThreadLocal<Boolean>();
+
+    // índice de títulos e as alterações sendo aplicadas (ainda não no
+    // instantâneo), protegidos por travaIndice
+    private final Object travaIndice = new Object();
+    private IndiceTitulos indice;
+    private InstantaneoCatalogo indiceDe;
+    private Map<Long, String> titulosAplicando;
+
+    private volatile InstantaneoCatalogo instantaneo;
+    private volatile boolean parado;
+
+    // pendências, protegidas por this
+    private PoolConexoes pool;
+    private boolean conferir;
+    private boolean completa;
+    private boolean aplicando;
+    private final Set<Long> livros = new HashSet<Long>();
+    private final Set<Long> autores = new HashSet<Long>();
+    private final Set<Long> edicoes = new HashSet<Long>();
+    private final Set<Long> livroAutor = new HashSet<Long>();
+
+    private CatalogoLocal(Path arquivo) {
+        this.arquivo = arquivo;
+        this.thread = new Thread(this::manter, "catalogo-local");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * abre o instantâneo do banco configurado para o tipo, sem conectar
+     *
+     * @param tipoBanco "mysql" ou "postgresql"
+     * @return catálogo aberto (possivelmente ainda vazio), ou null se desligado
+     */
+    public static synchronized CatalogoLocal abrir(String tipoBanco) {
+        if (!Boolean.parseBoolean(System.getProperty("livros.catalogo", "true"))) {
+            return null;
+        }
+        if (aberto == null) {
+            VoConexao vo = PoolConexoes.getStringConexao(tipoBanco).getConfiguracaoDefault();
+            aberto = new CatalogoLocal(getArquivo(vo));
+            try {
+                aberto.abrirMaisNova();
+                LOG.config("Catálogo local: " + (aberto.instantaneo == null ? aberto.arquivo + " (vazio)"
+                        : aberto.instantaneo.toString()));
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Catálogo local ilegível: " + aberto.arquivo, e);
+            }
+            aberto.removerAntigas();
+        }
+        return aberto;
+    }
+
+    /**
+     * mapeia a geração mais nova que for um instantâneo válido
+     */
+    private void abrirMaisNova() throws IOException {
+        for (Map.Entry<Long, Path> existente : listarGeracoes(arquivo).entrySet()) {
+            InstantaneoCatalogo lido;
+            try {
+                lido = InstantaneoCatalogo.abrir(existente.getValue());
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Catálogo local ilegível: " + existente.getValue(), e);
+                continue;
+            }
+            if (lido != null) {
+                instantaneo = lido;
+                geracao = existente.getKey();
+                return;
+            }
+        }
+    }
+
+    /**
+     * apaga as gerações que não são a atual; as que ainda estiverem mapeadas
+     * (aqui ou em outro processo, no Windows) ficam para a próxima vez
+     */
+    private void removerAntigas() {
+        long atual;
+        synchronized (this) {
+            atual = geracao;
+        }
+        try {
+            for (Map.Entry<Long, Path> existente : listarGeracoes(arquivo).entrySet()) {
+                if (existente.getKey() != atual) {
+                    try {
+                        Files.deleteIfExists(existente.getValue());
+                    } catch (IOException e) {
+                        LOG.log(Level.FINE, "Geração em uso: " + existente.getValue(), e);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Pasta do catálogo local ilegível: " + arquivo, e);
+        }
+    }
+
+    /**
+     * começa a manter o catálogo aberto em dia com o banco do pool
+     */
+    public static synchronized void sincronizar(PoolConexoes pool) {
+        if (aberto == null) {
+            return;
+        }
+        synchronized (aberto) {
+            if (aberto.pool != null) {
+                return;
+            }
+            aberto.pool = pool;
+            aberto.conferir = true;
+        }
+        CanalAlteracoes.adicionarOuvinte(aberto.ouvinteAlteracao);
+        MonitorEscritas.adicionarOuvinte(aberto.ouvinteEscrita);
+        aberto.thread.start();
+    }
+
+    public static synchronized void fechar() {
+        if (aberto == null) {
+            return;
+        }
+        CanalAlteracoes.removerOuvinte(aberto.ouvinteAlteracao);
+        MonitorEscritas.removerOuvinte(aberto.ouvinteEscrita);
+        aberto.parado = true;
+        aberto.thread.interrupt();
+        aberto = null;
+    }
+
+    /**
+     * índice dos títulos do catálogo aberto: montado na primeira chamada a
+     * partir do instantâneo, sem tocar o banco, e mantido em dia pela
+     * sincronização (fica alguns milissegundos atrás dos avisos, como o banco
+     * de uma réplica, mas não some enquanto há alterações pendentes)
+     *
+     * @return null se não há catálogo ou ele ainda está vazio
+     */
+    public static IndiceTitulos getIndiceTitulos() {
+        CatalogoLocal catalogo;
+        synchronized (CatalogoLocal.class) {
+            catalogo = aberto;
+        }
+        return catalogo == null ? null : catalogo.getIndice();
+    }
+
+    private IndiceTitulos getIndice() {
+        synchronized (travaIndice) {
+            if (indice == null) {
+                InstantaneoCatalogo atual = instantaneo;
+                if (atual == null) {
+                    return null;
+                }
+                indice = montarIndice(atual);
+                indiceDe = atual;
+                // alterações lidas do banco mas ainda não gravadas no instantâneo
+                if (titulosAplicando != null) {
+                    atualizar(indice, titulosAplicando);
+                }
+            }
+            return indice;
+        }
+    }
+
+    /**
+     * copia os títulos do instantâneo, já na ordem dos títulos, sem String
+     */
+    private static IndiceTitulos montarIndice(InstantaneoCatalogo origem) {
+        long inicio = System.nanoTime();
+        IndiceTitulos novo = new IndiceTitulos();
+        for (int k = 0; k < origem.getLivros(); k++) {
+            int i = origem.livroNaOrdem(k);
+            novo.carregar(origem.codigoLivro(i), origem.getTitulo(i));
+        }
+        LOG.fine(String.format("Índice de títulos montado em %d ms: %d títulos, %d bytes",
+                (System.nanoTime() - inicio) / 1000000, novo.getQuantidade(), novo.getBytesUsados()));
+        return novo;
+    }
+
+    /**
+     * @param titulos título novo de cada livro, ou null para os excluídos
+     */
+    private static void atualizar(IndiceTitulos indice, Map<Long, String> titulos) {
+        for (Map.Entry<Long, String> titulo : titulos.entrySet()) {
+            if (titulo.getValue() == null) {
+                indice.remover(titulo.getKey());
+            } else {
+                indice.adicionar(titulo.getKey(), titulo.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return instantâneo em dia com os avisos recebidos, ou null se não há
+     * catálogo, ele está vazio ou há alterações ainda não aplicadas (quem
+     * chama consulta o banco)
+     */
+    public static InstantaneoCatalogo getInstantaneo() {
+        CatalogoLocal catalogo;
+        synchronized (CatalogoLocal.class) {
+            catalogo = aberto;
+        }
+        if (catalogo == null) {
+            return null;
+        }
+        synchronized (catalogo) {
+            if (catalogo.aplicando || catalogo.completa || !catalogo.livros.isEmpty()
+                    || !catalogo.autores.isEmpty() || !catalogo.edicoes.isEmpty() || !catalogo.livroAutor.isEmpty()) {
+                return null;
+            }
+            return catalogo.instantaneo;
+        }
+    }
+
+    /**
+     * ~/.livros/sgbd-host-porta-base.lcat (só letras, dígitos, '.', '_' e '-')
+     */
+    static Path getArquivo(VoConexao vo) {
+        String pasta = System.getProperty("livros.catalogo.dir",
+                Paths.get(System.getProperty("user.home"), ".livros").toString());
+        String nome = (vo.getSgbd() + "-" + vo.getHost() + "-" + vo.getPorta() + "-" + vo.getBaseDados())
+                .replaceAll("[^A-Za-z0-9._-]", "_");
+        return Paths.get(pasta, nome + ".lcat");
+    }
+
+    /**
+     * nome.N.lcat
+     */
+    static Path getGeracao(Path arquivo, long geracao) {
+        String nome = arquivo.getFileName().toString();
+        return arquivo.resolveSibling(nome.substring(0, nome.length() - ".lcat".length()) + "." + geracao + ".lcat");
+    }
+
+    /**
+     * @return gerações gravadas, da mais nova para a mais velha; o nome.lcat
+     * de versões anteriores conta como geração 0
+     */
+    static Map<Long, Path> listarGeracoes(Path arquivo) throws IOException {
+        Map<Long, Path> geracoes = new TreeMap<Long, Path>(Collections.<Long>reverseOrder());
+        Path pasta = arquivo.toAbsolutePath().getParent();
+        if (!Files.isDirectory(pasta)) {
+            return geracoes;
+        }
+        String nome = arquivo.getFileName().toString();
+        String prefixo = nome.substring(0, nome.length() - ".lcat".length()) + ".";
+        try (DirectoryStream<Path> arquivos = Files.newDirectoryStream(pasta, prefixo + "*lcat")) {
+            for (Path existente : arquivos) {
+                String outro = existente.getFileName().toString();
+                if (outro.equals(nome)) {
+                    geracoes.put(0L, existente);
+                    continue;
+                }
+                String numero = outro.substring(prefixo.length(), outro.length() - ".lcat".length());
+                if (!numero.isEmpty() && numero.length() < 19 && numero.matches("[0-9]+")) {
+                    geracoes.put(Long.parseLong(numero), existente);
+                }
+            }
+        }
+        return geracoes;
+    }
+
+    /**
+     * uma acima da atual e de qualquer outra já gravada (outro processo
+     * pode ter sincronizado o mesmo banco)
+     */
+    private long proximaGeracao() throws IOException {
+        long maior = 0;
+        synchronized (this) {
+            maior = Math.max(maior, geracao);
+        }
+        for (long existente : listarGeracoes(arquivo).keySet()) {
+            maior = Math.max(maior, existente);
+        }
+        return maior + 1;
+    }
+
+    private void alterado(Alteracao alteracao) {
+        if (republicando.get() != null) {
+            return;
+        }
+        String tabela = alteracao.getTabela().toLowerCase();
+        long[] chaves = alteracao.getChaves();
+        synchronized (this) {
+            if (MonitorEscritas.TODAS.equals(tabela)) {
+                completa = true;
+            } else if (!this.isTabela(tabela)) {
+                return;
+            } else if (chaves == null) {
+                completa = true;
+            } else {
+                Set<Long> pendentes = this.getPendentes(tabela);
+                for (long chave : chaves) {
+                    pendentes.add(chave);
+                }
+            }
+            this.notifyAll();
+        }
+    }
+
+    /**
+     * escritas deste processo sem canal de avisos (MySQL): chaves
+     * desconhecidas
+     */
+    private void escrito(String tabela) {
+        if (CanalAlteracoes.isAtivo() || republicando.get() != null) {
+            return;
+        }
+        if (MonitorEscritas.TODAS.equals(tabela) || this.isTabela(tabela)) {
+            synchronized (this) {
+                completa = true;
+                this.notifyAll();
+            }
+        }
+    }
+
+    private boolean isTabela(String tabela) {
+        for (String nome : TABELAS) {
+            if (nome.equals(tabela)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Set<Long> getPendentes(String tabela) {
+        switch (tabela) {
+            case "livros":
+                return livros;
+            case "autor":
+                return autores;
+            case "edicao":
+                return edicoes;
+            default:
+                return livroAutor;
+        }
+    }
+
+    private boolean isPendente() {
+        return conferir || completa || !livros.isEmpty() || !autores.isEmpty() || !edicoes.isEmpty()
+                || !livroAutor.isEmpty();
+    }
+
+    /**
+     * laço da thread: espera pendências, agrupa os avisos que chegam juntos e
+     * aplica
+     */
+    private void manter() {
+        long espera = ESPERA_FALHA_INICIAL_MS;
+        while (!parado) {
+            try {
+                synchronized (this) {
+                    while (!this.isPendente()) {
+                        this.wait();
+                    }
+                }
+                Thread.sleep(ESPERA_AGRUPAR_MS);
+                this.sincronizarPendencias();
+                espera = ESPERA_FALHA_INICIAL_MS;
+            } catch (InterruptedException e) {
+                break;
+            } catch (SQLException | IOException | RuntimeException e) {
+                if (parado) {
+                    break;
+                }
+                LOG.log(Level.WARNING, "Falha ao sincronizar o catálogo local; nova tentativa em " + espera + " ms", e);
+                try {
+                    Thread.sleep(espera);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+                espera = Math.min(espera * 2, ESPERA_FALHA_MAXIMA_MS);
+            }
+        }
+    }
+
+    private void sincronizarPendencias() throws SQLException, IOException {
+        boolean verificar, recarregar;
+        Set<Long> livrosAlterados, autoresAlterados, edicoesAlteradas, livroAutorAlterados;
+        InstantaneoCatalogo anterior = instantaneo;
+        synchronized (this) {
+            // avisos que chegarem daqui em diante ficam para a próxima rodada
+            verificar = conferir;
+            recarregar = completa || anterior == null || this.isVencido(anterior);
+            livrosAlterados = this.retirar(livros);
+            autoresAlterados = this.retirar(autores);
+            edicoesAlteradas = this.retirar(edicoes);
+            livroAutorAlterados = this.retirar(livroAutor);
+            aplicando = completa || !livrosAlterados.isEmpty() || !autoresAlterados.isEmpty()
+                    || !edicoesAlteradas.isEmpty() || !livroAutorAlterados.isEmpty();
+            conferir = false;
+            completa = false;
+        }
+
+        long inicio = System.nanoTime();
+        long proxima = this.proximaGeracao();
+        InstantaneoCatalogo novo = null;
+        Alteracao alteracao = null;
+        boolean concluida = false;
+        try (Connection conexao = pool.obterConexao()) {
+            int isolamento = conexao.getTransactionIsolation();
+            conexao.setAutoCommit(false);
+            // as quatro tabelas (e as contagens) do mesmo momento
+            conexao.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            try {
+                if (!recarregar) {
+                    Map<Long, String> titulos = new TreeMap<Long, String>();
+                    GravadorCatalogo gravador = this.aplicar(conexao, anterior, livrosAlterados,
+                            autoresAlterados, edicoesAlteradas, livroAutorAlterados, titulos);
+                    if (verificar && !this.isContagemIgual(conexao, gravador, anterior)) {
+                        LOG.info("Catálogo local difere do banco; refazendo");
+                        recarregar = true;
+                    } else if (gravador != null) {
+                        // o índice e as telas não esperam a gravação do arquivo
+                        synchronized (travaIndice) {
+                            titulosAplicando = titulos;
+                            if (indice != null) {
+                                atualizar(indice, titulos);
+                            }
+                        }
+                        this.republicar(this.getAlteracao(anterior, titulos));
+                        novo = gravador.gravar(getGeracao(arquivo, proxima), anterior.getCriadoEm());
+                    }
+                }
+                if (recarregar) {
+                    novo = this.carregar(conexao).gravar(getGeracao(arquivo, proxima), System.currentTimeMillis());
+                    alteracao = new Alteracao(MonitorEscritas.TODAS, null, null);
+                }
+                concluida = true;
+            } finally {
+                conexao.commit();
+                if (conexao.getTransactionIsolation() != isolamento) {
+                    conexao.setTransactionIsolation(isolamento);
+                }
+            }
+        } finally {
+            synchronized (this) {
+                if (concluida) {
+                    if (novo != null) {
+                        instantaneo = novo;
+                        geracao = proxima;
+                    }
+                } else {
+                    // devolve as pendências para a próxima tentativa
+                    conferir |= verificar;
+                    completa |= recarregar && anterior != null;
+                    livros.addAll(livrosAlterados);
+                    autores.addAll(autoresAlterados);
+                    edicoes.addAll(edicoesAlteradas);
+                    livroAutor.addAll(livroAutorAlterados);
+                }
+                aplicando = false;
+            }
+            synchronized (travaIndice) {
+                titulosAplicando = null;
+            }
+        }
+
+        if (novo != null) {
+            LOG.info(String.format("Catálogo local %s em %d ms: %s", recarregar ? "recarregado" : "atualizado",
+                    (System.nanoTime() - inicio) / 1000000, novo));
+            this.removerAntigas();
+        }
+        if (alteracao != null) {
+            // carga completa: o índice é refeito do instantâneo novo
+            synchronized (travaIndice) {
+                if (indice != null && indiceDe != novo) {
+                    indice = montarIndice(novo);
+                    indiceDe = novo;
+                }
+            }
+            this.republicar(alteracao);
+        }
+    }
+
+    /**
+     * as telas que leram o instantâneo anterior recarregam
+     */
+    private void republicar(Alteracao alteracao) {
+        republicando.set(Boolean.TRUE);
+        try {
+            CanalAlteracoes.publicar(alteracao);
+        } finally {
+            republicando.remove();
+        }
+    }
+
+    private Set<Long> retirar(Set<Long> pendentes) {
+        Set<Long> retiradas = new HashSet<Long>(pendentes);
+        pendentes.clear();
+        return retiradas;
+    }
+
+    private boolean isVencido(InstantaneoCatalogo instantaneo) {
+        long validade = Long.getLong("livros.catalogo.validadeHoras", 24) * 60 * 60 * 1000;
+        return System.currentTimeMillis() - instantaneo.getCriadoEm() > validade;
+    }
+
+    /**
+     * carga completa das quatro tabelas
+     */
+    private GravadorCatalogo carregar(Connection conexao) throws SQLException {
+        GravadorCatalogo gravador = new GravadorCatalogo();
+        try (Statement stmt = this.criarCursor(conexao)) {
+            try (ResultSet rs = stmt.executeQuery("SELECT codigo, titulo FROM livros ORDER BY codigo")) {
+                while (rs.next()) {
+                    gravador.adicionarLivro(rs.getLong(1), rs.getString(2));
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT codigo, nome FROM autor ORDER BY codigo")) {
+                while (rs.next()) {
+                    gravador.adicionarAutor(rs.getLong(1), rs.getString(2));
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery(
+                    "SELECT codigolivro, numero, ano FROM edicao ORDER BY codigolivro, numero")) {
+                while (rs.next()) {
+                    gravador.adicionarEdicao(rs.getLong(1), rs.getString(2).charAt(0), rs.getInt(3));
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery(
+                    "SELECT codigolivro, codigoautor FROM livroautor ORDER BY codigolivro, codigoautor")) {
+                while (rs.next()) {
+                    gravador.adicionarLivroAutor(rs.getLong(1), rs.getLong(2));
+                }
+            }
+        }
+        return gravador;
+    }
+
+    /**
+     * monta o instantâneo seguinte: copia do anterior o que não mudou e busca
+     * no banco os códigos acima das marcas d'água e as chaves avisadas
+     *
+     * @param titulos recebe o título de cada livro incluído ou alterado, e
+     * null para os excluídos
+     * @return null se nada mudou
+     */
+    private GravadorCatalogo aplicar(Connection conexao, InstantaneoCatalogo anterior, Set<Long> livrosAlterados,
+            Set<Long> autoresAlterados, Set<Long> edicoesAlteradas, Set<Long> livroAutorAlterados,
+            Map<Long, String> titulos) throws SQLException {
+        // livros excluídos levam junto edições e autorias (também avisadas)
+        Set<Long> livrosDetalhe = new HashSet<Long>(livrosAlterados);
+        livrosDetalhe.addAll(edicoesAlteradas);
+        livrosDetalhe.addAll(livroAutorAlterados);
+
+        List<Object[]> novosLivros = this.buscar(conexao, "SELECT codigo, titulo FROM livros", "codigo",
+                anterior.getMarcaLivros(), livrosAlterados, "codigo");
+        List<Object[]> novosAutores = this.buscar(conexao, "SELECT codigo, nome FROM autor", "codigo",
+                anterior.getMarcaAutor(), autoresAlterados, "codigo");
+        List<Object[]> novasEdicoes = this.buscar(conexao, "SELECT codigolivro, numero, ano FROM edicao",
+                "codigolivro", anterior.getMarcaLivros(), edicoesAlteradas, "codigolivro, numero");
+        List<Object[]> novosLivroAutor = this.buscar(conexao, "SELECT codigolivro, codigoautor FROM livroautor",
+                "codigolivro", anterior.getMarcaLivros(), livroAutorAlterados, "codigolivro, codigoautor");
+        if (livrosAlterados.isEmpty() && autoresAlterados.isEmpty() && edicoesAlteradas.isEmpty()
+                && livroAutorAlterados.isEmpty() && novosLivros.isEmpty() && novosAutores.isEmpty()
+                && novasEdicoes.isEmpty() && novosLivroAutor.isEmpty()) {
+            return null;
+        }
+
+        GravadorCatalogo gravador = new GravadorCatalogo();
+
+        // livros, guardando onde cada um foi parar para refazer a ordem dos títulos
+        int[] novaPosicao = new int[anterior.getLivros()];
+        int[] vindos = new int[novosLivros.size()];
+        Iterator<Object[]> livro = novosLivros.iterator();
+        Object[] proximo = livro.hasNext() ? livro.next() : null;
+        int n = 0;
+        for (int i = 0; i < anterior.getLivros(); i++) {
+            long codigo = anterior.codigoLivro(i);
+            while (proximo != null && (Long) proximo[0] < codigo) {
+                vindos[n++] = gravador.getLivros();
+                gravador.adicionarLivro((Long) proximo[0], (String) proximo[1]);
+                titulos.put((Long) proximo[0], (String) proximo[1]);
+                proximo = livro.hasNext() ? livro.next() : null;
+            }
+            if (livrosAlterados.contains(codigo)) {
+                // relido do banco (se ainda existe)
+                novaPosicao[i] = -1;
+                continue;
+            }
+            novaPosicao[i] = gravador.getLivros();
+            gravador.copiarLivro(anterior, i);
+        }
+        while (proximo != null) {
+            vindos[n++] = gravador.getLivros();
+            gravador.adicionarLivro((Long) proximo[0], (String) proximo[1]);
+            titulos.put((Long) proximo[0], (String) proximo[1]);
+            proximo = livro.hasNext() ? livro.next() : null;
+        }
+        for (long codigo : livrosAlterados) {
+            if (!titulos.containsKey(codigo)) {
+                titulos.put(codigo, null);
+            }
+        }
+        gravador.ordenarTitulos(anterior, novaPosicao, vindos);
+
+        // autores
+        Iterator<Object[]> autor = novosAutores.iterator();
+        proximo = autor.hasNext() ? autor.next() : null;
+        for (int i = 0; i < anterior.getAutores(); i++) {
+            long codigo = anterior.codigoAutor(i);
+            while (proximo != null && (Long) proximo[0] < codigo) {
+                gravador.adicionarAutor((Long) proximo[0], (String) proximo[1]);
+                proximo = autor.hasNext() ? autor.next() : null;
+            }
+            if (!autoresAlterados.contains(codigo)) {
+                gravador.copiarAutor(anterior, i);
+            }
+        }
+        for (; proximo != null; proximo = autor.hasNext() ? autor.next() : null) {
+            gravador.adicionarAutor((Long) proximo[0], (String) proximo[1]);
+        }
+
+        // edições: as do livro avisado vêm todas do banco
+        Iterator<Object[]> edicao = novasEdicoes.iterator();
+        proximo = edicao.hasNext() ? edicao.next() : null;
+        for (int i = 0; i < anterior.getEdicoes(); i++) {
+            long codigo = anterior.edicaoLivro(i);
+            while (proximo != null && (Long) proximo[0] < codigo) {
+                gravador.adicionarEdicao((Long) proximo[0], ((String) proximo[1]).charAt(0), (Integer) proximo[2]);
+                proximo = edicao.hasNext() ? edicao.next() : null;
+            }
+            if (!edicoesAlteradas.contains(codigo)) {
+                gravador.adicionarEdicao(codigo, anterior.edicaoNumero(i), anterior.edicaoAno(i));
+            }
+        }
+        for (; proximo != null; proximo = edicao.hasNext() ? edicao.next() : null) {
+            gravador.adicionarEdicao((Long) proximo[0], ((String) proximo[1]).charAt(0), (Integer) proximo[2]);
+        }
+
+        // livroautor, idem
+        Iterator<Object[]> autoria = novosLivroAutor.iterator();
+        proximo = autoria.hasNext() ? autoria.next() : null;
+        for (int i = 0; i < anterior.getLivroAutor(); i++) {
+            long codigo = anterior.livroAutorLivro(i);
+            while (proximo != null && (Long) proximo[0] < codigo) {
+                gravador.adicionarLivroAutor((Long) proximo[0], (Long) proximo[1]);
+                proximo = autoria.hasNext() ? autoria.next() : null;
+            }
+            if (!livroAutorAlterados.contains(codigo)) {
+                gravador.adicionarLivroAutor(codigo, anterior.livroAutorAutor(i));
+            }
+        }
+        for (; proximo != null; proximo = autoria.hasNext() ? autoria.next() : null) {
+            gravador.adicionarLivroAutor((Long) proximo[0], (Long) proximo[1]);
+        }
+        return gravador;
+    }
+
+    /**
+     * linhas com chave acima da marca ou entre as avisadas, em ordem
+     */
+    private List<Object[]> buscar(Connection conexao, String select, String chave, long marca,
+            Set<Long> avisadas, String ordem) throws SQLException {
+        List<Long> chaves = new ArrayList<Long>(avisadas);
+        Collections.sort(chaves);
+        List<String> filtros = new ArrayList<String>();
+        filtros.add(chave + " > " + marca);
+        for (int i = 0; i < chaves.size(); i += CHAVES_POR_CONSULTA) {
+            StringBuilder in = new StringBuilder(chave).append(" IN (");
+            for (int j = i; j < Math.min(i + CHAVES_POR_CONSULTA, chaves.size()); j++) {
+                in.append(j > i ? "," : "").append(chaves.get(j));
+            }
+            filtros.add(in.append(')').toString());
+        }
+
+        // cada filtro cobre chaves distintas das dos outros, em faixas crescentes
+        // só para a marca; junta tudo e ordena
+        List<Object[]> linhas = new ArrayList<Object[]>();
+        try (Statement stmt = this.criarCursor(conexao)) {
+            for (String filtro : filtros) {
+                try (ResultSet rs = stmt.executeQuery(select + " WHERE " + filtro + " ORDER BY " + ordem)) {
+                    int colunas = rs.getMetaData().getColumnCount();
+                    while (rs.next()) {
+                        Object[] linha = new Object[colunas];
+                        linha[0] = rs.getLong(1);
+                        for (int c = 2; c <= colunas; c++) {
+                            Object valor = rs.getObject(c);
+                            linha[c - 1] = valor instanceof Number && !(valor instanceof Integer)
+                                    ? (Object) ((Number) valor).longValue() : valor;
+                        }
+                        linhas.add(linha);
+                    }
+                }
+            }
+        }
+        Collections.sort(linhas, (a, b) -> {
+            for (int c = 0; c < a.length; c++) {
+                @SuppressWarnings("unchecked")
+                int diferenca = ((Comparable<Object>) a[c]).compareTo(b[c]);
+                if (diferenca != 0) {
+                    return diferenca;
+                }
+            }
+            return 0;
+        });
+        // a mesma linha pode vir pela marca e pela lista de chaves
+        List<Object[]> unicas = new ArrayList<Object[]>(linhas.size());
+        for (Object[] linha : linhas) {
+            if (unicas.isEmpty() || !Arrays.equals(unicas.get(unicas.size() - 1), linha)) {
+                unicas.add(linha);
+            }
+        }
+        return unicas;
+    }
+
+    private Statement criarCursor(Connection conexao) throws SQLException {
+        Statement stmt = conexao.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(pool.getUrl().startsWith("jdbc:mysql:") ? Integer.MIN_VALUE : TAMANHO_LOTE);
+        return stmt;
+    }
+
+    private boolean isContagemIgual(Connection conexao, GravadorCatalogo gravador, InstantaneoCatalogo atual)
+            throws SQLException {
+        long[] esperado = gravador != null
+                ? new long[] { gravador.getLivros(), gravador.getAutores(), gravador.getEdicoes(), gravador.getLivroAutor() }
+                : new long[] { atual.getLivros(), atual.getAutores(), atual.getEdicoes(), atual.getLivroAutor() };
+        try (Statement stmt = conexao.createStatement();
+                ResultSet rs = stmt.executeQuery("SELECT (SELECT COUNT(*) FROM livros), (SELECT COUNT(*) FROM autor),"
+                        + " (SELECT COUNT(*) FROM edicao), (SELECT COUNT(*) FROM livroautor)")) {
+            rs.next();
+            for (int i = 0; i < esperado.length; i++) {
+                if (rs.getLong(i + 1) != esperado[i]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * aviso para as telas: os livros que mudaram, ou TODAS se só mudaram
+     * autores e edições (que aparecem nos detalhes)
+     */
+    private Alteracao getAlteracao(InstantaneoCatalogo anterior, Map<Long, String> titulos) {
+        if (titulos.isEmpty()) {
+            return new Alteracao(MonitorEscritas.TODAS, null, null);
+        }
+        long[] chaves = new long[titulos.size()];
+        boolean desloca = false;
+        int i = 0;
+        for (Map.Entry<Long, String> titulo : titulos.entrySet()) {
+            chaves[i++] = titulo.getKey();
+            desloca |= anterior.indiceLivro(titulo.getKey()) < 0 != (titulo.getValue() == null);
+        }
+        return new Alteracao("livros", desloca ? "INSERT" : "UPDATE", chaves);
+    }
+}
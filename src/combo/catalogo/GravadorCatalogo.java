@@ -0,0 +1,279 @@
+package combo.catalogo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Monta um InstantaneoCatalogo: os registros chegam em ordem de chave (do
+ * banco ou copiados de um instantâneo anterior), ficam em buffers diretos
+ * por seção e são gravados num arquivo temporário renomeado no fim para um
+ * nome novo (a geração seguinte, ver CatalogoLocal): nenhum arquivo mapeado é
+ * substituído, e quem mapeou o anterior continua lendo o conteúdo antigo.
+ */
+class GravadorCatalogo {
+
+    /**
+     * seção em montagem, num buffer direto que dobra quando enche
+     */
+    static class Secao {
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+
+        private void garantir(int bytes) {
+            if (buffer.remaining() < bytes) {
+                ByteBuffer maior = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2,
+                        buffer.position() + bytes));
+                buffer.flip();
+                maior.put(buffer);
+                buffer = maior;
+            }
+        }
+
+        void copiar(ByteBuffer origem, int inicio, int tamanho) {
+            this.garantir(tamanho);
+            ByteBuffer trecho = origem.duplicate();
+            trecho.limit(inicio + tamanho).position(inicio);
+            buffer.put(trecho);
+        }
+
+        int posicao() {
+            return buffer.position();
+        }
+    }
+
+    private final Secao livros = new Secao();
+    private final Secao autores = new Secao();
+    private final Secao edicoes = new Secao();
+    private final Secao livroAutor = new Secao();
+    private final Secao textos = new Secao();
+    private int[] ordemTitulos;
+    private int quantidadeLivros;
+    private int quantidadeAutores;
+    private int quantidadeEdicoes;
+    private int quantidadeLivroAutor;
+    private long ultimoLivro = Long.MIN_VALUE;
+    private long ultimoAutor = Long.MIN_VALUE;
+
+    int getLivros() {
+        return quantidadeLivros;
+    }
+
+    int getAutores() {
+        return quantidadeAutores;
+    }
+
+    int getEdicoes() {
+        return quantidadeEdicoes;
+    }
+
+    int getLivroAutor() {
+        return quantidadeLivroAutor;
+    }
+
+    private int texto(String texto) {
+        int inicio = textos.posicao();
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        textos.garantir(bytes.length);
+        textos.buffer.put(bytes);
+        return inicio;
+    }
+
+    private void registroTexto(Secao secao, long codigo, int inicio) {
+        secao.garantir(InstantaneoCatalogo.REGISTRO);
+        secao.buffer.putLong(codigo).putInt(inicio).putInt(textos.posicao() - inicio);
+    }
+
+    private long emOrdem(long anterior, long codigo) {
+        if (codigo <= anterior) {
+            throw new IllegalStateException("código fora de ordem: " + codigo + " depois de " + anterior);
+        }
+        return codigo;
+    }
+
+    void adicionarLivro(long codigo, String titulo) {
+        ultimoLivro = this.emOrdem(ultimoLivro, codigo);
+        this.registroTexto(livros, codigo, this.texto(titulo));
+        quantidadeLivros++;
+    }
+
+    void copiarLivro(InstantaneoCatalogo origem, int i) {
+        ultimoLivro = this.emOrdem(ultimoLivro, origem.codigoLivro(i));
+        int inicio = textos.posicao();
+        origem.copiarTitulo(i, textos);
+        this.registroTexto(livros, ultimoLivro, inicio);
+        quantidadeLivros++;
+    }
+
+    void adicionarAutor(long codigo, String nome) {
+        ultimoAutor = this.emOrdem(ultimoAutor, codigo);
+        this.registroTexto(autores, codigo, this.texto(nome));
+        quantidadeAutores++;
+    }
+
+    void copiarAutor(InstantaneoCatalogo origem, int i) {
+        ultimoAutor = this.emOrdem(ultimoAutor, origem.codigoAutor(i));
+        int inicio = textos.posicao();
+        origem.copiarNome(i, textos);
+        this.registroTexto(autores, ultimoAutor, inicio);
+        quantidadeAutores++;
+    }
+
+    /**
+     * em ordem de (codigolivro, numero)
+     */
+    void adicionarEdicao(long codigoLivro, char numero, int ano) {
+        edicoes.garantir(InstantaneoCatalogo.REGISTRO);
+        edicoes.buffer.putLong(codigoLivro).putInt(numero).putInt(ano);
+        quantidadeEdicoes++;
+    }
+
+    /**
+     * em ordem de (codigolivro, codigoautor)
+     */
+    void adicionarLivroAutor(long codigoLivro, long codigoAutor) {
+        livroAutor.garantir(InstantaneoCatalogo.REGISTRO);
+        livroAutor.buffer.putLong(codigoLivro).putLong(codigoAutor);
+        quantidadeLivroAutor++;
+    }
+
+    /**
+     * ordem dos títulos calculada do zero (carga completa)
+     */
+    void ordenarTitulos() {
+        final ByteBuffer registros = livros.buffer;
+        final ByteBuffer texto = textos.buffer;
+        Integer[] ordem = new Integer[quantidadeLivros];
+        for (int i = 0; i < ordem.length; i++) {
+            ordem[i] = i;
+        }
+        Arrays.sort(ordem, (a, b) -> comparar(registros, texto, a, b));
+        ordemTitulos = new int[ordem.length];
+        for (int i = 0; i < ordem.length; i++) {
+            ordemTitulos[i] = ordem[i];
+        }
+    }
+
+    /**
+     * ordem dos títulos a partir da anterior: os livros copiados mantêm a
+     * ordem relativa que tinham, só os novos são ordenados e intercalados
+     *
+     * @param anterior instantâneo de onde os livros foram copiados
+     * @param novaPosicao posição no novo instantâneo de cada livro do
+     * anterior, ou -1 se não foi copiado
+     * @param novos posições dos livros vindos do banco
+     */
+    void ordenarTitulos(InstantaneoCatalogo anterior, int[] novaPosicao, int[] novos) {
+        final ByteBuffer registros = livros.buffer;
+        final ByteBuffer texto = textos.buffer;
+        Integer[] chegaram = new Integer[novos.length];
+        for (int i = 0; i < novos.length; i++) {
+            chegaram[i] = novos[i];
+        }
+        Arrays.sort(chegaram, (a, b) -> comparar(registros, texto, a, b));
+
+        ordemTitulos = new int[quantidadeLivros];
+        int n = 0, j = 0;
+        for (int k = 0; k < anterior.getLivros(); k++) {
+            int copiado = novaPosicao[anterior.livroNaOrdem(k)];
+            if (copiado < 0) {
+                continue;
+            }
+            while (j < chegaram.length && comparar(registros, texto, chegaram[j], copiado) < 0) {
+                ordemTitulos[n++] = chegaram[j++];
+            }
+            ordemTitulos[n++] = copiado;
+        }
+        while (j < chegaram.length) {
+            ordemTitulos[n++] = chegaram[j++];
+        }
+    }
+
+    /**
+     * (título, código) de dois livros em montagem; mesma ordem de
+     * InstantaneoCatalogo.compararLivros
+     */
+    private static int comparar(ByteBuffer registros, ByteBuffer texto, int a, int b) {
+        int registroA = a * InstantaneoCatalogo.REGISTRO;
+        int registroB = b * InstantaneoCatalogo.REGISTRO;
+        int inicioA = registros.getInt(registroA + 8);
+        int inicioB = registros.getInt(registroB + 8);
+        int tamanhoA = registros.getInt(registroA + 12);
+        int tamanhoB = registros.getInt(registroB + 12);
+        int n = Math.min(tamanhoA, tamanhoB);
+        for (int j = 0; j < n; j++) {
+            int diferenca = (texto.get(inicioA + j) & 0xff) - (texto.get(inicioB + j) & 0xff);
+            if (diferenca != 0) {
+                return diferenca;
+            }
+        }
+        if (tamanhoA != tamanhoB) {
+            return tamanhoA - tamanhoB;
+        }
+        return Long.compare(registros.getLong(registroA), registros.getLong(registroB));
+    }
+
+    /**
+     * grava o arquivo (via temporário + rename) e o abre
+     *
+     * @param destino arquivo que ainda não existe
+     * @param criadoEm momento da última carga completa
+     * @return o instantâneo gravado, já mapeado
+     */
+    InstantaneoCatalogo gravar(Path destino, long criadoEm) throws IOException {
+        if (ordemTitulos == null) {
+            this.ordenarTitulos();
+        }
+        Files.createDirectories(destino.toAbsolutePath().getParent());
+        Path temporario = destino.resolveSibling(destino.getFileName() + ".parcial");
+
+        ByteBuffer cabecalho = ByteBuffer.allocate(InstantaneoCatalogo.TAMANHO_CABECALHO);
+        cabecalho.putInt(InstantaneoCatalogo.ASSINATURA).putInt(InstantaneoCatalogo.VERSAO)
+                .putLong(criadoEm).putLong(System.currentTimeMillis())
+                .putLong(quantidadeLivros == 0 ? 0 : ultimoLivro)
+                .putLong(quantidadeAutores == 0 ? 0 : ultimoAutor)
+                .putInt(quantidadeLivros).putInt(quantidadeAutores)
+                .putInt(quantidadeEdicoes).putInt(quantidadeLivroAutor);
+        cabecalho.clear();
+
+        ByteBuffer titulos = ByteBuffer.allocateDirect(Math.max(ordemTitulos.length * 4, 4));
+        titulos.asIntBuffer().put(ordemTitulos);
+        titulos.limit(ordemTitulos.length * 4);
+
+        try (FileChannel canal = FileChannel.open(temporario, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer[] partes = { cabecalho, lido(livros), titulos, lido(autores), lido(edicoes),
+                    lido(livroAutor), lido(textos) };
+            for (ByteBuffer parte : partes) {
+                while (parte.hasRemaining()) {
+                    canal.write(parte);
+                }
+            }
+            canal.force(false);
+        }
+        // o rename atômico substituiria em silêncio um destino existente
+        if (Files.exists(destino)) {
+            Files.delete(temporario);
+            throw new FileAlreadyExistsException(destino.toString());
+        }
+        try {
+            Files.move(temporario, destino, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporario, destino);
+        }
+        return InstantaneoCatalogo.abrir(destino);
+    }
+
+    private static ByteBuffer lido(Secao secao) {
+        ByteBuffer leitura = secao.buffer.duplicate();
+        leitura.flip();
+        return leitura;
+    }
+}
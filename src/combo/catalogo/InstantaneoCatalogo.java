@@ -0,0 +1,395 @@
+package combo.catalogo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+
+/**
+ * Instantâneo local de livros, autor, edicao e livroautor num arquivo mapeado
+ * em memória: as consultas leem direto das páginas do arquivo, sem carregar
+ * nem converter as tabelas; só os textos devolvidos viram String.
+ *
+ * Formato (big-endian), seções na ordem abaixo:
+ * <pre>
+ * cabeçalho   TAMANHO_CABECALHO bytes: "LCA1", versão, criado em, sincronizado
+ *             em, maior livros.codigo, maior autor.codigo e a quantidade de
+ *             registros de cada seção
+ * livros      [codigo long][início do título int][tamanho int], por código
+ * títulos     [posição do livro int], por título e código (bytes), para
+ *             montar o IndiceTitulos sem ordenar
+ * autores     [codigo long][início do nome int][tamanho int], por código
+ * edições     [codigolivro long][numero int][ano int], por livro e número
+ * livroautor  [codigolivro long][codigoautor long], por livro e autor
+ * textos      títulos e nomes como estão no banco, em UTF-8
+ * </pre>
+ *
+ * Imutável: a sincronização grava outra geração do arquivo (GravadorCatalogo)
+ * e troca o instantâneo em CatalogoLocal; este arquivo nunca é substituído.
+ */
+public class InstantaneoCatalogo {
+
+    static final int ASSINATURA = 0x4c434131; // "LCA1"
+    static final int VERSAO = 1;
+    static final int TAMANHO_CABECALHO = 64;
+    static final int REGISTRO = 16;
+
+    private final Path arquivo;
+    private final ByteBuffer dados;
+    private final long criadoEm;
+    private final long sincronizadoEm;
+    private final long marcaLivros;
+    private final long marcaAutor;
+    private final int livros;
+    private final int autores;
+    private final int edicoes;
+    private final int livroAutor;
+    private final int inicioTitulos;
+    private final int inicioAutores;
+    private final int inicioEdicoes;
+    private final int inicioLivroAutor;
+    private final int inicioTextos;
+
+    private InstantaneoCatalogo(Path arquivo, ByteBuffer dados) {
+        this.arquivo = arquivo;
+        this.dados = dados;
+        criadoEm = dados.getLong(8);
+        sincronizadoEm = dados.getLong(16);
+        marcaLivros = dados.getLong(24);
+        marcaAutor = dados.getLong(32);
+        livros = dados.getInt(40);
+        autores = dados.getInt(44);
+        edicoes = dados.getInt(48);
+        livroAutor = dados.getInt(52);
+        inicioTitulos = TAMANHO_CABECALHO + livros * REGISTRO;
+        inicioAutores = inicioTitulos + livros * 4;
+        inicioEdicoes = inicioAutores + autores * REGISTRO;
+        inicioLivroAutor = inicioEdicoes + edicoes * REGISTRO;
+        inicioTextos = inicioLivroAutor + livroAutor * REGISTRO;
+    }
+
+    /**
+     * mapeia o arquivo só para leitura
+     *
+     * @return null se o arquivo não existe ou não é um instantâneo válido
+     * desta versão
+     * @throws IOException
+     */
+    public static InstantaneoCatalogo abrir(Path arquivo) throws IOException {
+        if (!Files.isRegularFile(arquivo)) {
+            return null;
+        }
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+            if (canal.size() < TAMANHO_CABECALHO || canal.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            // o mapeamento continua válido depois de fechar o canal
+            MappedByteBuffer mapa = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            if (mapa.getInt(0) != ASSINATURA || mapa.getInt(4) != VERSAO) {
+                return null;
+            }
+            InstantaneoCatalogo instantaneo = new InstantaneoCatalogo(arquivo, mapa);
+            return instantaneo.inicioTextos <= mapa.capacity() ? instantaneo : null;
+        }
+    }
+
+    // livros (posição i em ordem de código)
+
+    public long codigoLivro(int i) {
+        return dados.getLong(TAMANHO_CABECALHO + i * REGISTRO);
+    }
+
+    public String titulo(int i) {
+        int registro = TAMANHO_CABECALHO + i * REGISTRO;
+        return this.texto(dados.getInt(registro + 8), dados.getInt(registro + 12));
+    }
+
+    /**
+     * @return bytes UTF-8 do título (de position a limit), sem cópia
+     */
+    public ByteBuffer getTitulo(int i) {
+        int registro = TAMANHO_CABECALHO + i * REGISTRO;
+        int inicio = inicioTextos + dados.getInt(registro + 8);
+        ByteBuffer titulo = dados.duplicate();
+        titulo.limit(inicio + dados.getInt(registro + 12));
+        titulo.position(inicio);
+        return titulo;
+    }
+
+    /**
+     * @return posição do k-ésimo livro em ordem de título
+     */
+    public int livroNaOrdem(int k) {
+        return dados.getInt(inicioTitulos + k * 4);
+    }
+
+    /**
+     * @return posição do livro, ou -1
+     */
+    public int indiceLivro(long codigo) {
+        int i = this.primeiro(TAMANHO_CABECALHO, livros, codigo);
+        return i < livros && this.codigoLivro(i) == codigo ? i : -1;
+    }
+
+    // autores
+
+    public long codigoAutor(int i) {
+        return dados.getLong(inicioAutores + i * REGISTRO);
+    }
+
+    public String nome(int i) {
+        int registro = inicioAutores + i * REGISTRO;
+        return this.texto(dados.getInt(registro + 8), dados.getInt(registro + 12));
+    }
+
+    public int indiceAutor(long codigo) {
+        int i = this.primeiro(inicioAutores, autores, codigo);
+        return i < autores && this.codigoAutor(i) == codigo ? i : -1;
+    }
+
+    // edições
+
+    public long edicaoLivro(int i) {
+        return dados.getLong(inicioEdicoes + i * REGISTRO);
+    }
+
+    public char edicaoNumero(int i) {
+        return (char) dados.getInt(inicioEdicoes + i * REGISTRO + 8);
+    }
+
+    public int edicaoAno(int i) {
+        return dados.getInt(inicioEdicoes + i * REGISTRO + 12);
+    }
+
+    /**
+     * @return posição da primeira edição do livro (ou onde ela estaria)
+     */
+    public int primeiraEdicao(long codigoLivro) {
+        return this.primeiro(inicioEdicoes, edicoes, codigoLivro);
+    }
+
+    // livroautor
+
+    public long livroAutorLivro(int i) {
+        return dados.getLong(inicioLivroAutor + i * REGISTRO);
+    }
+
+    public long livroAutorAutor(int i) {
+        return dados.getLong(inicioLivroAutor + i * REGISTRO + 8);
+    }
+
+    public int primeiroLivroAutor(long codigoLivro) {
+        return this.primeiro(inicioLivroAutor, livroAutor, codigoLivro);
+    }
+
+    /**
+     * busca binária pela primeira posição com chave (o long no início do
+     * registro) maior ou igual à informada
+     */
+    private int primeiro(int inicio, int quantidade, long chave) {
+        int baixo = 0, alto = quantidade;
+        while (baixo < alto) {
+            int meio = (baixo + alto) >>> 1;
+            if (dados.getLong(inicio + meio * REGISTRO) < chave) {
+                baixo = meio + 1;
+            } else {
+                alto = meio;
+            }
+        }
+        return baixo;
+    }
+
+    private String texto(int inicio, int tamanho) {
+        byte[] bytes = new byte[tamanho];
+        ByteBuffer copia = dados.duplicate();
+        copia.position(inicioTextos + inicio);
+        copia.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * ordem dos títulos entre dois livros (título, depois código)
+     */
+    int compararLivros(int a, int b) {
+        int registroA = TAMANHO_CABECALHO + a * REGISTRO;
+        int registroB = TAMANHO_CABECALHO + b * REGISTRO;
+        int inicioA = inicioTextos + dados.getInt(registroA + 8);
+        int inicioB = inicioTextos + dados.getInt(registroB + 8);
+        int tamanhoA = dados.getInt(registroA + 12);
+        int tamanhoB = dados.getInt(registroB + 12);
+        int n = Math.min(tamanhoA, tamanhoB);
+        for (int j = 0; j < n; j++) {
+            int diferenca = (dados.get(inicioA + j) & 0xff) - (dados.get(inicioB + j) & 0xff);
+            if (diferenca != 0) {
+                return diferenca;
+            }
+        }
+        if (tamanhoA != tamanhoB) {
+            return tamanhoA - tamanhoB;
+        }
+        return Long.compare(this.codigoLivro(a), this.codigoLivro(b));
+    }
+
+    /**
+     * bytes crus de um texto, para copiar para outro instantâneo
+     */
+    void copiarTitulo(int i, GravadorCatalogo.Secao destino) {
+        int registro = TAMANHO_CABECALHO + i * REGISTRO;
+        destino.copiar(dados, inicioTextos + dados.getInt(registro + 8), dados.getInt(registro + 12));
+    }
+
+    void copiarNome(int i, GravadorCatalogo.Secao destino) {
+        int registro = inicioAutores + i * REGISTRO;
+        destino.copiar(dados, inicioTextos + dados.getInt(registro + 8), dados.getInt(registro + 12));
+    }
+
+    // consultas da tela em ordem de código, com os mesmos resultados de
+    // DaoCombo / ConsultaDAO (os títulos do combo vêm do IndiceTitulos)
+
+    /**
+     * página de (codigo, titulo) em ordem de código, como PaginadorKeyset
+     *
+     * @param pagina 1..n
+     */
+    public ResultSet getPagina(int pagina, int itensPorPagina) throws SQLException {
+        CachedRowSet rs = novo(new String[] { "codigo", "titulo" }, new int[] { Types.NUMERIC, Types.VARCHAR });
+        int inicio = Math.max(pagina - 1, 0) * itensPorPagina;
+        for (int i = inicio; i < Math.min(inicio + itensPorPagina, livros); i++) {
+            rs.moveToInsertRow();
+            rs.updateLong(1, this.codigoLivro(i));
+            rs.updateString(2, this.titulo(i));
+            rs.insertRow();
+        }
+        return pronto(rs);
+    }
+
+    /**
+     * (titulo, nome, numero, ano) dos primeiros livros, como livrosdetalhe
+     * ordenado por livro, autor e número
+     */
+    public ResultSet pesquisaDadosLivros(int limite) throws SQLException {
+        CachedRowSet rs = novoDetalhe();
+        for (int i = 0; i < livros && rs.size() < limite; i++) {
+            this.detalhar(i, rs, limite);
+        }
+        return pronto(rs);
+    }
+
+    public ResultSet pesquisaDadosLivro(long codigo) throws SQLException {
+        CachedRowSet rs = novoDetalhe();
+        int i = this.indiceLivro(codigo);
+        if (i >= 0) {
+            this.detalhar(i, rs, Integer.MAX_VALUE);
+        }
+        return pronto(rs);
+    }
+
+    /**
+     * junta o livro i com seus autores e edições (livros ⋈ livroautor ⋈ autor ⋈ edicao)
+     */
+    private void detalhar(int i, CachedRowSet rs, int limite) throws SQLException {
+        long codigo = this.codigoLivro(i);
+        String titulo = null;
+        int primeiraEdicao = this.primeiraEdicao(codigo);
+        for (int la = this.primeiroLivroAutor(codigo); la < livroAutor && this.livroAutorLivro(la) == codigo; la++) {
+            int autor = this.indiceAutor(this.livroAutorAutor(la));
+            if (autor < 0) {
+                continue;
+            }
+            String nome = this.nome(autor);
+            for (int e = primeiraEdicao; e < edicoes && this.edicaoLivro(e) == codigo; e++) {
+                if (rs.size() >= limite) {
+                    return;
+                }
+                if (titulo == null) {
+                    titulo = this.titulo(i);
+                }
+                rs.moveToInsertRow();
+                rs.updateString(1, titulo);
+                rs.updateString(2, nome);
+                rs.updateString(3, String.valueOf(this.edicaoNumero(e)));
+                rs.updateInt(4, this.edicaoAno(e));
+                rs.insertRow();
+            }
+        }
+    }
+
+    private static CachedRowSet novoDetalhe() throws SQLException {
+        return novo(new String[] { "titulo", "nome", "numero", "ano" },
+                new int[] { Types.VARCHAR, Types.VARCHAR, Types.CHAR, Types.INTEGER });
+    }
+
+    private static CachedRowSet novo(String[] nomes, int[] tipos) throws SQLException {
+        RowSetMetaDataImpl meta = new RowSetMetaDataImpl();
+        meta.setColumnCount(nomes.length);
+        for (int i = 0; i < nomes.length; i++) {
+            meta.setColumnName(i + 1, nomes[i]);
+            meta.setColumnLabel(i + 1, nomes[i]);
+            meta.setColumnType(i + 1, tipos[i]);
+            if (tipos[i] == Types.NUMERIC) {
+                meta.setPrecision(i + 1, 10);
+            }
+        }
+        CachedRowSet rs = RowSetProvider.newFactory().createCachedRowSet();
+        rs.setMetaData(meta);
+        return rs;
+    }
+
+    private static ResultSet pronto(CachedRowSet rs) throws SQLException {
+        rs.moveToCurrentRow();
+        rs.beforeFirst();
+        return rs;
+    }
+
+    public Path getArquivo() {
+        return arquivo;
+    }
+
+    public long getCriadoEm() {
+        return criadoEm;
+    }
+
+    public long getSincronizadoEm() {
+        return sincronizadoEm;
+    }
+
+    public long getMarcaLivros() {
+        return marcaLivros;
+    }
+
+    public long getMarcaAutor() {
+        return marcaAutor;
+    }
+
+    public int getLivros() {
+        return livros;
+    }
+
+    public int getAutores() {
+        return autores;
+    }
+
+    public int getEdicoes() {
+        return edicoes;
+    }
+
+    public int getLivroAutor() {
+        return livroAutor;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("InstantaneoCatalogo[%s: %d livros, %d autores, %d edições, %d livroautor]",
+                arquivo.getFileName(), livros, autores, edicoes, livroAutor);
+    }
+}
@@ -4,17 +4,32 @@
  */
 package combo.controller;
 
-import combo.bd.E_BD;
+import combo.bd.CanalAlteracoes;
+import combo.bd.ExecutorConsultas;
+import combo.bd.OuvinteAlteracao;
 import combo.bo.BoCombo;
 import combo.bo.BoConexao;
+import combo.dao.ConsultaDAO;
 import combo.gui.GuiCombo;
+import combo.gui.ModeloComboLivros;
+import combo.gui.consulta.FonteBlocosLivros;
+import combo.gui.consulta.ModeloTabelaVirtual;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.swing.JComboBox;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.plaf.basic.ComboPopup;
+import javax.swing.text.JTextComponent;
 
 /**
  *
@@ -25,6 +40,9 @@ public class CoCombo {
 
     private BoCombo bo;
     private GuiCombo gui;
+    private Timer filtroDigitado;
+    private DocumentListener ouvinteDigitacao;
+    private OuvinteAlteracao ouvinteAlteracao;
 
     // construtor
     public CoCombo(GuiCombo gui, BoConexao conexao) {
@@ -37,80 +55,140 @@ public class CoCombo {
      * carrega os livros no combobox
      */
     public void carregarListaLivros() {
-        try {
-            // obter lista de livros
-            ResultSet rs = this.getBo().listaLivros();
+        // modelo anterior pode ter uma janela em andamento
+        if (this.getGui().getjComboBoxCliente().getModel() instanceof ModeloComboLivros) {
+            ((ModeloComboLivros) this.getGui().getjComboBoxCliente().getModel()).cancelar();
+        }
+
+        // modelo com janelas sob demanda: abrir custa só a primeira janela
+        ModeloComboLivros modelo = new ModeloComboLivros(this.getBo());
+
+        // seta combobox
+        this.getGui().getjComboBoxCliente().setModel(modelo);
+        this.configurarPesquisa(modelo);
 
-            // vai para o último registro
-            rs.last();
+        // recarrega o combo quando livros muda no banco
+        if (ouvinteAlteracao != null) {
+            CanalAlteracoes.removerOuvinte(ouvinteAlteracao);
+        }
+        ouvinteAlteracao = alteracao -> SwingUtilities.invokeLater(() -> modelo.aplicarAlteracao(alteracao));
+        CanalAlteracoes.adicionarOuvinte(ouvinteAlteracao);
+    }
 
-            // pega o tamanho do registro
-            int tamanho = rs.getRow();
+    /**
+     * torna o combobox editável e filtra pelo texto digitado (prefixo),
+     * esperando uma pausa na digitação antes de consultar
+     */
+    private void configurarPesquisa(final ModeloComboLivros modelo) {
+        final JComboBox<String> combo = this.getGui().getjComboBoxCliente();
+        combo.setPrototypeDisplayValue(ModeloComboLivros.PROTOTIPO);
+
+        // lista do popup com células de tamanho fixo: só pede os itens visíveis
+        Object popup = combo.getAccessibleContext().getAccessibleChild(0);
+        if (popup instanceof ComboPopup) {
+            ((ComboPopup) popup).getList().setPrototypeCellValue(ModeloComboLivros.PROTOTIPO);
+        }
+        combo.setEditable(true);
+        final JTextComponent editor = (JTextComponent) combo.getEditor().getEditorComponent();
 
-            // volta para o primeiro registro
-            rs.beforeFirst();
+        if (filtroDigitado != null) {
+            filtroDigitado.stop();
+            editor.getDocument().removeDocumentListener(ouvinteDigitacao);
+        }
 
-            // monta combobox
-            String aux[] = new String[tamanho];
+        filtroDigitado = new Timer(250, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                String texto = editor.getText();
+                // texto veio da seleção de um item, não da digitação
+                if (texto.equals(modelo.getSelectedItem())) {
+                    return;
+                }
+                modelo.setFiltro(texto);
+                if (combo.isShowing()) {
+                    combo.showPopup();
+                }
+            }
+        });
+        filtroDigitado.setRepeats(false);
 
-            // percorre o cursor
-            int i = 0;
-            while (rs.next()) {
-                // monta o string
-                aux[i] = rs.getString("titulo");
-                i++;
+        ouvinteDigitacao = new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                filtroDigitado.restart();
             }
 
-            // seta combobox
-            this.getGui().getjComboBoxCliente().setModel(new javax.swing.DefaultComboBoxModel(aux));
-
-            // mensagem
-            JOptionPane.showMessageDialog(this.getGui(), "Carregados " + tamanho + " registros!",
-                    "Teste TDD", JOptionPane.INFORMATION_MESSAGE);
-        } catch (SQLException ex) {
-            Logger.getLogger(CoCombo.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (E_BD ex) {
-            Logger.getLogger(CoCombo.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (ClassNotFoundException ex) {
-            Logger.getLogger(CoCombo.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (OutOfMemoryError e) {
-            JOptionPane.showMessageDialog(null, "Estouro de memória, compre mais !!! ",
-                    "Consulta de Informações", JOptionPane.ERROR_MESSAGE);
-        }
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                filtroDigitado.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        };
+        editor.getDocument().addDocumentListener(ouvinteDigitacao);
     }
 
     /**
-     * carrega as informações de livros em uma jtable
+     * carrega os livros em uma jtable; a tabela lê os livros em blocos
+     * conforme a rolagem e a contagem é feita fora da EDT antes de abrir a tela
      */
     public void obterLista() {
-        try {
-            // obter lista de livros e seus dados relacionados
-            ResultSet rs = this.getBo().pesquisaDadosLivros();
-
-            // cria objeto controlador da tela de consulta
-            String title = "Consultar livros";
-            CoConsulta controllerConsulta = new CoConsulta(new JFrame(),
-                    true, rs, title);
-
-            // mostrar consulta
-            controllerConsulta.consultar();
-
-            // pega retorno
-            if (controllerConsulta.isRetorno()) {
-                // pega objeto selecionado
-                ArrayList objeto = controllerConsulta.getObjetoConsulta();
-
-                // recupera todos os clientes deste horário
-                JOptionPane.showMessageDialog(this.getGui(), objeto,
-                        "Consultar livros", JOptionPane.INFORMATION_MESSAGE);
+        ExecutorConsultas.getInstancia()
+                .executar(() -> {
+                    FonteBlocosLivros fonte = new FonteBlocosLivros(new ConsultaDAO(),
+                            ModeloTabelaVirtual.TAMANHO_BLOCO_PADRAO);
+                    fonte.getQuantidadeLinhas();
+                    return fonte;
+                })
+                .naEdt(this::mostrarLista, ex -> {
+                    Logger.getLogger(CoCombo.class.getName()).log(Level.SEVERE, null, ex);
+                });
+    }
+
+    private void mostrarLista(FonteBlocosLivros fonte) {
+        // cria objeto controlador da tela de consulta
+        String title = "Consultar livros";
+        CoConsulta controllerConsulta = new CoConsulta(new JFrame(),
+                true, fonte, title);
+
+        // mostrar consulta
+        controllerConsulta.consultar();
+
+        // pega retorno
+        if (controllerConsulta.isRetorno()) {
+            // pega objeto selecionado (codigo, titulo)
+            ArrayList objeto = controllerConsulta.getObjetoConsulta();
+            final long codigo = Long.parseLong(objeto.get(0).toString());
+
+            // busca os autores e edições do livro escolhido
+            ExecutorConsultas.getInstancia()
+                    .executar(() -> this.lerDadosLivro(codigo))
+                    .naEdt(dados -> JOptionPane.showMessageDialog(this.getGui(), dados.toArray(),
+                            "Consultar livros", JOptionPane.INFORMATION_MESSAGE), ex -> {
+                        Logger.getLogger(CoCombo.class.getName()).log(Level.SEVERE, null, ex);
+                    });
+        }
+    }
+
+    /**
+     * @param codigo
+     * @return uma linha (titulo, nome, numero, ano) por autor e edição
+     */
+    private List<String> lerDadosLivro(long codigo) throws Exception {
+        List<String> dados = new ArrayList<String>();
+        try (ResultSet rs = this.getBo().pesquisaDadosLivro(codigo)) {
+            while (rs.next()) {
+                StringBuilder linha = new StringBuilder();
+                for (int i = 1; i <= 4; i++) {
+                    String valor = rs.getString(i);
+                    linha.append(i > 1 ? ", " : "").append(valor == null ? "" : valor.trim());
+                }
+                dados.add(linha.toString());
             }
-        } catch (SQLException ex) {
-            Logger.getLogger(CoCombo.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (E_BD ex) {
-            Logger.getLogger(CoCombo.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (ClassNotFoundException ex) {
-            Logger.getLogger(CoCombo.class.getName()).log(Level.SEVERE, null, ex);
         }
+        return dados;
     }
 
     public BoCombo getBo() {
@@ -4,8 +4,10 @@
  */
 package combo.controller;
 
+import combo.gui.consulta.FonteBlocos;
+import combo.gui.consulta.FonteBlocosResultSet;
 import combo.gui.consulta.GuiConsulta;
-import combo.gui.consulta.GuiMontarJTable;
+import combo.gui.consulta.ModeloTabelaVirtual;
 import java.awt.Color;
 import java.awt.Container;
 import java.awt.Dialog;
@@ -20,6 +22,7 @@ import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.border.BevelBorder;
 import javax.swing.table.JTableHeader;
+import javax.swing.table.TableModel;
 
 /**
  *
@@ -27,13 +30,20 @@ import javax.swing.table.JTableHeader;
  */
 public class CoConsulta {
 
-    private ResultSet rs;
+    private FonteBlocos fonte;
     private GuiConsulta gui;
     private boolean retorno;
     private ArrayList objetoConsulta;
 
     public CoConsulta(JFrame parent, boolean modal, ResultSet rs, String title) {
-        this.rs = rs;
+        this(parent, modal, new FonteBlocosResultSet(rs), title);
+    }
+
+    /**
+     * a tabela busca as linhas da fonte em blocos, conforme a rolagem
+     */
+    public CoConsulta(JFrame parent, boolean modal, FonteBlocos fonte, String title) {
+        this.fonte = fonte;
         this.gui = new GuiConsulta(parent, true, title);
         this.gui.setModalExclusionType(Dialog.ModalExclusionType.NO_EXCLUDE);
     }
@@ -42,11 +52,11 @@ public class CoConsulta {
      * monta a tela de consulta e mostra ela para o usuário
      */
     public void consultar() {
-        // monta jtable
-        GuiMontarJTable iMontarJTable = new GuiMontarJTable(this.getRs());
         try {
+            // monta jtable com modelo virtual (linhas buscadas sob demanda)
+            final ModeloTabelaVirtual modelo = new ModeloTabelaVirtual(this.getFonte());
             this.setRetorno(false);
-            this.getGui().setjTable(new JTable(iMontarJTable.criaTabela()));
+            this.getGui().setjTable(new JTable(modelo));
             this.getGui().getjTable().setFillsViewportHeight(true);
             this.getGui().getjTable().setFont(new java.awt.Font("Arial", 1, 18));
             this.getGui().getjTable().setRowHeight(28);
@@ -78,6 +88,9 @@ public class CoConsulta {
 
             // mostrar tela
             this.getGui().setVisible(true);
+
+            // diálogo modal fechado: encerra a busca de blocos
+            modelo.fechar();
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(this.getGui(), "Não foi possível "
                     + " consultar os dados no banco de dados!\n" + ex,
@@ -97,9 +110,6 @@ public class CoConsulta {
         // pega linha selecionada da tabela
         int linha = this.getGui().getjTable().getSelectedRow();
 
-        // pega o tamanho de colunas do resultado
-        int tamanho = this.getRs().getMetaData().getColumnCount();
-
         // testa se a linha é maior que o tamanho
         if (linha < 0) {
             // não há resultado válido
@@ -107,20 +117,19 @@ public class CoConsulta {
             return;
         }
 
+        // o bloco da linha ainda não chegou: a célula só tem "..."
+        TableModel modelo = this.getGui().getjTable().getModel();
+        if (modelo instanceof ModeloTabelaVirtual && !((ModeloTabelaVirtual) modelo).isCarregada(linha)) {
+            this.setRetorno(false);
+            return;
+        }
+        int tamanho = modelo.getColumnCount();
+
         // cria resultado
         this.setObjetoConsulta(new ArrayList(tamanho));
-
-        // posiciona cursor no inicio
-        this.getRs().beforeFirst();
-
-        // percorre cursor
-        while (this.getRs().next()) {
-            if (this.getRs().getRow() == linha + 1) {
-                for (int i = 1; i < tamanho + 1; i++) {
-                    this.getObjetoConsulta().add(this.getRs().getString(i));
-                }
-                break;
-            }
+        for (int i = 0; i < tamanho; i++) {
+            Object valor = modelo.getValueAt(linha, i);
+            this.getObjetoConsulta().add(valor == null ? null : valor.toString());
         }
 
         // sets.....
@@ -149,11 +158,8 @@ public class CoConsulta {
         // variavel de retorno
         JTable tabela = null;
         try {
-            // monta jtable
-            GuiMontarJTable iMontarJTable = new GuiMontarJTable(this.getRs());
-
-            // criar objeto jtable e configurar
-            tabela = new JTable(iMontarJTable.criaTabela());
+            // criar objeto jtable com modelo virtual
+            tabela = new JTable(new ModeloTabelaVirtual(this.getFonte()));
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(this.getGui(), "Não foi possível "
                     + " consultar os dados no banco de dados!\n" + ex,
@@ -170,8 +176,8 @@ public class CoConsulta {
      *
      * @return
      */
-    private ResultSet getRs() {
-        return rs;
+    private FonteBlocos getFonte() {
+        return fonte;
     }
 
     private GuiConsulta getGui() {
@@ -1,46 +1,58 @@
 package combo.dao;
 
+import combo.bd.CacheStatements;
+import combo.bd.ExecutorConsultas;
+import combo.bd.MetricasConsultas;
+import combo.bd.PoolConexoes;
+import combo.bd.RoteadorConexoes;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetProvider;
 
 public class ConsultaDAO {
-    private static final String DRIVER = "org.postgresql.Driver";
-    private static final String URL = "jdbc:postgresql://localhost:5432/livros";
-    private static final String USUARIO = "livros_user";
-    private static final String SENHA = "livros_pass";
+    private final PoolConexoes pool;
+    private final RoteadorConexoes roteador;
 
-    static {
+    public ConsultaDAO() {
         try {
-            Class.forName(DRIVER);
+            this.pool = PoolConexoes.getPadrao();
+            this.roteador = RoteadorConexoes.para(pool);
         } catch (ClassNotFoundException e) {
             throw new RuntimeException("Driver JDBC não encontrado", e);
         }
     }
 
+    public ConsultaDAO(PoolConexoes pool) {
+        this.pool = pool;
+        this.roteador = RoteadorConexoes.para(pool);
+    }
+
+    /**
+     * total de livros, guardado em cache até expirar ou haver escrita em livros
+     */
     public int getTotalRegistros() {
-        String sql = "SELECT COUNT(*) FROM livros";
-        try (Connection conn = DriverManager.getConnection(URL, USUARIO, SENHA);
-                PreparedStatement stmt = conn.prepareStatement(sql);
-                ResultSet rs = stmt.executeQuery()) {
+        return (int) getContagem(ModoContagem.CACHE).getValor();
+    }
 
-            return rs.next() ? rs.getInt(1) : 0;
-        } catch (SQLException e) {
-            throw new RuntimeException("Erro ao obter total de registros", e);
-        }
+    public Contagem getContagem(ModoContagem modo) {
+        return ContadorRegistros.getInstancia(pool).contar("livros", modo);
     }
 
     public List<String[]> getDadosPaginados(int offset, int limit) {
         List<String[]> dados = new ArrayList<>();
         String sql = "SELECT codigo, titulo FROM livros ORDER BY codigo LIMIT ? OFFSET ?";
 
-        try (Connection conn = DriverManager.getConnection(URL, USUARIO, SENHA);
-                PreparedStatement stmt = conn.prepareStatement(sql)) {
+        try (Connection conn = roteador.obterConexaoLeitura();
+                PreparedStatement stmt = preparar(conn, sql)) {
 
             stmt.setInt(1, limit);
             stmt.setInt(2, offset);
 
+            MetricasConsultas.Medicao medicao = MetricasConsultas.iniciar(sql);
             try (ResultSet rs = stmt.executeQuery()) {
+                medicao.primeiraLinha();
                 while (rs.next()) {
                     dados.add(new String[] {
                             String.valueOf(rs.getInt("codigo")),
@@ -48,22 +60,142 @@ public class ConsultaDAO {
                     });
                 }
             }
+            medicao.concluir(dados.size(), stmt.toString());
             return dados;
         } catch (SQLException e) {
             throw new RuntimeException("Erro ao obter dados paginados", e);
         }
     }
 
+    /**
+     * devolve a página desconectada (CachedRowSet), assim a conexão volta ao
+     * pool antes de a tela montar a tabela
+     */
     public ResultSet getDadosPaginadosAsResultSet(int offset, int limit) throws SQLException {
-        Connection conn = DriverManager.getConnection(URL, USUARIO, SENHA);
         String sql = "SELECT codigo, titulo FROM livros ORDER BY codigo LIMIT ? OFFSET ?";
-        PreparedStatement stmt = conn.prepareStatement(sql,
-                ResultSet.TYPE_SCROLL_INSENSITIVE,
-                ResultSet.CONCUR_READ_ONLY);
+        try (Connection conn = roteador.obterConexaoLeitura();
+                PreparedStatement stmt = preparar(conn, sql)) {
+
+            stmt.setInt(1, limit);
+            stmt.setInt(2, offset);
+            return desconectar(stmt, sql);
+        }
+    }
+
+    /**
+     * primeira página, sem OFFSET
+     */
+    public ResultSet getPrimeiraPagina(int limit) throws SQLException {
+        String sql = "SELECT codigo, titulo FROM livros ORDER BY codigo LIMIT ?";
+        return consultarPagina(sql, limit);
+    }
 
-        stmt.setInt(1, limit);
-        stmt.setInt(2, offset);
-        return stmt.executeQuery();
+    /**
+     * página seguinte: busca a partir da última chave exibida (codigo > chave)
+     */
+    public ResultSet getPaginaApos(long chave, int limit) throws SQLException {
+        String sql = "SELECT codigo, titulo FROM livros WHERE codigo > ? ORDER BY codigo LIMIT ?";
+        return consultarPagina(sql, limit, chave);
+    }
+
+    /**
+     * página anterior: busca para trás a partir da primeira chave exibida
+     * (codigo < chave) e devolve em ordem crescente
+     */
+    public ResultSet getPaginaAntes(long chave, int limit) throws SQLException {
+        String sql = "SELECT codigo, titulo FROM (SELECT codigo, titulo FROM livros "
+                + "WHERE codigo < ? ORDER BY codigo DESC LIMIT ?) t ORDER BY codigo";
+        return consultarPagina(sql, limit, chave);
+    }
+
+    /**
+     * últimas linhas da tabela, usada pelo botão ">>"
+     */
+    public ResultSet getUltimasLinhas(int limit) throws SQLException {
+        String sql = "SELECT codigo, titulo FROM (SELECT codigo, titulo FROM livros "
+                + "ORDER BY codigo DESC LIMIT ?) t ORDER BY codigo";
+        return consultarPagina(sql, limit);
+    }
+
+    /**
+     * página que começa deslocamento linhas depois de chave (codigo >= chave);
+     * o deslocamento é sempre menor que o intervalo do índice de páginas
+     */
+    public ResultSet getPaginaDesde(long chave, int deslocamento, int limit) throws SQLException {
+        String sql = "SELECT codigo, titulo FROM livros WHERE codigo >= ? ORDER BY codigo LIMIT ? OFFSET ?";
+        try (Connection conn = roteador.obterConexaoLeitura();
+                PreparedStatement stmt = preparar(conn, sql)) {
+
+            stmt.setLong(1, chave);
+            stmt.setInt(2, limit);
+            stmt.setInt(3, deslocamento);
+            return desconectar(stmt, sql);
+        }
+    }
+
+    /**
+     * uma chave a cada intervalo linhas (a 1ª, a intervalo+1ª, ...), lidas
+     * numa única passada pelo índice da chave primária
+     */
+    public List<Long> getChavesLimite(int intervalo) {
+        List<Long> chaves = new ArrayList<>();
+        String sql = "SELECT codigo FROM (SELECT codigo, ROW_NUMBER() OVER (ORDER BY codigo) AS rn "
+                + "FROM livros) t WHERE MOD(rn - 1, ?) = 0 ORDER BY codigo";
+
+        try (Connection conn = roteador.obterConexaoLeitura();
+                PreparedStatement stmt = preparar(conn, sql)) {
+
+            stmt.setInt(1, intervalo);
+            MetricasConsultas.Medicao medicao = MetricasConsultas.iniciar(sql);
+            try (ResultSet rs = stmt.executeQuery()) {
+                medicao.primeiraLinha();
+                while (rs.next()) {
+                    chaves.add(rs.getLong(1));
+                }
+            }
+            medicao.concluir(chaves.size(), stmt.toString());
+            return chaves;
+        } catch (SQLException e) {
+            throw new RuntimeException("Erro ao obter índice de páginas", e);
+        }
+    }
+
+    private ResultSet consultarPagina(String sql, int limit, long... chaves) throws SQLException {
+        try (Connection conn = roteador.obterConexaoLeitura();
+                PreparedStatement stmt = preparar(conn, sql)) {
+
+            int i = 1;
+            for (long chave : chaves) {
+                stmt.setLong(i++, chave);
+            }
+            stmt.setInt(i, limit);
+            return desconectar(stmt, sql);
+        }
+    }
+
+    /**
+     * prepara e associa à tarefa assíncrona corrente, para que possa ser cancelada
+     */
+    private PreparedStatement preparar(Connection conn, String sql) throws SQLException {
+        PreparedStatement stmt = CacheStatements.para(conn).obter(sql);
+        try {
+            ExecutorConsultas.registrar(stmt);
+        } catch (SQLException e) {
+            stmt.close();
+            throw e;
+        }
+        return stmt;
+    }
+
+    private ResultSet desconectar(PreparedStatement stmt, String sql) throws SQLException {
+        MetricasConsultas.Medicao medicao = MetricasConsultas.iniciar(sql);
+        try (ResultSet rs = stmt.executeQuery()) {
+            medicao.primeiraLinha();
+            CachedRowSet pagina = RowSetProvider.newFactory().createCachedRowSet();
+            pagina.populate(rs);
+            medicao.concluir(pagina.size(), stmt.toString());
+            return pagina;
+        }
     }
 
     public int getTotalPaginas(int itensPorPagina) {
@@ -75,4 +207,8 @@ public class ConsultaDAO {
         int offset = (pagina - 1) * itensPorPagina;
         return getDadosPaginados(offset, itensPorPagina);
     }
+
+    public PoolConexoes getPool() {
+        return pool;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,143 @@
+package combo.dao;
+
+import combo.bd.CacheStatements;
+import combo.bd.ExecutorConsultas;
+import combo.bd.MetricasConsultas;
+import combo.bd.MonitorEscritas;
+import combo.bd.OuvinteEscrita;
+import combo.bd.PoolConexoes;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Quantidade de linhas por tabela em três modos (ModoContagem): exato,
+ * exato com cache por TTL e estimado pelas estatísticas do SGBD. O cache é
+ * invalidado pelas escritas avisadas pelo MonitorEscritas.
+ *
+ * Há um contador por pool, para que todas as telas compartilhem o cache.
+ */
+public class ContadorRegistros implements OuvinteEscrita {
+
+    public static final long TTL_PADRAO_MS = 60 * 1000;
+    private static final Pattern IDENTIFICADOR = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    private static final Map<PoolConexoes, ContadorRegistros> CONTADORES = new HashMap<>();
+
+    private final PoolConexoes pool;
+    private final long ttlMs;
+    private final Map<String, Contagem> exatas = new ConcurrentHashMap<>();
+
+    public ContadorRegistros(PoolConexoes pool, long ttlMs) {
+        this.pool = pool;
+        this.ttlMs = ttlMs;
+        MonitorEscritas.adicionarOuvinte(this);
+    }
+
+    public static synchronized ContadorRegistros getInstancia(PoolConexoes pool) {
+        ContadorRegistros contador = CONTADORES.get(pool);
+        if (contador == null) {
+            contador = new ContadorRegistros(pool, TTL_PADRAO_MS);
+            CONTADORES.put(pool, contador);
+        }
+        return contador;
+    }
+
+    /**
+     * @param tabela
+     * @param modo
+     * @return contagem; no modo ESTIMADO devolve a exata se houver uma válida
+     * em cache, e cai para COUNT(*) se a tabela nunca foi analisada
+     */
+    public Contagem contar(String tabela, ModoContagem modo) {
+        String nome = validar(tabela);
+        switch (modo) {
+            case EXATO:
+                return this.contarExato(nome);
+            case CACHE: {
+                Contagem guardada = this.getValida(nome);
+                return guardada != null ? guardada : this.contarExato(nome);
+            }
+            default: {
+                Contagem guardada = this.getValida(nome);
+                if (guardada != null) {
+                    return guardada;
+                }
+                long estimativa = this.estimar(nome);
+                return estimativa >= 0 ? new Contagem(estimativa, false) : this.contarExato(nome);
+            }
+        }
+    }
+
+    private Contagem getValida(String tabela) {
+        Contagem guardada = exatas.get(tabela);
+        if (guardada != null && System.currentTimeMillis() - guardada.getInstante() <= ttlMs) {
+            return guardada;
+        }
+        return null;
+    }
+
+    private Contagem contarExato(String tabela) {
+        String sql = "SELECT COUNT(*) FROM " + tabela;
+        try (Connection conn = pool.obterConexao();
+                PreparedStatement stmt = CacheStatements.para(conn).obter(sql)) {
+            ExecutorConsultas.registrar(stmt);
+            MetricasConsultas.Medicao medicao = MetricasConsultas.iniciar(sql);
+            try (ResultSet rs = stmt.executeQuery()) {
+                Contagem contagem = new Contagem(rs.next() ? rs.getLong(1) : 0, true);
+                medicao.concluir(1);
+                exatas.put(tabela, contagem);
+                return contagem;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Erro ao obter total de registros", e);
+        }
+    }
+
+    /**
+     * @return estimativa do planejador, ou -1 se não houver estatística
+     */
+    private long estimar(String tabela) {
+        try (Connection conn = pool.obterConexao()) {
+            boolean mysql = conn.getMetaData().getURL().startsWith("jdbc:mysql:");
+            String sql = mysql
+                    ? "SELECT table_rows FROM information_schema.tables "
+                            + "WHERE table_schema = DATABASE() AND table_name = ?"
+                    : "SELECT reltuples::bigint FROM pg_class WHERE oid = to_regclass(?)";
+            try (PreparedStatement stmt = CacheStatements.para(conn).obter(sql)) {
+                stmt.setString(1, tabela);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return -1;
+                    }
+                    long estimativa = rs.getLong(1);
+                    // PostgreSQL: -1 (14+) ou 0 (anteriores) antes do primeiro ANALYZE
+                    return rs.wasNull() || estimativa <= 0 ? -1 : estimativa;
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Erro ao estimar total de registros", e);
+        }
+    }
+
+    @Override
+    public void tabelaAlterada(String tabela) {
+        if (MonitorEscritas.TODAS.equals(tabela)) {
+            exatas.clear();
+        } else {
+            exatas.remove(tabela);
+        }
+    }
+
+    private static String validar(String tabela) {
+        if (!IDENTIFICADOR.matcher(tabela).matches()) {
+            throw new IllegalArgumentException("Nome de tabela inválido: " + tabela);
+        }
+        return tabela.toLowerCase(Locale.ROOT);
+    }
+}
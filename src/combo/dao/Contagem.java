@@ -0,0 +1,34 @@
+package combo.dao;
+
+/**
+ * quantidade de linhas de uma tabela e se ela é exata ou estimada
+ */
+public class Contagem {
+
+    private final long valor;
+    private final boolean exata;
+    private final long instante;
+
+    public Contagem(long valor, boolean exata) {
+        this.valor = valor;
+        this.exata = exata;
+        this.instante = System.currentTimeMillis();
+    }
+
+    public long getValor() {
+        return valor;
+    }
+
+    public boolean isExata() {
+        return exata;
+    }
+
+    public long getInstante() {
+        return instante;
+    }
+
+    @Override
+    public String toString() {
+        return (exata ? "" : "~") + valor;
+    }
+}
@@ -5,10 +5,13 @@
 package combo.dao;
 
 import combo.bo.BoConexao;
+import combo.bd.CacheResultados;
 import combo.bd.E_BD;
-import java.sql.PreparedStatement;
+import combo.bd.ProcessadorLinha;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  *
@@ -17,10 +20,12 @@ import java.sql.SQLException;
 public class DaoCombo {
     // atributos
     private BoConexao conexao;
+    private CacheResultados cache;
 
     // construtor
     public DaoCombo(BoConexao conexao) {
         this.conexao = conexao;
+        ProjecaoLivros.registrar();
     }
 
     /**
@@ -36,34 +41,194 @@ public class DaoCombo {
         // + " limit 1200000"
         ;
 
-        // obtem objeto
-        PreparedStatement ps = this.getConexao().getBd().getStatement(sql);
-
-        // executar sql
-        ResultSet rs = this.getConexao().getBd().consulta(ps);
+        // obtem do cache ou executa sql
+        ResultSet rs = this.getCache().consultar(sql, new Object[0], new String[] { "livros" },
+                this.getConexao().getBd());
 
         // return
         return rs;
     }
 
     /**
-     * 
+     * percorre os títulos em modo streaming, sem carregar a tabela em memória;
+     * tabelas grandes são lidas em faixas de código, em paralelo e sem ordem
+     *
+     * @param processador
+     * @return quantidade de livros
+     * @throws SQLException
+     * @throws E_BD
+     * @throws ClassNotFoundException
+     */
+    public int listaLivros(ProcessadorLinha processador) throws SQLException, E_BD, ClassNotFoundException {
+        // executar sql
+        return this.getConexao().getBd().consultaParalela("livros", "codigo", "titulo", null, false, processador);
+    }
+
+    /**
+     * percorre, em ordem de código, os livros com código acima do informado
+     *
+     * @param codigo último código já lido
+     * @param processador
+     * @return quantidade de livros
+     * @throws SQLException
+     * @throws E_BD
+     * @throws ClassNotFoundException
+     */
+    public int listaLivrosApos(long codigo, ProcessadorLinha processador)
+            throws SQLException, E_BD, ClassNotFoundException {
+        String sql = "select codigo, titulo from livros where codigo > ? order by codigo";
+
+        // executar sql
+        return this.getConexao().getBd().consultaStreaming(sql, processador, codigo);
+    }
+
+    /**
+     * exporta (codigo, titulo) de todos os livros em ordem de código, lendo
+     * faixas de código em paralelo
+     *
+     * @param processador
+     * @return quantidade de livros
+     * @throws SQLException
+     * @throws E_BD
+     * @throws ClassNotFoundException
+     */
+    public int exportaLivros(ProcessadorLinha processador) throws SQLException, E_BD, ClassNotFoundException {
+        // executar sql
+        return this.getConexao().getBd().consultaParalela("livros", "codigo", "codigo, titulo", "codigo", true,
+                processador);
+    }
+
+    /**
+     * exporta o modelo de leitura livrosdetalhe inteiro (livro, autor, edição)
+     *
+     * @param processador
+     * @return quantidade de linhas
+     * @throws SQLException
+     * @throws E_BD
+     * @throws ClassNotFoundException
+     */
+    public int exportaDadosLivros(ProcessadorLinha processador) throws SQLException, E_BD, ClassNotFoundException {
+        // faixas de codigolivro: as linhas de um livro ficam na mesma faixa
+        return this.getConexao().getBd().consultaParalela(ProjecaoLivros.TABELA, "codigolivro",
+                "codigolivro, titulo, codigoautor, nome, numero, ano", "codigolivro, codigoautor, numero", true,
+                processador);
+    }
+
+    /**
+     * janela de títulos em ordem alfabética, a partir do último título já
+     * exibido (busca por chave em (titulo, codigo), sem OFFSET)
+     *
+     * @param prefixo filtro pelo início do título, ou null
+     * @param aposTitulo último título já exibido, ou null para a primeira janela
+     * @param aposCodigo código do último título já exibido
+     * @param limite tamanho da janela
+     * @return pares {codigo, titulo}
+     * @throws SQLException
+     * @throws E_BD
+     * @throws ClassNotFoundException
+     */
+    public List<String[]> listaTitulos(String prefixo, String aposTitulo, long aposCodigo, int limite)
+            throws SQLException, E_BD, ClassNotFoundException {
+        List<Object> parametros = new ArrayList<Object>();
+        StringBuilder sql = new StringBuilder("select codigo, titulo from livros where 1 = 1");
+
+        if (prefixo != null && !prefixo.isEmpty()) {
+            // faixa [prefixo, sucessor) no índice de titulo; o like confirma
+            sql.append(" and titulo >= ?");
+            parametros.add(prefixo);
+            String sucessor = sucessor(prefixo);
+            if (sucessor != null) {
+                sql.append(" and titulo < ?");
+                parametros.add(sucessor);
+            }
+            sql.append(" and titulo like ?");
+            parametros.add(escaparLike(prefixo) + "%");
+        }
+        if (aposTitulo != null) {
+            sql.append(" and (titulo, codigo) > (?, ?)");
+            parametros.add(aposTitulo);
+            parametros.add(aposCodigo);
+        }
+        sql.append(" order by titulo, codigo limit ?");
+        parametros.add(limite);
+
+        final List<String[]> titulos = new ArrayList<String[]>(limite);
+        this.getConexao().getBd().consultaStreaming(sql.toString(), limite, new ProcessadorLinha() {
+            @Override
+            public void processar(ResultSet rs) throws SQLException {
+                titulos.add(new String[] { rs.getString("codigo"), rs.getString("titulo") });
+            }
+        }, parametros.toArray());
+
+        return titulos;
+    }
+
+    /**
+     * menor texto maior que todos os que começam com o prefixo, ou null se
+     * não há (prefixo só de \uffff)
+     */
+    private static String sucessor(String prefixo) {
+        int fim = prefixo.length();
+        while (fim > 0 && prefixo.charAt(fim - 1) == Character.MAX_VALUE) {
+            fim--;
+        }
+        if (fim == 0) {
+            return null;
+        }
+        return prefixo.substring(0, fim - 1) + (char) (prefixo.charAt(fim - 1) + 1);
+    }
+
+    private static String escaparLike(String texto) {
+        return texto.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    /**
+     * lê os detalhes (livro, autor, edição) do modelo de leitura livrosdetalhe,
+     * sem juntar as tabelas base
+     *
      * @return
      * @throws SQLException
      * @throws E_BD
      * @throws ClassNotFoundException
      */
     public ResultSet pesquisaDadosLivros(int limite) throws SQLException, E_BD, ClassNotFoundException {
-        String sql = "SELECT l.titulo, a.nome, e.numero, e.ano " +
-                "FROM livros l " +
-                "INNER JOIN livroautor la ON l.codigo = la.codigoLivro " +
-                "INNER JOIN autor a ON a.codigo = la.codigoAutor " +
-                "INNER JOIN edicao e ON a.codigo = e.codigoLivro " +
+        String sql = "SELECT titulo, nome, numero, ano " +
+                "FROM " + ProjecaoLivros.TABELA + " " +
+                "ORDER BY codigolivro, codigoautor, numero " +
                 "LIMIT ?";
 
-        PreparedStatement ps = this.getConexao().getBd().getStatement(sql);
-        ps.setInt(1, limite);
-        return this.getConexao().getBd().consulta(ps);
+        return this.getCache().consultar(sql, new Object[] { limite }, new String[] { ProjecaoLivros.TABELA },
+                this.getConexao().getBd());
+    }
+
+    /**
+     * detalhes de um livro (autores e edições), pela chave do modelo de leitura
+     *
+     * @param codigo livros.codigo
+     * @return
+     * @throws SQLException
+     * @throws E_BD
+     * @throws ClassNotFoundException
+     */
+    public ResultSet pesquisaDadosLivro(long codigo) throws SQLException, E_BD, ClassNotFoundException {
+        String sql = "SELECT titulo, nome, numero, ano " +
+                "FROM " + ProjecaoLivros.TABELA + " " +
+                "WHERE codigolivro = ? " +
+                "ORDER BY codigoautor, numero";
+
+        return this.getCache().consultar(sql, new Object[] { codigo }, new String[] { ProjecaoLivros.TABELA },
+                this.getConexao().getBd());
+    }
+
+    /**
+     * cache de resultados do banco desta conexão; as leituras acima são
+     * servidas dele enquanto as tabelas não mudam
+     */
+    public CacheResultados getCache() throws SQLException {
+        if (cache == null) {
+            cache = CacheResultados.getInstancia(this.getConexao().getConexao().getRoteador().getPrimario());
+        }
+        return cache;
     }
 
     // getter
@@ -0,0 +1,376 @@
+package combo.dao;
+
+import combo.bd.CacheStatements;
+import combo.bd.ExecutorConsultas;
+import combo.bd.MetricasConsultas;
+import combo.bd.PoolConexoes;
+import combo.bd.RoteadorConexoes;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+
+/**
+ * Pesquisa de livros pelo título e pelo nome dos autores, resolvida no banco
+ * com índice: no PostgreSQL, trigramas (pg_trgm, GIN) ordenados por
+ * word_similarity; no MySQL, FULLTEXT em modo booleano ordenado pela
+ * relevância do MATCH. Cada livro aparece uma vez, com a maior relevância
+ * entre título e autores.
+ *
+ * No PostgreSQL o texto é procurado primeiro como trecho (ILIKE, que só usa
+ * os trigramas internos do texto e custa pouco); a semelhança aproximada
+ * (&lt;%, que tolera erros de digitação mas percorre trigramas comuns) só
+ * entra se o trecho não for achado ou se o texto tiver menos de 3 letras.
+ * Cada ramo (títulos, autores) entrega só os LIMITE_CANDIDATOS mais
+ * relevantes dele, ordenados pela própria relevância (word_similarity, MATCH
+ * ou o CASE do LIKE), para que termos muito comuns não façam crescer o
+ * agrupamento e a ordenação final.
+ *
+ * Os índices são conferidos no primeiro uso de cada pool; a aplicação não
+ * os cria (isso fica com os scripts do banco e as migrações): enquanto
+ * faltarem, a pesquisa usa LIKE.
+ */
+public class DaoPesquisa {
+
+    /** a contagem de resultados para aqui e é dada como estimativa */
+    public static final int LIMITE_CONTAGEM = 1000;
+    /** linhas de cada ramo (títulos, autores) consideradas na ordenação */
+    public static final int LIMITE_CANDIDATOS = 1000;
+    /** peso do nome do autor frente ao título na relevância */
+    private static final String PESO_AUTOR = "0.9";
+    /** intervalo entre conferências do catálogo enquanto faltarem índices */
+    private static final long RECONFERIR_MS = 60000;
+
+    private static final Map<PoolConexoes, Indices> INDICES = new HashMap<PoolConexoes, Indices>();
+
+    private final PoolConexoes pool;
+    private final RoteadorConexoes roteador;
+    private final boolean mysql;
+
+    public DaoPesquisa() {
+        this(padrao());
+    }
+
+    public DaoPesquisa(PoolConexoes pool) {
+        this.pool = pool;
+        this.roteador = RoteadorConexoes.para(pool);
+        this.mysql = pool.getUrl().startsWith("jdbc:mysql:");
+    }
+
+    private static PoolConexoes padrao() {
+        try {
+            return PoolConexoes.getPadrao();
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("Driver JDBC não encontrado", e);
+        }
+    }
+
+    /**
+     * @param texto termos digitados (parte do título ou do nome do autor)
+     * @param limite
+     * @param deslocamento linhas a pular (página * limite)
+     * @return (codigo, titulo, relevancia) da mais para a menos relevante,
+     * desconectado
+     * @throws SQLException
+     */
+    public ResultSet pesquisar(String texto, int limite, int deslocamento) throws SQLException {
+        Termos termos = this.interpretar(texto);
+        if (termos == null) {
+            return vazio();
+        }
+        CachedRowSet pagina = this.pesquisar(termos, limite, deslocamento);
+        if (pagina.size() == 0 && termos.aproximar()) {
+            // nenhum trecho exato: tenta os parecidos
+            pagina = this.pesquisar(termos, limite, deslocamento);
+        }
+        return pagina;
+    }
+
+    private CachedRowSet pesquisar(Termos termos, int limite, int deslocamento) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT l.codigo, l.titulo, r.relevancia FROM (")
+                .append("SELECT codigo, MAX(relevancia) AS relevancia FROM (")
+                .append(this.uniao(termos, true))
+                .append(") c GROUP BY codigo) r JOIN livros l ON l.codigo = r.codigo ")
+                .append("ORDER BY r.relevancia DESC, l.titulo, l.codigo LIMIT ? OFFSET ?");
+
+        List<Object> parametros = this.parametros(termos, true, Math.max(LIMITE_CANDIDATOS, deslocamento + limite));
+        parametros.add(limite);
+        parametros.add(deslocamento);
+        try (Connection conn = roteador.obterConexaoLeitura();
+                PreparedStatement stmt = preparar(conn, sql.toString(), parametros)) {
+            MetricasConsultas.Medicao medicao = MetricasConsultas.iniciar(sql.toString());
+            try (ResultSet rs = stmt.executeQuery()) {
+                medicao.primeiraLinha();
+                CachedRowSet pagina = RowSetProvider.newFactory().createCachedRowSet();
+                pagina.populate(rs);
+                medicao.concluir(pagina.size(), stmt.toString());
+                return pagina;
+            }
+        }
+    }
+
+    /**
+     * @param texto
+     * @return quantidade de livros encontrados; não exata se passou de
+     * LIMITE_CONTAGEM
+     * @throws SQLException
+     */
+    public Contagem contar(String texto) throws SQLException {
+        Termos termos = this.interpretar(texto);
+        if (termos == null) {
+            return new Contagem(0, true);
+        }
+        Contagem contagem = this.contar(termos);
+        if (contagem.getValor() == 0 && termos.aproximar()) {
+            contagem = this.contar(termos);
+        }
+        return contagem;
+    }
+
+    private Contagem contar(Termos termos) throws SQLException {
+        String sql = "SELECT COUNT(*) FROM (SELECT DISTINCT codigo FROM (" + this.uniao(termos, false)
+                + ") c LIMIT ?) t";
+
+        List<Object> parametros = this.parametros(termos, false, LIMITE_CONTAGEM + 1);
+        parametros.add(LIMITE_CONTAGEM + 1);
+        try (Connection conn = roteador.obterConexaoLeitura();
+                PreparedStatement stmt = preparar(conn, sql, parametros)) {
+            MetricasConsultas.Medicao medicao = MetricasConsultas.iniciar(sql);
+            try (ResultSet rs = stmt.executeQuery()) {
+                long total = rs.next() ? rs.getLong(1) : 0;
+                medicao.concluir(1, stmt.toString());
+                return total > LIMITE_CONTAGEM ? new Contagem(LIMITE_CONTAGEM, false) : new Contagem(total, true);
+            }
+        }
+    }
+
+    /**
+     * títulos e autores que casam com os termos, um select para cada
+     */
+    private String uniao(Termos termos, boolean comRelevancia) {
+        return "(" + this.ramo(termos, "codigo", "livros", "titulo", "", comRelevancia)
+                + ") UNION ALL ("
+                + this.ramo(termos, "la.codigolivro", "autor a JOIN livroautor la ON la.codigoautor = a.codigo",
+                        "a.nome", " * " + PESO_AUTOR, comRelevancia) + ")";
+    }
+
+    private String ramo(Termos termos, String codigo, String origem, String coluna, String peso,
+            boolean comRelevancia) {
+        String relevancia;
+        String condicao;
+        switch (termos.modo) {
+            case TRIGRAMA:
+                relevancia = "word_similarity(?, " + coluna + ")";
+                condicao = termos.aproximada ? "? <% " + coluna : coluna + " ILIKE ?";
+                break;
+            case FULLTEXT:
+                relevancia = "MATCH(" + coluna + ") AGAINST (? IN BOOLEAN MODE)";
+                condicao = relevancia;
+                break;
+            default:
+                String like = mysql ? " LIKE ?" : " ILIKE ?";
+                relevancia = "CASE WHEN " + coluna + like + " THEN 1 ELSE 0.5 END";
+                condicao = coluna + like;
+        }
+        // sem ORDER BY o LIMIT guardaria candidatos quaisquer, não os melhores
+        return "SELECT " + codigo + " AS codigo" + (comRelevancia ? ", " + relevancia + peso + " AS relevancia" : "")
+                + " FROM " + origem + " WHERE " + condicao
+                + (comRelevancia ? " ORDER BY relevancia DESC" : "") + " LIMIT ?";
+    }
+
+    /**
+     * valores dos "?" de uniao(), na mesma ordem
+     */
+    private List<Object> parametros(Termos termos, boolean comRelevancia, int candidatos) {
+        List<Object> parametros = new ArrayList<Object>();
+        for (int ramo = 0; ramo < 2; ramo++) {
+            switch (termos.modo) {
+                case TRIGRAMA:
+                    if (comRelevancia) {
+                        parametros.add(termos.texto);
+                    }
+                    parametros.add(termos.aproximada ? termos.texto : termos.contem);
+                    break;
+                case FULLTEXT:
+                    if (comRelevancia) {
+                        parametros.add(termos.booleano);
+                    }
+                    parametros.add(termos.booleano);
+                    break;
+                default:
+                    if (comRelevancia) {
+                        parametros.add(termos.prefixo);
+                    }
+                    parametros.add(termos.contem);
+            }
+            parametros.add(candidatos);
+        }
+        return parametros;
+    }
+
+    /**
+     * @return termos normalizados para o modo de pesquisa disponível, ou null
+     * se o texto não tem nada a pesquisar
+     */
+    private Termos interpretar(String texto) {
+        String limpo = texto == null ? "" : texto.trim().replaceAll("\\s+", " ");
+        if (limpo.isEmpty()) {
+            return null;
+        }
+        Termos termos = new Termos();
+        termos.texto = limpo;
+        String escapado = limpo.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+        termos.prefixo = escapado + "%";
+
+        boolean indexada = indices(pool).prontos;
+        if (indexada && !mysql) {
+            termos.modo = Modo.TRIGRAMA;
+            termos.contem = "%" + escapado + "%";
+            // com menos de 3 letras o LIKE não aproveita os trigramas
+            termos.aproximada = limpo.length() < 3;
+            return termos;
+        }
+
+        // FULLTEXT ignora palavras curtas (innodb_ft_min_token_size = 3)
+        StringBuilder booleano = new StringBuilder();
+        for (String palavra : limpo.split("[^\\p{L}\\p{N}]+")) {
+            if (palavra.length() >= 3) {
+                booleano.append(booleano.length() == 0 ? "" : " ").append('+').append(palavra).append('*');
+            }
+        }
+        if (indexada && booleano.length() > 0) {
+            termos.modo = Modo.FULLTEXT;
+            termos.booleano = booleano.toString();
+        } else {
+            termos.modo = Modo.LIKE;
+            termos.contem = "%" + escapado + "%";
+        }
+        return termos;
+    }
+
+    private static PreparedStatement preparar(Connection conn, String sql, List<Object> parametros)
+            throws SQLException {
+        PreparedStatement stmt = CacheStatements.para(conn).obter(sql);
+        try {
+            ExecutorConsultas.registrar(stmt);
+            for (int i = 0; i < parametros.size(); i++) {
+                stmt.setObject(i + 1, parametros.get(i));
+            }
+        } catch (SQLException e) {
+            stmt.close();
+            throw e;
+        }
+        return stmt;
+    }
+
+    private static ResultSet vazio() throws SQLException {
+        CachedRowSet vazio = RowSetProvider.newFactory().createCachedRowSet();
+        RowSetMetaDataImpl meta = new RowSetMetaDataImpl();
+        meta.setColumnCount(3);
+        meta.setColumnName(1, "codigo");
+        meta.setColumnType(1, Types.NUMERIC);
+        meta.setColumnName(2, "titulo");
+        meta.setColumnType(2, Types.VARCHAR);
+        meta.setColumnName(3, "relevancia");
+        meta.setColumnType(3, Types.REAL);
+        vazio.setMetaData(meta);
+        return vazio;
+    }
+
+    /**
+     * @return se os índices de pesquisa existem e estão válidos no banco do
+     * pool; enquanto faltarem, o catálogo é conferido de novo a cada
+     * RECONFERIR_MS
+     */
+    public static boolean isIndexada(PoolConexoes pool) {
+        return indices(pool).prontos;
+    }
+
+    /**
+     * confere os índices no catálogo, sem criá-los: são criados por
+     * 09_pesquisa.sql / 08_pesquisa.sql ou, em bases existentes, pelas
+     * migrações de mesmo nome. No PostgreSQL só valem os índices com
+     * indisvalid (um CREATE INDEX CONCURRENTLY em andamento ou interrompido
+     * deixa o índice no catálogo sem ele)
+     */
+    private static synchronized Indices indices(PoolConexoes pool) {
+        Indices indices = INDICES.get(pool);
+        if (indices == null) {
+            indices = new Indices();
+            INDICES.put(pool, indices);
+        } else if (indices.prontos || System.currentTimeMillis() - indices.conferidos < RECONFERIR_MS) {
+            return indices;
+        }
+        indices.conferidos = System.currentTimeMillis();
+
+        final boolean mysql = pool.getUrl().startsWith("jdbc:mysql:");
+        try (Connection conn = pool.obterConexao();
+                Statement stmt = conn.createStatement();
+                ResultSet rs = stmt.executeQuery(mysql
+                        ? "SELECT COUNT(DISTINCT index_name) FROM information_schema.statistics "
+                                + "WHERE table_schema = DATABASE() "
+                                + "AND index_name IN ('livros_titulo_ft', 'autor_nome_ft', 'livroautor_autor_idx')"
+                        : "SELECT COUNT(*) FROM pg_index i "
+                                + "JOIN pg_class c ON c.oid = i.indexrelid "
+                                + "JOIN pg_namespace n ON n.oid = c.relnamespace "
+                                + "WHERE n.nspname = current_schema() AND i.indisvalid AND i.indisready "
+                                + "AND c.relname IN ('livros_titulo_trgm_idx', 'autor_nome_trgm_idx', 'livroautor_autor_idx')")) {
+            indices.prontos = rs.next() && rs.getInt(1) == 3;
+        } catch (SQLException e) {
+            Logger.getLogger(DaoPesquisa.class.getName()).log(Level.WARNING,
+                    "Não foi possível conferir os índices de pesquisa", e);
+            return indices;
+        }
+        if (!indices.prontos) {
+            Logger.getLogger(DaoPesquisa.class.getName()).warning(
+                    "Índices de pesquisa ausentes ou inválidos; a pesquisa usa LIKE até a migração "
+                    + (mysql ? "08_pesquisa.sql" : "09_pesquisa.sql") + " ser aplicada");
+        }
+        return indices;
+    }
+
+    private enum Modo {
+        TRIGRAMA, FULLTEXT, LIKE
+    }
+
+    /**
+     * texto pesquisado nas formas que cada modo usa
+     */
+    private static final class Termos {
+
+        private Modo modo;
+        private String texto;
+        private String prefixo;
+        private String contem;
+        private String booleano;
+        private boolean aproximada;
+
+        /**
+         * @return true se passou a usar a semelhança aproximada (vale repetir)
+         */
+        private boolean aproximar() {
+            if (modo != Modo.TRIGRAMA || aproximada) {
+                return false;
+            }
+            aproximada = true;
+            return true;
+        }
+    }
+
+    private static final class Indices {
+
+        private volatile boolean prontos;
+        private long conferidos;
+    }
+}
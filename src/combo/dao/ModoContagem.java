@@ -0,0 +1,13 @@
+package combo.dao;
+
+/**
+ * como ContadorRegistros obtém a quantidade de linhas
+ */
+public enum ModoContagem {
+    /** SELECT COUNT(*) a cada chamada */
+    EXATO,
+    /** COUNT(*) guardado até expirar o TTL ou haver escrita na tabela */
+    CACHE,
+    /** estatística do planejador (pg_class.reltuples / information_schema) */
+    ESTIMADO
+}
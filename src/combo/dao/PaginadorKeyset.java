@@ -0,0 +1,202 @@
+package combo.dao;
+
+import combo.bd.Alteracao;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Paginação por chave (keyset / seek) sobre livros.codigo.
+ *
+ * Navegação sequencial busca a partir da chave da página atual
+ * (codigo &gt; última / codigo &lt; primeira), sem OFFSET. Para saltos usa um
+ * índice esparso página -&gt; primeira chave, com uma entrada a cada
+ * paginasPorEntrada páginas, montado numa única passada quando o primeiro
+ * salto acontece; dali em diante o salto lê no máximo
+ * (paginasPorEntrada - 1) * itensPorPagina linhas a mais.
+ */
+public class PaginadorKeyset {
+
+    private static final int PAGINAS_POR_ENTRADA_PADRAO = 8;
+
+    private final ConsultaDAO dao;
+    private final int itensPorPagina;
+    private final int paginasPorEntrada;
+    private final TreeMap<Integer, Long> inicioPaginas = new TreeMap<>();
+    private boolean indiceMontado;
+    private int totalRegistros = -1;
+    private boolean totalExato;
+
+    // página exibida
+    private int paginaAtual;
+    private long primeiraChave;
+    private long ultimaChave;
+
+    public PaginadorKeyset(ConsultaDAO dao, int itensPorPagina) {
+        this(dao, itensPorPagina, PAGINAS_POR_ENTRADA_PADRAO);
+    }
+
+    public PaginadorKeyset(ConsultaDAO dao, int itensPorPagina, int paginasPorEntrada) {
+        this.dao = dao;
+        this.itensPorPagina = itensPorPagina;
+        this.paginasPorEntrada = paginasPorEntrada;
+    }
+
+    /**
+     * carrega a página informada (1..n) escolhendo a busca mais barata
+     *
+     * @param pagina
+     * @return linhas da página (codigo, titulo), desconectadas
+     * @throws SQLException
+     */
+    public synchronized ResultSet carregarPagina(int pagina) throws SQLException {
+        ResultSet rs = this.buscar(pagina);
+        this.registrarPagina(pagina, rs);
+        return rs;
+    }
+
+    /**
+     * lê a página informada sem torná-la a exibida: a leitura antecipada
+     * parte das chaves da página exibida mas não as move, senão a próxima
+     * navegação sequencial buscaria a partir da página errada
+     *
+     * @param pagina
+     * @return linhas da página (codigo, titulo), desconectadas
+     * @throws SQLException
+     */
+    public synchronized ResultSet precarregarPagina(int pagina) throws SQLException {
+        ResultSet rs = this.buscar(pagina);
+        if (rs.first()) {
+            inicioPaginas.put(pagina, rs.getLong("codigo"));
+        }
+        rs.beforeFirst();
+        return rs;
+    }
+
+    /**
+     * escolhe a busca mais barata a partir da página exibida e das chaves
+     * conhecidas
+     */
+    private ResultSet buscar(int pagina) throws SQLException {
+        ResultSet rs;
+        Long inicio = inicioPaginas.get(pagina);
+
+        if (pagina <= 1) {
+            rs = dao.getPrimeiraPagina(itensPorPagina);
+        } else if (paginaAtual > 0 && pagina == paginaAtual + 1) {
+            rs = dao.getPaginaApos(ultimaChave, itensPorPagina);
+        } else if (paginaAtual > 0 && pagina == paginaAtual - 1) {
+            rs = dao.getPaginaAntes(primeiraChave, itensPorPagina);
+        } else if (inicio != null) {
+            rs = dao.getPaginaDesde(inicio, 0, itensPorPagina);
+        } else if (totalExato && pagina == getTotalPaginas()) {
+            int resto = totalRegistros - (pagina - 1) * itensPorPagina;
+            rs = dao.getUltimasLinhas(Math.max(resto, 1));
+        } else {
+            rs = this.saltar(pagina);
+        }
+        return rs;
+    }
+
+    private ResultSet saltar(int pagina) throws SQLException {
+        if (!indiceMontado) {
+            this.montarIndice();
+        }
+        Map.Entry<Integer, Long> base = inicioPaginas.floorEntry(pagina);
+        if (base == null) {
+            return dao.getPaginaDesde(Long.MIN_VALUE, (pagina - 1) * itensPorPagina, itensPorPagina);
+        }
+        int deslocamento = (pagina - base.getKey()) * itensPorPagina;
+        return dao.getPaginaDesde(base.getValue(), deslocamento, itensPorPagina);
+    }
+
+    /**
+     * lê a primeira chave de cada grupo de paginasPorEntrada páginas
+     */
+    public synchronized void montarIndice() {
+        List<Long> chaves = dao.getChavesLimite(itensPorPagina * paginasPorEntrada);
+        for (int i = 0; i < chaves.size(); i++) {
+            inicioPaginas.put(i * paginasPorEntrada + 1, chaves.get(i));
+        }
+        indiceMontado = true;
+    }
+
+    private void registrarPagina(int pagina, ResultSet rs) throws SQLException {
+        if (!rs.first()) {
+            rs.beforeFirst();
+            return;
+        }
+        paginaAtual = pagina;
+        primeiraChave = rs.getLong("codigo");
+        rs.last();
+        ultimaChave = rs.getLong("codigo");
+        rs.beforeFirst();
+        inicioPaginas.put(pagina, primeiraChave);
+    }
+
+    /**
+     * aplica uma alteração em livros avisada pelo banco: inclusões e remoções
+     * descartam só as chaves de início das páginas depois da menor chave
+     * alterada
+     *
+     * @param alteracao
+     * @return true se a página exibida mudou e precisa ser lida de novo
+     */
+    public synchronized boolean aplicarAlteracao(Alteracao alteracao) {
+        long[] chaves = alteracao.getChaves();
+        if (chaves == null) {
+            this.invalidar();
+            return true;
+        }
+        if (!alteracao.isDeslocaLinhas()) {
+            return paginaAtual > 0 && alteracao.contemAlguma(primeiraChave, ultimaChave);
+        }
+
+        long menor = Long.MAX_VALUE;
+        for (long chave : chaves) {
+            menor = Math.min(menor, chave);
+        }
+        final long limite = menor;
+        if (inicioPaginas.values().removeIf(inicio -> inicio > limite)) {
+            indiceMontado = false;
+        }
+        return paginaAtual > 0 && menor <= ultimaChave;
+    }
+
+    /**
+     * descarta chaves conhecidas (após inserções/remoções em livros)
+     */
+    public synchronized void invalidar() {
+        inicioPaginas.clear();
+        indiceMontado = false;
+        paginaAtual = 0;
+    }
+
+    public synchronized void setTotalRegistros(int totalRegistros) {
+        this.setTotalRegistros(totalRegistros, true);
+    }
+
+    /**
+     * @param totalRegistros
+     * @param exato false para estimativas: a última página deixa de ser lida
+     * pelo fim da tabela (o tamanho dela seria incerto) e passa pelo índice
+     */
+    public synchronized void setTotalRegistros(int totalRegistros, boolean exato) {
+        this.totalRegistros = totalRegistros;
+        this.totalExato = exato;
+    }
+
+    public synchronized int getTotalPaginas() {
+        return Math.max((int) Math.ceil((double) totalRegistros / itensPorPagina), 1);
+    }
+
+    public int getItensPorPagina() {
+        return itensPorPagina;
+    }
+
+    public synchronized int getPaginaAtual() {
+        return paginaAtual;
+    }
+}
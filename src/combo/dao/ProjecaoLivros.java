@@ -0,0 +1,84 @@
+package combo.dao;
+
+import combo.bd.E_BD;
+import combo.bd.MonitorEscritas;
+import combo.bd.RoteadorConexoes;
+import combo.bo.BoConexao;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Modelo de leitura dos detalhes de livros (tabela livrosdetalhe): uma linha
+ * por (livro, autor, edição) com título, nome do autor e ano já juntados.
+ *
+ * A tabela é mantida incrementalmente pelos gatilhos de 07_livrosdetalhe.sql
+ * sobre livros, autor, livroautor e edicao; aqui ficam o nome da tabela, o
+ * registro dela como derivada no MonitorEscritas (caches da projeção caem
+ * junto com os das tabelas base) e a reconstrução completa, para depois de
+ * cargas feitas com os gatilhos desligados.
+ */
+public class ProjecaoLivros {
+
+    public static final String TABELA = "livrosdetalhe";
+    public static final String[] BASES = { "livros", "autor", "livroautor", "edicao" };
+
+    private static final String SELECT_BASES =
+            "SELECT l.codigo, a.codigo, e.numero, l.titulo, a.nome, e.ano "
+            + "FROM livros l "
+            + "INNER JOIN livroautor la ON la.codigoLivro = l.codigo "
+            + "INNER JOIN autor a ON a.codigo = la.codigoAutor "
+            + "INNER JOIN edicao e ON e.codigoLivro = l.codigo";
+
+    static {
+        for (String base : BASES) {
+            MonitorEscritas.registrarDerivada(base, TABELA);
+        }
+    }
+
+    private ProjecaoLivros() {
+    }
+
+    /**
+     * garante o registro das tabelas base no MonitorEscritas
+     */
+    public static void registrar() {
+        // o registro é feito ao carregar a classe
+    }
+
+    /**
+     * recalcula a projeção inteira a partir das tabelas base, numa transação
+     *
+     * @param conexao
+     * @throws SQLException
+     * @throws E_BD
+     * @throws ClassNotFoundException
+     */
+    public static void reconstruir(BoConexao conexao) throws SQLException, E_BD, ClassNotFoundException {
+        reconstruir(conexao.getConexao().getConexao());
+    }
+
+    /**
+     * @param conexao conexão JDBC; o autocommit é desligado durante a reconstrução
+     * @throws SQLException
+     */
+    public static void reconstruir(Connection conexao) throws SQLException {
+        boolean autoCommit = conexao.getAutoCommit();
+        conexao.setAutoCommit(false);
+        try (Statement stmt = conexao.createStatement()) {
+            stmt.executeUpdate("DELETE FROM " + TABELA);
+            stmt.executeUpdate("INSERT INTO " + TABELA
+                    + " (codigolivro, codigoautor, numero, titulo, nome, ano) " + SELECT_BASES);
+            conexao.commit();
+        } catch (SQLException e) {
+            conexao.rollback();
+            throw e;
+        } finally {
+            conexao.setAutoCommit(autoCommit);
+        }
+
+        // avisa roteador e caches da projeção
+        RoteadorConexoes.escritaConfirmada(conexao);
+        MonitorEscritas.notificarTabela(TABELA);
+    }
+}
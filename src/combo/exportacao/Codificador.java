@@ -0,0 +1,31 @@
+package combo.exportacao;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * formato de arquivo de uma exportação: recebe as linhas uma a uma e as
+ * escreve na saída, sem guardar o resultado
+ */
+public interface Codificador {
+
+    /**
+     * chamado antes da primeira linha (cabeçalho)
+     *
+     * @param meta colunas do resultado
+     * @param saida
+     */
+    public void iniciar(ResultSetMetaData meta, SaidaExportacao saida) throws SQLException, IOException;
+
+    /**
+     * @param rs posicionado na linha a escrever; não deve mover o cursor
+     */
+    public void linha(ResultSet rs) throws SQLException, IOException;
+
+    /**
+     * chamado depois da última linha (rodapé, dados ainda em memória)
+     */
+    public void terminar() throws IOException;
+}
@@ -0,0 +1,216 @@
+package combo.exportacao;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Formato binário colunar (.lvc), para recarga rápida e arquivos menores.
+ *
+ * Cabeçalho: "LVC1", número de colunas (varint) e, por coluna, o tipo
+ * (1 inteiro, 2 real, 3 número, 4 texto), o tamanho do nome (varint) e o nome
+ * em UTF-8.
+ *
+ * Seguem blocos de até LINHAS_POR_BLOCO linhas: quantidade de linhas (varint)
+ * e, coluna após coluna, um byte 0 (sem nulos) ou 1 seguido do mapa de nulos
+ * (um bit por linha, menos significativo primeiro); depois só os valores não
+ * nulos: inteiros como diferença para o anterior em zigzag varint, reais em
+ * 8 bytes big-endian, números e textos como todos os tamanhos (varint) e em
+ * seguida todos os bytes UTF-8. O arquivo termina com um bloco de 0 linhas.
+ *
+ * Só o bloco atual fica em memória, em vetores reaproveitados.
+ */
+public class CodificadorColunar implements Codificador {
+
+    public static final byte[] ASSINATURA = { 'L', 'V', 'C', '1' };
+    public static final int LINHAS_POR_BLOCO = 16384;
+
+    private Colunas colunas;
+    private SaidaExportacao saida;
+    private int linhas;
+
+    private boolean[][] nulos;
+    private long[][] inteiros;
+    private double[][] reais;
+    private int[][] tamanhos;
+    private byte[][] textos;
+    private int[] usados;
+    private byte[] mapa;
+
+    @Override
+    public void iniciar(ResultSetMetaData meta, SaidaExportacao saida) throws SQLException, IOException {
+        this.colunas = new Colunas(meta);
+        this.saida = saida;
+        int n = colunas.quantidade;
+        nulos = new boolean[n][LINHAS_POR_BLOCO];
+        inteiros = new long[n][];
+        reais = new double[n][];
+        tamanhos = new int[n][];
+        textos = new byte[n][];
+        usados = new int[n];
+        mapa = new byte[(LINHAS_POR_BLOCO + 7) / 8];
+        for (int i = 0; i < n; i++) {
+            switch (colunas.tipos[i]) {
+                case Colunas.INTEIRO:
+                    inteiros[i] = new long[LINHAS_POR_BLOCO];
+                    break;
+                case Colunas.REAL:
+                    reais[i] = new double[LINHAS_POR_BLOCO];
+                    break;
+                default:
+                    tamanhos[i] = new int[LINHAS_POR_BLOCO];
+                    textos[i] = new byte[64 * 1024];
+            }
+        }
+
+        saida.escrever(ASSINATURA);
+        saida.escreverVarint(n);
+        for (int i = 0; i < n; i++) {
+            byte[] nome = colunas.nomes[i].getBytes(StandardCharsets.UTF_8);
+            saida.escrever(colunas.tipos[i]);
+            saida.escreverVarint(nome.length);
+            saida.escrever(nome);
+        }
+    }
+
+    @Override
+    public void linha(ResultSet rs) throws SQLException, IOException {
+        for (int i = 0; i < colunas.quantidade; i++) {
+            switch (colunas.tipos[i]) {
+                case Colunas.INTEIRO:
+                    inteiros[i][linhas] = rs.getLong(i + 1);
+                    nulos[i][linhas] = rs.wasNull();
+                    break;
+                case Colunas.REAL:
+                    reais[i][linhas] = rs.getDouble(i + 1);
+                    nulos[i][linhas] = rs.wasNull();
+                    break;
+                case Colunas.NUMERO: {
+                    BigDecimal valor = rs.getBigDecimal(i + 1);
+                    nulos[i][linhas] = valor == null;
+                    if (valor != null) {
+                        String texto = valor.toPlainString();
+                        this.guardarTexto(i, texto, texto.length());
+                    }
+                    break;
+                }
+                default: {
+                    String valor = rs.getString(i + 1);
+                    nulos[i][linhas] = valor == null;
+                    if (valor != null) {
+                        this.guardarTexto(i, valor, colunas.fim(i, valor));
+                    }
+                }
+            }
+        }
+        if (++linhas == LINHAS_POR_BLOCO) {
+            this.gravarBloco();
+        }
+    }
+
+    /**
+     * UTF-8 de texto[0, fim) no fim do vetor de bytes da coluna
+     */
+    private void guardarTexto(int coluna, String texto, int fim) {
+        byte[] destino = textos[coluna];
+        int posicao = usados[coluna];
+        if (destino.length - posicao < fim * 3) {
+            destino = Arrays.copyOf(destino, Math.max(destino.length * 2, posicao + fim * 3));
+            textos[coluna] = destino;
+        }
+        int inicio = posicao;
+        for (int i = 0; i < fim; i++) {
+            char c = texto.charAt(i);
+            if (c < 0x80) {
+                destino[posicao++] = (byte) c;
+            } else if (c < 0x800) {
+                destino[posicao++] = (byte) (0xc0 | c >> 6);
+                destino[posicao++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < fim && Character.isLowSurrogate(texto.charAt(i + 1))) {
+                // 4 bytes para 2 chars: cabe na reserva de 3 por char
+                int cp = Character.toCodePoint(c, texto.charAt(++i));
+                destino[posicao++] = (byte) (0xf0 | cp >> 18);
+                destino[posicao++] = (byte) (0x80 | cp >> 12 & 0x3f);
+                destino[posicao++] = (byte) (0x80 | cp >> 6 & 0x3f);
+                destino[posicao++] = (byte) (0x80 | cp & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                destino[posicao++] = '?';
+            } else {
+                destino[posicao++] = (byte) (0xe0 | c >> 12);
+                destino[posicao++] = (byte) (0x80 | c >> 6 & 0x3f);
+                destino[posicao++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+        tamanhos[coluna][linhas] = posicao - inicio;
+        usados[coluna] = posicao;
+    }
+
+    private void gravarBloco() throws IOException {
+        saida.escreverVarint(linhas);
+        for (int i = 0; i < colunas.quantidade; i++) {
+            boolean[] nulo = nulos[i];
+            this.gravarNulos(nulo);
+            switch (colunas.tipos[i]) {
+                case Colunas.INTEIRO: {
+                    long anterior = 0;
+                    for (int l = 0; l < linhas; l++) {
+                        if (!nulo[l]) {
+                            long diferenca = inteiros[i][l] - anterior;
+                            saida.escreverVarint(diferenca << 1 ^ diferenca >> 63);
+                            anterior = inteiros[i][l];
+                        }
+                    }
+                    break;
+                }
+                case Colunas.REAL:
+                    for (int l = 0; l < linhas; l++) {
+                        if (!nulo[l]) {
+                            saida.escreverLongFixo(Double.doubleToLongBits(reais[i][l]));
+                        }
+                    }
+                    break;
+                default:
+                    for (int l = 0; l < linhas; l++) {
+                        if (!nulo[l]) {
+                            saida.escreverVarint(tamanhos[i][l]);
+                        }
+                    }
+                    saida.escrever(textos[i], 0, usados[i]);
+                    usados[i] = 0;
+            }
+        }
+        linhas = 0;
+    }
+
+    private void gravarNulos(boolean[] nulo) throws IOException {
+        boolean algum = false;
+        for (int l = 0; l < linhas && !algum; l++) {
+            algum = nulo[l];
+        }
+        if (!algum) {
+            saida.escrever(0);
+            return;
+        }
+        int tamanho = (linhas + 7) / 8;
+        Arrays.fill(mapa, 0, tamanho, (byte) 0);
+        for (int l = 0; l < linhas; l++) {
+            if (nulo[l]) {
+                mapa[l >> 3] |= (byte) (1 << (l & 7));
+            }
+        }
+        saida.escrever(1);
+        saida.escrever(mapa, 0, tamanho);
+    }
+
+    @Override
+    public void terminar() throws IOException {
+        if (linhas > 0) {
+            this.gravarBloco();
+        }
+        saida.escreverVarint(0);
+    }
+}
@@ -0,0 +1,109 @@
+package combo.exportacao;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * CSV (RFC 4180): primeira linha com os nomes, linhas terminadas por CRLF,
+ * aspas só nos campos que têm separador, aspas ou quebra de linha; nulo é o
+ * campo vazio
+ */
+public class CodificadorCsv implements Codificador {
+
+    private final char separador;
+    private Colunas colunas;
+    private SaidaExportacao saida;
+
+    public CodificadorCsv() {
+        this(',');
+    }
+
+    /**
+     * @param separador ';' para planilhas com vírgula decimal
+     */
+    public CodificadorCsv(char separador) {
+        this.separador = separador;
+    }
+
+    @Override
+    public void iniciar(ResultSetMetaData meta, SaidaExportacao saida) throws SQLException, IOException {
+        this.colunas = new Colunas(meta);
+        this.saida = saida;
+        for (int i = 0; i < colunas.quantidade; i++) {
+            if (i > 0) {
+                saida.escrever(separador);
+            }
+            this.escreverTexto(colunas.nomes[i], colunas.nomes[i].length());
+        }
+        saida.escreverAscii("\r\n");
+    }
+
+    @Override
+    public void linha(ResultSet rs) throws SQLException, IOException {
+        for (int i = 0; i < colunas.quantidade; i++) {
+            if (i > 0) {
+                saida.escrever(separador);
+            }
+            switch (colunas.tipos[i]) {
+                case Colunas.INTEIRO: {
+                    long valor = rs.getLong(i + 1);
+                    if (!rs.wasNull()) {
+                        saida.escreverLong(valor);
+                    }
+                    break;
+                }
+                case Colunas.REAL: {
+                    double valor = rs.getDouble(i + 1);
+                    if (!rs.wasNull()) {
+                        saida.escreverAscii(Double.toString(valor));
+                    }
+                    break;
+                }
+                case Colunas.NUMERO: {
+                    BigDecimal valor = rs.getBigDecimal(i + 1);
+                    if (valor != null) {
+                        saida.escreverAscii(valor.toPlainString());
+                    }
+                    break;
+                }
+                default: {
+                    String valor = rs.getString(i + 1);
+                    if (valor != null) {
+                        this.escreverTexto(valor, colunas.fim(i, valor));
+                    }
+                }
+            }
+        }
+        saida.escreverAscii("\r\n");
+    }
+
+    private void escreverTexto(String texto, int fim) throws IOException {
+        boolean aspas = false;
+        for (int i = 0; i < fim && !aspas; i++) {
+            char c = texto.charAt(i);
+            aspas = c == separador || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!aspas) {
+            saida.escreverUtf8(texto, 0, fim);
+            return;
+        }
+        // aspas internas são dobradas
+        saida.escrever('"');
+        int inicio = 0;
+        for (int i = 0; i < fim; i++) {
+            if (texto.charAt(i) == '"') {
+                saida.escreverUtf8(texto, inicio, i + 1);
+                inicio = i;
+            }
+        }
+        saida.escreverUtf8(texto, inicio, fim);
+        saida.escrever('"');
+    }
+
+    @Override
+    public void terminar() {
+    }
+}
@@ -0,0 +1,138 @@
+package combo.exportacao;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * JSON Lines: um objeto por linha ({"coluna":valor,...}), separados por \n.
+ * Os nomes das colunas são codificados uma vez, no início.
+ */
+public class CodificadorJsonLinhas implements Codificador {
+
+    private static final char[] HEXA = "0123456789abcdef".toCharArray();
+
+    private Colunas colunas;
+    private SaidaExportacao saida;
+    // "nome": já em UTF-8, precedidos de '{' ou ','
+    private byte[][] prefixos;
+
+    @Override
+    public void iniciar(ResultSetMetaData meta, SaidaExportacao saida) throws SQLException {
+        this.colunas = new Colunas(meta);
+        this.saida = saida;
+        this.prefixos = new byte[colunas.quantidade][];
+        for (int i = 0; i < colunas.quantidade; i++) {
+            StringBuilder prefixo = new StringBuilder(i == 0 ? "{" : ",");
+            escapar(colunas.nomes[i], colunas.nomes[i].length(), prefixo);
+            prefixos[i] = prefixo.append(':').toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Override
+    public void linha(ResultSet rs) throws SQLException, IOException {
+        if (colunas.quantidade == 0) {
+            saida.escrever('{');
+        }
+        for (int i = 0; i < colunas.quantidade; i++) {
+            saida.escrever(prefixos[i]);
+            switch (colunas.tipos[i]) {
+                case Colunas.INTEIRO: {
+                    long valor = rs.getLong(i + 1);
+                    if (rs.wasNull()) {
+                        saida.escreverAscii("null");
+                    } else {
+                        saida.escreverLong(valor);
+                    }
+                    break;
+                }
+                case Colunas.REAL: {
+                    double valor = rs.getDouble(i + 1);
+                    boolean finito = !Double.isNaN(valor) && !Double.isInfinite(valor);
+                    saida.escreverAscii(rs.wasNull() || !finito ? "null" : Double.toString(valor));
+                    break;
+                }
+                case Colunas.NUMERO: {
+                    BigDecimal valor = rs.getBigDecimal(i + 1);
+                    saida.escreverAscii(valor == null ? "null" : valor.toPlainString());
+                    break;
+                }
+                default: {
+                    String valor = rs.getString(i + 1);
+                    if (valor == null) {
+                        saida.escreverAscii("null");
+                    } else {
+                        this.escreverTexto(valor, colunas.fim(i, valor));
+                    }
+                }
+            }
+        }
+        saida.escreverAscii("}\n");
+    }
+
+    /**
+     * texto entre aspas; trechos sem escape vão inteiros para a saída
+     */
+    private void escreverTexto(String texto, int fim) throws IOException {
+        saida.escrever('"');
+        int inicio = 0;
+        for (int i = 0; i < fim; i++) {
+            char c = texto.charAt(i);
+            // U+2028/U+2029 são válidos em JSON, mas quebram leitores JavaScript
+            if (c >= 0x20 && c != '"' && c != '\\' && c != 0x2028 && c != 0x2029) {
+                continue;
+            }
+            saida.escreverUtf8(texto, inicio, i);
+            switch (c) {
+                case '"':
+                    saida.escreverAscii("\\\"");
+                    break;
+                case '\\':
+                    saida.escreverAscii("\\\\");
+                    break;
+                case '\n':
+                    saida.escreverAscii("\\n");
+                    break;
+                case '\r':
+                    saida.escreverAscii("\\r");
+                    break;
+                case '\t':
+                    saida.escreverAscii("\\t");
+                    break;
+                default:
+                    saida.escreverAscii("\\u");
+                    saida.escrever(HEXA[c >> 12 & 0xf]);
+                    saida.escrever(HEXA[c >> 8 & 0xf]);
+                    saida.escrever(HEXA[c >> 4 & 0xf]);
+                    saida.escrever(HEXA[c & 0xf]);
+            }
+            inicio = i + 1;
+        }
+        saida.escreverUtf8(texto, inicio, fim);
+        saida.escrever('"');
+    }
+
+    private static void escapar(String texto, int fim, StringBuilder destino) {
+        destino.append('"');
+        for (int i = 0; i < fim; i++) {
+            char c = texto.charAt(i);
+            if (c == '"' || c == '\\') {
+                destino.append('\\');
+            }
+            if (c < 0x20) {
+                destino.append("\\u").append(HEXA[c >> 12 & 0xf]).append(HEXA[c >> 8 & 0xf])
+                        .append(HEXA[c >> 4 & 0xf]).append(HEXA[c & 0xf]);
+            } else {
+                destino.append(c);
+            }
+        }
+        destino.append('"');
+    }
+
+    @Override
+    public void terminar() {
+    }
+}
@@ -0,0 +1,71 @@
+package combo.exportacao;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * nomes e tipos das colunas de um resultado, como os codificadores os tratam
+ */
+class Colunas {
+
+    /** cabe num long: lido com getLong, sem objeto por valor */
+    static final byte INTEIRO = 1;
+    /** ponto flutuante */
+    static final byte REAL = 2;
+    /** NUMERIC/DECIMAL com casas: escrito como o texto exato */
+    static final byte NUMERO = 3;
+    static final byte TEXTO = 4;
+
+    final int quantidade;
+    final String[] nomes;
+    final byte[] tipos;
+    /** CHAR(n): os espaços de preenchimento à direita são descartados */
+    final boolean[] fixos;
+
+    Colunas(ResultSetMetaData meta) throws SQLException {
+        quantidade = meta.getColumnCount();
+        nomes = new String[quantidade];
+        tipos = new byte[quantidade];
+        fixos = new boolean[quantidade];
+        for (int i = 0; i < quantidade; i++) {
+            nomes[i] = meta.getColumnLabel(i + 1);
+            int tipo = meta.getColumnType(i + 1);
+            switch (tipo) {
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                case Types.BIGINT:
+                    tipos[i] = INTEIRO;
+                    break;
+                case Types.REAL:
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                    tipos[i] = REAL;
+                    break;
+                case Types.NUMERIC:
+                case Types.DECIMAL:
+                    boolean cabe = meta.getScale(i + 1) == 0 && meta.getPrecision(i + 1) > 0
+                            && meta.getPrecision(i + 1) <= 18;
+                    tipos[i] = cabe ? INTEIRO : NUMERO;
+                    break;
+                default:
+                    tipos[i] = TEXTO;
+                    fixos[i] = tipo == Types.CHAR || tipo == Types.NCHAR;
+            }
+        }
+    }
+
+    /**
+     * @return fim do texto sem os espaços à direita, se a coluna é CHAR
+     */
+    int fim(int coluna, String texto) {
+        int fim = texto.length();
+        if (fixos[coluna]) {
+            while (fim > 0 && texto.charAt(fim - 1) == ' ') {
+                fim--;
+            }
+        }
+        return fim;
+    }
+}
@@ -0,0 +1,110 @@
+package combo.exportacao;
+
+import combo.bd.ProcessadorLinha;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Liga uma consulta em streaming (DaoConsultarBD.consultaStreaming) a um
+ * arquivo: cada linha vai do ResultSet para o codificador e dele para a
+ * SaidaExportacao, sem acumular o resultado; a memória usada não depende do
+ * número de linhas.
+ *
+ * Uso:
+ * <pre>
+ * try (Exportador exportador = new Exportador(arquivo, Formato.CSV.criar(), false, null)) {
+ *     bo.exportaLivros(exportador);
+ *     exportador.concluir();
+ * }
+ * </pre>
+ */
+public class Exportador implements ProcessadorLinha, Closeable {
+
+    private static final int LINHAS_ENTRE_AVISOS = 10000;
+    private static final long INTERVALO_AVISOS_MS = 500;
+
+    private final Codificador codificador;
+    private final SaidaExportacao saida;
+    private final ProgressoExportacao progresso;
+    private long linhas;
+    private long ultimoAviso;
+    private boolean concluido;
+
+    /**
+     * @param destino arquivo final (gravado antes como destino.parcial)
+     * @param codificador
+     * @param gzip comprime a saída
+     * @param progresso pode ser null
+     * @throws IOException
+     */
+    public Exportador(Path destino, Codificador codificador, boolean gzip, ProgressoExportacao progresso) throws IOException {
+        this.codificador = codificador;
+        this.saida = new SaidaExportacao(destino, gzip);
+        this.progresso = progresso;
+    }
+
+    @Override
+    public void iniciar(ResultSetMetaData meta) throws SQLException {
+        try {
+            codificador.iniciar(meta, saida);
+        } catch (IOException e) {
+            throw new SQLException("falha ao gravar " + saida.getDestino(), e);
+        }
+        ultimoAviso = System.currentTimeMillis();
+    }
+
+    @Override
+    public void processar(ResultSet rs) throws SQLException {
+        try {
+            codificador.linha(rs);
+        } catch (IOException e) {
+            throw new SQLException("falha ao gravar " + saida.getDestino(), e);
+        }
+        if (++linhas % LINHAS_ENTRE_AVISOS == 0 && progresso != null) {
+            long agora = System.currentTimeMillis();
+            if (agora - ultimoAviso >= INTERVALO_AVISOS_MS) {
+                ultimoAviso = agora;
+                progresso.progresso(linhas, saida.getBytes(), false);
+            }
+        }
+    }
+
+    /**
+     * grava o fim do arquivo e o renomeia para o destino; deve ser chamado
+     * depois que a consulta terminou sem erro
+     */
+    public void concluir() throws IOException {
+        codificador.terminar();
+        saida.concluir();
+        concluido = true;
+        if (progresso != null) {
+            progresso.progresso(linhas, saida.getBytes(), true);
+        }
+    }
+
+    /**
+     * sem concluir() o arquivo parcial é apagado
+     */
+    @Override
+    public void close() throws IOException {
+        if (!concluido) {
+            saida.close();
+        }
+    }
+
+    public long getLinhas() {
+        return linhas;
+    }
+
+    public long getBytes() {
+        return saida.getBytes();
+    }
+
+    public long getBytesGravados() {
+        return saida.getBytesGravados();
+    }
+}
@@ -0,0 +1,61 @@
+package combo.exportacao;
+
+import java.util.Locale;
+
+/**
+ * formatos de exportação disponíveis
+ */
+public enum Formato {
+
+    CSV("csv"),
+    JSONL("jsonl"),
+    COLUNAR("lvc");
+
+    private final String extensao;
+
+    private Formato(String extensao) {
+        this.extensao = extensao;
+    }
+
+    public Codificador criar() {
+        switch (this) {
+            case CSV:
+                return new CodificadorCsv();
+            case JSONL:
+                return new CodificadorJsonLinhas();
+            default:
+                return new CodificadorColunar();
+        }
+    }
+
+    public String getExtensao() {
+        return extensao;
+    }
+
+    /**
+     * @param nome nome do formato ou extensão (csv, jsonl, json, colunar, lvc)
+     * @return null se não reconhecido
+     */
+    public static Formato para(String nome) {
+        String chave = nome.toLowerCase(Locale.ROOT);
+        if (chave.equals("json")) {
+            return JSONL;
+        }
+        for (Formato formato : values()) {
+            if (chave.equals(formato.extensao) || chave.equals(formato.name().toLowerCase(Locale.ROOT))) {
+                return formato;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param arquivo nome do arquivo, com ou sem .gz no fim
+     * @return formato pela extensão, ou null
+     */
+    public static Formato doArquivo(String arquivo) {
+        String nome = arquivo.endsWith(".gz") ? arquivo.substring(0, arquivo.length() - 3) : arquivo;
+        int ponto = nome.lastIndexOf('.');
+        return ponto < 0 ? null : para(nome.substring(ponto + 1));
+    }
+}
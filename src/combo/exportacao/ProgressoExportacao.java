@@ -0,0 +1,14 @@
+package combo.exportacao;
+
+/**
+ * recebe o andamento de uma exportação (na thread que exporta)
+ */
+public interface ProgressoExportacao {
+
+    /**
+     * @param linhas linhas escritas até agora
+     * @param bytes bytes gerados (antes da compressão)
+     * @param concluido true na última chamada, com o arquivo já gravado
+     */
+    public void progresso(long linhas, long bytes, boolean concluido);
+}
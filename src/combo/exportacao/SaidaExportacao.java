@@ -0,0 +1,282 @@
+package combo.exportacao;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Destino dos bytes de uma exportação: os codificadores escrevem num buffer
+ * de TAMANHO_BUFFER bytes, gravado no FileChannel a cada enchimento. O texto é
+ * codificado em UTF-8 direto no buffer, sem byte[] intermediário por valor.
+ *
+ * Com gzip o buffer é comprimido pelo Deflater (que no Java 8 só lê byte[])
+ * e o resultado passa por um buffer direto antes do canal; sem gzip o próprio
+ * buffer de escrita é direto.
+ *
+ * Grava em "destino.parcial"; só concluir() renomeia para o destino, assim
+ * uma exportação interrompida não deixa um arquivo truncado com o nome final.
+ */
+public class SaidaExportacao implements Closeable {
+
+    public static final int TAMANHO_BUFFER = 1 << 20;
+    private static final byte[] CABECALHO_GZIP = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    private final Path destino;
+    private final Path parcial;
+    private final FileChannel canal;
+    private final ByteBuffer buffer;
+    private final byte[] digitos = new byte[20];
+
+    // gzip
+    private final Deflater deflater;
+    private final CRC32 crc;
+    private final byte[] comprimido;
+    private final ByteBuffer gravacao;
+
+    private long descarregados;
+    private long gravados;
+    private boolean fechada;
+
+    public SaidaExportacao(Path destino, boolean gzip) throws IOException {
+        this.destino = destino;
+        this.parcial = destino.resolveSibling(destino.getFileName() + ".parcial");
+        this.canal = FileChannel.open(parcial, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        if (gzip) {
+            this.buffer = ByteBuffer.allocate(TAMANHO_BUFFER);
+            this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            this.crc = new CRC32();
+            this.comprimido = new byte[64 * 1024];
+            this.gravacao = ByteBuffer.allocateDirect(TAMANHO_BUFFER);
+            this.gravacao.put(CABECALHO_GZIP);
+        } else {
+            this.buffer = ByteBuffer.allocateDirect(TAMANHO_BUFFER);
+            this.deflater = null;
+            this.crc = null;
+            this.comprimido = null;
+            this.gravacao = null;
+        }
+    }
+
+    public void escrever(int b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            this.descarregar();
+        }
+        buffer.put((byte) b);
+    }
+
+    public void escrever(byte[] b, int inicio, int tamanho) throws IOException {
+        while (tamanho > 0) {
+            if (!buffer.hasRemaining()) {
+                this.descarregar();
+            }
+            int n = Math.min(tamanho, buffer.remaining());
+            buffer.put(b, inicio, n);
+            inicio += n;
+            tamanho -= n;
+        }
+    }
+
+    public void escrever(byte[] b) throws IOException {
+        this.escrever(b, 0, b.length);
+    }
+
+    /**
+     * texto só com caracteres ASCII (separadores, nomes fixos)
+     */
+    public void escreverAscii(String texto) throws IOException {
+        for (int i = 0; i < texto.length(); i++) {
+            this.escrever(texto.charAt(i));
+        }
+    }
+
+    /**
+     * codifica texto[inicio, fim) em UTF-8; surrogates soltos viram '?'
+     */
+    public void escreverUtf8(String texto, int inicio, int fim) throws IOException {
+        for (int i = inicio; i < fim; i++) {
+            if (buffer.remaining() < 4) {
+                this.descarregar();
+            }
+            char c = texto.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xc0 | c >> 6));
+                buffer.put((byte) (0x80 | c & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < fim && Character.isLowSurrogate(texto.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, texto.charAt(++i));
+                    buffer.put((byte) (0xf0 | cp >> 18));
+                    buffer.put((byte) (0x80 | cp >> 12 & 0x3f));
+                    buffer.put((byte) (0x80 | cp >> 6 & 0x3f));
+                    buffer.put((byte) (0x80 | cp & 0x3f));
+                } else {
+                    buffer.put((byte) '?');
+                }
+            } else {
+                buffer.put((byte) (0xe0 | c >> 12));
+                buffer.put((byte) (0x80 | c >> 6 & 0x3f));
+                buffer.put((byte) (0x80 | c & 0x3f));
+            }
+        }
+    }
+
+    public void escreverUtf8(String texto) throws IOException {
+        this.escreverUtf8(texto, 0, texto.length());
+    }
+
+    /**
+     * número em decimal, sem criar String
+     */
+    public void escreverLong(long valor) throws IOException {
+        if (valor == Long.MIN_VALUE) {
+            this.escreverAscii(Long.toString(valor));
+            return;
+        }
+        if (valor < 0) {
+            this.escrever('-');
+            valor = -valor;
+        }
+        int i = digitos.length;
+        do {
+            digitos[--i] = (byte) ('0' + valor % 10);
+            valor /= 10;
+        } while (valor != 0);
+        this.escrever(digitos, i, digitos.length - i);
+    }
+
+    /**
+     * inteiro sem sinal em base 128 (7 bits por byte, menos significativos
+     * primeiro)
+     */
+    public void escreverVarint(long valor) throws IOException {
+        if (buffer.remaining() < 10) {
+            this.descarregar();
+        }
+        while ((valor & ~0x7fL) != 0) {
+            buffer.put((byte) (valor & 0x7f | 0x80));
+            valor >>>= 7;
+        }
+        buffer.put((byte) valor);
+    }
+
+    public void escreverLongFixo(long valor) throws IOException {
+        if (buffer.remaining() < 8) {
+            this.descarregar();
+        }
+        buffer.putLong(valor);
+    }
+
+    /**
+     * @return bytes escritos pelos codificadores (antes da compressão)
+     */
+    public long getBytes() {
+        return descarregados + buffer.position();
+    }
+
+    /**
+     * @return bytes já gravados no arquivo
+     */
+    public long getBytesGravados() {
+        return gravados;
+    }
+
+    private void descarregar() throws IOException {
+        buffer.flip();
+        descarregados += buffer.remaining();
+        if (deflater == null) {
+            while (buffer.hasRemaining()) {
+                gravados += canal.write(buffer);
+            }
+        } else {
+            crc.update(buffer.array(), 0, buffer.limit());
+            deflater.setInput(buffer.array(), 0, buffer.limit());
+            while (!deflater.needsInput()) {
+                this.guardarComprimido(deflater.deflate(comprimido));
+            }
+        }
+        buffer.clear();
+    }
+
+    private void guardarComprimido(int tamanho) throws IOException {
+        int inicio = 0;
+        while (inicio < tamanho) {
+            if (!gravacao.hasRemaining()) {
+                this.gravar();
+            }
+            int n = Math.min(tamanho - inicio, gravacao.remaining());
+            gravacao.put(comprimido, inicio, n);
+            inicio += n;
+        }
+    }
+
+    private void gravar() throws IOException {
+        gravacao.flip();
+        while (gravacao.hasRemaining()) {
+            gravados += canal.write(gravacao);
+        }
+        gravacao.clear();
+    }
+
+    /**
+     * grava o que falta e dá ao arquivo o nome final
+     */
+    public void concluir() throws IOException {
+        this.descarregar();
+        if (deflater != null) {
+            deflater.finish();
+            while (!deflater.finished()) {
+                this.guardarComprimido(deflater.deflate(comprimido));
+            }
+            deflater.end();
+            // rodapé: CRC32 e tamanho original (mod 2^32), little-endian
+            int[] rodape = { (int) crc.getValue(), (int) descarregados };
+            for (int valor : rodape) {
+                for (int i = 0; i < 4; i++) {
+                    comprimido[i] = (byte) (valor >>> 8 * i);
+                }
+                this.guardarComprimido(4);
+            }
+            this.gravar();
+        }
+        canal.close();
+        fechada = true;
+        try {
+            Files.move(parcial, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(parcial, destino, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * sem concluir(): descarta o arquivo parcial
+     */
+    @Override
+    public void close() throws IOException {
+        if (fechada) {
+            return;
+        }
+        fechada = true;
+        if (deflater != null) {
+            deflater.end();
+        }
+        try {
+            canal.close();
+        } finally {
+            Files.deleteIfExists(parcial);
+        }
+    }
+
+    public Path getDestino() {
+        return destino;
+    }
+}
@@ -38,7 +38,7 @@ public class GuiCombo extends javax.swing.JDialog {
 
         jLabel2 = new javax.swing.JLabel();
         jButtonInserirCliente = new javax.swing.JButton();
-        jComboBoxCliente = new javax.swing.JComboBox();
+        jComboBoxCliente = new javax.swing.JComboBox<String>();
         jButtonFechar = new javax.swing.JButton();
         jLabel5 = new javax.swing.JLabel();
         jButtonExcluirCliente = new javax.swing.JButton();
@@ -60,7 +60,7 @@ public class GuiCombo extends javax.swing.JDialog {
         });
 
         jComboBoxCliente.setFont(new java.awt.Font("Tahoma", 1, 18)); // NOI18N
-        jComboBoxCliente.setModel(new javax.swing.DefaultComboBoxModel(new String[] { "Item 1", "Item 2", "Item 3", "Item 4" }));
+        jComboBoxCliente.setModel(new javax.swing.DefaultComboBoxModel<String>(new String[] { "Item 1", "Item 2", "Item 3", "Item 4" }));
         jComboBoxCliente.setToolTipText("Selecione um ou mais clientes para a reserva deste horário!");
 
         jButtonFechar.setFont(new java.awt.Font("Tahoma", 1, 18)); // NOI18N
@@ -150,7 +150,7 @@ public class GuiCombo extends javax.swing.JDialog {
         return co;
     }
 
-    public JComboBox getjComboBoxCliente() {
+    public JComboBox<String> getjComboBoxCliente() {
         return jComboBoxCliente;
     }
 
@@ -158,7 +158,7 @@ public class GuiCombo extends javax.swing.JDialog {
     private javax.swing.JButton jButtonExcluirCliente;
     private javax.swing.JButton jButtonFechar;
     private javax.swing.JButton jButtonInserirCliente;
-    private javax.swing.JComboBox jComboBoxCliente;
+    private javax.swing.JComboBox<String> jComboBoxCliente;
     private javax.swing.JLabel jLabel2;
     private javax.swing.JLabel jLabel5;
     // End of variables declaration//GEN-END:variables
@@ -0,0 +1,225 @@
+package combo.gui;
+
+import combo.bd.Alteracao;
+import combo.bd.ExecutorConsultas;
+import combo.bd.TarefaConsulta;
+import combo.bo.BoCombo;
+import combo.bo.FonteTitulos;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.AbstractListModel;
+import javax.swing.ComboBoxModel;
+import javax.swing.SwingUtilities;
+
+/**
+ * ComboBoxModel dos livros carregado em janelas: abrir o combo custa uma
+ * consulta de TAMANHO_JANELA títulos; a próxima janela só é buscada quando a
+ * lista do popup chega perto do fim. O filtro por prefixo vai para a origem
+ * como consulta limitada. As consultas rodam no ExecutorConsultas e as
+ * janelas são anexadas na EDT.
+ *
+ * A origem (índice de títulos do catálogo local ou banco, ver
+ * BoCombo.getFonteTitulos) é escolhida na primeira janela de cada filtro e
+ * mantida nas seguintes: cada uma ordena os títulos do seu jeito (bytes ou
+ * collation do banco), e a chave da janela seguinte só vale na ordem que
+ * produziu o último título.
+ *
+ * @author dlnotari
+ */
+public class ModeloComboLivros extends AbstractListModel<String> implements ComboBoxModel<String> {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int TAMANHO_JANELA = 100;
+    /** valor de protótipo (tamanho de livros.titulo): sem ele o combo mede todos os itens */
+    public static final String PROTOTIPO = "XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX";
+    private static final int MARGEM = 10;
+
+    private final BoCombo bo;
+    private final List<String[]> livros = new ArrayList<String[]>();
+    private String prefixo;
+    private boolean temMais = true;
+    private boolean carregando;
+    private Object selecionado;
+    private FonteTitulos fonte;
+    private TarefaConsulta<Janela> tarefa;
+
+    public ModeloComboLivros(BoCombo bo) {
+        this.bo = bo;
+        this.carregarJanela();
+    }
+
+    /**
+     * troca o filtro e recarrega a primeira janela
+     *
+     * @param prefixo início do título, ou vazio para todos
+     */
+    public void setFiltro(String prefixo) {
+        String novo = (prefixo == null || prefixo.trim().isEmpty()) ? null : prefixo;
+        if (novo == null ? this.prefixo == null : novo.equals(this.prefixo)) {
+            return;
+        }
+        // a janela do filtro anterior não interessa mais
+        this.cancelar();
+
+        int tamanhoAnterior = livros.size();
+        this.prefixo = novo;
+        livros.clear();
+        temMais = true;
+        if (tamanhoAnterior > 0) {
+            this.fireIntervalRemoved(this, 0, tamanhoAnterior - 1);
+        }
+        this.carregarJanela();
+    }
+
+    /**
+     * livros mudou no banco: atualizações só recarregam se tocaram um título
+     * já carregado; inclusões e remoções podem mudar a ordem e recarregam
+     *
+     * @param alteracao
+     */
+    public void aplicarAlteracao(Alteracao alteracao) {
+        if (!alteracao.afeta("livros")) {
+            return;
+        }
+        if (!alteracao.isDeslocaLinhas() && alteracao.getChaves() != null && !this.temAlgum(alteracao)) {
+            return;
+        }
+        this.cancelar();
+        int tamanhoAnterior = livros.size();
+        livros.clear();
+        temMais = true;
+        if (tamanhoAnterior > 0) {
+            this.fireIntervalRemoved(this, 0, tamanhoAnterior - 1);
+        }
+        this.carregarJanela();
+    }
+
+    private boolean temAlgum(Alteracao alteracao) {
+        for (String[] livro : livros) {
+            long codigo = Long.parseLong(livro[0].trim());
+            if (alteracao.contemAlguma(codigo, codigo)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void carregarJanela() {
+        if (carregando || !temMais) {
+            return;
+        }
+        carregando = true;
+        final String filtro = prefixo;
+        final String[] ultimo = livros.isEmpty() ? null : livros.get(livros.size() - 1);
+        final FonteTitulos mesma = ultimo == null ? null : fonte;
+        tarefa = ExecutorConsultas.getInstancia().executar(() -> {
+            FonteTitulos origem = mesma != null ? mesma : bo.getFonteTitulos();
+            return new Janela(origem, origem.listaTitulos(filtro,
+                    ultimo == null ? null : ultimo[1],
+                    ultimo == null ? 0 : Long.parseLong(ultimo[0]),
+                    TAMANHO_JANELA));
+        });
+        tarefa.naEdt(janela -> {
+            carregando = false;
+            fonte = janela.fonte;
+            this.acrescentar(janela.titulos);
+        }, erro -> {
+            carregando = false;
+            temMais = false;
+            Logger.getLogger(ModeloComboLivros.class.getName()).log(Level.SEVERE, null, erro);
+        });
+    }
+
+    /**
+     * cancela a busca em andamento (combo fechado ou substituído)
+     */
+    public void cancelar() {
+        if (tarefa != null) {
+            tarefa.cancelar();
+        }
+        carregando = false;
+    }
+
+    /**
+     * anexa uma janela lida ao fim da lista
+     */
+    private void acrescentar(List<String[]> janela) {
+        temMais = janela.size() == TAMANHO_JANELA;
+        if (janela.isEmpty()) {
+            return;
+        }
+        int inicio = livros.size();
+        livros.addAll(janela);
+        this.fireIntervalAdded(this, inicio, livros.size() - 1);
+    }
+
+    @Override
+    public int getSize() {
+        return livros.size();
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        // a lista do popup chegou perto do fim: busca a próxima janela
+        // depois da pintura atual, para não alterar o modelo durante ela
+        if (index >= livros.size() - MARGEM && temMais && !carregando) {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    carregarJanela();
+                }
+            });
+        }
+        return index < livros.size() ? livros.get(index)[1].trim() : null;
+    }
+
+    @Override
+    public void setSelectedItem(Object item) {
+        if (selecionado == null ? item != null : !selecionado.equals(item)) {
+            selecionado = item;
+            this.fireContentsChanged(this, -1, -1);
+        }
+    }
+
+    @Override
+    public Object getSelectedItem() {
+        return selecionado;
+    }
+
+    /**
+     * @return código do livro selecionado, ou null se o texto não é um título carregado
+     */
+    public Long getCodigoSelecionado() {
+        for (String[] livro : livros) {
+            if (livro[1].trim().equals(selecionado)) {
+                return Long.valueOf(livro[0].trim());
+            }
+        }
+        return null;
+    }
+
+    public String getFiltro() {
+        return prefixo;
+    }
+
+    public boolean isTemMais() {
+        return temMais;
+    }
+
+    /**
+     * janela lida e a origem que a produziu
+     */
+    private static final class Janela {
+
+        private final FonteTitulos fonte;
+        private final List<String[]> titulos;
+
+        private Janela(FonteTitulos fonte, List<String[]> titulos) {
+            this.fonte = fonte;
+            this.titulos = titulos;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package combo.gui.consulta;
+
+import combo.bd.Alteracao;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Páginas já lidas pela tela de consulta, por número e tamanho de página, e
+ * o plano de leitura antecipada das vizinhas da página exibida.
+ *
+ * Quantas páginas ler à frente acompanha o ritmo da navegação: com cliques
+ * mais rápidos que a leitura de uma página a distância cresce (até
+ * DISTANCIA_MAXIMA), com navegação lenta basta a próxima. A memória é limitada
+ * por livros.consulta.cacheBytes (estimativa de ResultadoColunar): saem as
+ * páginas usadas há mais tempo, nunca a exibida.
+ *
+ * Usada só na EDT.
+ */
+class CachePaginas {
+
+    static final int DISTANCIA_MAXIMA = 8;
+    private static final long LIMITE_BYTES = Long.getLong("livros.consulta.cacheBytes", 1 << 20);
+    /** sem cliques por mais que isto a navegação recomeça a ser medida */
+    private static final long PAUSA_MS = 3000;
+    /** peso da medida nova nas médias móveis */
+    private static final double PESO = 0.3;
+
+    private final LinkedHashMap<Long, Pagina> paginas = new LinkedHashMap<Long, Pagina>(16, 0.75f, true);
+    private long bytes;
+    private long chaveExibida = -1;
+
+    // ritmo da navegação (ms)
+    private int paginaAnterior;
+    private int direcao = 1;
+    private long ultimaNavegacao;
+    private double intervaloMedio = -1;
+    private double cargaMedia = -1;
+
+    private long acertos;
+    private long faltas;
+
+    private static class Pagina {
+        final ResultadoColunar modelo;
+        final long bytes;
+        // faixa de livros.codigo da página, se ela tem essa coluna
+        final boolean temChaves;
+        final long primeira;
+        final long ultima;
+
+        Pagina(ResultadoColunar modelo) {
+            this.modelo = modelo;
+            this.bytes = modelo.getBytesEstimados();
+            int coluna = -1;
+            for (int i = 0; i < modelo.getColumnCount(); i++) {
+                if ("codigo".equalsIgnoreCase(modelo.getColumnName(i))) {
+                    coluna = i;
+                }
+            }
+            long menor = Long.MAX_VALUE, maior = Long.MIN_VALUE;
+            for (int linha = 0; coluna >= 0 && linha < modelo.getRowCount(); linha++) {
+                Object valor = modelo.getValueAt(linha, coluna);
+                if (valor instanceof Number) {
+                    menor = Math.min(menor, ((Number) valor).longValue());
+                    maior = Math.max(maior, ((Number) valor).longValue());
+                }
+            }
+            this.temChaves = menor <= maior;
+            this.primeira = menor;
+            this.ultima = maior;
+        }
+    }
+
+    private static long chave(int pagina, int itensPorPagina) {
+        return (long) itensPorPagina << 32 | pagina;
+    }
+
+    /**
+     * registra a ida do usuário para uma página (antes de obtê-la)
+     */
+    void navegou(int pagina, int itensPorPagina) {
+        long agora = System.currentTimeMillis();
+        if (pagina != paginaAnterior && paginaAnterior > 0) {
+            direcao = pagina > paginaAnterior ? 1 : -1;
+            long intervalo = agora - ultimaNavegacao;
+            if (intervalo > PAUSA_MS || intervaloMedio < 0) {
+                intervaloMedio = Math.min(intervalo, PAUSA_MS);
+            } else {
+                intervaloMedio += PESO * (intervalo - intervaloMedio);
+            }
+        }
+        paginaAnterior = pagina;
+        ultimaNavegacao = agora;
+        chaveExibida = chave(pagina, itensPorPagina);
+    }
+
+    /**
+     * tempo de leitura de uma página, para medir o quanto antecipar
+     */
+    void registrarCarga(long ms) {
+        cargaMedia = cargaMedia < 0 ? ms : cargaMedia + PESO * (ms - cargaMedia);
+    }
+
+    /**
+     * @return a página, ou null se ainda não foi lida
+     */
+    ResultadoColunar obter(int pagina, int itensPorPagina) {
+        Pagina lida = paginas.get(chave(pagina, itensPorPagina));
+        if (lida == null) {
+            faltas++;
+            return null;
+        }
+        acertos++;
+        return lida.modelo;
+    }
+
+    boolean contem(int pagina, int itensPorPagina) {
+        return paginas.containsKey(chave(pagina, itensPorPagina));
+    }
+
+    void guardar(int pagina, int itensPorPagina, ResultadoColunar modelo) {
+        Pagina nova = new Pagina(modelo);
+        Pagina anterior = paginas.put(chave(pagina, itensPorPagina), nova);
+        bytes += nova.bytes - (anterior == null ? 0 : anterior.bytes);
+
+        Iterator<Map.Entry<Long, Pagina>> antigas = paginas.entrySet().iterator();
+        while (bytes > LIMITE_BYTES && antigas.hasNext()) {
+            Map.Entry<Long, Pagina> entrada = antigas.next();
+            if (entrada.getKey() != chaveExibida) {
+                bytes -= entrada.getValue().bytes;
+                antigas.remove();
+            }
+        }
+    }
+
+    /**
+     * @return quantas páginas ler à frente: a leitura antecipada precisa
+     * terminar antes do próximo clique
+     */
+    int getDistancia() {
+        if (intervaloMedio < 0 || cargaMedia < 0) {
+            return 1;
+        }
+        int distancia = 1 + (int) (cargaMedia / Math.max(intervaloMedio, 1));
+        return Math.min(distancia, DISTANCIA_MAXIMA);
+    }
+
+    /**
+     * páginas a ler antecipadamente, na ordem de leitura: a próxima no
+     * sentido da navegação, a anterior no sentido oposto e as demais à frente
+     *
+     * @param pagina página exibida
+     * @param itensPorPagina
+     * @param totalPaginas
+     * @return páginas ainda não lidas
+     */
+    int[] planejar(int pagina, int itensPorPagina, int totalPaginas) {
+        List<Integer> plano = new ArrayList<Integer>();
+        int distancia = this.getDistancia();
+        for (int i = 1; i <= distancia; i++) {
+            plano.add(pagina + direcao * i);
+            if (i == 1) {
+                plano.add(pagina - direcao);
+            }
+        }
+        int[] faltantes = new int[plano.size()];
+        int n = 0;
+        for (int vizinha : plano) {
+            if (vizinha >= 1 && vizinha <= totalPaginas && !this.contem(vizinha, itensPorPagina)) {
+                faltantes[n++] = vizinha;
+            }
+        }
+        return Arrays.copyOf(faltantes, n);
+    }
+
+    /**
+     * descarta as páginas que uma alteração em livros pode ter mudado:
+     * atualizações só as que contêm as chaves alteradas, inclusões e remoções
+     * as que vêm depois da menor chave (as linhas se deslocam)
+     */
+    void aplicarAlteracao(Alteracao alteracao) {
+        long[] chaves = alteracao.getChaves();
+        if (chaves == null) {
+            this.limpar();
+            return;
+        }
+        long menor = Long.MAX_VALUE;
+        for (long chave : chaves) {
+            menor = Math.min(menor, chave);
+        }
+        Iterator<Pagina> todas = paginas.values().iterator();
+        while (todas.hasNext()) {
+            Pagina pagina = todas.next();
+            boolean afetada = !pagina.temChaves
+                    || (alteracao.isDeslocaLinhas() ? menor <= pagina.ultima
+                            : alteracao.contemAlguma(pagina.primeira, pagina.ultima));
+            if (afetada) {
+                bytes -= pagina.bytes;
+                todas.remove();
+            }
+        }
+    }
+
+    void limpar() {
+        paginas.clear();
+        bytes = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CachePaginas[%d páginas, %d bytes, distância %d, acertos %d, faltas %d]",
+                paginas.size(), bytes, this.getDistancia(), acertos, faltas);
+    }
+}
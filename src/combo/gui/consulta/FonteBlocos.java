@@ -0,0 +1,25 @@
+package combo.gui.consulta;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * origem de dados do ModeloTabelaVirtual: informa o tamanho do resultado e
+ * entrega blocos de linhas sob demanda
+ *
+ * @author felipe.bogo
+ */
+public interface FonteBlocos {
+
+    public String[] getColunas() throws SQLException;
+
+    public int getQuantidadeLinhas() throws SQLException;
+
+    /**
+     * @param inicio primeira linha do bloco (base 0)
+     * @param tamanho quantidade máxima de linhas
+     * @return linhas do bloco, cada uma com uma célula por coluna
+     * @throws SQLException
+     */
+    public List<Object[]> buscarBloco(int inicio, int tamanho) throws SQLException;
+}
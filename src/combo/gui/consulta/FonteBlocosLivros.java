@@ -0,0 +1,53 @@
+package combo.gui.consulta;
+
+import combo.dao.ConsultaDAO;
+import combo.dao.PaginadorKeyset;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * blocos da tabela livros lidos direto do banco: cada bloco é uma página do
+ * PaginadorKeyset, então só o bloco visível fica em memória
+ */
+public class FonteBlocosLivros implements FonteBlocos {
+
+    private static final String[] COLUNAS = { "codigo", "titulo" };
+
+    private final ConsultaDAO dao;
+    private final PaginadorKeyset paginador;
+    private final int tamanhoBloco;
+
+    public FonteBlocosLivros(ConsultaDAO dao, int tamanhoBloco) {
+        this.dao = dao;
+        this.tamanhoBloco = tamanhoBloco;
+        this.paginador = new PaginadorKeyset(dao, tamanhoBloco);
+    }
+
+    @Override
+    public String[] getColunas() {
+        return COLUNAS;
+    }
+
+    @Override
+    public int getQuantidadeLinhas() {
+        int total = dao.getTotalRegistros();
+        paginador.setTotalRegistros(total);
+        return total;
+    }
+
+    @Override
+    public List<Object[]> buscarBloco(int inicio, int tamanho) throws SQLException {
+        if (tamanho != tamanhoBloco || inicio % tamanhoBloco != 0) {
+            throw new SQLException("Bloco fora do alinhamento das páginas: " + inicio + "/" + tamanho);
+        }
+        List<Object[]> linhas = new ArrayList<Object[]>(tamanho);
+        try (ResultSet rs = paginador.carregarPagina(inicio / tamanhoBloco + 1)) {
+            while (rs.next()) {
+                linhas.add(new Object[] { rs.getLong(1), rs.getString(2).trim() });
+            }
+        }
+        return linhas;
+    }
+}
@@ -0,0 +1,72 @@
+package combo.gui.consulta;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * blocos lidos de um ResultSet rolável, posicionando com absolute()
+ *
+ * @author felipe.bogo
+ */
+public class FonteBlocosResultSet implements FonteBlocos {
+
+    private final ResultSet consulta;
+    private String[] colunas;
+    private int[] tipos;
+    private int quantidade = -1;
+
+    public FonteBlocosResultSet(ResultSet consulta) {
+        this.consulta = consulta;
+    }
+
+    @Override
+    public synchronized String[] getColunas() throws SQLException {
+        if (colunas == null) {
+            ResultSetMetaData meta = consulta.getMetaData();
+            colunas = new String[meta.getColumnCount()];
+            tipos = new int[colunas.length];
+            for (int j = 0; j < colunas.length; j++) {
+                colunas[j] = meta.getColumnLabel(j + 1);
+                tipos[j] = meta.getColumnType(j + 1);
+            }
+        }
+        return colunas;
+    }
+
+    @Override
+    public synchronized int getQuantidadeLinhas() throws SQLException {
+        if (quantidade < 0) {
+            quantidade = consulta.last() ? consulta.getRow() : 0;
+        }
+        return quantidade;
+    }
+
+    @Override
+    public synchronized List<Object[]> buscarBloco(int inicio, int tamanho) throws SQLException {
+        int numColunas = this.getColunas().length;
+        List<Object[]> linhas = new ArrayList<Object[]>(tamanho);
+
+        // posiciona antes da primeira linha do bloco
+        if (inicio == 0) {
+            consulta.beforeFirst();
+        } else if (!consulta.absolute(inicio)) {
+            return linhas;
+        }
+
+        while (linhas.size() < tamanho && consulta.next()) {
+            Object[] linha = new Object[numColunas];
+            for (int j = 0; j < numColunas; j++) {
+                linha[j] = GuiMontarJTable.lerCelula(consulta, j + 1, tipos[j]);
+            }
+            linhas.add(linha);
+        }
+        return linhas;
+    }
+
+    public ResultSet getConsulta() {
+        return consulta;
+    }
+}
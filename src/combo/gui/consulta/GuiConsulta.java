@@ -1,26 +1,67 @@
 package combo.gui.consulta;
 
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import combo.bd.Alteracao;
+import combo.bd.CanalAlteracoes;
+import combo.bd.ExecutorConsultas;
+import combo.bd.OuvinteAlteracao;
+import combo.bd.TarefaConsulta;
+import combo.catalogo.CatalogoLocal;
+import combo.catalogo.InstantaneoCatalogo;
 import combo.dao.ConsultaDAO;
+import combo.dao.Contagem;
+import combo.dao.DaoPesquisa;
+import combo.dao.ModoContagem;
+import combo.dao.PaginadorKeyset;
 
 public class GuiConsulta extends JDialog {
 
+    private static final long serialVersionUID = 1L;
+
+    /** a pesquisa dispara sozinha a partir deste tamanho; menores só com Enter */
+    private static final int MINIMO_PESQUISA = 3;
+    private static final int ATRASO_PESQUISA_MS = 300;
+
     private JTable tabela;
     private JScrollPane scrollPane;
     private JLabel lblPagina;
     private JButton btnPrimeira, btnAnterior, btnProxima, btnUltima;
+    private JTextField txtPesquisa;
+    private Timer atrasoPesquisa;
     private int paginaAtual = 1;
     private final int itensPorPagina = 10;
-    private int totalPaginas;
+    // até a contagem chegar: uma página, total ainda desconhecido
+    private int totalPaginas = 1;
+    private boolean totalEstimado = true;
     private ConsultaDAO dao;
+    private PaginadorKeyset paginador;
+    private DaoPesquisa pesquisa;
+    // texto pesquisado; null mostra todos os livros pelo paginador
+    private String termo;
+    private TarefaConsulta<ResultadoColunar> tarefaPagina;
+    private TarefaConsulta<Contagem> tarefaContagem;
+    // páginas lidas e lidas antecipadamente; só a EDT mexe no cache
+    private final CachePaginas cache = new CachePaginas();
+    private TarefaConsulta<Integer> tarefaPrecarga;
+    // muda quando as páginas guardadas deixam de valer (pesquisa, alteração)
+    private volatile int versaoDados;
+    // muda a cada novo plano de leitura antecipada
+    private volatile int planoPrecarga;
+    private final OuvinteAlteracao ouvinteAlteracao = alteracao ->
+            SwingUtilities.invokeLater(() -> aplicarAlteracao(alteracao));
 
     public GuiConsulta(Frame parent, boolean modal, String title) {
         super(parent, modal);
         dao = new ConsultaDAO();
+        paginador = new PaginadorKeyset(dao, itensPorPagina);
+        pesquisa = new DaoPesquisa(dao.getPool());
         atualizarTotalPaginas(); // Calcula o total de páginas
 
         initComponents();
@@ -32,6 +73,9 @@ public class GuiConsulta extends JDialog {
         // Carrega a primeira página imediatamente
         carregarPagina(1);
         atualizarBotoes();
+
+        // escritas de outros clientes chegam pelo canal do banco
+        CanalAlteracoes.adicionarOuvinte(ouvinteAlteracao);
     }
 
     private void initComponents() {
@@ -41,6 +85,37 @@ public class GuiConsulta extends JDialog {
         scrollPane = new JScrollPane(tabela);
         add(scrollPane, BorderLayout.CENTER);
 
+        // pesquisa por título ou autor, feita no banco enquanto se digita
+        JPanel pesquisaPanel = new JPanel(new BorderLayout(5, 0));
+        txtPesquisa = new JTextField();
+        pesquisaPanel.add(new JLabel("Pesquisar título ou autor:"), BorderLayout.WEST);
+        pesquisaPanel.add(txtPesquisa, BorderLayout.CENTER);
+        pesquisaPanel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+        add(pesquisaPanel, BorderLayout.NORTH);
+
+        atrasoPesquisa = new Timer(ATRASO_PESQUISA_MS, e -> pesquisar(false));
+        atrasoPesquisa.setRepeats(false);
+        txtPesquisa.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                atrasoPesquisa.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                atrasoPesquisa.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                atrasoPesquisa.restart();
+            }
+        });
+        txtPesquisa.addActionListener(e -> {
+            atrasoPesquisa.stop();
+            pesquisar(true);
+        });
+
         JPanel paginationPanel = new JPanel();
         btnPrimeira = new JButton("<<");
         btnAnterior = new JButton("<");
@@ -64,10 +139,47 @@ public class GuiConsulta extends JDialog {
         btnUltima.addActionListener(e -> mudarPagina(totalPaginas));
     }
 
+    /**
+     * mostra a estimativa do total e troca pela contagem exata quando ela
+     * chegar; as duas vêm em segundo plano (a tela não espera o banco) e, com
+     * o catálogo local em dia, o total exato vem dele
+     */
     private void atualizarTotalPaginas() {
-        int totalItens = dao.getTotalRegistros();
+        InstantaneoCatalogo local = CatalogoLocal.getInstantaneo();
+        if (local != null) {
+            aplicarTotal(new Contagem(local.getLivros(), true));
+            return;
+        }
+        ExecutorConsultas.getInstancia()
+                .executar(() -> dao.getContagem(ModoContagem.ESTIMADO))
+                .naEdt(inicial -> {
+                    aplicarTotal(inicial);
+                    if (!inicial.isExata()) {
+                        ExecutorConsultas.getInstancia()
+                                .executar(() -> dao.getContagem(ModoContagem.CACHE))
+                                .naEdt(this::aplicarTotal, erro -> Logger.getLogger(GuiConsulta.class.getName())
+                                        .log(Level.SEVERE, null, erro));
+                    }
+                }, erro -> Logger.getLogger(GuiConsulta.class.getName()).log(Level.SEVERE, null, erro));
+    }
+
+    private void aplicarTotal(Contagem contagem) {
+        paginador.setTotalRegistros((int) contagem.getValor(), contagem.isExata());
+        if (termo == null) {
+            mostrarTotal(contagem);
+        }
+    }
+
+    private void mostrarTotal(Contagem contagem) {
+        int totalItens = (int) contagem.getValor();
+        totalEstimado = !contagem.isExata();
         totalPaginas = (int) Math.ceil((double) totalItens / itensPorPagina);
         totalPaginas = Math.max(totalPaginas, 1);
+
+        if (lblPagina != null) {
+            updateLabel();
+            atualizarBotoes();
+        }
     }
 
     private void mudarPagina(int novaPagina) {
@@ -80,31 +192,204 @@ public class GuiConsulta extends JDialog {
         }
     }
 
-    private void carregarPagina(int pagina) {
-        try {
-            paginaAtual = Math.max(1, Math.min(pagina, totalPaginas));
-            int offset = (paginaAtual - 1) * itensPorPagina;
-
-            ResultSet rs = dao.getDadosPaginadosAsResultSet(offset, itensPorPagina);
-            GuiMontarJTable montador = new GuiMontarJTable(rs);
-            DefaultTableModel modelo = montador.criaTabela();
+    /**
+     * troca o texto pesquisado: vazio volta à lista completa
+     *
+     * @param forcar Enter pesquisa mesmo textos curtos
+     */
+    private void pesquisar(boolean forcar) {
+        String texto = txtPesquisa.getText().trim();
+        String novo = texto.isEmpty() ? null : texto;
+        if (novo != null && novo.length() < MINIMO_PESQUISA && !forcar) {
+            return;
+        }
+        if (novo == null ? termo == null : novo.equals(termo)) {
+            return;
+        }
+        termo = novo;
+        paginaAtual = 1;
+        this.descartarPaginas();
+        if (termo == null) {
+            atualizarTotalPaginas();
+        } else {
+            contarResultados();
+        }
+        carregarPagina(1);
+    }
 
-            if (modelo != null) {
-                tabela.setModel(modelo);
+    /**
+     * total de livros encontrados, limitado a DaoPesquisa.LIMITE_CONTAGEM
+     */
+    private void contarResultados() {
+        if (tarefaContagem != null) {
+            tarefaContagem.cancelar();
+        }
+        final String pesquisado = termo;
+        tarefaContagem = ExecutorConsultas.getInstancia().executar(() -> pesquisa.contar(pesquisado));
+        tarefaContagem.naEdt(contagem -> {
+            if (pesquisado.equals(termo)) {
+                mostrarTotal(contagem);
             }
+        }, erro -> Logger.getLogger(GuiConsulta.class.getName()).log(Level.SEVERE, null, erro));
+    }
 
-            updateLabel();
-            atualizarBotoes();
+    private void carregarPagina(int pagina) {
+        paginaAtual = Math.max(1, Math.min(pagina, totalPaginas));
+        updateLabel();
+        atualizarBotoes();
 
-        } catch (SQLException e) {
+        // a página pedida antes desta não interessa mais
+        if (tarefaPagina != null) {
+            tarefaPagina.cancelar();
+        }
+
+        cache.navegou(paginaAtual, itensPorPagina);
+        ResultadoColunar lida = cache.obter(paginaAtual, itensPorPagina);
+        if (lida != null) {
+            tabela.setModel(lida);
+            precarregar();
+            return;
+        }
+
+        // a leitura antecipada daria a mesma conexão a páginas que talvez não
+        // sejam vistas: a página pedida passa na frente
+        if (tarefaPrecarga != null) {
+            tarefaPrecarga.cancelar();
+        }
+        final int paginaPedida = paginaAtual;
+        final String pesquisado = termo;
+        final int versao = versaoDados;
+        final long inicio = System.nanoTime();
+        tarefaPagina = ExecutorConsultas.getInstancia().executar(() -> lerPagina(paginaPedida, pesquisado, true));
+        tarefaPagina.naEdt(modelo -> {
+            if (versao == versaoDados) {
+                cache.registrarCarga((System.nanoTime() - inicio) / 1000000);
+                cache.guardar(paginaPedida, itensPorPagina, modelo);
+            }
+            tabela.setModel(modelo);
+            precarregar();
+        }, e -> {
             JOptionPane.showMessageDialog(this, "Erro ao carregar dados: " + e.getMessage(),
                     "Erro", JOptionPane.ERROR_MESSAGE);
-            e.printStackTrace();
+            Logger.getLogger(GuiConsulta.class.getName()).log(Level.SEVERE, null, e);
+        });
+    }
+
+    /**
+     * lê uma página fora da EDT, já no modelo da tabela; sem pesquisa, do
+     * catálogo local quando ele está em dia
+     *
+     * @param exibida false na leitura antecipada, que não move a página
+     * exibida do paginador
+     */
+    private ResultadoColunar lerPagina(int pagina, String pesquisado, boolean exibida) throws SQLException {
+        InstantaneoCatalogo local = pesquisado == null ? CatalogoLocal.getInstantaneo() : null;
+        try (ResultSet rs = local != null
+                ? local.getPagina(pagina, itensPorPagina)
+                : pesquisado == null
+                ? (exibida ? paginador.carregarPagina(pagina) : paginador.precarregarPagina(pagina))
+                : pesquisa.pesquisar(pesquisado, itensPorPagina, (pagina - 1) * itensPorPagina)) {
+            rs.beforeFirst();
+            return new ResultadoColunar(rs);
+        }
+    }
+
+    /**
+     * lê em segundo plano, uma por vez, as vizinhas da página exibida que
+     * CachePaginas planejar; um novo plano encerra o anterior depois da
+     * página que ele está lendo (que ainda vai para o cache)
+     */
+    private void precarregar() {
+        final int plano = ++planoPrecarga;
+        final int[] paginas = cache.planejar(paginaAtual, itensPorPagina, totalPaginas);
+        if (paginas.length == 0) {
+            return;
+        }
+        final String pesquisado = termo;
+        final int versao = versaoDados;
+        tarefaPrecarga = ExecutorConsultas.getInstancia().executar(() -> {
+            int lidas = 0;
+            for (final int pagina : paginas) {
+                if (plano != planoPrecarga || versao != versaoDados) {
+                    break;
+                }
+                long inicio = System.nanoTime();
+                final ResultadoColunar modelo = lerPagina(pagina, pesquisado, false);
+                final long ms = (System.nanoTime() - inicio) / 1000000;
+                SwingUtilities.invokeLater(() -> {
+                    if (versao == versaoDados) {
+                        cache.registrarCarga(ms);
+                        cache.guardar(pagina, itensPorPagina, modelo);
+                    }
+                });
+                lidas++;
+            }
+            return lidas;
+        });
+        // cancelamentos chegam aqui como "Consulta cancelada": a página será lida se pedida
+        tarefaPrecarga.naEdt(lidas -> { }, erro -> Logger.getLogger(GuiConsulta.class.getName())
+                .log(Level.FINE, "leitura antecipada interrompida", erro));
+    }
+
+    /**
+     * as páginas guardadas deixaram de valer (outra pesquisa)
+     */
+    private void descartarPaginas() {
+        versaoDados++;
+        cache.limpar();
+        if (tarefaPrecarga != null) {
+            tarefaPrecarga.cancelar();
         }
     }
 
+    /**
+     * livros mudou no banco: relê a página exibida só se ela foi afetada e o
+     * total só se linhas entraram ou saíram
+     */
+    private void aplicarAlteracao(Alteracao alteracao) {
+        if (!isDisplayable() || !alteracao.afeta("livros")) {
+            return;
+        }
+        paginador.aplicarAlteracao(alteracao);
+        if (termo != null) {
+            this.descartarPaginas();
+            // a ordem por relevância não deixa saber onde o livro entrou: relê
+            carregarPagina(paginaAtual);
+            if (alteracao.isDeslocaLinhas()) {
+                contarResultados();
+            }
+            return;
+        }
+        // páginas alteradas saem do cache; a exibida é relida se saiu
+        versaoDados++;
+        cache.aplicarAlteracao(alteracao);
+        if (!cache.contem(paginaAtual, itensPorPagina)) {
+            carregarPagina(paginaAtual);
+        }
+        if (alteracao.isDeslocaLinhas()) {
+            atualizarTotalPaginas();
+        }
+    }
+
+    @Override
+    public void dispose() {
+        CanalAlteracoes.removerOuvinte(ouvinteAlteracao);
+        atrasoPesquisa.stop();
+
+        // fechou a tela: cancela as consultas em andamento
+        if (tarefaPagina != null) {
+            tarefaPagina.cancelar();
+        }
+        if (tarefaContagem != null) {
+            tarefaContagem.cancelar();
+        }
+        this.descartarPaginas();
+        super.dispose();
+    }
+
     private void updateLabel() {
-        lblPagina.setText(String.format("Página %d de %d", paginaAtual, totalPaginas));
+        lblPagina.setText(String.format("%sPágina %d de %s%d", termo != null ? "Pesquisa: " : "",
+                paginaAtual, totalEstimado ? "cerca de " : "", totalPaginas));
     }
 
     private void atualizarBotoes() {
@@ -120,6 +405,10 @@ public class GuiConsulta extends JDialog {
     }
 
     public void setjTable(JTable tabela) {
+        // outra tabela assumiu a tela: a página em andamento não deve sobrescrevê-la
+        if (tarefaPagina != null) {
+            tarefaPagina.cancelar();
+        }
         this.tabela = tabela;
     }
 
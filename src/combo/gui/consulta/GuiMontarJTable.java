@@ -4,6 +4,7 @@
  */
 package combo.gui.consulta;
 
+import combo.bd.MetricasConsultas;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -46,6 +47,7 @@ public class GuiMontarJTable {
 
         // variáveis locais
         DefaultTableModel dataModel;
+        long inicio = System.nanoTime();
         boolean registros = this.consulta.next();
 
         // testa quantidade de registros
@@ -59,6 +61,8 @@ public class GuiMontarJTable {
 
         // montar linhas
         this.montarLinhas(dataModel);
+        MetricasConsultas.registrarMontagem(GuiMontarJTable.class.getSimpleName(),
+                System.nanoTime() - inicio, dataModel.getRowCount());
 
         // retorna
         return dataModel;
@@ -105,32 +109,7 @@ public class GuiMontarJTable {
             vetorLinhas = new Object[numColunas];
             while (consulta.next()) {
                 for (int j = 0; j < numColunas; j++) {
-                    switch (meta.getColumnType(j + 1)) {
-                        case Types.VARCHAR:
-                            vetorLinhas[j] = consulta.getString(j + 1).trim();
-                            break;
-                        case Types.CHAR:
-                            vetorLinhas[j] = consulta.getString(j + 1).trim();
-                            break;
-                        case Types.INTEGER:
-                            vetorLinhas[j] = consulta.getInt(j + 1);
-                            break;
-                        case Types.DATE:
-                            vetorLinhas[j] = consulta.getDate(j + 1);
-                            break;
-                        case Types.TIMESTAMP:
-                            vetorLinhas[j] = consulta.getDate(j + 1);
-                            break;
-                        case Types.DOUBLE:
-                            vetorLinhas[j] = consulta.getDouble(j + 1);
-                            break;
-                        case Types.BOOLEAN:
-                            vetorLinhas[j] = consulta.getBoolean(j + 1);
-                            break;
-                        default:
-                            vetorLinhas[j] = consulta.getString(j + 1).trim();
-                            break;
-                    }
+                    vetorLinhas[j] = lerCelula(consulta, j + 1, meta.getColumnType(j + 1));
                 }
 
                 // adiciona linha ao data model
@@ -141,4 +120,36 @@ public class GuiMontarJTable {
                     "Consulta de Informações", JOptionPane.ERROR_MESSAGE);
         }
     }
+
+    /**
+     * converte a célula da linha atual conforme o tipo SQL da coluna
+     *
+     * @param consulta
+     * @param coluna índice base 1
+     * @param tipo java.sql.Types
+     * @return
+     * @throws SQLException
+     */
+    static Object lerCelula(ResultSet consulta, int coluna, int tipo) throws SQLException {
+        switch (tipo) {
+            case Types.VARCHAR:
+            case Types.CHAR:
+                return aparar(consulta.getString(coluna));
+            case Types.INTEGER:
+                return consulta.getInt(coluna);
+            case Types.DATE:
+            case Types.TIMESTAMP:
+                return consulta.getDate(coluna);
+            case Types.DOUBLE:
+                return consulta.getDouble(coluna);
+            case Types.BOOLEAN:
+                return consulta.getBoolean(coluna);
+            default:
+                return aparar(consulta.getString(coluna));
+        }
+    }
+
+    private static String aparar(String valor) {
+        return valor == null ? null : valor.trim();
+    }
 }
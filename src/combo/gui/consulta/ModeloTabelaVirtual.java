@@ -0,0 +1,189 @@
+package combo.gui.consulta;
+
+import combo.bd.ExecutorConsultas;
+import combo.bd.TarefaConsulta;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * TableModel com rolagem virtual: conhece a quantidade de linhas de antemão
+ * e busca blocos de tamanho fixo conforme a JTable pede células. Os blocos
+ * ficam num cache LRU limitado por uma estimativa de bytes; enquanto um bloco
+ * não chega a célula mostra "...".
+ *
+ * O cache e os pedidos pendentes só são tocados na EDT; a busca roda no
+ * ExecutorConsultas e descarta pedidos de blocos que já saíram da tela.
+ *
+ * @author felipe.bogo
+ */
+public class ModeloTabelaVirtual extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int TAMANHO_BLOCO_PADRAO = 200;
+    public static final long LIMITE_MEMORIA_PADRAO = 16L * 1024 * 1024;
+    private static final Object CARREGANDO = "...";
+    private static final int DISTANCIA_MAXIMA_PEDIDO = 2;
+
+    private final FonteBlocos fonte;
+    private final String[] colunas;
+    private final int linhas;
+    private final int tamanhoBloco;
+    private final long limiteBytes;
+    private final LinkedHashMap<Integer, Bloco> blocos = new LinkedHashMap<Integer, Bloco>(16, 0.75f, true);
+    private final Map<Integer, TarefaConsulta<List<Object[]>>> pendentes =
+            new HashMap<Integer, TarefaConsulta<List<Object[]>>>();
+    private long bytesEmCache;
+    private volatile int ultimoBlocoVisto;
+
+    public ModeloTabelaVirtual(FonteBlocos fonte) throws SQLException {
+        this(fonte, TAMANHO_BLOCO_PADRAO, LIMITE_MEMORIA_PADRAO);
+    }
+
+    public ModeloTabelaVirtual(FonteBlocos fonte, int tamanhoBloco, long limiteBytes) throws SQLException {
+        this.fonte = fonte;
+        this.colunas = fonte.getColunas();
+        this.linhas = fonte.getQuantidadeLinhas();
+        this.tamanhoBloco = tamanhoBloco;
+        this.limiteBytes = limiteBytes;
+    }
+
+    @Override
+    public int getRowCount() {
+        return linhas;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return colunas.length;
+    }
+
+    @Override
+    public String getColumnName(int coluna) {
+        return colunas[coluna];
+    }
+
+    @Override
+    public Object getValueAt(int linha, int coluna) {
+        int numero = linha / tamanhoBloco;
+        ultimoBlocoVisto = numero;
+
+        Bloco bloco = blocos.get(numero);
+        if (bloco == null) {
+            this.solicitar(numero);
+            return CARREGANDO;
+        }
+
+        // lê adiantado o próximo bloco quando a rolagem passa da metade
+        if (linha % tamanhoBloco > tamanhoBloco / 2 && !blocos.containsKey(numero + 1)) {
+            this.solicitar(numero + 1);
+        }
+
+        int indice = linha % tamanhoBloco;
+        return indice < bloco.linhas.length ? bloco.linhas[indice][coluna] : null;
+    }
+
+    /**
+     * @return true se a linha já está em memória
+     */
+    public boolean isCarregada(int linha) {
+        return blocos.containsKey(linha / tamanhoBloco);
+    }
+
+    private void solicitar(final int numero) {
+        if (numero * tamanhoBloco >= linhas || pendentes.containsKey(numero)) {
+            return;
+        }
+        TarefaConsulta<List<Object[]>> tarefa = ExecutorConsultas.getInstancia().executar(() -> {
+            // a tela já rolou para longe: não busca
+            if (Math.abs(numero - ultimoBlocoVisto) > DISTANCIA_MAXIMA_PEDIDO) {
+                return null;
+            }
+            return fonte.buscarBloco(numero * tamanhoBloco, tamanhoBloco);
+        });
+        pendentes.put(numero, tarefa);
+        tarefa.naEdt(lidas -> {
+            pendentes.remove(numero);
+            if (lidas != null) {
+                armazenar(numero, lidas);
+            }
+        }, erro -> {
+            pendentes.remove(numero);
+            Logger.getLogger(ModeloTabelaVirtual.class.getName()).log(Level.SEVERE, null, erro);
+        });
+    }
+
+    private void armazenar(int numero, List<Object[]> lidas) {
+        Bloco bloco = new Bloco(lidas.toArray(new Object[lidas.size()][]));
+        blocos.put(numero, bloco);
+        bytesEmCache += bloco.bytes;
+
+        // descarta os menos usados até caber no limite (mantém o recém-lido)
+        Iterator<Map.Entry<Integer, Bloco>> it = blocos.entrySet().iterator();
+        while (bytesEmCache > limiteBytes && blocos.size() > 1 && it.hasNext()) {
+            Map.Entry<Integer, Bloco> antigo = it.next();
+            if (antigo.getKey() != numero) {
+                bytesEmCache -= antigo.getValue().bytes;
+                it.remove();
+            }
+        }
+
+        int inicio = numero * tamanhoBloco;
+        int fim = Math.min(inicio + tamanhoBloco, linhas) - 1;
+        this.fireTableRowsUpdated(inicio, fim);
+    }
+
+    /**
+     * cancela as buscas pendentes; o modelo não deve mais ser usado
+     */
+    public void fechar() {
+        for (TarefaConsulta<List<Object[]>> tarefa : pendentes.values()) {
+            tarefa.cancelar();
+        }
+        pendentes.clear();
+    }
+
+    public long getBytesEmCache() {
+        return bytesEmCache;
+    }
+
+    public int getBlocosEmCache() {
+        return blocos.size();
+    }
+
+    public FonteBlocos getFonte() {
+        return fonte;
+    }
+
+    /**
+     * bloco de linhas com seu tamanho estimado em bytes
+     */
+    private static final class Bloco {
+
+        private final Object[][] linhas;
+        private final long bytes;
+
+        private Bloco(Object[][] linhas) {
+            this.linhas = linhas;
+            long total = 16;
+            for (Object[] linha : linhas) {
+                total += 16 + 4L * linha.length;
+                for (Object celula : linha) {
+                    if (celula instanceof String) {
+                        total += 40 + 2L * ((String) celula).length();
+                    } else if (celula != null) {
+                        total += 24;
+                    }
+                }
+            }
+            this.bytes = total;
+        }
+    }
+}
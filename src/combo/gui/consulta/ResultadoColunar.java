@@ -0,0 +1,330 @@
+package combo.gui.consulta;
+
+import combo.bd.MetricasConsultas;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Resultado de consulta guardado por colunas, exposto como TableModel.
+ *
+ * Colunas inteiras (INTEGER, SMALLINT, BIGINT, NUMERIC sem casas de até 18
+ * dígitos) ficam num int[] (long[] se algum valor não couber); colunas de texto ficam codificadas por
+ * dicionário: um int por linha apontando para o valor distinto, já aparado.
+ * O dicionário é indexado pelo texto como veio do banco, então o
+ * preenchimento de CHAR só é aparado uma vez por valor distinto. Os demais
+ * tipos ficam em Object[], convertidos como em GuiMontarJTable.
+ *
+ * @author felipe.bogo
+ */
+public class ResultadoColunar extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+    private static final int CAPACIDADE_INICIAL = 64;
+
+    private final String[] nomes;
+    private final Coluna[] colunas;
+    private int linhas;
+
+    /**
+     * lê o ResultSet da posição atual até o fim (serve para resultados
+     * TYPE_FORWARD_ONLY); não fecha o ResultSet
+     *
+     * @param consulta
+     * @throws SQLException
+     */
+    public ResultadoColunar(ResultSet consulta) throws SQLException {
+        long inicio = System.nanoTime();
+        ResultSetMetaData meta = consulta.getMetaData();
+        int numColunas = meta.getColumnCount();
+
+        nomes = new String[numColunas];
+        colunas = new Coluna[numColunas];
+        for (int j = 0; j < numColunas; j++) {
+            nomes[j] = meta.getColumnLabel(j + 1);
+            colunas[j] = criarColuna(meta, j + 1);
+        }
+
+        while (consulta.next()) {
+            for (Coluna coluna : colunas) {
+                coluna.ler(consulta, linhas);
+            }
+            linhas++;
+        }
+        for (Coluna coluna : colunas) {
+            coluna.ajustar(linhas);
+        }
+        MetricasConsultas.registrarMontagem(ResultadoColunar.class.getSimpleName(),
+                System.nanoTime() - inicio, linhas);
+    }
+
+    private static Coluna criarColuna(ResultSetMetaData meta, int coluna) throws SQLException {
+        int tipo = meta.getColumnType(coluna);
+        switch (tipo) {
+            case Types.INTEGER:
+            case Types.SMALLINT:
+            case Types.TINYINT:
+            case Types.BIGINT:
+                return new ColunaInteiros(coluna, tipo);
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                // NUMERIC(p, 0) que cabe em long vira inteiro; com casas
+                // decimais ou sem precisão declarada fica como objeto
+                int precisao = meta.getPrecision(coluna);
+                return meta.getScale(coluna) == 0 && precisao > 0 && precisao <= 18
+                        ? new ColunaInteiros(coluna, tipo) : new ColunaObjetos(coluna, tipo);
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGVARCHAR:
+                return new ColunaDicionario(coluna);
+            default:
+                return new ColunaObjetos(coluna, tipo);
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return linhas;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return colunas.length;
+    }
+
+    @Override
+    public String getColumnName(int coluna) {
+        return nomes[coluna];
+    }
+
+    @Override
+    public Object getValueAt(int linha, int coluna) {
+        return colunas[coluna].valor(linha);
+    }
+
+    /**
+     * @return quantidade de valores distintos da coluna, ou -1 se ela não é
+     * codificada por dicionário
+     */
+    public int getDistintos(int coluna) {
+        return colunas[coluna] instanceof ColunaDicionario
+                ? ((ColunaDicionario) colunas[coluna]).distintos.length : -1;
+    }
+
+    /**
+     * @return estimativa dos bytes ocupados no heap pelos dados
+     */
+    public long getBytesEstimados() {
+        long total = 0;
+        for (Coluna coluna : colunas) {
+            total += coluna.bytes();
+        }
+        return total;
+    }
+
+    /**
+     * uma coluna do resultado; linha base 0
+     */
+    private abstract static class Coluna {
+
+        protected final int indice;
+
+        protected Coluna(int indice) {
+            this.indice = indice;
+        }
+
+        abstract void ler(ResultSet consulta, int linha) throws SQLException;
+
+        /** descarta a sobra de capacidade depois da leitura */
+        abstract void ajustar(int linhas);
+
+        abstract Object valor(int linha);
+
+        abstract long bytes();
+
+        static int crescer(int capacidade, int linha) {
+            return linha < capacidade ? capacidade : Math.max(CAPACIDADE_INICIAL, capacidade * 2);
+        }
+    }
+
+    private static final class ColunaInteiros extends Coluna {
+
+        private final int tipo;
+        private int[] valores = new int[CAPACIDADE_INICIAL];
+        private long[] largos;
+        private BitSet nulos;
+
+        private ColunaInteiros(int indice, int tipo) {
+            super(indice);
+            this.tipo = tipo;
+        }
+
+        @Override
+        void ler(ResultSet consulta, int linha) throws SQLException {
+            int capacidade = crescer(largos != null ? largos.length : valores.length, linha);
+            long valor = consulta.getLong(indice);
+            if (consulta.wasNull()) {
+                if (nulos == null) {
+                    nulos = new BitSet();
+                }
+                nulos.set(linha);
+            }
+
+            if (largos == null && (valor < Integer.MIN_VALUE || valor > Integer.MAX_VALUE)) {
+                // passou do int: a coluna inteira passa a long
+                largos = new long[capacidade];
+                for (int i = 0; i < linha; i++) {
+                    largos[i] = valores[i];
+                }
+                valores = null;
+            }
+            if (largos != null) {
+                if (capacidade > largos.length) {
+                    largos = Arrays.copyOf(largos, capacidade);
+                }
+                largos[linha] = valor;
+            } else {
+                if (capacidade > valores.length) {
+                    valores = Arrays.copyOf(valores, capacidade);
+                }
+                valores[linha] = (int) valor;
+            }
+        }
+
+        @Override
+        void ajustar(int linhas) {
+            if (largos != null) {
+                largos = Arrays.copyOf(largos, linhas);
+            } else {
+                valores = Arrays.copyOf(valores, linhas);
+            }
+        }
+
+        @Override
+        Object valor(int linha) {
+            if (nulos != null && nulos.get(linha)) {
+                return null;
+            }
+            long valor = largos != null ? largos[linha] : valores[linha];
+            // mesmo tipo que o driver devolveria pelo getObject
+            switch (tipo) {
+                case Types.NUMERIC:
+                case Types.DECIMAL:
+                    return BigDecimal.valueOf(valor);
+                case Types.BIGINT:
+                    return valor;
+                default:
+                    return (int) valor;
+            }
+        }
+
+        @Override
+        long bytes() {
+            return largos != null ? 16 + 8L * largos.length : 16 + 4L * valores.length;
+        }
+    }
+
+    private static final class ColunaDicionario extends Coluna {
+
+        private final Map<String, Integer> codigos = new HashMap<String, Integer>();
+        private String[] distintos = new String[16];
+        private int quantidadeDistintos;
+        private int[] valores = new int[CAPACIDADE_INICIAL];
+
+        private ColunaDicionario(int indice) {
+            super(indice);
+        }
+
+        @Override
+        void ler(ResultSet consulta, int linha) throws SQLException {
+            if (linha >= valores.length) {
+                valores = Arrays.copyOf(valores, crescer(valores.length, linha));
+            }
+            String bruto = consulta.getString(indice);
+            if (bruto == null) {
+                valores[linha] = -1;
+                return;
+            }
+            Integer codigo = codigos.get(bruto);
+            if (codigo == null) {
+                codigo = quantidadeDistintos;
+                if (quantidadeDistintos == distintos.length) {
+                    distintos = Arrays.copyOf(distintos, quantidadeDistintos * 2);
+                }
+                distintos[quantidadeDistintos++] = bruto.trim();
+                codigos.put(bruto, codigo);
+            }
+            valores[linha] = codigo;
+        }
+
+        @Override
+        void ajustar(int linhas) {
+            valores = Arrays.copyOf(valores, linhas);
+            distintos = Arrays.copyOf(distintos, quantidadeDistintos);
+            // o dicionário de entrada só serve durante a leitura
+            codigos.clear();
+        }
+
+        @Override
+        Object valor(int linha) {
+            int codigo = valores[linha];
+            return codigo < 0 ? null : distintos[codigo];
+        }
+
+        @Override
+        long bytes() {
+            long total = 16 + 4L * valores.length + 16 + 4L * distintos.length;
+            for (String valor : distintos) {
+                total += 40 + 2L * valor.length();
+            }
+            return total;
+        }
+    }
+
+    private static final class ColunaObjetos extends Coluna {
+
+        private final int tipo;
+        private Object[] valores = new Object[CAPACIDADE_INICIAL];
+
+        private ColunaObjetos(int indice, int tipo) {
+            super(indice);
+            this.tipo = tipo;
+        }
+
+        @Override
+        void ler(ResultSet consulta, int linha) throws SQLException {
+            if (linha >= valores.length) {
+                valores = Arrays.copyOf(valores, crescer(valores.length, linha));
+            }
+            valores[linha] = GuiMontarJTable.lerCelula(consulta, indice, tipo);
+        }
+
+        @Override
+        void ajustar(int linhas) {
+            valores = Arrays.copyOf(valores, linhas);
+        }
+
+        @Override
+        Object valor(int linha) {
+            return valores[linha];
+        }
+
+        @Override
+        long bytes() {
+            long total = 16 + 4L * valores.length;
+            for (Object valor : valores) {
+                total += valor instanceof String ? 40 + 2L * ((String) valor).length() : valor != null ? 24 : 0;
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,516 @@
+package combo.indice;
+
+import combo.bo.FonteTitulos;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Índice de títulos fora do heap para autocompletar.
+ *
+ * Os títulos ficam aparados, em UTF-8, num único ByteBuffer direto, um após o
+ * outro: [codigo: long][removido: byte][tamanho: short][bytes]. No heap ficam
+ * só dois vetores de deslocamentos, um ordenado por (título, código)
+ * (comparação de bytes sem sinal, que em UTF-8 equivale à ordem dos code
+ * points) e outro por código, sem nenhum String por título.
+ *
+ * O índice só cresce no fim do buffer: inclusões vão para um vetor de
+ * pendentes, ordenado e intercalado no vetor principal na próxima busca;
+ * alterar um título marca o registro antigo como removido e acrescenta o
+ * novo. O espaço dos removidos é recuperado quando passa da metade do buffer.
+ *
+ * A ordem é a dos bytes, não a da collation do banco: quem pagina com
+ * listaTitulos deve continuar no mesmo índice (ver FonteTitulos).
+ */
+public class IndiceTitulos implements FonteTitulos {
+
+    private static final int CABECALHO = 8 + 1 + 2;
+    private static final int CAPACIDADE_INICIAL = 1 << 20;
+
+    private ByteBuffer dados;
+    private int[] ordenados = new int[0];
+    private int[] pendentes = new int[64];
+    private int quantidadePendentes;
+    // deslocamentos dos registros vivos, em ordem de código se !desordenado
+    private int[] porCodigo = new int[64];
+    private int quantidade;
+    private boolean desordenado;
+    private long maiorCodigo = Long.MIN_VALUE;
+    private int bytesRemovidos;
+
+    public IndiceTitulos() {
+        this(CAPACIDADE_INICIAL);
+    }
+
+    public IndiceTitulos(int capacidadeBytes) {
+        this.dados = ByteBuffer.allocateDirect(capacidadeBytes);
+    }
+
+    /**
+     * inclui um título, ou troca o do código se ele já está no índice; o
+     * índice passa a enxergá-lo na próxima busca
+     *
+     * @param codigo livros.codigo
+     * @param titulo livros.titulo (o preenchimento à direita é descartado)
+     */
+    public synchronized void adicionar(long codigo, String titulo) {
+        byte[] bytes = aparar(titulo).getBytes(StandardCharsets.UTF_8);
+        this.adicionar(codigo, ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * idem, com o título já em UTF-8 (de position a limit), sem passar por
+     * String
+     *
+     * @param codigo
+     * @param titulo
+     */
+    public synchronized void adicionar(long codigo, ByteBuffer titulo) {
+        int i = quantidade;
+        if (codigo <= maiorCodigo) {
+            this.remover(codigo);
+            i = this.localizar(codigo);
+        }
+        int posicao = this.acrescentar(codigo, titulo);
+        if (quantidade == porCodigo.length) {
+            porCodigo = Arrays.copyOf(porCodigo, Math.max(porCodigo.length * 2, 64));
+        }
+        System.arraycopy(porCodigo, i, porCodigo, i + 1, quantidade - i);
+        porCodigo[i] = posicao;
+        quantidade++;
+        maiorCodigo = Math.max(maiorCodigo, codigo);
+    }
+
+    /**
+     * carga inicial: inclui sem procurar o código, que não pode estar no
+     * índice; os títulos podem vir em qualquer ordem, mas vindos em ordem de
+     * (título, código) dispensam a ordenação
+     *
+     * @param codigo
+     * @param titulo UTF-8, de position a limit
+     */
+    public synchronized void carregar(long codigo, ByteBuffer titulo) {
+        int posicao = this.acrescentar(codigo, titulo);
+        if (quantidade == porCodigo.length) {
+            porCodigo = Arrays.copyOf(porCodigo, Math.max(porCodigo.length * 2, 64));
+        }
+        porCodigo[quantidade++] = posicao;
+        desordenado |= codigo <= maiorCodigo;
+        maiorCodigo = Math.max(maiorCodigo, codigo);
+    }
+
+    /**
+     * grava o registro no fim do buffer e o põe entre os pendentes
+     *
+     * @return deslocamento do registro
+     */
+    private int acrescentar(long codigo, ByteBuffer titulo) {
+        int inicio = titulo.position();
+        int fim = titulo.limit();
+        // bytes de espaço e controle só ocorrem em UTF-8 como caracteres
+        // ASCII, nunca no meio de um caractere multibyte
+        while (fim > inicio && (titulo.get(fim - 1) & 0xff) <= ' ') {
+            fim--;
+        }
+        int tamanho = Math.min(fim - inicio, Short.MAX_VALUE);
+
+        this.garantirEspaco(CABECALHO + tamanho);
+        int posicao = dados.position();
+        dados.putLong(codigo);
+        dados.put((byte) 0);
+        dados.putShort((short) tamanho);
+        ByteBuffer origem = titulo.duplicate();
+        origem.limit(inicio + tamanho);
+        origem.position(inicio);
+        dados.put(origem);
+
+        if (quantidadePendentes == pendentes.length) {
+            pendentes = Arrays.copyOf(pendentes, pendentes.length * 2);
+        }
+        pendentes[quantidadePendentes++] = posicao;
+        return posicao;
+    }
+
+    /**
+     * tira o código do índice (livro excluído); código ausente não faz nada
+     *
+     * @param codigo
+     */
+    public synchronized void remover(long codigo) {
+        int i = this.localizar(codigo);
+        if (i == quantidade || dados.getLong(porCodigo[i]) != codigo) {
+            return;
+        }
+        int posicao = porCodigo[i];
+        dados.put(posicao + 8, (byte) 1);
+        bytesRemovidos += CABECALHO + dados.getShort(posicao + 9);
+        System.arraycopy(porCodigo, i + 1, porCodigo, i, quantidade - i - 1);
+        quantidade--;
+    }
+
+    /**
+     * primeira posição de porCodigo com código &gt;= codigo
+     */
+    private int localizar(long codigo) {
+        if (desordenado) {
+            this.ordenarCodigos();
+        }
+        int baixo = 0, alto = quantidade;
+        while (baixo < alto) {
+            int meio = (baixo + alto) >>> 1;
+            if (dados.getLong(porCodigo[meio]) < codigo) {
+                baixo = meio + 1;
+            } else {
+                alto = meio;
+            }
+        }
+        return baixo;
+    }
+
+    /**
+     * janela de títulos em ordem de (título, código), como
+     * DaoCombo.listaTitulos mas na ordem dos bytes e com os títulos aparados
+     *
+     * @param prefixo filtro pelo início do título, ou null
+     * @param aposTitulo último título já exibido (lido deste índice), ou null
+     * @param aposCodigo código do último título já exibido
+     * @param limite tamanho da janela
+     * @return pares {codigo, titulo}
+     */
+    @Override
+    public synchronized List<String[]> listaTitulos(String prefixo, String aposTitulo, long aposCodigo,
+            int limite) {
+        byte[] filtro = prefixo == null || prefixo.isEmpty() ? null : prefixo.getBytes(StandardCharsets.UTF_8);
+        this.consolidar();
+
+        int i = filtro == null ? 0 : this.limiteInferior(filtro);
+        if (aposTitulo != null) {
+            i = Math.max(i, this.limiteSuperior(aparar(aposTitulo).getBytes(StandardCharsets.UTF_8), aposCodigo));
+        }
+        List<String[]> titulos = new ArrayList<String[]>(Math.min(limite, 128));
+        for (; i < ordenados.length && titulos.size() < limite; i++) {
+            if (filtro != null && !this.comecaCom(ordenados[i], filtro)) {
+                break;
+            }
+            if (!this.isRemovido(ordenados[i])) {
+                titulos.add(new String[] { Long.toString(dados.getLong(ordenados[i])), this.titulo(ordenados[i]) });
+            }
+        }
+        return titulos;
+    }
+
+    /**
+     * @return códigos dos títulos que começam com o prefixo, em ordem alfabética
+     */
+    public synchronized long[] codigosPorPrefixo(String prefixo, int limite) {
+        byte[] chave = prefixo.getBytes(StandardCharsets.UTF_8);
+        this.consolidar();
+
+        long[] encontrados = new long[limite];
+        int n = 0;
+        for (int i = this.limiteInferior(chave); i < ordenados.length && n < limite; i++) {
+            if (!this.comecaCom(ordenados[i], chave)) {
+                break;
+            }
+            if (!this.isRemovido(ordenados[i])) {
+                encontrados[n++] = dados.getLong(ordenados[i]);
+            }
+        }
+        return Arrays.copyOf(encontrados, n);
+    }
+
+    /**
+     * @return títulos que começam com o prefixo, em ordem alfabética (só os
+     * resultados são decodificados)
+     */
+    public synchronized List<String> titulosPorPrefixo(String prefixo, int limite) {
+        byte[] chave = prefixo.getBytes(StandardCharsets.UTF_8);
+        this.consolidar();
+
+        List<String> titulos = new ArrayList<String>(Math.min(limite, 64));
+        for (int i = this.limiteInferior(chave); i < ordenados.length && titulos.size() < limite; i++) {
+            if (!this.comecaCom(ordenados[i], chave)) {
+                break;
+            }
+            if (!this.isRemovido(ordenados[i])) {
+                titulos.add(this.titulo(ordenados[i]));
+            }
+        }
+        return titulos;
+    }
+
+    /**
+     * @return códigos dos títulos no intervalo [de, ate), em ordem alfabética
+     */
+    public synchronized long[] codigosNoIntervalo(String de, String ate, int limite) {
+        byte[] inicio = de.getBytes(StandardCharsets.UTF_8);
+        byte[] fim = ate.getBytes(StandardCharsets.UTF_8);
+        this.consolidar();
+
+        long[] encontrados = new long[limite];
+        int n = 0;
+        for (int i = this.limiteInferior(inicio); i < ordenados.length && n < limite; i++) {
+            if (this.comparar(ordenados[i], fim) >= 0) {
+                break;
+            }
+            if (!this.isRemovido(ordenados[i])) {
+                encontrados[n++] = dados.getLong(ordenados[i]);
+            }
+        }
+        return Arrays.copyOf(encontrados, n);
+    }
+
+    public synchronized int getQuantidade() {
+        return quantidade;
+    }
+
+    public synchronized int getBytesUsados() {
+        return dados.position();
+    }
+
+    /**
+     * @return maior código já incluído (mesmo que removido depois)
+     */
+    public synchronized long getUltimoCodigo() {
+        return maiorCodigo;
+    }
+
+    /**
+     * ordena os pendentes e intercala com o vetor principal; com removidos
+     * demais, compacta
+     */
+    private void consolidar() {
+        if (quantidadePendentes > 0) {
+            int[] novos = this.ordenar(Arrays.copyOf(pendentes, quantidadePendentes), false);
+            int[] juntos = new int[ordenados.length + novos.length];
+            int i = 0, j = 0, k = 0;
+            while (i < ordenados.length && j < novos.length) {
+                juntos[k++] = this.comparar(ordenados[i], novos[j]) <= 0 ? ordenados[i++] : novos[j++];
+            }
+            while (i < ordenados.length) {
+                juntos[k++] = ordenados[i++];
+            }
+            while (j < novos.length) {
+                juntos[k++] = novos[j++];
+            }
+            ordenados = juntos;
+            quantidadePendentes = 0;
+            if (pendentes.length > 1024) {
+                pendentes = new int[64];
+            }
+        }
+        if (bytesRemovidos > dados.position() / 2) {
+            this.compactar();
+        }
+        // depois de uma carga, a primeira busca já deixa pronta a primeira alteração
+        if (desordenado) {
+            this.ordenarCodigos();
+        }
+    }
+
+    /**
+     * copia os registros vivos, na ordem dos títulos, para um buffer novo
+     */
+    private void compactar() {
+        ByteBuffer antigo = dados;
+        ByteBuffer novo = ByteBuffer.allocateDirect(Math.max(antigo.position() - bytesRemovidos, CAPACIDADE_INICIAL));
+        int[] vivos = new int[quantidade];
+        int n = 0;
+        for (int posicao : ordenados) {
+            if (antigo.get(posicao + 8) != 0) {
+                continue;
+            }
+            int tamanho = CABECALHO + antigo.getShort(posicao + 9);
+            ByteBuffer registro = antigo.duplicate();
+            registro.limit(posicao + tamanho);
+            registro.position(posicao);
+            vivos[n++] = novo.position();
+            // o buffer antigo vai embora: guarda no lugar do código para
+            // onde o registro foi, para refazer o vetor de códigos
+            novo.put(registro);
+            antigo.putInt(posicao, vivos[n - 1]);
+        }
+        for (int i = 0; i < quantidade; i++) {
+            porCodigo[i] = antigo.getInt(porCodigo[i]);
+        }
+        dados = novo;
+        ordenados = Arrays.copyOf(vivos, n);
+        bytesRemovidos = 0;
+    }
+
+    /**
+     * ordena o vetor por código (depois de uma carga em ordem de título)
+     */
+    private void ordenarCodigos() {
+        // códigos de 31 bits: código e deslocamento num long, ordenação primitiva
+        long[] pares = new long[quantidade];
+        for (int i = 0; i < quantidade; i++) {
+            long codigo = dados.getLong(porCodigo[i]);
+            if (codigo < 0 || codigo > Integer.MAX_VALUE) {
+                porCodigo = this.ordenar(Arrays.copyOf(porCodigo, quantidade), true);
+                desordenado = false;
+                return;
+            }
+            pares[i] = codigo << 32 | porCodigo[i];
+        }
+        Arrays.sort(pares);
+        for (int i = 0; i < quantidade; i++) {
+            porCodigo[i] = (int) pares[i];
+        }
+        desordenado = false;
+    }
+
+    /**
+     * @param porCodigo true ordena pelo código, false por (título, código)
+     */
+    private int[] ordenar(int[] posicoes, boolean porCodigo) {
+        // carga a partir de outra lista já ordenada: nada a fazer
+        boolean emOrdem = true;
+        for (int i = 1; i < posicoes.length && emOrdem; i++) {
+            emOrdem = this.comparar(posicoes[i - 1], posicoes[i], porCodigo) <= 0;
+        }
+        if (emOrdem) {
+            return posicoes;
+        }
+        // mergesort estável sobre os deslocamentos
+        int[] origem = posicoes;
+        int[] destino = new int[posicoes.length];
+        for (int largura = 1; largura < origem.length; largura *= 2) {
+            for (int inicio = 0; inicio < origem.length; inicio += 2 * largura) {
+                int meio = Math.min(inicio + largura, origem.length);
+                int fim = Math.min(inicio + 2 * largura, origem.length);
+                int a = inicio, b = meio, k = inicio;
+                while (a < meio && b < fim) {
+                    destino[k++] = this.comparar(origem[a], origem[b], porCodigo) <= 0 ? origem[a++] : origem[b++];
+                }
+                while (a < meio) {
+                    destino[k++] = origem[a++];
+                }
+                while (b < fim) {
+                    destino[k++] = origem[b++];
+                }
+            }
+            int[] troca = origem;
+            origem = destino;
+            destino = troca;
+        }
+        return origem;
+    }
+
+    /**
+     * primeira posição cujo título é &gt;= chave
+     */
+    private int limiteInferior(byte[] chave) {
+        int baixo = 0, alto = ordenados.length;
+        while (baixo < alto) {
+            int meio = (baixo + alto) >>> 1;
+            if (this.comparar(ordenados[meio], chave) < 0) {
+                baixo = meio + 1;
+            } else {
+                alto = meio;
+            }
+        }
+        return baixo;
+    }
+
+    /**
+     * primeira posição cujo (título, código) é &gt; (chave, codigo)
+     */
+    private int limiteSuperior(byte[] chave, long codigo) {
+        int baixo = 0, alto = ordenados.length;
+        while (baixo < alto) {
+            int meio = (baixo + alto) >>> 1;
+            int comparacao = this.comparar(ordenados[meio], chave);
+            if (comparacao < 0 || comparacao == 0 && dados.getLong(ordenados[meio]) <= codigo) {
+                baixo = meio + 1;
+            } else {
+                alto = meio;
+            }
+        }
+        return baixo;
+    }
+
+    private int comparar(int posicao, byte[] chave) {
+        int tamanho = dados.getShort(posicao + 9);
+        int base = posicao + CABECALHO;
+        int n = Math.min(tamanho, chave.length);
+        for (int i = 0; i < n; i++) {
+            int diferenca = (dados.get(base + i) & 0xff) - (chave[i] & 0xff);
+            if (diferenca != 0) {
+                return diferenca;
+            }
+        }
+        return tamanho - chave.length;
+    }
+
+    private int comparar(int posicaoA, int posicaoB) {
+        int tamanhoA = dados.getShort(posicaoA + 9);
+        int tamanhoB = dados.getShort(posicaoB + 9);
+        int n = Math.min(tamanhoA, tamanhoB);
+        for (int i = 0; i < n; i++) {
+            int diferenca = (dados.get(posicaoA + CABECALHO + i) & 0xff)
+                    - (dados.get(posicaoB + CABECALHO + i) & 0xff);
+            if (diferenca != 0) {
+                return diferenca;
+            }
+        }
+        if (tamanhoA != tamanhoB) {
+            return tamanhoA - tamanhoB;
+        }
+        return Long.compare(dados.getLong(posicaoA), dados.getLong(posicaoB));
+    }
+
+    private int comparar(int posicaoA, int posicaoB, boolean porCodigo) {
+        return porCodigo ? Long.compare(dados.getLong(posicaoA), dados.getLong(posicaoB))
+                : this.comparar(posicaoA, posicaoB);
+    }
+
+    private boolean comecaCom(int posicao, byte[] prefixo) {
+        int tamanho = dados.getShort(posicao + 9);
+        if (tamanho < prefixo.length) {
+            return false;
+        }
+        for (int i = 0; i < prefixo.length; i++) {
+            if (dados.get(posicao + CABECALHO + i) != prefixo[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isRemovido(int posicao) {
+        return dados.get(posicao + 8) != 0;
+    }
+
+    private String titulo(int posicao) {
+        byte[] bytes = new byte[dados.getShort(posicao + 9)];
+        ByteBuffer leitura = dados.duplicate();
+        leitura.position(posicao + CABECALHO);
+        leitura.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void garantirEspaco(int bytes) {
+        if (dados.remaining() >= bytes) {
+            return;
+        }
+        int capacidade = dados.capacity();
+        while (capacidade - dados.position() < bytes) {
+            capacidade *= 2;
+        }
+        ByteBuffer maior = ByteBuffer.allocateDirect(capacidade);
+        dados.flip();
+        maior.put(dados);
+        dados = maior;
+    }
+
+    private static String aparar(String titulo) {
+        int fim = titulo.length();
+        while (fim > 0 && titulo.charAt(fim - 1) <= ' ') {
+            fim--;
+        }
+        return titulo.substring(0, fim);
+    }
+}
@@ -0,0 +1,220 @@
+package combo.principal;
+
+import combo.bd.CanalAlteracoes;
+import combo.bd.ExecutorConsultas;
+import combo.bd.PoolConexoes;
+import combo.bo.BoCombo;
+import combo.bo.BoConexao;
+import combo.catalogo.CatalogoLocal;
+import combo.catalogo.InstantaneoCatalogo;
+import combo.dao.ConsultaDAO;
+import combo.dao.ModoContagem;
+import combo.gui.GuiCombo;
+import combo.gui.ModeloComboLivros;
+import combo.indice.IndiceTitulos;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+
+/**
+ * Partida da interface gráfica em fases que correm juntas, em vez de
+ * driver, conexão e tela uma depois da outra na thread main:
+ *
+ * <pre>
+ * main   catálogo local ─┬─ leitura antecipada do catálogo e índice de títulos
+ *                        ├─ driver ─ conexão ─┬─ canal de alterações
+ *                        │                    └─ primeira página (banco)
+ * EDT                    └─ tela
+ * </pre>
+ *
+ * A tela não espera o banco: o que ela mostra sai do catálogo local e, sem
+ * ele, as consultas esperam a conexão só quando são feitas (BoConexao). A
+ * primeira página é lida antes de ser pedida (contagem, detalhes e primeira
+ * janela do combo; do catálogo, se ele está em dia) para o primeiro clique
+ * não pagar a conexão fria.
+ *
+ * Ao final registra (INFO, combo.principal.Partida) quanto durou cada fase
+ * e quando a janela abriu.
+ */
+public class Partida {
+
+    private static final Logger LOG = Logger.getLogger(Partida.class.getName());
+
+    private final String tipoBanco;
+    private final BoConexao conexao;
+    private final long inicio = System.nanoTime();
+    private final List<String> fases = new ArrayList<String>();
+    private final ExecutorService executor = ExecutorConsultas.criarExecutor("partida", 3);
+    private final CompletableFuture<Long> janelaAberta = new CompletableFuture<Long>();
+
+    public Partida(String tipoBanco, BoConexao conexao) {
+        this.tipoBanco = tipoBanco;
+        this.conexao = conexao;
+    }
+
+    /**
+     * dispara as fases e devolve a tela pronta para setVisible (a conexão e
+     * as leituras seguem em segundo plano)
+     *
+     * @return
+     */
+    public GuiCombo iniciar() throws Exception {
+        // catálogo local: só abre o arquivo
+        this.medir("catálogo", () -> CatalogoLocal.abrir(tipoBanco));
+        CompletableFuture<Void> catalogo = CompletableFuture.runAsync(
+                () -> this.medir("leitura do catálogo", this::lerCatalogo), executor);
+
+        // driver e conexão
+        CompletableFuture<Void> conectado = CompletableFuture.runAsync(
+                () -> this.medir("driver", this::carregarDriver), executor)
+                .thenCompose(v -> {
+                    long comeco = System.nanoTime();
+                    return conexao.conectarEmSegundoPlano(tipoBanco, executor)
+                            .thenRun(() -> {
+                                this.registrar("conexão", comeco);
+                                System.out.println("conectou");
+                            });
+                });
+
+        // o que depende da conexão
+        CompletableFuture<Void> canal = conectado.thenRunAsync(
+                () -> this.medir("canal de alterações", this::escutarAlteracoes), executor);
+        CompletableFuture<Void> pagina = conectado.thenRunAsync(
+                () -> this.medir("primeira página", this::lerPrimeiraPagina), executor);
+        conectado.whenComplete((v, erro) -> {
+            if (erro != null) {
+                this.avisarFalha(erro);
+            }
+        });
+
+        // tela, na EDT, enquanto o resto corre
+        final AtomicReference<GuiCombo> gui = new AtomicReference<GuiCombo>();
+        long comeco = System.nanoTime();
+        SwingUtilities.invokeAndWait(() -> {
+            gui.set(new GuiCombo(true, conexao));
+            gui.get().addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowOpened(WindowEvent e) {
+                    janelaAberta.complete(System.nanoTime());
+                }
+            });
+        });
+        this.registrar("tela", comeco);
+
+        // registra os tempos quando tudo terminar (com ou sem banco)
+        CompletableFuture.allOf(catalogo, canal, pagina, janelaAberta)
+                .handle((v, erro) -> {
+                    this.relatar();
+                    executor.shutdown();
+                    return null;
+                });
+        return gui.get();
+    }
+
+    private void carregarDriver() {
+        try {
+            PoolConexoes.getPool(tipoBanco);
+        } catch (ClassNotFoundException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private void escutarAlteracoes() {
+        try {
+            // escuta as alterações feitas por outros clientes (PostgreSQL)
+            PoolConexoes pool = PoolConexoes.getPool(tipoBanco);
+            CanalAlteracoes.iniciar(pool);
+
+            // põe o catálogo local em dia em segundo plano
+            CatalogoLocal.sincronizar(pool);
+        } catch (ClassNotFoundException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * traz para a memória as páginas do arquivo que a tela lê primeiro e
+     * monta o índice de títulos do combo
+     */
+    private void lerCatalogo() {
+        InstantaneoCatalogo local = CatalogoLocal.getInstantaneo();
+        if (local == null) {
+            return;
+        }
+        try {
+            IndiceTitulos indice = CatalogoLocal.getIndiceTitulos();
+            if (indice != null) {
+                indice.listaTitulos(null, null, 0, ModeloComboLivros.TAMANHO_JANELA);
+            }
+            local.pesquisaDadosLivros(10).close();
+            local.getPagina(1, 10).close();
+        } catch (Exception e) {
+            LOG.log(Level.FINE, "leitura antecipada do catálogo", e);
+        }
+    }
+
+    /**
+     * sem catálogo em dia, lê do banco o que as telas pedem primeiro: a
+     * contagem de livros e os detalhes ficam nos caches (ContadorRegistros,
+     * CacheResultados) e a primeira janela do combo aquece os comandos
+     * preparados da conexão
+     */
+    private void lerPrimeiraPagina() {
+        if (CatalogoLocal.getInstantaneo() != null) {
+            return;
+        }
+        try {
+            new ConsultaDAO(PoolConexoes.getPool(tipoBanco)).getContagem(ModoContagem.CACHE);
+            BoCombo bo = new BoCombo(conexao);
+            bo.pesquisaDadosLivros().close();
+            bo.listaTitulos(null, null, 0, ModeloComboLivros.TAMANHO_JANELA);
+        } catch (Exception e) {
+            LOG.log(Level.FINE, "leitura antecipada da primeira página", e);
+        }
+    }
+
+    private void avisarFalha(Throwable erro) {
+        final Throwable causa = erro instanceof CompletionException && erro.getCause() != null
+                ? erro.getCause() : erro;
+        System.out.println(causa.toString());
+        SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(new javax.swing.JFrame(),
+                "Erro ao conectar no banco de dados!" + causa.toString(),
+                "Manipular tabelas do banco de dados!", JOptionPane.ERROR_MESSAGE));
+    }
+
+    private void medir(String fase, Runnable tarefa) {
+        long comeco = System.nanoTime();
+        try {
+            tarefa.run();
+        } finally {
+            this.registrar(fase, comeco);
+        }
+    }
+
+    private void registrar(String fase, long comeco) {
+        long fim = System.nanoTime();
+        synchronized (fases) {
+            fases.add(String.format("%s %d-%d ms", fase, (comeco - inicio) / 1000000, (fim - inicio) / 1000000));
+        }
+    }
+
+    private void relatar() {
+        StringBuilder texto = new StringBuilder("Partida: ");
+        if (janelaAberta.isDone() && !janelaAberta.isCompletedExceptionally()) {
+            texto.append("janela aberta em ").append((janelaAberta.join() - inicio) / 1000000).append(" ms; ");
+        }
+        synchronized (fases) {
+            texto.append(String.join(", ", fases));
+        }
+        LOG.info(texto.toString());
+    }
+}
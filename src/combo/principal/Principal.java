@@ -4,9 +4,21 @@
  */
 package combo.principal;
 
+import combo.bd.CanalAlteracoes;
+import combo.bd.PoolConexoes;
+import combo.bd.RoteadorConexoes;
+import combo.bo.BoCombo;
 import combo.bo.BoConexao;
+import combo.catalogo.CatalogoLocal;
+import combo.dao.ConsultaDAO;
+import combo.exportacao.Exportador;
+import combo.exportacao.Formato;
 import combo.gui.GuiCombo;
+import combo.servidor.ServidorConsultas;
+import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import javax.swing.JOptionPane;
 
 /**
@@ -23,24 +35,6 @@ public class Principal {
         this.conexao = new BoConexao();
     }
 
-    /**
-     * conectar
-     */
-    private void conectar(String tipoBanco) {
-        try {
-            // conectar
-            this.getConexao().conectar(tipoBanco);
-            System.out.println("conectou");
-
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(new javax.swing.JFrame(),
-                    "Erro ao conectar no banco de dados!"
-                            + ex.toString(),
-                    "Manipular tabelas do banco de dados!", JOptionPane.ERROR_MESSAGE);
-            System.out.println(ex.toString());
-        }
-    }
-
     /**
      * desconectar do banco de dados
      */
@@ -50,6 +44,12 @@ public class Principal {
             this.getConexao().desconectar();
             System.out.println("desconectou");
 
+            // fecha o catálogo local, o canal de alterações, as réplicas e as conexões físicas do pool
+            CatalogoLocal.fechar();
+            CanalAlteracoes.parar();
+            RoteadorConexoes.pararTodos();
+            PoolConexoes.fecharTodos();
+
         } catch (SQLException ex) {
             JOptionPane.showMessageDialog(new javax.swing.JFrame(),
                     "Erro ao desconectar no banco de dados!"
@@ -66,12 +66,9 @@ public class Principal {
      * *
      * controle de execucao
      */
-    public void executar(String tipoBanco) {
-        // conectar
-        this.conectar(tipoBanco);
-
-        // cria tela
-        this.gui = new GuiCombo(true, conexao);
+    public void executar(String tipoBanco) throws Exception {
+        // catálogo, conexão e tela em paralelo; o banco não segura a tela
+        this.gui = new Partida(tipoBanco, conexao).iniciar();
 
         // mostra tela
         this.gui.setVisible(true);
@@ -80,8 +77,106 @@ public class Principal {
         this.desconectar();
     }
 
+    /**
+     * modo sem tela: atende consultas por HTTP até o processo ser encerrado
+     */
+    public void servir(String tipoBanco, int porta) throws Exception {
+        // conectar (sem diálogo de erro: não há tela)
+        this.getConexao().conectar(tipoBanco);
+        CanalAlteracoes.iniciar(PoolConexoes.getPool(tipoBanco));
+
+        // cria servidor (cada requisição abre a sua sessão)
+        final ServidorConsultas servidor = new ServidorConsultas(tipoBanco,
+                new ConsultaDAO(PoolConexoes.getPool(tipoBanco)));
+        servidor.iniciar(porta);
+
+        // encerra com o processo (Ctrl+C)
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            servidor.parar(2);
+            CanalAlteracoes.parar();
+            try {
+                this.getConexao().desconectar();
+            } catch (SQLException ex) {
+                System.out.println(ex.toString());
+            }
+            RoteadorConexoes.pararTodos();
+            PoolConexoes.fecharTodos();
+        }, "encerrar-servidor"));
+    }
+
+    /**
+     * modo sem tela: grava uma consulta inteira num arquivo e termina
+     *
+     * @param tipoBanco
+     * @param consulta "livros" (codigo, titulo) ou "detalhes" (livrosdetalhe)
+     * @param arquivo
+     * @param formato
+     * @param gzip
+     */
+    public void exportar(String tipoBanco, String consulta, String arquivo, Formato formato, boolean gzip)
+            throws Exception {
+        this.getConexao().conectar(tipoBanco);
+        BoCombo bo = new BoCombo(this.getConexao());
+        long inicio = System.nanoTime();
+        try (Exportador exportador = new Exportador(Paths.get(arquivo), formato.criar(), gzip,
+                (linhas, bytes, concluido) -> System.out.print(String.format("\r%,d linhas, %,d KB%s",
+                        linhas, bytes / 1024, concluido ? System.lineSeparator() : "")))) {
+            if ("detalhes".equalsIgnoreCase(consulta)) {
+                bo.exportaDadosLivros(exportador);
+            } else {
+                bo.exportaLivros(exportador);
+            }
+            exportador.concluir();
+            long ms = (System.nanoTime() - inicio) / 1000000;
+            System.out.println(String.format("%s: %,d bytes em %d ms", arquivo, exportador.getBytesGravados(), ms));
+        } finally {
+            this.getConexao().desconectar();
+            RoteadorConexoes.pararTodos();
+            PoolConexoes.fecharTodos();
+        }
+    }
+
     // main
-    public static void main(String args[]) {
+    public static void main(String args[]) throws Exception {
+        // Principal server [postgresql|mysql] [porta]
+        if (args.length > 0 && "server".equalsIgnoreCase(args[0])) {
+            String tipoBanco = (args.length > 1) ? args[1] : "postgresql";
+            int porta = (args.length > 2) ? Integer.parseInt(args[2]) : ServidorConsultas.PORTA_PADRAO;
+            new Principal().servir(tipoBanco, porta);
+            return;
+        }
+
+        // Principal export [postgresql|mysql] livros|detalhes arquivo [csv|jsonl|colunar] [--gzip]
+        if (args.length > 0 && "export".equalsIgnoreCase(args[0])) {
+            String tipoBanco = "postgresql";
+            boolean gzip = false;
+            Formato formato = null;
+            List<String> posicionais = new ArrayList<String>();
+            for (int i = 1; i < args.length; i++) {
+                if ("--gzip".equals(args[i])) {
+                    gzip = true;
+                } else if (posicionais.isEmpty() && (args[i].equals("postgresql") || args[i].equals("mysql"))) {
+                    tipoBanco = args[i];
+                } else if (posicionais.size() == 2 && Formato.para(args[i]) != null) {
+                    formato = Formato.para(args[i]);
+                } else {
+                    posicionais.add(args[i]);
+                }
+            }
+            if (posicionais.size() != 2) {
+                System.err.println("uso: export [postgresql|mysql] livros|detalhes arquivo [csv|jsonl|colunar] [--gzip]");
+                System.exit(2);
+            }
+            String arquivo = posicionais.get(1);
+            // formato e compressão deduzidos do nome (livros.csv.gz)
+            gzip |= arquivo.endsWith(".gz");
+            if (formato == null) {
+                formato = Formato.doArquivo(arquivo);
+            }
+            new Principal().exportar(tipoBanco, posicionais.get(0), arquivo, formato == null ? Formato.CSV : formato, gzip);
+            return;
+        }
+
         String tipoBanco = (args.length > 0) ? args[0] : "postgresql";
         Principal p = new Principal();
         p.executar(tipoBanco);
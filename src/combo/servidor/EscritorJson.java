@@ -0,0 +1,151 @@
+package combo.servidor;
+
+import combo.bd.ProcessadorLinha;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Escreve resultados em JSON direto no Writer da resposta, linha a linha,
+ * sem montar o documento em memória. Também serve de ProcessadorLinha para
+ * consultas em streaming: iniciar, uma chamada de processar por linha e
+ * terminar.
+ */
+public class EscritorJson implements ProcessadorLinha {
+
+    private static final char[] HEXA = "0123456789abcdef".toCharArray();
+
+    private final Writer saida;
+    // rótulos já escapados e entre aspas, seguidos de ':'
+    private String[] nomes;
+    private int linhas;
+
+    public EscritorJson(Writer saida) {
+        this.saida = saida;
+    }
+
+    /**
+     * escreve o ResultSet como vetor de objetos (rótulo da coluna: valor)
+     *
+     * @param rs posicionado antes da primeira linha; não é fechado
+     * @return quantidade de linhas escritas
+     */
+    public int escreverLinhas(ResultSet rs) throws SQLException, IOException {
+        this.iniciar(rs.getMetaData());
+        while (rs.next()) {
+            this.processar(rs);
+        }
+        return this.terminar();
+    }
+
+    /**
+     * abre o vetor; um erro de escrita chega como SQLException com a
+     * IOException por causa
+     */
+    @Override
+    public void iniciar(ResultSetMetaData meta) throws SQLException {
+        int numColunas = meta.getColumnCount();
+        nomes = new String[numColunas];
+        for (int j = 0; j < numColunas; j++) {
+            StringBuilder nome = new StringBuilder();
+            escapar(meta.getColumnLabel(j + 1), nome);
+            nomes[j] = nome.append(':').toString();
+        }
+        linhas = 0;
+        try {
+            saida.write('[');
+        } catch (IOException e) {
+            throw new SQLException("Erro ao escrever a resposta", e);
+        }
+    }
+
+    @Override
+    public void processar(ResultSet rs) throws SQLException {
+        try {
+            saida.write(linhas++ == 0 ? "{" : ",{");
+            for (int j = 0; j < nomes.length; j++) {
+                if (j > 0) {
+                    saida.write(',');
+                }
+                saida.write(nomes[j]);
+                this.escreverValor(rs.getObject(j + 1));
+            }
+            saida.write('}');
+        } catch (IOException e) {
+            throw new SQLException("Erro ao escrever a resposta", e);
+        }
+    }
+
+    /**
+     * fecha o vetor
+     *
+     * @return quantidade de linhas escritas
+     */
+    public int terminar() throws IOException {
+        saida.write(']');
+        return linhas;
+    }
+
+    public void escreverValor(Object valor) throws IOException {
+        if (valor == null) {
+            saida.write("null");
+        } else if (valor instanceof BigDecimal) {
+            saida.write(((BigDecimal) valor).toPlainString());
+        } else if (valor instanceof Number || valor instanceof Boolean) {
+            saida.write(valor.toString());
+        } else {
+            StringBuilder texto = new StringBuilder();
+            escapar(apararDireita(valor.toString()), texto);
+            saida.write(texto.toString());
+        }
+    }
+
+    /**
+     * acrescenta o texto entre aspas, escapado
+     */
+    public static void escapar(String texto, StringBuilder destino) {
+        destino.append('"');
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            switch (c) {
+                case '"':
+                    destino.append("\\\"");
+                    break;
+                case '\\':
+                    destino.append("\\\\");
+                    break;
+                case '\n':
+                    destino.append("\\n");
+                    break;
+                case '\r':
+                    destino.append("\\r");
+                    break;
+                case '\t':
+                    destino.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        destino.append("\\u").append(HEXA[c >> 12 & 0xf]).append(HEXA[c >> 8 & 0xf])
+                                .append(HEXA[c >> 4 & 0xf]).append(HEXA[c & 0xf]);
+                    } else {
+                        destino.append(c);
+                    }
+            }
+        }
+        destino.append('"');
+    }
+
+    /**
+     * campos CHAR vêm completados com espaços
+     */
+    private static String apararDireita(String texto) {
+        int fim = texto.length();
+        while (fim > 0 && texto.charAt(fim - 1) == ' ') {
+            fim--;
+        }
+        return fim == texto.length() ? texto : texto.substring(0, fim);
+    }
+}
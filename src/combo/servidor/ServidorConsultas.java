@@ -0,0 +1,421 @@
+package combo.servidor;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import combo.bd.CanalAlteracoes;
+import combo.bd.ExecutorConsultas;
+import combo.bd.MonitorEscritas;
+import combo.bd.ProcessadorLinha;
+import combo.bo.BoCombo;
+import combo.bo.BoConexao;
+import combo.dao.ConsultaDAO;
+import combo.dao.Contagem;
+import combo.dao.ModoContagem;
+import combo.dao.ProjecaoLivros;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serviço HTTP sem tela (Principal server) sobre o HttpServer do JDK, com uma
+ * thread virtual por requisição (JDK 21+; pool fixo nos demais).
+ *
+ * Endpoints (GET, JSON):
+ * <pre>
+ * /livros                      códigos e títulos, em ordem de código (BoCombo.listaLivrosApos)
+ * /livros/detalhes             detalhes dos primeiros livros (BoCombo.pesquisaDadosLivros)
+ * /livros/{codigo}/detalhes    autores e edições de um livro
+ * /paginas?apos=C&amp;limite=N     página por chave (codigo &gt; C)
+ * /paginas?pagina=P&amp;limite=N   página por número
+ * /contagem                    total de livros
+ * </pre>
+ *
+ * Cada requisição lê na sua própria sessão (BoConexao: uma conexão do pool,
+ * com as leituras pelo roteador de réplicas), devolvida ao fim da resposta;
+ * as páginas usam as conexões de leitura do ConsultaDAO.
+ *
+ * As linhas são escritas na resposta à medida que são lidas (corpo em
+ * blocos), com gzip se o cliente aceitar; /livros vem de um cursor em
+ * streaming, sem passar pelo cache de resultados. O ETag é a versão das tabelas lidas
+ * no MonitorEscritas (que o CanalAlteracoes mantém em dia com as escritas de
+ * outros clientes): If-None-Match igual responde 304 sem consultar o banco.
+ * Sem o canal escutando (MySQL, ou PostgreSQL com o canal caído) as versões
+ * não veem as escritas de outros clientes, então não há ETag nem 304.
+ */
+public class ServidorConsultas {
+
+    public static final int PORTA_PADRAO = 8080;
+    public static final int LIMITE_MAXIMO = 1000;
+    private static final int LIMITE_PADRAO = 50;
+    private static final int FILA_CONEXOES = 4096;
+    private static final int TAMANHO_BUFFER = 16 * 1024;
+    private static final Logger LOG = Logger.getLogger(ServidorConsultas.class.getName());
+    /** distingue ETags de execuções diferentes (as versões recomeçam do zero) */
+    private static final String EPOCA = Long.toString(System.currentTimeMillis(), 36);
+
+    private final String tipoBanco;
+    private final ConsultaDAO dao;
+    private HttpServer servidor;
+    private ExecutorService executor;
+
+    /**
+     * @param tipoBanco "mysql" ou "postgresql": banco das sessões das requisições
+     * @param dao consultas de páginas e contagem
+     */
+    public ServidorConsultas(String tipoBanco, ConsultaDAO dao) {
+        this.tipoBanco = tipoBanco;
+        this.dao = dao;
+    }
+
+    /**
+     * abre a porta e começa a atender
+     *
+     * @param porta
+     * @throws IOException
+     */
+    public synchronized void iniciar(int porta) throws IOException {
+        servidor = HttpServer.create(new InetSocketAddress(porta), FILA_CONEXOES);
+        executor = ExecutorConsultas.criarExecutor("http",
+                Math.max(16, 4 * Runtime.getRuntime().availableProcessors()));
+        servidor.setExecutor(executor);
+        servidor.createContext("/livros", this::livros);
+        servidor.createContext("/paginas", this::paginas);
+        servidor.createContext("/contagem", this::contagem);
+        servidor.start();
+        LOG.info("Servidor de consultas em http://localhost:" + servidor.getAddress().getPort() + "/");
+    }
+
+    /**
+     * para de aceitar requisições, esperando até segundos pelas em andamento
+     */
+    public synchronized void parar(int segundos) {
+        if (servidor == null) {
+            return;
+        }
+        servidor.stop(segundos);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(segundos, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        servidor = null;
+    }
+
+    public synchronized int getPorta() {
+        return servidor == null ? -1 : servidor.getAddress().getPort();
+    }
+
+    private void livros(HttpExchange troca) throws IOException {
+        String[] partes = troca.getRequestURI().getPath().split("/");
+        // "", "livros", ...
+        if (partes.length == 2) {
+            this.responder(troca, new String[] { "livros" },
+                    destino -> this.naSessao(bo -> bo.listaLivrosApos(Long.MIN_VALUE, destino)));
+        } else if (partes.length == 3 && "detalhes".equals(partes[2])) {
+            this.responder(troca, new String[] { ProjecaoLivros.TABELA },
+                    destino -> this.naSessao(bo -> entregar(bo.pesquisaDadosLivros(), destino)));
+        } else if (partes.length == 4 && "detalhes".equals(partes[3])) {
+            final long codigo;
+            try {
+                codigo = Long.parseLong(partes[2]);
+            } catch (NumberFormatException e) {
+                this.erro(troca, 400, "Código inválido: " + partes[2]);
+                return;
+            }
+            this.responder(troca, new String[] { ProjecaoLivros.TABELA },
+                    destino -> this.naSessao(bo -> entregar(bo.pesquisaDadosLivro(codigo), destino)));
+        } else {
+            this.erro(troca, 404, "Não encontrado: " + troca.getRequestURI().getPath());
+        }
+    }
+
+    private void paginas(HttpExchange troca) throws IOException {
+        Map<String, String> parametros = parametros(troca.getRequestURI());
+        final int limite;
+        final long apos;
+        final int pagina;
+        try {
+            limite = Math.min(inteiro(parametros, "limite", LIMITE_PADRAO), LIMITE_MAXIMO);
+            apos = parametros.containsKey("apos") ? Long.parseLong(parametros.get("apos")) : Long.MIN_VALUE;
+            pagina = inteiro(parametros, "pagina", 1);
+            if (limite < 1 || pagina < 1) {
+                throw new NumberFormatException("limite e pagina devem ser positivos");
+            }
+            // o deslocamento da página é um int no ConsultaDAO
+            if ((long) (pagina - 1) * limite > Integer.MAX_VALUE) {
+                throw new NumberFormatException("pagina além do fim: " + pagina);
+            }
+        } catch (NumberFormatException e) {
+            this.erro(troca, 400, "Parâmetro inválido: " + e.getMessage());
+            return;
+        }
+
+        if (parametros.containsKey("apos")) {
+            this.responder(troca, new String[] { "livros" },
+                    destino -> entregar(dao.getPaginaApos(apos, limite), destino));
+        } else {
+            this.responder(troca, new String[] { "livros" },
+                    destino -> entregar(dao.getDadosPaginadosAsResultSet((pagina - 1) * limite, limite), destino));
+        }
+    }
+
+    private void contagem(HttpExchange troca) throws IOException {
+        if (!this.aceitar(troca, new String[] { "livros" })) {
+            return;
+        }
+        Contagem contagem;
+        try {
+            contagem = dao.getContagem(ModoContagem.CACHE);
+        } catch (RuntimeException e) {
+            this.falha(troca, e);
+            return;
+        }
+        try (Writer saida = this.abrirCorpo(troca)) {
+            saida.write("{\"livros\":" + contagem.getValor() + ",\"exata\":" + contagem.isExata() + "}");
+        }
+    }
+
+    /**
+     * executa a leitura e envia as linhas, ou 304 se o cliente já as tem
+     */
+    private void responder(HttpExchange troca, String[] tabelas, Leitura leitura) throws IOException {
+        if (!this.aceitar(troca, tabelas)) {
+            return;
+        }
+
+        Resposta resposta = new Resposta(troca);
+        try {
+            leitura.ler(resposta);
+            resposta.concluir();
+        } catch (Exception e) {
+            if (!resposta.isAberta()) {
+                this.falha(troca, e);
+                return;
+            }
+            // cabeçalhos já enviados: o erro só interrompe o corpo
+            LOG.log(Level.WARNING, "Resposta interrompida: " + troca.getRequestURI(), e);
+            resposta.interromper();
+        }
+    }
+
+    /**
+     * executa numa sessão só desta requisição, devolvida ao pool no fim
+     */
+    private void naSessao(UsoSessao uso) throws Exception {
+        BoConexao sessao = new BoConexao();
+        sessao.conectar(tipoBanco);
+        try {
+            uso.usar(new BoCombo(sessao));
+        } finally {
+            sessao.desconectar();
+        }
+    }
+
+    /**
+     * entrega as linhas de um resultado já executado e o fecha
+     */
+    private static void entregar(ResultSet rs, ProcessadorLinha destino) throws SQLException {
+        try {
+            destino.iniciar(rs.getMetaData());
+            while (rs.next()) {
+                destino.processar(rs);
+            }
+        } finally {
+            fechar(rs);
+        }
+    }
+
+    /**
+     * confere método e ETag (só com o canal de alterações escutando);
+     * prepara os cabeçalhos comuns
+     *
+     * @return false se a resposta já foi dada (405 ou 304)
+     */
+    private boolean aceitar(HttpExchange troca, String[] tabelas) throws IOException {
+        if (!"GET".equals(troca.getRequestMethod())) {
+            troca.getResponseHeaders().set("Allow", "GET");
+            this.erro(troca, 405, "Método não permitido: " + troca.getRequestMethod());
+            return false;
+        }
+
+        Headers cabecalhos = troca.getResponseHeaders();
+        cabecalhos.set("Cache-Control", "no-cache");
+        cabecalhos.set("Vary", "Accept-Encoding");
+        if (!CanalAlteracoes.isEscutando()) {
+            // versões sem as escritas de outros clientes: toda requisição lê
+            return true;
+        }
+
+        boolean gzip = aceitaGzip(troca.getRequestHeaders());
+        StringBuilder etag = new StringBuilder("\"").append(EPOCA);
+        for (String tabela : tabelas) {
+            etag.append('-').append(MonitorEscritas.getVersao(tabela));
+        }
+        etag.append('-').append(Integer.toHexString(troca.getRequestURI().toString().hashCode()));
+        etag.append(gzip ? "-gz\"" : "\"");
+
+        cabecalhos.set("ETag", etag.toString());
+
+        String informado = troca.getRequestHeaders().getFirst("If-None-Match");
+        if (informado != null && (informado.equals(etag.toString()) || informado.trim().equals("*"))) {
+            troca.sendResponseHeaders(304, -1);
+            troca.close();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * envia 200 com corpo em blocos (tamanho desconhecido), comprimido se aceito
+     */
+    private Writer abrirCorpo(HttpExchange troca) throws IOException {
+        Headers cabecalhos = troca.getResponseHeaders();
+        cabecalhos.set("Content-Type", "application/json; charset=utf-8");
+        boolean gzip = aceitaGzip(troca.getRequestHeaders());
+        if (gzip) {
+            cabecalhos.set("Content-Encoding", "gzip");
+        }
+        troca.sendResponseHeaders(200, 0);
+
+        OutputStream corpo = troca.getResponseBody();
+        if (gzip) {
+            corpo = new GZIPOutputStream(corpo, TAMANHO_BUFFER);
+        }
+        // fechar o Writer termina o corpo e a troca
+        return new BufferedWriter(new OutputStreamWriter(corpo, StandardCharsets.UTF_8), TAMANHO_BUFFER);
+    }
+
+    private void falha(HttpExchange troca, Throwable erro) throws IOException {
+        LOG.log(Level.SEVERE, "Erro em " + troca.getRequestURI(), erro);
+        this.erro(troca, 500, erro.getMessage() == null ? erro.toString() : erro.getMessage());
+    }
+
+    private void erro(HttpExchange troca, int status, String mensagem) throws IOException {
+        StringBuilder json = new StringBuilder("{\"erro\":");
+        EscritorJson.escapar(mensagem, json);
+        byte[] corpo = json.append('}').toString().getBytes(StandardCharsets.UTF_8);
+
+        troca.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        troca.sendResponseHeaders(status, corpo.length);
+        try (OutputStream saida = troca.getResponseBody()) {
+            saida.write(corpo);
+        }
+    }
+
+    private static boolean aceitaGzip(Headers cabecalhos) {
+        String aceitos = cabecalhos.getFirst("Accept-Encoding");
+        return aceitos != null && aceitos.toLowerCase().contains("gzip");
+    }
+
+    private static Map<String, String> parametros(URI uri) {
+        Map<String, String> parametros = new HashMap<String, String>();
+        String consulta = uri.getQuery();
+        if (consulta == null) {
+            return parametros;
+        }
+        for (String par : consulta.split("&")) {
+            int igual = par.indexOf('=');
+            if (igual > 0) {
+                parametros.put(par.substring(0, igual), par.substring(igual + 1));
+            }
+        }
+        return parametros;
+    }
+
+    private static int inteiro(Map<String, String> parametros, String nome, int padrao) {
+        String valor = parametros.get(nome);
+        return valor == null ? padrao : Integer.parseInt(valor);
+    }
+
+    private static void fechar(ResultSet rs) {
+        try {
+            rs.close();
+        } catch (SQLException e) {
+            LOG.log(Level.FINE, null, e);
+        }
+    }
+
+    /**
+     * lê as linhas da resposta e as entrega ao destino
+     */
+    private interface Leitura {
+
+        void ler(ProcessadorLinha destino) throws Exception;
+    }
+
+    private interface UsoSessao {
+
+        void usar(BoCombo bo) throws Exception;
+    }
+
+    /**
+     * corpo JSON aberto só quando a consulta devolve as colunas: até lá um
+     * erro ainda pode virar 500
+     */
+    private final class Resposta implements ProcessadorLinha {
+
+        private final HttpExchange troca;
+        private Writer saida;
+        private EscritorJson json;
+
+        private Resposta(HttpExchange troca) {
+            this.troca = troca;
+        }
+
+        @Override
+        public void iniciar(ResultSetMetaData meta) throws SQLException {
+            try {
+                saida = ServidorConsultas.this.abrirCorpo(troca);
+            } catch (IOException e) {
+                throw new SQLException("Erro ao abrir a resposta", e);
+            }
+            json = new EscritorJson(saida);
+            json.iniciar(meta);
+        }
+
+        @Override
+        public void processar(ResultSet rs) throws SQLException {
+            json.processar(rs);
+        }
+
+        private boolean isAberta() {
+            return saida != null;
+        }
+
+        /**
+         * fecha o vetor e termina o corpo
+         */
+        private void concluir() throws IOException {
+            if (saida == null) {
+                throw new IOException("Consulta sem resultado");
+            }
+            json.terminar();
+            saida.close();
+        }
+
+        private void interromper() {
+            try {
+                saida.close();
+            } catch (IOException e) {
+                LOG.log(Level.FINE, null, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package combo.vo;
+
+public class VoConfiguracaoPool {
+
+    private int minimoOcioso = 2;
+    private int maximo = 10;
+    private long esperaMaximaMs = 5000;
+    private long vidaMaximaMs = 30 * 60 * 1000;
+    private long ociosoMaximoMs = 10 * 60 * 1000;
+    private long intervaloValidacaoMs = 500;
+    private int timeoutValidacaoSegundos = 2;
+    private long intervaloManutencaoMs = 30 * 1000;
+    private int statementsPorConexao = 64;
+    private int limiarPreparoServidor = 1;
+
+    public VoConfiguracaoPool(int minimoOcioso, int maximo, long esperaMaximaMs,
+            long vidaMaximaMs) {
+        this.minimoOcioso = minimoOcioso;
+        this.maximo = maximo;
+        this.esperaMaximaMs = esperaMaximaMs;
+        this.vidaMaximaMs = vidaMaximaMs;
+    }
+
+    public VoConfiguracaoPool() {
+        super();
+    }
+
+    @Override
+    public String toString() {
+        return "VO_ConfiguracaoPool [minimoOcioso=" + minimoOcioso + ", maximo=" + maximo +
+                ", esperaMaximaMs=" + esperaMaximaMs + ", vidaMaximaMs=" + vidaMaximaMs +
+                ", ociosoMaximoMs=" + ociosoMaximoMs + ", intervaloValidacaoMs=" + intervaloValidacaoMs +
+                ", statementsPorConexao=" + statementsPorConexao + ", limiarPreparoServidor=" + limiarPreparoServidor + "]";
+    }
+
+    public int getMinimoOcioso() {
+        return minimoOcioso;
+    }
+
+    public void setMinimoOcioso(int minimoOcioso) {
+        this.minimoOcioso = minimoOcioso;
+    }
+
+    public int getMaximo() {
+        return maximo;
+    }
+
+    public void setMaximo(int maximo) {
+        this.maximo = maximo;
+    }
+
+    public long getEsperaMaximaMs() {
+        return esperaMaximaMs;
+    }
+
+    public void setEsperaMaximaMs(long esperaMaximaMs) {
+        this.esperaMaximaMs = esperaMaximaMs;
+    }
+
+    public long getVidaMaximaMs() {
+        return vidaMaximaMs;
+    }
+
+    public void setVidaMaximaMs(long vidaMaximaMs) {
+        this.vidaMaximaMs = vidaMaximaMs;
+    }
+
+    public long getOciosoMaximoMs() {
+        return ociosoMaximoMs;
+    }
+
+    public void setOciosoMaximoMs(long ociosoMaximoMs) {
+        this.ociosoMaximoMs = ociosoMaximoMs;
+    }
+
+    public long getIntervaloValidacaoMs() {
+        return intervaloValidacaoMs;
+    }
+
+    public void setIntervaloValidacaoMs(long intervaloValidacaoMs) {
+        this.intervaloValidacaoMs = intervaloValidacaoMs;
+    }
+
+    public int getTimeoutValidacaoSegundos() {
+        return timeoutValidacaoSegundos;
+    }
+
+    public void setTimeoutValidacaoSegundos(int timeoutValidacaoSegundos) {
+        this.timeoutValidacaoSegundos = timeoutValidacaoSegundos;
+    }
+
+    public long getIntervaloManutencaoMs() {
+        return intervaloManutencaoMs;
+    }
+
+    public void setIntervaloManutencaoMs(long intervaloManutencaoMs) {
+        this.intervaloManutencaoMs = intervaloManutencaoMs;
+    }
+
+    public int getStatementsPorConexao() {
+        return statementsPorConexao;
+    }
+
+    public void setStatementsPorConexao(int statementsPorConexao) {
+        this.statementsPorConexao = statementsPorConexao;
+    }
+
+    public int getLimiarPreparoServidor() {
+        return limiarPreparoServidor;
+    }
+
+    /**
+     * @param limiarPreparoServidor execuções de um statement do cache antes de
+     * o PostgreSQL guardar o plano no servidor (prepareThreshold do pgjdbc)
+     */
+    public void setLimiarPreparoServidor(int limiarPreparoServidor) {
+        this.limiarPreparoServidor = limiarPreparoServidor;
+    }
+}